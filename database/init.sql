@@ -4,41 +4,76 @@
 -- Use the hissab_db database
 USE hissab_db;
 
+-- Interned expressions and non-numeric results, referenced by id from trace
+-- Binary NO PAD collation, so texts differing only in case or trailing spaces stay distinct
+CREATE TABLE IF NOT EXISTS trace_text (
+    id INT UNSIGNED AUTO_INCREMENT PRIMARY KEY,
+    text VARCHAR(255) CHARACTER SET utf8mb4 COLLATE utf8mb4_0900_bin NOT NULL,
+    UNIQUE KEY uk_text (text)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4;
+
 -- Create the trace table for logging mathematical expressions and results
+-- Partitioned by month on timestamp by migrations/001_partition_trace_by_month.sql, which needs
+-- timestamp in the primary and unique keys
+-- source: 0 = manual, 1 = OCR, 2 = evaluated on a client (see TraceSource)
+-- A numeric result is stored in result_value, anything else in trace_text via result_text_id
 CREATE TABLE IF NOT EXISTS trace (
-    id BIGINT AUTO_INCREMENT PRIMARY KEY,
-    expression VARCHAR(255) NOT NULL,
-    result VARCHAR(255) NOT NULL,
+    id BIGINT AUTO_INCREMENT,
+    source TINYINT UNSIGNED NOT NULL DEFAULT 0,
+    expression_id INT UNSIGNED NOT NULL,
+    result_value DOUBLE NULL,
+    result_text_id INT UNSIGNED NULL,
     timestamp DATETIME NOT NULL DEFAULT CURRENT_TIMESTAMP,
-    INDEX idx_expression (expression),
-    INDEX idx_timestamp (timestamp)
+    client_key CHAR(36) NULL,
+    PRIMARY KEY (id, timestamp),
+    -- Covering: listings read every column but client_key from the index, in timestamp order
+    INDEX idx_timestamp_covering (timestamp, id, source, expression_id, result_value, result_text_id),
+    INDEX idx_source_timestamp_covering (source, timestamp, id, expression_id, result_value, result_text_id),
+    INDEX idx_expression_timestamp (expression_id, timestamp),
+    UNIQUE KEY uk_client_key (client_key, timestamp)
 ) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4 COLLATE=utf8mb4_unicode_ci;
 
 -- Insert some sample data for testing
-INSERT INTO trace (expression, result, timestamp) VALUES
-('2+2', '4', NOW() - INTERVAL 1 HOUR),
-('5*3', '15', NOW() - INTERVAL 30 MINUTE),
-('10-3', '7', NOW() - INTERVAL 15 MINUTE),
-('[OCR] 2+3', '5', NOW() - INTERVAL 5 MINUTE);
+INSERT INTO trace_text (id, text) VALUES
+(1, '2+2'),
+(2, '5*3'),
+(3, '10-3'),
+(4, '2+3');
+
+INSERT INTO trace (source, expression_id, result_value, timestamp) VALUES
+(0, 1, 4, NOW() - INTERVAL 1 HOUR),
+(0, 2, 15, NOW() - INTERVAL 30 MINUTE),
+(0, 3, 7, NOW() - INTERVAL 15 MINUTE),
+(1, 4, 5, NOW() - INTERVAL 5 MINUTE);
 
--- Create a view for recent calculations
+-- Create a view for recent calculations, with the texts and results spelled out
+-- (whole numbers are shown without a fraction, as CalculEJB prints them)
 CREATE OR REPLACE VIEW recent_calculations AS
 SELECT 
-    id,
-    expression,
-    result,
-    timestamp,
-    CASE 
-        WHEN expression LIKE '[OCR]%' THEN 'OCR'
+    t.id,
+    e.text AS expression,
+    COALESCE(r.text,
+             IF(t.result_value = FLOOR(t.result_value),
+                CAST(CAST(t.result_value AS SIGNED) AS CHAR),
+                CAST(t.result_value AS CHAR))) AS result,
+    t.timestamp,
+    CASE t.source
+        WHEN 1 THEN 'OCR'
+        WHEN 2 THEN 'Client'
         ELSE 'Manual'
     END as input_type
-FROM trace 
-ORDER BY timestamp DESC 
+FROM trace t
+JOIN trace_text e ON e.id = t.expression_id
+LEFT JOIN trace_text r ON r.id = t.result_text_id
+ORDER BY t.timestamp DESC 
 LIMIT 100;
 
 -- Grant necessary permissions
 GRANT SELECT, INSERT, UPDATE, DELETE ON trace TO 'hissab_user'@'%';
+GRANT SELECT, INSERT, UPDATE ON trace_text TO 'hissab_user'@'%';
 GRANT SELECT ON recent_calculations TO 'hissab_user'@'%';
+-- Lets TraceReplicaEJB read SHOW REPLICA STATUS
+GRANT REPLICATION CLIENT ON *.* TO 'hissab_user'@'%';
 
 -- Show table structure
 DESCRIBE trace;
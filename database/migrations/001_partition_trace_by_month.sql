@@ -0,0 +1,73 @@
+-- HISSAB Migration 001: partition the trace table by month on timestamp
+--
+-- Retention (TraceRetentionEJB) then drops whole expired months instead of deleting
+-- rows, and queries bounded by timestamp only read the partitions they need.
+-- MySQL requires the partitioning column in every unique key, so the primary key
+-- becomes (id, timestamp) and the client key is unique together with timestamp.
+--
+-- The ALTER rebuilds the table: run it in a quiet period, or with pt-online-schema-change
+-- on a large table. Safe to run again; it does nothing once the table is partitioned.
+-- Partitions cover every month from the oldest trace to three months ahead, plus a
+-- catch-all pmax that TraceRetentionEJB keeps splitting as time goes on.
+
+USE hissab_db;
+
+DROP PROCEDURE IF EXISTS hissab_partition_trace;
+
+DELIMITER //
+
+CREATE PROCEDURE hissab_partition_trace()
+BEGIN
+    DECLARE month_start DATE;
+    DECLARE last_month DATE;
+    DECLARE partitions TEXT DEFAULT '';
+    DECLARE client_key_index VARCHAR(64) DEFAULT NULL;
+
+    IF (SELECT COUNT(*) FROM information_schema.PARTITIONS
+        WHERE TABLE_SCHEMA = DATABASE() AND TABLE_NAME = 'trace' AND PARTITION_NAME IS NOT NULL) = 0 THEN
+
+        -- Added by the application since; older schemas may not have it yet
+        IF (SELECT COUNT(*) FROM information_schema.COLUMNS
+            WHERE TABLE_SCHEMA = DATABASE() AND TABLE_NAME = 'trace' AND COLUMN_NAME = 'client_key') = 0 THEN
+            ALTER TABLE trace ADD COLUMN client_key CHAR(36) NULL;
+        END IF;
+
+        -- Whatever unique key exists on client_key is replaced by one including timestamp
+        SELECT INDEX_NAME INTO client_key_index FROM information_schema.STATISTICS
+         WHERE TABLE_SCHEMA = DATABASE() AND TABLE_NAME = 'trace' AND COLUMN_NAME = 'client_key' AND NON_UNIQUE = 0
+         LIMIT 1;
+        IF client_key_index IS NOT NULL THEN
+            SET @drop_index = CONCAT('ALTER TABLE trace DROP INDEX `', client_key_index, '`');
+            PREPARE statement FROM @drop_index;
+            EXECUTE statement;
+            DEALLOCATE PREPARE statement;
+        END IF;
+
+        SET month_start = DATE_FORMAT(COALESCE((SELECT MIN(timestamp) FROM trace), CURDATE()), '%Y-%m-01');
+        SET last_month = DATE_FORMAT(CURDATE() + INTERVAL 3 MONTH, '%Y-%m-01');
+        WHILE month_start <= last_month DO
+            SET partitions = CONCAT(partitions, 'PARTITION p', DATE_FORMAT(month_start, '%Y%m'),
+                                    ' VALUES LESS THAN (TO_DAYS(''', month_start + INTERVAL 1 MONTH, ''')), ');
+            SET month_start = month_start + INTERVAL 1 MONTH;
+        END WHILE;
+
+        SET @partition_trace = CONCAT(
+            'ALTER TABLE trace DROP PRIMARY KEY, ADD PRIMARY KEY (id, timestamp), ',
+            'ADD UNIQUE KEY uk_client_key (client_key, timestamp) ',
+            'PARTITION BY RANGE (TO_DAYS(timestamp)) (', partitions, 'PARTITION pmax VALUES LESS THAN MAXVALUE)');
+        PREPARE statement FROM @partition_trace;
+        EXECUTE statement;
+        DEALLOCATE PREPARE statement;
+    END IF;
+END //
+
+DELIMITER ;
+
+CALL hissab_partition_trace();
+DROP PROCEDURE hissab_partition_trace;
+
+-- Show the partitions
+SELECT PARTITION_NAME, PARTITION_DESCRIPTION, TABLE_ROWS
+  FROM information_schema.PARTITIONS
+ WHERE TABLE_SCHEMA = DATABASE() AND TABLE_NAME = 'trace'
+ ORDER BY PARTITION_ORDINAL_POSITION;
@@ -0,0 +1,134 @@
+-- HISSAB Migration 002: normalize the trace table
+--
+-- Replaces the two VARCHAR(255) columns expression and result with:
+--   source          TINYINT, 0 = manual, 1 = OCR, 2 = client (was an "[OCR] " prefix on expression)
+--   expression_id   id of the expression in trace_text, where each distinct text is stored once
+--   result_value    the result when it is a number, stored as a DOUBLE
+--   result_text_id  id of the result in trace_text otherwise (error messages)
+-- and adds idx_source_timestamp, so filtering by source no longer scans every expression with LIKE.
+--
+-- Existing rows are converted in chunks of 10000 ids, each committed on its own, so the
+-- table stays writable while they run; the new columns are filled in before the old ones
+-- are dropped. Only results the migration can prove will print back identically are
+-- stored as numbers (integers, and decimals between 0.001 and 10^7 with up to 13 digits);
+-- other results go to trace_text unchanged.
+--
+-- Stop the application while it runs: a trace inserted by an older build would lack the
+-- new columns. Dropping the old columns rebuilds the table; take a backup first.
+-- Safe to run again; it only recreates the view once trace has no expression column.
+
+USE hissab_db;
+
+CREATE TABLE IF NOT EXISTS trace_text (
+    id INT UNSIGNED AUTO_INCREMENT PRIMARY KEY,
+    text VARCHAR(255) CHARACTER SET utf8mb4 COLLATE utf8mb4_0900_bin NOT NULL,
+    UNIQUE KEY uk_text (text)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4;
+
+DROP PROCEDURE IF EXISTS hissab_normalize_trace;
+
+DELIMITER //
+
+CREATE PROCEDURE hissab_normalize_trace()
+BEGIN
+    DECLARE first_id BIGINT;
+    DECLARE last_id BIGINT;
+    DECLARE chunk_start BIGINT;
+    DECLARE chunk_size BIGINT DEFAULT 10000;
+
+    IF (SELECT COUNT(*) FROM information_schema.COLUMNS
+        WHERE TABLE_SCHEMA = DATABASE() AND TABLE_NAME = 'trace' AND COLUMN_NAME = 'expression') > 0 THEN
+
+        IF (SELECT COUNT(*) FROM information_schema.COLUMNS
+            WHERE TABLE_SCHEMA = DATABASE() AND TABLE_NAME = 'trace' AND COLUMN_NAME = 'expression_id') = 0 THEN
+            ALTER TABLE trace
+                ADD COLUMN source TINYINT UNSIGNED NOT NULL DEFAULT 0,
+                ADD COLUMN expression_id INT UNSIGNED NULL,
+                ADD COLUMN result_value DOUBLE NULL,
+                ADD COLUMN result_text_id INT UNSIGNED NULL;
+        END IF;
+
+        SELECT MIN(id), MAX(id) INTO first_id, last_id FROM trace;
+        SET chunk_start = first_id;
+        WHILE chunk_start <= last_id DO
+            -- The staging table holds each row's normalized values for this chunk
+            DROP TEMPORARY TABLE IF EXISTS trace_chunk;
+            CREATE TEMPORARY TABLE trace_chunk AS
+            SELECT id,
+                   timestamp,
+                   IF(expression LIKE '[OCR]%', 1, 0) AS source,
+                   CONVERT(IF(expression LIKE '[OCR]%', TRIM(SUBSTRING(expression, 6)), expression)
+                           USING utf8mb4) COLLATE utf8mb4_0900_bin AS expression_text,
+                   CONVERT(result USING utf8mb4) COLLATE utf8mb4_0900_bin AS result_text,
+                   (result REGEXP '^(0|-?[1-9][0-9]{0,8})$'
+                    OR (result REGEXP '^-?(0|[1-9][0-9]{0,6})\\.[0-9]{0,5}[1-9]$'
+                        AND ABS(CAST(result AS DOUBLE)) >= 0.001)) AS numeric_result
+              FROM trace
+             WHERE id >= chunk_start AND id < chunk_start + chunk_size AND expression_id IS NULL;
+
+            INSERT IGNORE INTO trace_text (text)
+            SELECT DISTINCT expression_text FROM trace_chunk;
+            INSERT IGNORE INTO trace_text (text)
+            SELECT DISTINCT result_text FROM trace_chunk WHERE NOT numeric_result;
+
+            UPDATE trace t
+              JOIN trace_chunk c ON c.id = t.id AND c.timestamp = t.timestamp
+              JOIN trace_text e ON e.text = c.expression_text
+              LEFT JOIN trace_text r ON r.text = c.result_text AND NOT c.numeric_result
+               SET t.source = c.source,
+                   t.expression_id = e.id,
+                   t.result_value = IF(c.numeric_result, CAST(c.result_text AS DOUBLE), NULL),
+                   t.result_text_id = r.id;
+
+            SET chunk_start = chunk_start + chunk_size;
+        END WHILE;
+        DROP TEMPORARY TABLE IF EXISTS trace_chunk;
+
+        IF (SELECT COUNT(*) FROM trace WHERE expression_id IS NULL) > 0 THEN
+            SIGNAL SQLSTATE '45000' SET MESSAGE_TEXT = 'Some traces were not converted; old columns kept';
+        END IF;
+
+        -- The old expression index goes with its column
+        IF (SELECT COUNT(*) FROM information_schema.STATISTICS
+            WHERE TABLE_SCHEMA = DATABASE() AND TABLE_NAME = 'trace' AND INDEX_NAME = 'idx_expression') > 0 THEN
+            ALTER TABLE trace DROP INDEX idx_expression;
+        END IF;
+        ALTER TABLE trace
+            MODIFY COLUMN expression_id INT UNSIGNED NOT NULL,
+            DROP COLUMN expression,
+            DROP COLUMN result,
+            ADD INDEX idx_expression_id (expression_id),
+            ADD INDEX idx_source_timestamp (source, timestamp);
+    END IF;
+END //
+
+DELIMITER ;
+
+CALL hissab_normalize_trace();
+DROP PROCEDURE hissab_normalize_trace;
+
+CREATE OR REPLACE VIEW recent_calculations AS
+SELECT
+    t.id,
+    e.text AS expression,
+    COALESCE(r.text,
+             IF(t.result_value = FLOOR(t.result_value),
+                CAST(CAST(t.result_value AS SIGNED) AS CHAR),
+                CAST(t.result_value AS CHAR))) AS result,
+    t.timestamp,
+    CASE t.source
+        WHEN 1 THEN 'OCR'
+        WHEN 2 THEN 'Client'
+        ELSE 'Manual'
+    END as input_type
+FROM trace t
+JOIN trace_text e ON e.id = t.expression_id
+LEFT JOIN trace_text r ON r.id = t.result_text_id
+ORDER BY t.timestamp DESC
+LIMIT 100;
+
+GRANT SELECT, INSERT, UPDATE ON trace_text TO 'hissab_user'@'%';
+
+-- Show the new layout and the size of the dictionary
+DESCRIBE trace;
+SELECT COUNT(*) AS interned_texts FROM trace_text;
@@ -0,0 +1,74 @@
+-- HISSAB Migration 003: covering indexes for the trace listings
+--
+-- TraceEJB lists traces newest first, optionally filtered by source, and reads every
+-- column except client_key. With single-column indexes, each listed row cost a lookup
+-- in the clustered index. These indexes hold all of those columns, in the order the
+-- listings read them, so the listings neither sort nor look up rows:
+--   idx_timestamp_covering         getRecentTraces, getAllTraces, scanTraces, archival, retention
+--   idx_source_timestamp_covering  getRecentTracesBySource
+--   idx_expression_timestamp       traces of one expression, newest first
+-- They replace idx_timestamp, idx_source_timestamp and idx_expression_id, which are
+-- prefixes of them. TraceQueryPlanEJB checks the resulting plans after each deploy.
+--
+-- Indexes are built online (ALGORITHM=INPLACE, LOCK=NONE): traces can be logged while it runs.
+-- Safe to run again.
+
+USE hissab_db;
+
+DROP PROCEDURE IF EXISTS hissab_trace_covering_indexes;
+
+DELIMITER //
+
+CREATE PROCEDURE hissab_trace_covering_indexes()
+BEGIN
+    DECLARE changes TEXT DEFAULT '';
+
+    IF (SELECT COUNT(*) FROM information_schema.STATISTICS
+        WHERE TABLE_SCHEMA = DATABASE() AND TABLE_NAME = 'trace' AND INDEX_NAME = 'idx_timestamp_covering') = 0 THEN
+        SET changes = CONCAT(changes, 'ADD INDEX idx_timestamp_covering ',
+                             '(timestamp, id, source, expression_id, result_value, result_text_id), ');
+    END IF;
+    IF (SELECT COUNT(*) FROM information_schema.STATISTICS
+        WHERE TABLE_SCHEMA = DATABASE() AND TABLE_NAME = 'trace' AND INDEX_NAME = 'idx_source_timestamp_covering') = 0 THEN
+        SET changes = CONCAT(changes, 'ADD INDEX idx_source_timestamp_covering ',
+                             '(source, timestamp, id, expression_id, result_value, result_text_id), ');
+    END IF;
+    IF (SELECT COUNT(*) FROM information_schema.STATISTICS
+        WHERE TABLE_SCHEMA = DATABASE() AND TABLE_NAME = 'trace' AND INDEX_NAME = 'idx_expression_timestamp') = 0 THEN
+        SET changes = CONCAT(changes, 'ADD INDEX idx_expression_timestamp (expression_id, timestamp), ');
+    END IF;
+
+    -- The indexes these supersede
+    IF (SELECT COUNT(*) FROM information_schema.STATISTICS
+        WHERE TABLE_SCHEMA = DATABASE() AND TABLE_NAME = 'trace' AND INDEX_NAME = 'idx_timestamp') > 0 THEN
+        SET changes = CONCAT(changes, 'DROP INDEX idx_timestamp, ');
+    END IF;
+    IF (SELECT COUNT(*) FROM information_schema.STATISTICS
+        WHERE TABLE_SCHEMA = DATABASE() AND TABLE_NAME = 'trace' AND INDEX_NAME = 'idx_source_timestamp') > 0 THEN
+        SET changes = CONCAT(changes, 'DROP INDEX idx_source_timestamp, ');
+    END IF;
+    IF (SELECT COUNT(*) FROM information_schema.STATISTICS
+        WHERE TABLE_SCHEMA = DATABASE() AND TABLE_NAME = 'trace' AND INDEX_NAME = 'idx_expression_id') > 0 THEN
+        SET changes = CONCAT(changes, 'DROP INDEX idx_expression_id, ');
+    END IF;
+
+    IF changes <> '' THEN
+        SET @alter_trace = CONCAT('ALTER TABLE trace ', changes, 'ALGORITHM=INPLACE, LOCK=NONE');
+        PREPARE statement FROM @alter_trace;
+        EXECUTE statement;
+        DEALLOCATE PREPARE statement;
+    END IF;
+END //
+
+DELIMITER ;
+
+CALL hissab_trace_covering_indexes();
+DROP PROCEDURE hissab_trace_covering_indexes;
+
+ANALYZE TABLE trace;
+
+-- Show the indexes
+SELECT INDEX_NAME, GROUP_CONCAT(COLUMN_NAME ORDER BY SEQ_IN_INDEX) AS columns
+  FROM information_schema.STATISTICS
+ WHERE TABLE_SCHEMA = DATABASE() AND TABLE_NAME = 'trace'
+ GROUP BY INDEX_NAME;
@@ -0,0 +1,15 @@
+-- HISSAB read replica: replicate everything from the primary (the mysql service)
+--
+-- Run once when the replica's data directory is created. With GTID auto-positioning the
+-- replica fetches the primary's whole history, so it gets the schema, hissab_user and
+-- the traces without a dump. Replication resumes by itself when the container restarts.
+
+CHANGE REPLICATION SOURCE TO
+    SOURCE_HOST = 'mysql',
+    SOURCE_PORT = 3306,
+    SOURCE_USER = 'root',
+    SOURCE_PASSWORD = 'root_password',
+    SOURCE_AUTO_POSITION = 1,
+    GET_SOURCE_PUBLIC_KEY = 1;
+
+START REPLICA;
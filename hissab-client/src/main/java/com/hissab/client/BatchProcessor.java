@@ -0,0 +1,452 @@
+package com.hissab.client;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Enumeration;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.logging.Logger;
+import java.util.logging.Level;
+
+/**
+ * Grades a folder or ZIP of worksheet images: read → OCR (with preprocessing and the
+ * result cache) → calculateFromString → CSV.
+ * Stages run on their own threads and hand work over bounded queues, so at most
+ * a few images per stage are held in memory no matter how large the input is,
+ * and each stage has its own concurrency limit.
+ */
+public class BatchProcessor {
+
+    private static final Logger logger = Logger.getLogger(BatchProcessor.class.getName());
+
+    public static final String OCR_THREADS_PROPERTY = "hissab.batch.ocrThreads";
+    public static final String CALCULATE_THREADS_PROPERTY = "hissab.batch.calculateThreads";
+
+    private static final String[] IMAGE_EXTENSIONS = {".png", ".jpg", ".jpeg", ".gif", ".bmp"};
+
+    // Items waiting per consumer thread; bounds memory to a few images per stage
+    private static final int QUEUE_SLOTS_PER_THREAD = 2;
+
+    private static final Item END = new Item(null, null);
+
+    // How often a stage waiting on a queue checks whether the batch has failed
+    private static final long HANDOFF_WAIT_MILLIS = 100;
+
+    /**
+     * Receives progress from the pipeline threads
+     */
+    public interface ProgressListener {
+        void progress(int completed, int failed, int total, double imagesPerSecond);
+    }
+
+    private final HissabServiceClient client;
+    private final int ocrThreads;
+    private final int calculateThreads;
+    private volatile boolean cancelled;
+
+    public BatchProcessor(HissabServiceClient client) {
+        this(client, Integer.getInteger(OCR_THREADS_PROPERTY, 4), Integer.getInteger(CALCULATE_THREADS_PROPERTY, 8));
+    }
+
+    public BatchProcessor(HissabServiceClient client, int ocrThreads, int calculateThreads) {
+        this.client = client;
+        this.ocrThreads = Math.max(1, ocrThreads);
+        this.calculateThreads = Math.max(1, calculateThreads);
+    }
+
+    /**
+     * Stops reading new images; images already in the pipeline are finished
+     */
+    public void cancel() {
+        cancelled = true;
+    }
+
+    /**
+     * Processes every image in a directory or ZIP file and writes one CSV row per image
+     * @return Summary of the run
+     */
+    public Summary process(File input, File csvOutput, ProgressListener listener) throws Exception {
+        long start = System.nanoTime();
+        AtomicInteger completed = new AtomicInteger();
+        AtomicInteger failed = new AtomicInteger();
+        AtomicReference<Exception> fatal = new AtomicReference<>();
+
+        try (ImageSource source = input.isDirectory() ? new DirectorySource(input.toPath()) : new ZipSource(input);
+             Writer csv = Files.newBufferedWriter(csvOutput.toPath(), StandardCharsets.UTF_8)) {
+            int total = source.size();
+            csv.write("file,expression,result,status,error,millis\n");
+            logger.log(Level.INFO, "Batch of " + total + " images from " + input + " (OCR threads: " + ocrThreads
+                       + ", calculate threads: " + calculateThreads + ")");
+
+            BlockingQueue<Item> toRecognize = new ArrayBlockingQueue<>(ocrThreads * QUEUE_SLOTS_PER_THREAD);
+            BlockingQueue<Item> toCalculate = new ArrayBlockingQueue<>(calculateThreads * QUEUE_SLOTS_PER_THREAD);
+            BlockingQueue<Item> toWrite = new ArrayBlockingQueue<>(calculateThreads * QUEUE_SLOTS_PER_THREAD);
+
+            Thread reader = stage("batch-read", () -> {
+                try {
+                    while (!cancelled && source.hasNext()) {
+                        send(toRecognize, source.next(), fatal);
+                    }
+                } finally {
+                    send(toRecognize, END, fatal);
+                }
+            }, fatal);
+
+            Thread[] recognizers = new Thread[ocrThreads];
+            AtomicInteger recognizersLeft = new AtomicInteger(ocrThreads);
+            for (int i = 0; i < ocrThreads; i++) {
+                recognizers[i] = stage("batch-ocr-" + i, () -> {
+                    try {
+                        for (Item item = next(toRecognize, fatal); item != END; item = next(toRecognize, fatal)) {
+                            if (item.error == null) {
+                                try {
+                                    item.expression = client.extractTextFromImage(item.imageData, item.name);
+                                } catch (Exception e) {
+                                    item.error = "OCR: " + e.getMessage();
+                                }
+                            }
+                            item.imageData = null; // release the image before it waits downstream
+                            send(toCalculate, item, fatal);
+                        }
+                        send(toRecognize, END, fatal); // let sibling recognizers see the end too
+                    } finally {
+                        // Also when this stage fails, or the calculators would wait forever
+                        if (recognizersLeft.decrementAndGet() == 0) {
+                            send(toCalculate, END, fatal);
+                        }
+                    }
+                }, fatal);
+            }
+
+            Thread[] calculators = new Thread[calculateThreads];
+            AtomicInteger calculatorsLeft = new AtomicInteger(calculateThreads);
+            for (int i = 0; i < calculateThreads; i++) {
+                calculators[i] = stage("batch-calculate-" + i, () -> {
+                    try {
+                        for (Item item = next(toCalculate, fatal); item != END; item = next(toCalculate, fatal)) {
+                            if (item.error == null) {
+                                try {
+                                    item.result = client.calculateFromString(item.expression);
+                                } catch (Exception e) {
+                                    item.error = "Calculate: " + e.getMessage();
+                                }
+                            }
+                            send(toWrite, item, fatal);
+                        }
+                        send(toCalculate, END, fatal);
+                    } finally {
+                        if (calculatorsLeft.decrementAndGet() == 0) {
+                            send(toWrite, END, fatal);
+                        }
+                    }
+                }, fatal);
+            }
+
+            // Results are written as they finish, on this thread
+            for (Item item = next(toWrite, fatal); item != END; item = next(toWrite, fatal)) {
+                writeRow(csv, item);
+                int done = completed.incrementAndGet();
+                if (item.error != null) {
+                    failed.incrementAndGet();
+                }
+                if (listener != null) {
+                    double seconds = (System.nanoTime() - start) / 1e9;
+                    listener.progress(done, failed.get(), total, done / Math.max(seconds, 1e-3));
+                }
+            }
+
+            reader.join();
+            for (Thread thread : recognizers) {
+                thread.join();
+            }
+            for (Thread thread : calculators) {
+                thread.join();
+            }
+            if (fatal.get() != null) {
+                throw fatal.get();
+            }
+
+            Summary summary = new Summary(total, completed.get(), failed.get(), (System.nanoTime() - start) / 1_000_000, cancelled);
+            logger.log(Level.INFO, "Batch finished: " + summary);
+            return summary;
+        }
+    }
+
+    /**
+     * Starts a pipeline stage thread; an unexpected failure is recorded and stops further reading
+     */
+    private Thread stage(String name, StageBody body, AtomicReference<Exception> fatal) {
+        Thread thread = new Thread(() -> {
+            try {
+                body.run();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (Exception | Error e) {
+                logger.log(Level.SEVERE, "Batch stage " + name + " failed", e);
+                fatal.compareAndSet(null, e instanceof Exception ? (Exception) e : new Exception(e));
+                cancelled = true;
+            }
+        }, name);
+        thread.setDaemon(true);
+        thread.start();
+        return thread;
+    }
+
+    /**
+     * Takes the next item, or END once the batch has failed and nothing more arrives, so no
+     * stage waits forever on a neighbour that died
+     */
+    private static Item next(BlockingQueue<Item> queue, AtomicReference<Exception> fatal) throws InterruptedException {
+        while (true) {
+            Item item = queue.poll(HANDOFF_WAIT_MILLIS, TimeUnit.MILLISECONDS);
+            if (item != null) {
+                return item;
+            }
+            if (fatal.get() != null) {
+                return END;
+            }
+        }
+    }
+
+    /**
+     * Hands an item to the next stage; gives up once the batch has failed and nobody takes it
+     */
+    private static void send(BlockingQueue<Item> queue, Item item, AtomicReference<Exception> fatal)
+            throws InterruptedException {
+        while (!queue.offer(item, HANDOFF_WAIT_MILLIS, TimeUnit.MILLISECONDS)) {
+            if (fatal.get() != null) {
+                return;
+            }
+        }
+    }
+
+    private static void writeRow(Writer csv, Item item) throws IOException {
+        csv.write(csvField(item.name));
+        csv.write(',');
+        csv.write(csvField(item.expression));
+        csv.write(',');
+        csv.write(csvField(item.result));
+        csv.write(',');
+        csv.write(item.error == null ? "OK" : "ERROR");
+        csv.write(',');
+        csv.write(csvField(item.error));
+        csv.write(',');
+        csv.write(String.valueOf(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - item.readAt)));
+        csv.write('\n');
+    }
+
+    private static String csvField(String value) {
+        if (value == null) {
+            return "";
+        }
+        if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0 && value.indexOf('\r') < 0) {
+            return value;
+        }
+        return '"' + value.replace("\"", "\"\"") + '"';
+    }
+
+    static boolean isImage(String name) {
+        String lower = name.toLowerCase();
+        for (String extension : IMAGE_EXTENSIONS) {
+            if (lower.endsWith(extension)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @FunctionalInterface
+    private interface StageBody {
+        void run() throws Exception;
+    }
+
+    /**
+     * One image moving through the pipeline
+     */
+    private static final class Item {
+        final String name;
+        final long readAt = System.nanoTime();
+        byte[] imageData;
+        String expression;
+        String result;
+        String error;
+
+        Item(String name, byte[] imageData) {
+            this.name = name;
+            this.imageData = imageData;
+        }
+    }
+
+    /**
+     * Images read one at a time, so only the names of a directory are ever listed
+     */
+    private interface ImageSource extends Closeable {
+        int size() throws IOException;
+
+        boolean hasNext();
+
+        Item next();
+    }
+
+    private static final class DirectorySource implements ImageSource {
+        private final Path directory;
+        private final DirectoryStream<Path> stream;
+        private final Iterator<Path> files;
+
+        DirectorySource(Path directory) throws IOException {
+            this.directory = directory;
+            this.stream = Files.newDirectoryStream(directory, path -> Files.isRegularFile(path)
+                                                                      && isImage(path.getFileName().toString()));
+            this.files = stream.iterator();
+        }
+
+        @Override
+        public int size() throws IOException {
+            int count = 0;
+            try (DirectoryStream<Path> counting = Files.newDirectoryStream(directory, path ->
+                    Files.isRegularFile(path) && isImage(path.getFileName().toString()))) {
+                for (Path ignored : counting) {
+                    count++;
+                }
+            }
+            return count;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return files.hasNext();
+        }
+
+        @Override
+        public Item next() {
+            Path file = files.next();
+            String name = file.getFileName().toString();
+            try {
+                return new Item(name, Files.readAllBytes(file));
+            } catch (IOException e) {
+                Item item = new Item(name, null);
+                item.error = "Read: " + e.getMessage();
+                return item;
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            stream.close();
+        }
+    }
+
+    private static final class ZipSource implements ImageSource {
+        private final ZipFile zip;
+        private final Enumeration<? extends ZipEntry> entries;
+        private ZipEntry pending;
+
+        ZipSource(File file) throws IOException {
+            this.zip = new ZipFile(file);
+            this.entries = zip.entries();
+            advance();
+        }
+
+        private void advance() {
+            pending = null;
+            while (entries.hasMoreElements()) {
+                ZipEntry entry = entries.nextElement();
+                if (!entry.isDirectory() && isImage(entry.getName())) {
+                    pending = entry;
+                    return;
+                }
+            }
+        }
+
+        @Override
+        public int size() {
+            int count = 0;
+            Enumeration<? extends ZipEntry> all = zip.entries();
+            while (all.hasMoreElements()) {
+                ZipEntry entry = all.nextElement();
+                if (!entry.isDirectory() && isImage(entry.getName())) {
+                    count++;
+                }
+            }
+            return count;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return pending != null;
+        }
+
+        @Override
+        public Item next() {
+            if (pending == null) {
+                throw new NoSuchElementException();
+            }
+            ZipEntry entry = pending;
+            advance();
+            try (InputStream in = zip.getInputStream(entry)) {
+                return new Item(entry.getName(), in.readAllBytes());
+            } catch (IOException e) {
+                Item item = new Item(entry.getName(), null);
+                item.error = "Read: " + e.getMessage();
+                return item;
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            zip.close();
+        }
+    }
+
+    /**
+     * Outcome of a batch run
+     */
+    public static final class Summary {
+        private final int total;
+        private final int processed;
+        private final int failed;
+        private final long elapsedMillis;
+        private final boolean cancelled;
+
+        Summary(int total, int processed, int failed, long elapsedMillis, boolean cancelled) {
+            this.total = total;
+            this.processed = processed;
+            this.failed = failed;
+            this.elapsedMillis = elapsedMillis;
+            this.cancelled = cancelled;
+        }
+
+        public int getProcessed() {
+            return processed;
+        }
+
+        public int getFailed() {
+            return failed;
+        }
+
+        public long getElapsedMillis() {
+            return elapsedMillis;
+        }
+
+        @Override
+        public String toString() {
+            return processed + " of " + total + " images (" + failed + " failed) in " + elapsedMillis / 1000.0 + " s, "
+                   + String.format("%.1f", processed * 1000.0 / Math.max(1, elapsedMillis)) + " images/s"
+                   + (cancelled ? " (cancelled)" : "");
+        }
+    }
+}
@@ -0,0 +1,161 @@
+package com.hissab.client;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Client of the server's binary calculation endpoint (/binary), for machine clients sending
+ * many calculations. A batch of expressions goes out as one request of BinaryFrames and
+ * the replies are matched back by id, so a batch costs one round trip and a few bytes of
+ * framing per expression instead of a SOAP envelope each. The HTTP client prefers HTTP/2,
+ * so batches sent concurrently with calculateAllAsync share one connection as separate
+ * streams. The endpoint is -Dhissab.binary.url.
+ */
+public class BinaryCalculationClient {
+
+    private static final Logger logger = Logger.getLogger(BinaryCalculationClient.class.getName());
+
+    public static final String URL_PROPERTY = "hissab.binary.url";
+    private static final String DEFAULT_URL = "http://localhost:8085/hissab/binary";
+    private static final Duration TIMEOUT = Duration.ofSeconds(30);
+
+    // Tells the server how long we will wait so it can drop work once we have given up
+    private static final String TIMEOUT_HEADER = "X-Request-Timeout";
+
+    private final URI endpoint;
+    private final HttpClient http;
+
+    public BinaryCalculationClient() {
+        this(URI.create(System.getProperty(URL_PROPERTY, DEFAULT_URL)));
+    }
+
+    public BinaryCalculationClient(URI endpoint) {
+        this.endpoint = endpoint;
+        this.http = HttpClient.newBuilder()
+            .version(HttpClient.Version.HTTP_2)
+            .connectTimeout(TIMEOUT)
+            .build();
+        logger.log(Level.INFO, "Initializing binary calculation client for endpoint: " + endpoint);
+    }
+
+    /**
+     * Calculates one expression
+     * @return The result, or "Error: ..." if the server could not answer it
+     */
+    public String calculate(String expression) throws IOException {
+        return calculateAll(Collections.singletonList(expression)).get(0);
+    }
+
+    /**
+     * Calculates a batch of expressions in one request
+     * @return The results in the order of the expressions; "Error: ..." for those that failed
+     */
+    public List<String> calculateAll(List<String> expressions) throws IOException {
+        return await(calculateAllAsync(expressions));
+    }
+
+    /**
+     * Sends a batch without waiting; batches in flight at the same time are pipelined
+     */
+    public CompletableFuture<List<String>> calculateAllAsync(List<String> expressions) {
+        return exchange(BinaryFrames.CALCULATE, expressions).thenApply(replies -> {
+            List<String> results = new ArrayList<>(expressions.size());
+            for (int id = 0; id < expressions.size(); id++) {
+                BinaryFrames.Frame reply = replies.get(id);
+                results.add(reply.getKind() == BinaryFrames.RESULT ? reply.getText() : "Error: " + reply.getText());
+            }
+            return results;
+        });
+    }
+
+    /**
+     * Checks whether an expression is valid
+     */
+    public boolean validate(String expression) throws IOException {
+        BinaryFrames.Frame reply = await(exchange(BinaryFrames.VALIDATE, Collections.singletonList(expression))).get(0);
+        if (reply.getKind() != BinaryFrames.VALIDITY || reply.getPayload().length != 1) {
+            throw new IOException("Validation failed: " + reply.getText());
+        }
+        return reply.getPayload()[0] == 1;
+    }
+
+    /**
+     * Sends one frame per payload, with the payload's index as id, and returns the replies by id
+     */
+    private CompletableFuture<Map<Integer, BinaryFrames.Frame>> exchange(byte kind, List<String> payloads) {
+        ByteArrayOutputStream body = new ByteArrayOutputStream(payloads.size() * 16);
+        try {
+            for (int id = 0; id < payloads.size(); id++) {
+                byte[] payload = payloads.get(id).getBytes(StandardCharsets.UTF_8);
+                // Kind and id take at most 6 bytes; the server rejects the whole request for a longer frame
+                if (payload.length > BinaryFrames.MAX_FRAME_LENGTH - 6) {
+                    return CompletableFuture.failedFuture(new IOException(
+                        "Expression " + id + " is longer than a frame allows"));
+                }
+                BinaryFrames.write(body, kind, id, payload);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        HttpRequest request = HttpRequest.newBuilder(endpoint)
+            .timeout(TIMEOUT)
+            .header("Content-Type", BinaryFrames.CONTENT_TYPE)
+            .header(TIMEOUT_HEADER, String.valueOf(TIMEOUT.toMillis()))
+            .POST(HttpRequest.BodyPublishers.ofByteArray(body.toByteArray()))
+            .build();
+        return http.sendAsync(request, HttpResponse.BodyHandlers.ofByteArray()).thenApply(response -> {
+            if (response.statusCode() != 200) {
+                throw new UncheckedIOException(new IOException(
+                    "Binary endpoint answered HTTP " + response.statusCode()));
+            }
+            Map<Integer, BinaryFrames.Frame> replies = new HashMap<>();
+            try (InputStream in = new ByteArrayInputStream(response.body())) {
+                BinaryFrames.Frame reply;
+                while ((reply = BinaryFrames.read(in)) != null) {
+                    replies.put(reply.getId(), reply);
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            if (replies.size() != payloads.size()) {
+                throw new UncheckedIOException(new IOException(
+                    "Expected " + payloads.size() + " replies, got " + replies.size()));
+            }
+            return replies;
+        });
+    }
+
+    private static <T> T await(CompletableFuture<T> future) throws IOException {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof UncheckedIOException) {
+                throw ((UncheckedIOException) cause).getCause();
+            }
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            throw e;
+        }
+    }
+}
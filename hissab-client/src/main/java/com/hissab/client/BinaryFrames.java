@@ -0,0 +1,151 @@
+package com.hissab.client;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Frames of the server's binary calculation endpoint (/binary), used by
+ * BinaryCalculationClient; the server has the same codec in com.hissab.service.BinaryFrames.
+ * A request or response body is a sequence of frames:
+ * <pre>
+ *   varint length of the rest | kind (1 byte) | varint id | payload
+ * </pre>
+ * Varints are unsigned LEB128, so a length or id below 128 takes one byte. The client
+ * chooses the ids and the reply to a frame carries its id.
+ * <pre>
+ *   CALCULATE  expression (UTF-8)  -&gt; RESULT    result (UTF-8)
+ *   VALIDATE   expression (UTF-8)  -&gt; VALIDITY  1 byte, 1 if valid
+ *   any frame that fails           -&gt; ERROR     message (UTF-8)
+ * </pre>
+ */
+public final class BinaryFrames {
+
+    public static final String CONTENT_TYPE = "application/x-hissab-frames";
+
+    // Longest frame accepted after the length prefix; expressions are short
+    public static final int MAX_FRAME_LENGTH = 8192;
+
+    public static final byte CALCULATE = 0x01;
+    public static final byte VALIDATE = 0x02;
+    public static final byte RESULT = (byte) 0x81;
+    public static final byte VALIDITY = (byte) 0x82;
+    public static final byte ERROR = (byte) 0x8F;
+
+    /**
+     * One decoded frame
+     */
+    public static final class Frame {
+        private final byte kind;
+        private final int id;
+        private final byte[] payload;
+
+        Frame(byte kind, int id, byte[] payload) {
+            this.kind = kind;
+            this.id = id;
+            this.payload = payload;
+        }
+
+        public byte getKind() {
+            return kind;
+        }
+
+        public int getId() {
+            return id;
+        }
+
+        public byte[] getPayload() {
+            return payload;
+        }
+
+        public String getText() {
+            return new String(payload, StandardCharsets.UTF_8);
+        }
+    }
+
+    private BinaryFrames() {
+    }
+
+    /**
+     * Reads the next frame
+     * @return The frame, or null if the stream ended between frames
+     * @throws IOException if the stream ends inside a frame or the frame is malformed
+     */
+    public static Frame read(InputStream in) throws IOException {
+        int first = in.read();
+        if (first < 0) {
+            return null;
+        }
+        long length = readVarint(in, first);
+        if (length < 2 || length > MAX_FRAME_LENGTH) {
+            throw new IOException("Invalid frame length: " + length);
+        }
+        byte[] frame = in.readNBytes((int) length);
+        if (frame.length < length) {
+            throw new EOFException("Stream ended inside a frame");
+        }
+
+        // The id's varint starts after the kind byte
+        int position = 1;
+        long id = 0;
+        for (int shift = 0; ; shift += 7) {
+            if (position >= frame.length || shift > 28) {
+                throw new IOException("Invalid frame id");
+            }
+            byte b = frame[position++];
+            id |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                break;
+            }
+        }
+        if (id > Integer.MAX_VALUE) {
+            throw new IOException("Invalid frame id: " + id);
+        }
+        byte[] payload = new byte[frame.length - position];
+        System.arraycopy(frame, position, payload, 0, payload.length);
+        return new Frame(frame[0], (int) id, payload);
+    }
+
+    public static void write(OutputStream out, byte kind, int id, String text) throws IOException {
+        write(out, kind, id, text.getBytes(StandardCharsets.UTF_8));
+    }
+
+    public static void write(OutputStream out, byte kind, int id, byte[] payload) throws IOException {
+        writeVarint(out, 1 + varintLength(id) + payload.length);
+        out.write(kind);
+        writeVarint(out, id);
+        out.write(payload);
+    }
+
+    private static long readVarint(InputStream in, int first) throws IOException {
+        long value = first & 0x7F;
+        int b = first;
+        for (int shift = 7; (b & 0x80) != 0; shift += 7) {
+            b = in.read();
+            if (b < 0 || shift > 28) {
+                throw new IOException("Invalid frame length");
+            }
+            value |= (long) (b & 0x7F) << shift;
+        }
+        return value;
+    }
+
+    private static void writeVarint(OutputStream out, int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            out.write((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    private static int varintLength(int value) {
+        int length = 1;
+        while ((value & ~0x7F) != 0) {
+            value >>>= 7;
+            length++;
+        }
+        return length;
+    }
+}
@@ -0,0 +1,88 @@
+package com.hissab.client;
+
+import java.util.logging.Logger;
+import java.util.logging.Level;
+
+/**
+ * Consecutive-failure circuit breaker for one OCR backend.
+ * CLOSED lets calls through; after {@code failureThreshold} failures in a row it OPENs
+ * and rejects calls for {@code openMillis}; then HALF_OPEN lets a single trial call
+ * through, whose outcome closes or re-opens the circuit.
+ */
+public class CircuitBreaker {
+
+    private static final Logger logger = Logger.getLogger(CircuitBreaker.class.getName());
+
+    public enum State { CLOSED, OPEN, HALF_OPEN }
+
+    private final String name;
+    private final int failureThreshold;
+    private final long openMillis;
+
+    private State state = State.CLOSED;
+    private int consecutiveFailures;
+    private long openedAt;
+    private boolean trialInFlight;
+    private int timesOpened;
+
+    public CircuitBreaker(String name, int failureThreshold, long openMillis) {
+        this.name = name;
+        this.failureThreshold = failureThreshold;
+        this.openMillis = openMillis;
+    }
+
+    /**
+     * Whether a call may be attempted now. In HALF_OPEN only the first caller gets true,
+     * and it must report back through {@link #recordSuccess()} or {@link #recordFailure()}.
+     */
+    public synchronized boolean allowRequest() {
+        if (state == State.OPEN && System.currentTimeMillis() - openedAt >= openMillis) {
+            state = State.HALF_OPEN;
+            trialInFlight = false;
+            logger.log(Level.INFO, "Circuit " + name + " half-open, allowing a trial request");
+        }
+        switch (state) {
+            case CLOSED:
+                return true;
+            case HALF_OPEN:
+                if (trialInFlight) {
+                    return false;
+                }
+                trialInFlight = true;
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    public synchronized void recordSuccess() {
+        if (state != State.CLOSED) {
+            logger.log(Level.INFO, "Circuit " + name + " closed");
+        }
+        state = State.CLOSED;
+        consecutiveFailures = 0;
+        trialInFlight = false;
+    }
+
+    public synchronized void recordFailure() {
+        consecutiveFailures++;
+        if (state == State.HALF_OPEN || consecutiveFailures >= failureThreshold) {
+            if (state != State.OPEN) {
+                timesOpened++;
+                logger.log(Level.WARNING, "Circuit " + name + " opened after " + consecutiveFailures
+                           + " consecutive failures; rejecting calls for " + openMillis + " ms");
+            }
+            state = State.OPEN;
+            openedAt = System.currentTimeMillis();
+            trialInFlight = false;
+        }
+    }
+
+    public synchronized State getState() {
+        return state;
+    }
+
+    public synchronized int getTimesOpened() {
+        return timesOpened;
+    }
+}
@@ -2,6 +2,8 @@ package com.hissab.client;
 
 import javax.swing.*;
 import javax.swing.border.TitledBorder;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
 import javax.swing.filechooser.FileNameExtensionFilter;
 import java.awt.*;
 import java.awt.event.ActionEvent;
@@ -17,17 +19,33 @@ public class HissabClientGUI extends JFrame {
     
     private static final Logger logger = Logger.getLogger(HissabClientGUI.class.getName());
     
+    
+    private static final Color PREVIEW_COLOR = new Color(0, 123, 255);
+    private static final int CONNECTION_MONITOR_MILLIS = 5000;
+    
     // GUI Components
     private JTextField expressionField;
     private JTextArea resultArea;
     private JButton calculateButton;
     private JButton ocrButton;
     private JButton clearButton;
+    private JButton batchButton;
+    private JProgressBar batchProgress;
+    private BatchProcessor runningBatch;
     private JLabel imageLabel;
     private JLabel statusLabel;
     private File selectedImageFile;
     private JPanel buttonPanel;
     
+    // Live preview: evaluated locally on every edit, with the server's grammar
+    private JCheckBox livePreviewBox;
+    private JLabel previewLabel;
+    private final IncrementalEvaluator previewEvaluator = new IncrementalEvaluator();
+    
+    // Connection state and journal size last shown in the status line
+    private boolean monitoredConnected;
+    private int monitoredPending;
+    
     // SOAP Client - will be initialized when web service stubs are generated
     private HissabServiceClient serviceClient;
     
@@ -87,17 +105,49 @@ public class HissabClientGUI extends JFrame {
         expressionField.setToolTipText("Enter a mathematical expression (e.g., 2+3*4, (5+3)/2) and press ENTER or click Calculate");
         // Add Enter key listener to trigger calculation
         expressionField.addActionListener(this::calculateExpression);
+        expressionField.getDocument().addDocumentListener(new DocumentListener() {
+            @Override
+            public void insertUpdate(DocumentEvent e) {
+                updatePreview();
+            }
+            
+            @Override
+            public void removeUpdate(DocumentEvent e) {
+                updatePreview();
+            }
+            
+            @Override
+            public void changedUpdate(DocumentEvent e) {
+                // Attribute changes only
+            }
+        });
         inputPanel.add(expressionField, gbc);
         
-        // Image selection
+        // Live preview
         gbc.gridx = 0; gbc.gridy = 1;
         gbc.fill = GridBagConstraints.NONE;
         gbc.weightx = 0;
-        inputPanel.add(new JLabel("Image File:"), gbc);
+        livePreviewBox = new JCheckBox("Live preview", true);
+        livePreviewBox.setToolTipText("Show the result while typing; ✓ once the server has confirmed it");
+        livePreviewBox.addActionListener(e -> updatePreview());
+        inputPanel.add(livePreviewBox, gbc);
         
         gbc.gridx = 1; gbc.gridy = 1;
         gbc.fill = GridBagConstraints.HORIZONTAL;
         gbc.weightx = 1.0;
+        previewLabel = new JLabel(" ");
+        previewLabel.setFont(new Font(Font.MONOSPACED, Font.BOLD, 14));
+        inputPanel.add(previewLabel, gbc);
+        
+        // Image selection
+        gbc.gridx = 0; gbc.gridy = 2;
+        gbc.fill = GridBagConstraints.NONE;
+        gbc.weightx = 0;
+        inputPanel.add(new JLabel("Image File:"), gbc);
+        
+        gbc.gridx = 1; gbc.gridy = 2;
+        gbc.fill = GridBagConstraints.HORIZONTAL;
+        gbc.weightx = 1.0;
         JPanel imagePanel = new JPanel(new FlowLayout(FlowLayout.LEFT));
         
         imageLabel = new JLabel("No image selected");
@@ -173,6 +223,17 @@ public class HissabClientGUI extends JFrame {
         clearButton.setBorderPainted(false);
         clearButton.addActionListener(this::clearResults);
         
+        // Batch Button - Purple
+        batchButton = new JButton("Batch Folder/ZIP...");
+        batchButton.setToolTipText("OCR and calculate every image in a folder or ZIP, results saved as CSV");
+        batchButton.setFont(new Font(Font.SANS_SERIF, Font.PLAIN, 12));
+        batchButton.setPreferredSize(new Dimension(160, 35));
+        batchButton.setBackground(new Color(111, 66, 193));
+        batchButton.setForeground(Color.WHITE);
+        batchButton.setFocusPainted(false);
+        batchButton.setBorderPainted(false);
+        batchButton.addActionListener(this::processBatch);
+        
         // Health Check Button - Success green
         JButton healthButton = new JButton("Health Check");
         healthButton.setToolTipText("Check if the web service is running");
@@ -186,6 +247,7 @@ public class HissabClientGUI extends JFrame {
         
         buttonPanel.add(calculateButton);
         buttonPanel.add(ocrButton);
+        buttonPanel.add(batchButton);
         buttonPanel.add(clearButton);
         buttonPanel.add(healthButton);
         
@@ -201,8 +263,14 @@ public class HissabClientGUI extends JFrame {
         statusLabel.setBorder(BorderFactory.createLoweredBevelBorder());
         statusLabel.setPreferredSize(new Dimension(0, 25));
         
+        batchProgress = new JProgressBar();
+        batchProgress.setStringPainted(true);
+        batchProgress.setPreferredSize(new Dimension(250, 25));
+        batchProgress.setVisible(false);
+        
         JPanel statusPanel = new JPanel(new BorderLayout());
         statusPanel.add(statusLabel, BorderLayout.CENTER);
+        statusPanel.add(batchProgress, BorderLayout.EAST);
         
         // Add status panel above the button panel
         JPanel bottomPanel = new JPanel(new BorderLayout());
@@ -218,23 +286,34 @@ public class HissabClientGUI extends JFrame {
     private void initializeServiceClient() {
         try {
             serviceClient = new HissabServiceClient();
-            updateStatus("✓ Connected to HISSAB service - Ready to calculate!");
             appendResult("=== WELCOME TO HISSAB CALCULATOR ===");
-            appendResult("✓ Connected to SOAP service successfully");
+            if (serviceClient.isConnected()) {
+                updateStatus("✓ Connected to HISSAB service - Ready to calculate!");
+                appendResult("✓ Connected to SOAP service successfully");
+            } else {
+                updateStatus(offlineStatus());
+                appendResult("⚠ HISSAB service unreachable - working offline");
+                appendResult("   • Expressions are calculated on this computer and journaled");
+                appendResult("   • They are sent to the server automatically once it is back");
+            }
             appendResult("");
             appendResult("TEXT CALCULATION:");
             appendResult("   • Enter a mathematical expression above and press ENTER");
             appendResult("   • Or click the blue 'Calculate Expression' button");
+            appendResult("   • With 'Live preview' the result appears as you type (✓ = confirmed by the server)");
             appendResult("");
             appendResult("IMAGE CALCULATION:");
             appendResult("   • Select an image file using 'Browse...'");
             appendResult("   • Click 'Process Image (OCR)' to extract and calculate");
+            appendResult("   • Or use 'Batch Folder/ZIP...' to grade many images into a CSV file");
             appendResult("");
-            appendResult("Local OCR processes images using web-based OCR");
+            appendResult("OCR runs on the " + System.getProperty(OcrEngines.ENGINE_PROPERTY, "web")
+                         + " engine (-D" + OcrEngines.ENGINE_PROPERTY + "=local|web),");
             appendResult("then sends the extracted text to backend for calculation");
             appendResult("=====================================");
             appendResult("");
             logger.log(Level.INFO, "SOAP service client initialized successfully");
+            startConnectionMonitor();
         } catch (Exception e) {
             updateStatus("Failed to connect to HISSAB service");
             appendResult("=== CONNECTION ERROR ===");
@@ -246,6 +325,30 @@ public class HissabClientGUI extends JFrame {
         }
     }
     
+    /**
+     * Keeps the status line in step with the connection while the journal is replayed
+     */
+    private void startConnectionMonitor() {
+        monitoredConnected = serviceClient.isConnected();
+        monitoredPending = serviceClient.getPendingSyncCount();
+        Timer monitor = new Timer(CONNECTION_MONITOR_MILLIS, e -> {
+            boolean connected = serviceClient.isConnected();
+            int pending = serviceClient.getPendingSyncCount();
+            if (connected != monitoredConnected || pending != monitoredPending) {
+                monitoredConnected = connected;
+                monitoredPending = pending;
+                updateStatus(connected ? "✓ Connected to HISSAB service"
+                             + (pending > 0 ? " - syncing " + pending + " offline calculations" : "")
+                             : offlineStatus());
+            }
+        });
+        monitor.start();
+    }
+    
+    private String offlineStatus() {
+        return "⚠ Offline - " + serviceClient.getPendingSyncCount() + " calculations waiting to sync";
+    }
+    
     /**
      * Browse for image file
      */
@@ -296,7 +399,7 @@ public class HissabClientGUI extends JFrame {
                     appendResult("Result: " + result);
                     appendResult("========================");
                     appendResult("");
-                    updateStatus("✓ Calculation completed successfully");
+                    updateStatus(serviceClient.isConnected() ? "✓ Calculation completed successfully" : offlineStatus());
                     logger.log(Level.INFO, "Successfully calculated: " + expression + " = " + result);
                 } catch (Exception ex) {
                     String errorMsg = "Error calculating expression: " + ex.getMessage();
@@ -318,6 +421,34 @@ public class HissabClientGUI extends JFrame {
         worker.execute();
     }
     
+    /**
+     * Re-evaluates the preview on every edit. Only the edited tokens are reparsed, so this
+     * runs on the event thread in microseconds. Nothing is sent to the server: every server
+     * calculation is traced, and the user has not asked for this one yet. The local grammar
+     * is the server's, so Calculate gives the same answer.
+     */
+    private void updatePreview() {
+        String expression = expressionField.getText().trim();
+        if (!livePreviewBox.isSelected() || expression.isEmpty()) {
+            previewLabel.setText(" ");
+            return;
+        }
+        
+        long start = System.nanoTime();
+        String previewResult = previewEvaluator.evaluate(expression);
+        logger.log(Level.FINE, "Preview of " + expression + " in " + (System.nanoTime() - start) / 1000 + " us ("
+                   + previewEvaluator.getParsedNodes() + " nodes parsed, " + previewEvaluator.getReusedNodes() + " reused)");
+        
+        if (LocalExpressionEvaluator.isError(previewResult)) {
+            // Usually just unfinished ("2+"); the Calculate button reports real errors
+            previewLabel.setForeground(Color.GRAY);
+            previewLabel.setText("= …");
+        } else {
+            previewLabel.setForeground(PREVIEW_COLOR);
+            previewLabel.setText("= " + previewResult);
+        }
+    }
+    
     /**
      * Process image using local OCR (equivalent to ENTER for images)
      */
@@ -364,6 +495,86 @@ public class HissabClientGUI extends JFrame {
         worker.execute();
     }
     
+    /**
+     * Process every image of a folder or ZIP file; clicking again while running cancels
+     */
+    private void processBatch(ActionEvent e) {
+        if (runningBatch != null) {
+            runningBatch.cancel();
+            batchButton.setEnabled(false);
+            updateStatus("Cancelling batch after images in progress...");
+            return;
+        }
+        
+        JFileChooser fileChooser = new JFileChooser();
+        fileChooser.setDialogTitle("Select Folder or ZIP of Images");
+        fileChooser.setFileSelectionMode(JFileChooser.FILES_AND_DIRECTORIES);
+        fileChooser.setFileFilter(new FileNameExtensionFilter("Folders or ZIP Files", "zip"));
+        if (fileChooser.showOpenDialog(this) != JFileChooser.APPROVE_OPTION) {
+            return;
+        }
+        File input = fileChooser.getSelectedFile();
+        String baseName = input.getName().replaceFirst("\\.zip$", "");
+        File output = new File(input.getAbsoluteFile().getParentFile(), baseName + "-results.csv");
+        
+        BatchProcessor batch = new BatchProcessor(serviceClient);
+        runningBatch = batch;
+        batchButton.setText("Cancel Batch");
+        batchProgress.setValue(0);
+        batchProgress.setVisible(true);
+        updateStatus("Batch processing " + input.getName() + "...");
+        
+        // Progress arrives from the pipeline threads; publish() coalesces it onto the EDT
+        SwingWorker<BatchProcessor.Summary, double[]> worker = new SwingWorker<BatchProcessor.Summary, double[]>() {
+            @Override
+            protected BatchProcessor.Summary doInBackground() throws Exception {
+                return batch.process(input, output, (completed, failed, total, imagesPerSecond) ->
+                        publish(new double[] {completed, failed, total, imagesPerSecond}));
+            }
+            
+            @Override
+            protected void process(java.util.List<double[]> chunks) {
+                double[] latest = chunks.get(chunks.size() - 1);
+                batchProgress.setMaximum(Math.max(1, (int) latest[2]));
+                batchProgress.setValue((int) latest[0]);
+                batchProgress.setString((int) latest[0] + " / " + (int) latest[2]);
+                updateStatus(String.format("Batch: %d done, %d failed, %.1f images/s",
+                                           (int) latest[0], (int) latest[1], latest[3]));
+            }
+            
+            @Override
+            protected void done() {
+                try {
+                    BatchProcessor.Summary summary = get();
+                    appendResult("=== BATCH PROCESSING ===");
+                    appendResult("Input: " + input.getAbsolutePath());
+                    appendResult("Processed: " + summary);
+                    appendResult("Results: " + output.getAbsolutePath());
+                    appendResult("========================");
+                    appendResult("");
+                    updateStatus("✓ Batch completed: " + summary.getProcessed() + " images, "
+                                 + summary.getFailed() + " failed");
+                } catch (Exception ex) {
+                    String errorMsg = "Batch processing failed: " + ex.getMessage();
+                    appendResult("=== BATCH ERROR ===");
+                    appendResult("Input: " + input.getAbsolutePath());
+                    appendResult("Error: " + errorMsg);
+                    appendResult("===================");
+                    appendResult("");
+                    updateStatus("❌ Batch processing failed");
+                    logger.log(Level.SEVERE, "Error in batch processing", ex);
+                    showErrorMessage(errorMsg);
+                } finally {
+                    runningBatch = null;
+                    batchButton.setText("Batch Folder/ZIP...");
+                    batchButton.setEnabled(true);
+                    batchProgress.setVisible(false);
+                }
+            }
+        };
+        worker.execute();
+    }
+    
     /**
      * Clear results area
      */
@@ -3,6 +3,12 @@ package com.hissab.client;
 import java.io.*;
 import java.net.HttpURLConnection;
 import java.net.URL;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Logger;
 import java.util.logging.Level;
 
@@ -15,51 +21,293 @@ public class HissabServiceClient {
     private static final Logger logger = Logger.getLogger(HissabServiceClient.class.getName());
     private static final String SOAP_ENDPOINT = "http://localhost:8085/hissab/HissabService";
     private static final String TARGET_NAMESPACE = "http://service.hissab.com/";
+    private static final int CONNECT_TIMEOUT_MILLIS = 30000;
+    private static final int READ_TIMEOUT_MILLIS = 30000;
     
-    // OCR service instance
-    private WebOCRService ocrService;
+    // Tells the server how long we will wait so it can drop work once we have given up
+    private static final String TIMEOUT_HEADER = "X-Request-Timeout";
+    
+    public static final String JOURNAL_SYNC_SECONDS_PROPERTY = "hissab.journal.syncSeconds";
+    public static final String JOURNAL_BATCH_SIZE_PROPERTY = "hissab.journal.batchSize";
+    public static final String JOURNAL_MAX_FAULTS_PROPERTY = "hissab.journal.maxServerFaults";
+    
+    // OCR engine instance, selected by -Dhissab.ocr.engine
+    private OcrEngine ocrService;
+    
+    // Shrinks images before OCR (lazy initialization, disabled with -Dhissab.ocr.preprocess=false)
+    private ImagePreprocessor imagePreprocessor;
+    
+    // Results of previous OCR runs (lazy initialization, disabled with -Dhissab.ocr.cache=false)
+    private OcrResultCache ocrResultCache;
+    
+    // Client-side evaluation, enabled with -Dhissab.eval.local=true, and used while the server is unreachable
+    private final LocalExpressionEvaluator localEvaluator = new LocalExpressionEvaluator();
+    
+    // Calculations the server has not recorded yet, and the thread that replays them (null if the journal is unavailable)
+    private OfflineJournal journal;
+    private ScheduledExecutorService journalSync;
+    private final Object journalSyncLock = new Object();
+    // Consecutive Server faults on the batch starting with this calculation (guarded by journalSyncLock)
+    private String faultedKey;
+    private int faultedAttempts;
+    
+    // Whether the last call to the server got through
+    private volatile boolean connected;
     
     public HissabServiceClient() throws Exception {
         logger.log(Level.INFO, "Initializing SOAP service client for endpoint: " + SOAP_ENDPOINT);
         // Initialize OCR service (lazy initialization - will be created when needed)
         this.ocrService = null;
-        // Test connection
+        openJournal();
+        // Test connection; an unreachable server is not fatal, calculations are journaled until it is back
         testConnection();
     }
     
-    private void testConnection() throws Exception {
+    private void testConnection() {
         try {
             // Test with a simple health check - but avoid recursive call during initialization
             String soapRequest = createHealthCheckRequest();
             String soapResponse = sendSOAPRequest(soapRequest);
             extractResult(soapResponse);
+            markConnected();
             logger.log(Level.INFO, "SOAP service connection test successful");
         } catch (Exception e) {
-            logger.log(Level.SEVERE, "Failed to connect to SOAP service", e);
-            throw new Exception("Cannot connect to web service at " + SOAP_ENDPOINT + ": " + e.getMessage(), e);
+            connected = false;
+            logger.log(Level.WARNING, "Cannot connect to web service at " + SOAP_ENDPOINT
+                       + ", working offline: " + e.getMessage());
         }
     }
     
     /**
-     * Calculate result from string expression
+     * Whether the SOAP service answered the last call
+     */
+    public boolean isConnected() {
+        return connected;
+    }
+    
+    /**
+     * Calculate result from string expression.
+     * While the server is unreachable the expression is evaluated on the client and
+     * journaled, so the server records it once the connection is back. Offline calls do
+     * not wait on the network; the journal sync notices when the server returns.
+     * Only a call that could not connect falls back: once the request is sent the server
+     * may already have traced it, so a timeout waiting for the answer is reported instead.
      */
     public String calculateFromString(String expression) throws Exception {
+        if (LocalExpressionEvaluator.isEnabled()) {
+            return calculateLocally(expression);
+        }
+        if (!connected && journal != null) {
+            logger.log(Level.INFO, "Offline, evaluating locally: " + expression);
+            return journal(expression, localEvaluator.evaluate(expression));
+        }
+        try {
+            return calculateOnServer(expression);
+        } catch (Exception e) {
+            if (!(e.getCause() instanceof ServerUnreachableException)) {
+                throw e;
+            }
+            logger.log(Level.INFO, "Server unreachable, evaluating offline: " + expression);
+            return journal(expression, localEvaluator.evaluate(expression));
+        }
+    }
+    
+    /**
+     * Calculate result from string expression on the server only, never journaling it
+     * (e.g. for previews the user has not asked to calculate)
+     */
+    public String calculateOnServer(String expression) throws Exception {
         try {
             logger.log(Level.INFO, "Calling calculateFromString with expression: " + expression);
             
             String soapRequest = createCalculateFromStringRequest(expression);
             String soapResponse = sendSOAPRequest(soapRequest);
             String result = extractResult(soapResponse);
+            markConnected();
             
             logger.log(Level.INFO, "calculateFromString result: " + result);
             return result;
             
+        } catch (IOException e) {
+            connected = false;
+            logger.log(Level.WARNING, "SOAP service unreachable: " + e.getMessage());
+            throw new Exception("Web service call failed: " + e.getMessage(), e);
         } catch (Exception e) {
             logger.log(Level.SEVERE, "Error calling calculateFromString", e);
             throw new Exception("Web service call failed: " + e.getMessage(), e);
         }
     }
     
+    /**
+     * Evaluates on the client and journals the calculation for the server.
+     * Invalid expressions still go to the server when it is reachable, so the error
+     * message and its trace come from the authoritative evaluator.
+     */
+    private String calculateLocally(String expression) {
+        long start = System.nanoTime();
+        String result = localEvaluator.evaluate(expression);
+        
+        if (LocalExpressionEvaluator.isError(result)) {
+            try {
+                return calculateOnServer(expression);
+            } catch (Exception e) {
+                if (!(e.getCause() instanceof ServerUnreachableException)) {
+                    // The server may have traced it before the call failed; journaling it could store it twice
+                    logger.log(Level.INFO, "Server call failed, returning local error untraced for: " + expression);
+                    return result;
+                }
+                logger.log(Level.INFO, "Server unreachable, returning local error for: " + expression);
+            }
+        }
+        
+        journal(expression, result);
+        logger.log(Level.INFO, "Evaluated locally in " + (System.nanoTime() - start) / 1000 + " us: "
+                   + expression + " = " + result);
+        return result;
+    }
+    
+    private String journal(String expression, String result) {
+        if (expression != null && !expression.trim().isEmpty()) {
+            if (journal == null || !journal.append(expression.trim(), result, System.currentTimeMillis())) {
+                // The result is still correct; only its trace is lost
+                logger.log(Level.WARNING, "Could not journal calculation " + expression);
+            }
+        }
+        return result;
+    }
+    
+    private void openJournal() {
+        try {
+            journal = new OfflineJournal();
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Offline journal unavailable, offline calculations will not reach the server", e);
+            return;
+        }
+        int period = Integer.getInteger(JOURNAL_SYNC_SECONDS_PROPERTY, 15);
+        journalSync = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "journal-sync");
+            thread.setDaemon(true);
+            return thread;
+        });
+        journalSync.scheduleWithFixedDelay(this::syncJournalQuietly, period, period, TimeUnit.SECONDS);
+    }
+    
+    /**
+     * Records a successful call; when coming back online, replays the journal right away
+     */
+    private void markConnected() {
+        boolean wasConnected = connected;
+        connected = true;
+        if (!wasConnected && journalSync != null && journal.getPendingCount() > 0) {
+            journalSync.execute(this::syncJournalQuietly);
+        }
+    }
+    
+    private void syncJournalQuietly() {
+        try {
+            if (journal.getPendingCount() == 0) {
+                if (!connected) {
+                    // Nothing to replay, but keep isConnected() current for the GUI
+                    testConnection();
+                }
+                return;
+            }
+            int sent = syncJournal();
+            if (sent > 0) {
+                logger.log(Level.INFO, "Synced " + sent + " journaled calculations to the server");
+            }
+        } catch (Exception e) {
+            // Offline; the calculations stay journaled until the next attempt
+            logger.log(Level.FINE, "Journal sync deferred: " + e.getMessage());
+        }
+    }
+    
+    /**
+     * Replays journaled calculations to the server in batches until the journal is empty.
+     * Each carries its idempotency key, so a batch resent after a crash is not stored twice.
+     * A batch the server rejects with a Client fault is resent one calculation at a time,
+     * and each calculation it still rejects is set aside instead of retried forever.
+     * A batch that keeps failing with a Server fault is retried on later syncs, and after
+     * hissab.journal.maxServerFaults attempts in a row is treated the same way.
+     * Overload and deadline answers (503, 504) are always retried.
+     * @return Number of calculations confirmed by the server
+     */
+    public int syncJournal() throws Exception {
+        if (journal == null) {
+            return 0;
+        }
+        int batchSize = Integer.getInteger(JOURNAL_BATCH_SIZE_PROPERTY, 100);
+        int sent = 0;
+        int size = batchSize;
+        OfflineJournal.Batch batch;
+        // Serialize replays so a batch is not sent twice; appends only lock the journal briefly
+        synchronized (journalSyncLock) {
+            while (!(batch = journal.peek(size)).isEmpty()) {
+                String soapResponse;
+                try {
+                    soapResponse = sendSOAPRequest(createLogTracesRequest(batch.getEntries()));
+                } catch (IOException e) {
+                    connected = false;
+                    throw e;
+                } catch (SoapFaultException e) {
+                    connected = true;
+                    if (!e.isClientFault() && !isPersistentServerFault(batch, e)) {
+                        throw e;
+                    }
+                    if (batch.getEntries().size() > 1) {
+                        // Find the calculations the server objects to; the others still go through
+                        size = 1;
+                        continue;
+                    }
+                    OfflineJournal.Entry entry = batch.getEntries().get(0);
+                    logger.log(Level.WARNING, "Server rejected journaled calculation " + entry.getExpression()
+                               + ", moving it aside: " + e.getFaultString());
+                    journal.reject(batch, e.getFaultString());
+                    faultedKey = null;
+                    size = batchSize;
+                    continue;
+                }
+                connected = true;
+                faultedKey = null;
+                int stored = Integer.parseInt(extractResult(soapResponse).trim());
+                if (stored != batch.getEntries().size()) {
+                    throw new Exception("Server accepted " + stored + " of " + batch.getEntries().size() + " calculations");
+                }
+                journal.acknowledge(batch);
+                sent += batch.getEntries().size();
+            }
+        }
+        return sent;
+    }
+    
+    /**
+     * Counts a Server fault against the batch's first calculation
+     * @return true once the same batch head has failed hissab.journal.maxServerFaults times in a row
+     */
+    private boolean isPersistentServerFault(OfflineJournal.Batch batch, SoapFaultException fault) {
+        if (fault.getStatusCode() != HttpURLConnection.HTTP_INTERNAL_ERROR) {
+            // Shed load or an expired deadline says nothing about the batch
+            return false;
+        }
+        String key = batch.getEntries().get(0).getKey();
+        faultedAttempts = key.equals(faultedKey) ? faultedAttempts + 1 : 1;
+        faultedKey = key;
+        int maxFaults = Integer.getInteger(JOURNAL_MAX_FAULTS_PROPERTY, 5);
+        if (faultedAttempts < maxFaults) {
+            logger.log(Level.WARNING, "Journal batch failed on the server (attempt " + faultedAttempts + " of "
+                       + maxFaults + "): " + fault.getFaultString());
+            return false;
+        }
+        return true;
+    }
+    
+    /**
+     * Number of calculations journaled while offline (or evaluated locally) that the server has not recorded yet
+     */
+    public int getPendingSyncCount() {
+        return journal == null ? 0 : journal.getPendingCount();
+    }
+    
     /**
      * Health check
      */
@@ -83,13 +331,68 @@ public class HissabServiceClient {
     /**
      * Get or initialize the OCR service (lazy initialization)
      */
-    private WebOCRService getOCRService() throws Exception {
+    private synchronized OcrEngine getOCRService() throws Exception {
         if (ocrService == null) {
-            logger.log(Level.INFO, "Initializing Web OCR service");
-            ocrService = new WebOCRService();
+            ocrService = OcrEngines.create();
+            logger.log(Level.INFO, "Initialized OCR engine: " + ocrService.getName());
         }
         return ocrService;
     }
+    
+    private synchronized ImagePreprocessor getImagePreprocessor() {
+        if (imagePreprocessor == null) {
+            imagePreprocessor = new ImagePreprocessor();
+        }
+        return imagePreprocessor;
+    }
+    
+    private synchronized OcrResultCache getOcrResultCache() {
+        if (ocrResultCache == null) {
+            ocrResultCache = new OcrResultCache();
+        }
+        return ocrResultCache;
+    }
+    
+    /**
+     * Runs OCR on an encoded image, preprocessing it first when enabled.
+     * Images seen before are answered from the result cache without either step.
+     * Safe to call from several threads.
+     */
+    public String extractTextFromImage(byte[] imageData, String filename) throws Exception {
+        long start = System.nanoTime();
+        OcrResultCache.Key cacheKey = null;
+        if (OcrResultCache.isEnabled()) {
+            cacheKey = getOcrResultCache().keyFor(imageData);
+            String cached = getOcrResultCache().get(cacheKey);
+            if (cached != null) {
+                logger.log(Level.INFO, "OCR of " + filename + " answered from cache in "
+                           + (System.nanoTime() - start) / 1_000_000 + " ms");
+                return cached;
+            }
+        }
+        
+        byte[] ocrInput = imageData;
+        String ocrFilename = filename;
+        
+        if (ImagePreprocessor.isEnabled()) {
+            try {
+                ocrInput = getImagePreprocessor().submit(imageData, filename).get().getImageData();
+                // The result is always PNG; web OCR backends pick the decoder from the extension
+                int dot = filename.lastIndexOf('.');
+                ocrFilename = (dot > 0 ? filename.substring(0, dot) : filename) + ".png";
+            } catch (ExecutionException e) {
+                logger.log(Level.WARNING, "Image preprocessing failed, sending original image", e.getCause());
+            }
+        }
+        
+        String extractedText = getOCRService().extractTextFromImage(ocrInput, ocrFilename);
+        if (cacheKey != null && extractedText != null && !extractedText.trim().isEmpty()) {
+            getOcrResultCache().put(cacheKey, extractedText);
+        }
+        logger.log(Level.INFO, "OCR of " + filename + " took " + (System.nanoTime() - start) / 1_000_000
+                   + " ms end-to-end, payload " + imageData.length / 1024 + " KB -> " + ocrInput.length / 1024 + " KB");
+        return extractedText;
+    }
 
     /**
      * Calculate result from image using local OCR and then string calculation
@@ -101,7 +404,7 @@ public class HissabServiceClient {
             logger.log(Level.INFO, "Starting local OCR processing for image: " + filename);
             
             // Step 1: Extract text from image using local OCR
-            String extractedText = getOCRService().extractTextFromImage(imageData, filename);
+            String extractedText = extractTextFromImage(imageData, filename);
             logger.log(Level.INFO, "OCR extracted text: " + extractedText);
             
             if (extractedText == null || extractedText.trim().isEmpty()) {
@@ -129,7 +432,7 @@ public class HissabServiceClient {
             logger.log(Level.INFO, "Starting local OCR processing for file: " + imageFile.getName());
             
             // Step 1: Extract text from image using local OCR
-            String extractedText = getOCRService().extractTextFromImage(imageFile);
+            String extractedText = extractTextFromImage(Files.readAllBytes(imageFile.toPath()), imageFile.getName());
             logger.log(Level.INFO, "OCR extracted text: " + extractedText);
             
             if (extractedText == null || extractedText.trim().isEmpty()) {
@@ -164,6 +467,30 @@ public class HissabServiceClient {
                "</soap:Envelope>";
     }
     
+    /**
+     * Create SOAP request for logTraces operation
+     */
+    private String createLogTracesRequest(List<OfflineJournal.Entry> entries) {
+        StringBuilder request = new StringBuilder();
+        request.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n")
+               .append("<soap:Envelope xmlns:soap=\"http://schemas.xmlsoap.org/soap/envelope/\" ")
+               .append("xmlns:tns=\"").append(TARGET_NAMESPACE).append("\">\n")
+               .append("  <soap:Body>\n")
+               .append("    <tns:logTraces>\n");
+        for (OfflineJournal.Entry entry : entries) {
+            request.append("      <tns:trace>")
+                   .append("<tns:id>").append(entry.getKey()).append("</tns:id>")
+                   .append("<tns:expression>").append(escapeXml(entry.getExpression())).append("</tns:expression>")
+                   .append("<tns:result>").append(escapeXml(entry.getResult())).append("</tns:result>")
+                   .append("<tns:timestamp>").append(entry.getTimestampMillis()).append("</tns:timestamp>")
+                   .append("</tns:trace>\n");
+        }
+        request.append("    </tns:logTraces>\n")
+               .append("  </soap:Body>\n")
+               .append("</soap:Envelope>");
+        return request.toString();
+    }
+    
     /**
      * Create SOAP request for healthCheck operation
      */
@@ -189,8 +516,15 @@ public class HissabServiceClient {
         connection.setRequestProperty("Content-Type", "text/xml; charset=UTF-8");
         connection.setRequestProperty("SOAPAction", "");
         connection.setDoOutput(true);
-        connection.setConnectTimeout(30000); // 30 seconds
-        connection.setReadTimeout(30000); // 30 seconds
+        connection.setRequestProperty(TIMEOUT_HEADER, String.valueOf(READ_TIMEOUT_MILLIS));
+        connection.setConnectTimeout(CONNECT_TIMEOUT_MILLIS);
+        connection.setReadTimeout(READ_TIMEOUT_MILLIS);
+        
+        try {
+            connection.connect();
+        } catch (IOException e) {
+            throw new ServerUnreachableException(e);
+        }
         
         // Send request
         try (OutputStream os = connection.getOutputStream()) {
@@ -211,6 +545,11 @@ public class HissabServiceClient {
         }
         
         if (responseCode != 200) {
+            String faultCode = extractElement(response.toString(), "faultcode");
+            if (faultCode != null) {
+                throw new SoapFaultException(responseCode, faultCode, extractElement(response.toString(), "faultstring"),
+                                             "HTTP " + responseCode + ": " + response.toString());
+            }
             throw new Exception("HTTP " + responseCode + ": " + response.toString());
         }
         
@@ -245,6 +584,15 @@ public class HissabServiceClient {
         return "Could not extract result from response: " + soapResponse;
     }
     
+    /**
+     * Text of the first element with the given unprefixed name, or null if there is none
+     */
+    private String extractElement(String xml, String name) {
+        int start = xml.indexOf("<" + name + ">");
+        int end = start < 0 ? -1 : xml.indexOf("</" + name + ">", start);
+        return end < 0 ? null : unescapeXml(xml.substring(start + name.length() + 2, end).trim());
+    }
+    
     /**
      * Escape XML special characters
      */
@@ -268,4 +616,43 @@ public class HissabServiceClient {
                   .replace("&quot;", "\"")
                   .replace("&apos;", "'");
     }
+    
+    /**
+     * The connection to the server could not be opened, so the request never reached it
+     */
+    private static class ServerUnreachableException extends IOException {
+        ServerUnreachableException(IOException cause) {
+            super(cause.getMessage(), cause);
+        }
+    }
+    
+    /**
+     * A SOAP fault answered by the server. A Client fault means the request itself was
+     * refused and resending it unchanged will not help.
+     */
+    private static class SoapFaultException extends Exception {
+        private final int statusCode;
+        private final String faultCode;
+        private final String faultString;
+        
+        SoapFaultException(int statusCode, String faultCode, String faultString, String message) {
+            super(message);
+            this.statusCode = statusCode;
+            this.faultCode = faultCode;
+            this.faultString = faultString != null ? faultString : faultCode;
+        }
+        
+        boolean isClientFault() {
+            // SOAP 1.1 fault codes are qualified names such as soap:Client
+            return faultCode.equals("Client") || faultCode.endsWith(":Client");
+        }
+        
+        int getStatusCode() {
+            return statusCode;
+        }
+        
+        String getFaultString() {
+            return faultString;
+        }
+    }
 }
@@ -0,0 +1,458 @@
+package com.hissab.client;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.metadata.IIOMetadata;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.geom.AffineTransform;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+import java.util.logging.Level;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+
+/**
+ * Prepares photos for OCR: EXIF orientation fix, grayscale, downscale to the target DPI,
+ * adaptive (Bradley) thresholding and a crop to the ink region. The result is a small
+ * 1-bit PNG, so both the upload and the recognizer work on a fraction of the pixels.
+ * Work runs on a dedicated pool so callers (and the EDT) are never blocked by it.
+ */
+public class ImagePreprocessor {
+
+    private static final Logger logger = Logger.getLogger(ImagePreprocessor.class.getName());
+
+    public static final String ENABLED_PROPERTY = "hissab.ocr.preprocess";
+    public static final String TARGET_DPI_PROPERTY = "hissab.ocr.targetDpi";
+    public static final String MAX_SIDE_PROPERTY = "hissab.ocr.maxSide";
+
+    // Text at this resolution is still well above what OCR needs for digits
+    private static final int DEFAULT_TARGET_DPI = 150;
+
+    // Used when the image carries no resolution metadata (typical for phone photos)
+    private static final int DEFAULT_MAX_SIDE = 1600;
+
+    // A pixel is ink when it is this much darker than its neighbourhood mean
+    private static final double THRESHOLD_SENSITIVITY = 0.15;
+
+    // White border kept around the cropped ink region
+    private static final int CROP_MARGIN = 8;
+
+    private static final int EXIF_ORIENTATION_TAG = 0x0112;
+
+    private final int targetDpi;
+    private final int maxSide;
+    private final ExecutorService workers;
+
+    public ImagePreprocessor() {
+        this(Integer.getInteger(TARGET_DPI_PROPERTY, DEFAULT_TARGET_DPI),
+             Integer.getInteger(MAX_SIDE_PROPERTY, DEFAULT_MAX_SIDE),
+             Runtime.getRuntime().availableProcessors());
+    }
+
+    public ImagePreprocessor(int targetDpi, int maxSide, int threads) {
+        this.targetDpi = targetDpi;
+        this.maxSide = maxSide;
+        AtomicInteger counter = new AtomicInteger();
+        this.workers = Executors.newFixedThreadPool(Math.max(1, threads), runnable -> {
+            Thread thread = new Thread(runnable, "ocr-preprocess-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Whether preprocessing is enabled (-Dhissab.ocr.preprocess, default true)
+     */
+    public static boolean isEnabled() {
+        return Boolean.parseBoolean(System.getProperty(ENABLED_PROPERTY, "true"));
+    }
+
+    /**
+     * Preprocesses an encoded image on the worker pool
+     */
+    public CompletableFuture<Result> submit(byte[] imageData, String filename) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return process(imageData, filename);
+            } catch (IOException e) {
+                throw new IllegalArgumentException("Cannot preprocess " + filename + ": " + e.getMessage(), e);
+            }
+        }, workers);
+    }
+
+    /**
+     * Preprocesses an encoded image on the calling thread
+     */
+    public Result process(byte[] imageData, String filename) throws IOException {
+        long start = System.nanoTime();
+
+        Decoded decoded = decode(imageData);
+        if (decoded == null) {
+            throw new IOException("Unsupported image format: " + filename);
+        }
+        BufferedImage image = orient(decoded.image, exifOrientation(imageData));
+        // Downscale before thresholding: every later step is linear in the pixel count
+        image = toGray(image, decoded.scale);
+        BufferedImage binary = cropToInk(threshold(image));
+
+        ByteArrayOutputStream png = new ByteArrayOutputStream();
+        ImageIO.write(binary, "png", png);
+
+        Result result = new Result(png.toByteArray(), imageData.length, decoded.width, decoded.height,
+                                   binary.getWidth(), binary.getHeight(), (System.nanoTime() - start) / 1_000_000);
+        logger.log(Level.INFO, "Preprocessed " + filename + ": " + result);
+        return result;
+    }
+
+    public void shutdown() {
+        workers.shutdown();
+    }
+
+    /**
+     * Both bounds apply: a phone photo tagged 72 dpi still has to come down to maxSide
+     */
+    private double scaleFor(int width, int height, int sourceDpi) {
+        int longSide = Math.max(width, height);
+        double scale = Math.min(1.0, (double) maxSide / longSide);
+        if (sourceDpi > 0) {
+            scale = Math.min(scale, (double) targetDpi / sourceDpi);
+        }
+        return scale;
+    }
+
+    /**
+     * Decodes the image, skipping rows and columns in the reader while it stays at least twice
+     * the target size, so a large photo is never held at full resolution; toGray then smooths
+     * the rest of the way down
+     */
+    private Decoded decode(byte[] imageData) throws IOException {
+        try (ImageInputStream input = ImageIO.createImageInputStream(new ByteArrayInputStream(imageData))) {
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(input);
+            if (!readers.hasNext()) {
+                return null;
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(input, true, false);
+                int width = reader.getWidth(0);
+                int height = reader.getHeight(0);
+                double scale = scaleFor(width, height, resolutionDpi(reader.getImageMetadata(0)));
+                int step = Math.max(1, (int) (0.5 / scale));
+                ImageReadParam param = reader.getDefaultReadParam();
+                param.setSourceSubsampling(step, step, 0, 0);
+                return new Decoded(reader.read(0, param), width, height, scale * step);
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    /**
+     * Horizontal resolution from the standard metadata tree, or 0 when absent
+     */
+    private static int resolutionDpi(IIOMetadata metadata) {
+        if (metadata == null || !metadata.isStandardMetadataFormatSupported()) {
+            return 0;
+        }
+        Node root = metadata.getAsTree("javax_imageio_1.0");
+        for (Node dimension = root.getFirstChild(); dimension != null; dimension = dimension.getNextSibling()) {
+            if (!"Dimension".equals(dimension.getNodeName())) {
+                continue;
+            }
+            for (Node child = dimension.getFirstChild(); child != null; child = child.getNextSibling()) {
+                if ("HorizontalPixelSize".equals(child.getNodeName())) {
+                    NamedNodeMap attributes = child.getAttributes();
+                    Node value = attributes.getNamedItem("value");
+                    if (value != null) {
+                        double millimetersPerPixel = Double.parseDouble(value.getNodeValue());
+                        // Readers report 0 or 1 dot per unit when no real resolution is stored
+                        return millimetersPerPixel > 0 && millimetersPerPixel < 1
+                               ? (int) Math.round(25.4 / millimetersPerPixel) : 0;
+                    }
+                }
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * EXIF orientation (1-8) from a JPEG APP1 segment, or 1 when absent
+     */
+    static int exifOrientation(byte[] data) {
+        if (data.length < 4 || (data[0] & 0xFF) != 0xFF || (data[1] & 0xFF) != 0xD8) {
+            return 1;
+        }
+        int offset = 2;
+        while (offset + 4 <= data.length && (data[offset] & 0xFF) == 0xFF) {
+            int marker = data[offset + 1] & 0xFF;
+            int length = ((data[offset + 2] & 0xFF) << 8) | (data[offset + 3] & 0xFF);
+            if (marker == 0xDA) {
+                break; // start of scan: no more metadata segments
+            }
+            if (marker == 0xE1 && offset + 10 <= data.length
+                    && data[offset + 4] == 'E' && data[offset + 5] == 'x' && data[offset + 6] == 'i' && data[offset + 7] == 'f') {
+                return tiffOrientation(data, offset + 10, Math.min(data.length, offset + 2 + length));
+            }
+            offset += 2 + length;
+        }
+        return 1;
+    }
+
+    private static int tiffOrientation(byte[] data, int tiff, int end) {
+        if (tiff + 8 > end) {
+            return 1;
+        }
+        boolean littleEndian = data[tiff] == 'I';
+        int ifd = tiff + readInt(data, tiff + 4, 4, littleEndian);
+        if (ifd + 2 > end) {
+            return 1;
+        }
+        int entries = readInt(data, ifd, 2, littleEndian);
+        for (int i = 0; i < entries; i++) {
+            int entry = ifd + 2 + i * 12;
+            if (entry + 12 > end) {
+                break;
+            }
+            if (readInt(data, entry, 2, littleEndian) == EXIF_ORIENTATION_TAG) {
+                int orientation = readInt(data, entry + 8, 2, littleEndian);
+                return orientation >= 1 && orientation <= 8 ? orientation : 1;
+            }
+        }
+        return 1;
+    }
+
+    private static int readInt(byte[] data, int offset, int length, boolean littleEndian) {
+        int value = 0;
+        for (int i = 0; i < length; i++) {
+            int b = data[offset + (littleEndian ? length - 1 - i : i)] & 0xFF;
+            value = (value << 8) | b;
+        }
+        return value;
+    }
+
+    /**
+     * Applies the EXIF orientation so the text is upright
+     */
+    private static BufferedImage orient(BufferedImage image, int orientation) {
+        if (orientation == 1) {
+            return image;
+        }
+        int width = image.getWidth();
+        int height = image.getHeight();
+        boolean swap = orientation >= 5;
+        AffineTransform transform;
+        switch (orientation) {
+            case 2: transform = new AffineTransform(-1, 0, 0, 1, width, 0); break;      // mirror
+            case 3: transform = new AffineTransform(-1, 0, 0, -1, width, height); break; // rotate 180
+            case 4: transform = new AffineTransform(1, 0, 0, -1, 0, height); break;      // flip
+            case 5: transform = new AffineTransform(0, 1, 1, 0, 0, 0); break;            // transpose
+            case 6: transform = new AffineTransform(0, 1, -1, 0, height, 0); break;      // rotate 90 CW
+            case 7: transform = new AffineTransform(0, -1, -1, 0, height, width); break; // transverse
+            case 8: transform = new AffineTransform(0, -1, 1, 0, 0, width); break;       // rotate 90 CCW
+            default: return image;
+        }
+        BufferedImage oriented = new BufferedImage(swap ? height : width, swap ? width : height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = oriented.createGraphics();
+        try {
+            g.drawImage(image, transform, null);
+        } finally {
+            g.dispose();
+        }
+        return oriented;
+    }
+
+    /**
+     * Grayscale conversion and downscale in one pass; halves repeatedly first so
+     * large reductions keep thin strokes instead of skipping pixels
+     */
+    private static BufferedImage toGray(BufferedImage image, double scale) {
+        int targetWidth = Math.max(1, (int) Math.round(image.getWidth() * scale));
+        int targetHeight = Math.max(1, (int) Math.round(image.getHeight() * scale));
+
+        BufferedImage current = image;
+        int width = image.getWidth();
+        int height = image.getHeight();
+        do {
+            width = Math.max(targetWidth, width / 2);
+            height = Math.max(targetHeight, height / 2);
+            if (scale >= 1.0) {
+                width = targetWidth;
+                height = targetHeight;
+            }
+            BufferedImage step = new BufferedImage(width, height, BufferedImage.TYPE_BYTE_GRAY);
+            Graphics2D g = step.createGraphics();
+            try {
+                g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+                g.setColor(Color.WHITE);
+                g.fillRect(0, 0, width, height);
+                g.drawImage(current, 0, 0, width, height, null);
+            } finally {
+                g.dispose();
+            }
+            current = step;
+        } while (width != targetWidth || height != targetHeight);
+        return current;
+    }
+
+    /**
+     * Bradley adaptive threshold over an integral image; uneven lighting and shadows
+     * in photos defeat a single global threshold
+     */
+    private static boolean[][] threshold(BufferedImage gray) {
+        int width = gray.getWidth();
+        int height = gray.getHeight();
+        byte[] pixels = new byte[width * height];
+        gray.getRaster().getDataElements(0, 0, width, height, pixels);
+
+        long[] integral = new long[(width + 1) * (height + 1)];
+        for (int y = 0; y < height; y++) {
+            long rowSum = 0;
+            for (int x = 0; x < width; x++) {
+                rowSum += pixels[y * width + x] & 0xFF;
+                integral[(y + 1) * (width + 1) + x + 1] = integral[y * (width + 1) + x + 1] + rowSum;
+            }
+        }
+
+        int half = Math.max(7, Math.max(width, height) / 16) / 2;
+        boolean[][] ink = new boolean[height][width];
+        for (int y = 0; y < height; y++) {
+            int y1 = Math.max(0, y - half);
+            int y2 = Math.min(height - 1, y + half);
+            for (int x = 0; x < width; x++) {
+                int x1 = Math.max(0, x - half);
+                int x2 = Math.min(width - 1, x + half);
+                long count = (long) (x2 - x1 + 1) * (y2 - y1 + 1);
+                long sum = integral[(y2 + 1) * (width + 1) + x2 + 1] - integral[y1 * (width + 1) + x2 + 1]
+                           - integral[(y2 + 1) * (width + 1) + x1] + integral[y1 * (width + 1) + x1];
+                ink[y][x] = (pixels[y * width + x] & 0xFF) * count <= sum * (1.0 - THRESHOLD_SENSITIVITY);
+            }
+        }
+        return ink;
+    }
+
+    /**
+     * Crops to rows and columns that carry ink, ignoring single-pixel speckle,
+     * and renders black ink on white as a 1-bit image
+     */
+    private static BufferedImage cropToInk(boolean[][] ink) {
+        int height = ink.length;
+        int width = height > 0 ? ink[0].length : 0;
+        int[] rowInk = new int[height];
+        int[] columnInk = new int[width];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                if (ink[y][x]) {
+                    rowInk[y]++;
+                    columnInk[x]++;
+                }
+            }
+        }
+
+        int top = firstAbove(rowInk, 1, true);
+        int bottom = firstAbove(rowInk, 1, false);
+        int left = firstAbove(columnInk, 1, true);
+        int right = firstAbove(columnInk, 1, false);
+        if (top < 0 || left < 0) {
+            // Blank page: keep the full frame so the OCR backend reports it
+            top = 0;
+            left = 0;
+            bottom = height - 1;
+            right = width - 1;
+        }
+        top = Math.max(0, top - CROP_MARGIN);
+        left = Math.max(0, left - CROP_MARGIN);
+        bottom = Math.min(height - 1, bottom + CROP_MARGIN);
+        right = Math.min(width - 1, right + CROP_MARGIN);
+
+        BufferedImage cropped = new BufferedImage(right - left + 1, bottom - top + 1, BufferedImage.TYPE_BYTE_BINARY);
+        int white = Color.WHITE.getRGB();
+        int black = Color.BLACK.getRGB();
+        for (int y = top; y <= bottom; y++) {
+            for (int x = left; x <= right; x++) {
+                cropped.setRGB(x - left, y - top, ink[y][x] ? black : white);
+            }
+        }
+        return cropped;
+    }
+
+    private static int firstAbove(int[] counts, int minimum, boolean fromStart) {
+        for (int i = 0; i < counts.length; i++) {
+            int index = fromStart ? i : counts.length - 1 - i;
+            if (counts[index] > minimum) {
+                return index;
+            }
+        }
+        return -1;
+    }
+
+    private static final class Decoded {
+        final BufferedImage image;
+        // Size before subsampling
+        final int width;
+        final int height;
+        // Still to apply to the decoded image
+        final double scale;
+
+        Decoded(BufferedImage image, int width, int height, double scale) {
+            this.image = image;
+            this.width = width;
+            this.height = height;
+            this.scale = scale;
+        }
+    }
+
+    /**
+     * Preprocessed image and the before/after figures for reporting
+     */
+    public static final class Result {
+        private final byte[] imageData;
+        private final int originalBytes;
+        private final int originalWidth;
+        private final int originalHeight;
+        private final int width;
+        private final int height;
+        private final long elapsedMillis;
+
+        Result(byte[] imageData, int originalBytes, int originalWidth, int originalHeight,
+               int width, int height, long elapsedMillis) {
+            this.imageData = imageData;
+            this.originalBytes = originalBytes;
+            this.originalWidth = originalWidth;
+            this.originalHeight = originalHeight;
+            this.width = width;
+            this.height = height;
+            this.elapsedMillis = elapsedMillis;
+        }
+
+        /** PNG-encoded 1-bit image */
+        public byte[] getImageData() {
+            return imageData;
+        }
+
+        public int getOriginalBytes() {
+            return originalBytes;
+        }
+
+        public long getElapsedMillis() {
+            return elapsedMillis;
+        }
+
+        @Override
+        public String toString() {
+            return originalWidth + "x" + originalHeight + " (" + originalBytes / 1024 + " KB) -> "
+                   + width + "x" + height + " (" + imageData.length / 1024 + " KB) in " + elapsedMillis + " ms";
+        }
+    }
+}
@@ -0,0 +1,239 @@
+package com.hissab.client;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Re-evaluates an expression as it is edited, for the GUI's live preview.
+ * The expression is tokenized and parsed with the grammar of LocalExpressionEvaluator,
+ * memoizing the value of every sub-expression by (grammar rule, start token). After an
+ * edit, only the tokens between the unchanged prefix and suffix are new: memo entries
+ * lying wholly in the prefix are kept, those in the suffix are shifted by the change in
+ * length, and everything else is dropped. Reparsing then only descends into the edited
+ * span and the chains of operators enclosing it.
+ * Results are identical to LocalExpressionEvaluator. Not thread-safe; use one instance
+ * per input field.
+ */
+public class IncrementalEvaluator {
+
+    private static final int EXPRESSION = 0;
+    private static final int TERM = 1;
+    private static final int FACTOR = 2;
+
+    private List<String> tokens = Collections.emptyList();
+    private Map<Long, Node> memo = new HashMap<>();
+
+    // Nodes taken from the memo and nodes parsed anew by the last evaluate()
+    private int reusedNodes;
+    private int parsedNodes;
+
+    /**
+     * Evaluates the current text of the field
+     * @return The result, or the same "Error: ..." message the server would return
+     */
+    public String evaluate(String expression) {
+        reusedNodes = 0;
+        parsedNodes = 0;
+        if (expression == null || expression.trim().isEmpty()) {
+            return "Error: Empty expression";
+        }
+
+        String cleanExpression = LocalExpressionEvaluator.clean(expression);
+        if (!LocalExpressionEvaluator.isValidExpression(cleanExpression)) {
+            // Keep the memo: the stray character is usually deleted again on the next keystroke
+            return "Error: Invalid expression";
+        }
+
+        List<String> edited = tokenize(cleanExpression);
+        retainUnchanged(edited);
+        tokens = edited;
+
+        try {
+            return LocalExpressionEvaluator.format(parse(EXPRESSION, 0).value);
+        } catch (RuntimeException e) {
+            return "Error: Calculation failed";
+        }
+    }
+
+    public int getReusedNodes() {
+        return reusedNodes;
+    }
+
+    public int getParsedNodes() {
+        return parsedNodes;
+    }
+
+    /**
+     * Splits into number tokens (digits, then optionally '.' and digits, as the server
+     * scans them) and single-character operator tokens
+     */
+    private static List<String> tokenize(String expression) {
+        List<String> result = new ArrayList<>();
+        int index = 0;
+        while (index < expression.length()) {
+            int start = index;
+            char ch = expression.charAt(index);
+            if (Character.isDigit(ch) || ch == '.') {
+                while (index < expression.length() && Character.isDigit(expression.charAt(index))) {
+                    index++;
+                }
+                if (index < expression.length() && expression.charAt(index) == '.') {
+                    index++;
+                    while (index < expression.length() && Character.isDigit(expression.charAt(index))) {
+                        index++;
+                    }
+                }
+            } else {
+                index++;
+            }
+            result.add(expression.substring(start, index));
+        }
+        return result;
+    }
+
+    /**
+     * Drops memo entries that depend on edited tokens. A node spans tokens [start, end)
+     * and also looked at token {@code end} to decide where it stopped, so a prefix node
+     * survives only if end is still before the first edited token.
+     */
+    private void retainUnchanged(List<String> edited) {
+        int prefix = 0;
+        int limit = Math.min(tokens.size(), edited.size());
+        while (prefix < limit && tokens.get(prefix).equals(edited.get(prefix))) {
+            prefix++;
+        }
+        int suffix = 0;
+        while (suffix < limit - prefix
+               && tokens.get(tokens.size() - 1 - suffix).equals(edited.get(edited.size() - 1 - suffix))) {
+            suffix++;
+        }
+        if (prefix == tokens.size() && prefix == edited.size()) {
+            return;
+        }
+
+        int prefixEnd = prefix;
+        int suffixStart = tokens.size() - suffix;
+        int shift = edited.size() - tokens.size();
+        if (shift == 0) {
+            // Same token count (e.g. a digit changed): nothing moves, so drop stale entries in place
+            memo.entrySet().removeIf(entry -> entry.getValue().end >= prefixEnd
+                                              && (int) (long) entry.getKey() < suffixStart);
+            return;
+        }
+        Map<Long, Node> retained = new HashMap<>();
+        for (Map.Entry<Long, Node> entry : memo.entrySet()) {
+            int rule = (int) (entry.getKey() >>> 32);
+            int start = (int) (long) entry.getKey();
+            Node node = entry.getValue();
+            if (node.end < prefix) {
+                retained.put(entry.getKey(), node);
+            } else if (start >= suffixStart && suffix > 0) {
+                retained.put(key(rule, start + shift), new Node(node.value, node.end + shift));
+            }
+        }
+        memo = retained;
+    }
+
+    private Node parse(int rule, int index) {
+        long key = key(rule, index);
+        Node node = memo.get(key);
+        if (node != null) {
+            reusedNodes++;
+            return node;
+        }
+        parsedNodes++;
+        switch (rule) {
+            case EXPRESSION:
+                node = parseChain(index, TERM, "+", "-");
+                break;
+            case TERM:
+                node = parseChain(index, FACTOR, "*", "/");
+                break;
+            default:
+                node = parseFactor(index);
+                break;
+        }
+        memo.put(key, node);
+        return node;
+    }
+
+    /**
+     * Left-associative chain of operands of {@code operandRule} joined by the two operators
+     */
+    private Node parseChain(int index, int operandRule, String first, String second) {
+        Node left = parse(operandRule, index);
+        while (left.end < tokens.size()) {
+            String op = tokens.get(left.end);
+            if (!op.equals(first) && !op.equals(second)) {
+                break;
+            }
+            Node right = parse(operandRule, left.end + 1);
+            left = new Node(apply(op.charAt(0), left.value, right.value), right.end);
+        }
+        return left;
+    }
+
+    private static double apply(char op, double left, double right) {
+        switch (op) {
+            case '+':
+                return left + right;
+            case '-':
+                return left - right;
+            case '*':
+                return left * right;
+            default:
+                if (right == 0) {
+                    throw new ArithmeticException("Division by zero");
+                }
+                return left / right;
+        }
+    }
+
+    private Node parseFactor(int index) {
+        if (index >= tokens.size()) {
+            throw new IllegalArgumentException("Unexpected end of expression");
+        }
+        String token = tokens.get(index);
+        switch (token) {
+            case "-": {
+                Node operand = parse(FACTOR, index + 1);
+                return new Node(-operand.value, operand.end);
+            }
+            case "+":
+                return parse(FACTOR, index + 1);
+            case "(": {
+                Node inner = parse(EXPRESSION, index + 1);
+                if (inner.end >= tokens.size() || !tokens.get(inner.end).equals(")")) {
+                    throw new IllegalArgumentException("Missing closing parenthesis");
+                }
+                return new Node(inner.value, inner.end + 1);
+            }
+            default:
+                char ch = token.charAt(0);
+                if (Character.isDigit(ch) || ch == '.') {
+                    return new Node(Double.parseDouble(token), index + 1);
+                }
+                throw new IllegalArgumentException("Unexpected character: " + ch);
+        }
+    }
+
+    private static long key(int rule, int start) {
+        return ((long) rule << 32) | (start & 0xFFFFFFFFL);
+    }
+
+    /**
+     * Value of a sub-expression and the index of the first token after it
+     */
+    private static final class Node {
+        final double value;
+        final int end;
+
+        Node(double value, int end) {
+            this.value = value;
+            this.end = end;
+        }
+    }
+}
@@ -0,0 +1,189 @@
+package com.hissab.client;
+
+import java.util.regex.Pattern;
+
+/**
+ * Evaluates expressions on the client with the same grammar, validation and result
+ * formatting as the server's CalculEJB (whose ExpressionEngine falls back to this
+ * recursive-descent parser when no script engine is installed, as on GlassFish 7 / Java 17).
+ * Enabled with -Dhissab.eval.local=true; results never wait for the network and the
+ * calculations are journaled in an OfflineJournal for the server.
+ */
+public class LocalExpressionEvaluator {
+
+    public static final String ENABLED_PROPERTY = "hissab.eval.local";
+
+    private static final Pattern WHITESPACE = Pattern.compile("\\s+");
+    private static final Pattern VALID_EXPRESSION = Pattern.compile("[0-9+\\-*/().]+");
+
+    /**
+     * Whether local evaluation is enabled (-Dhissab.eval.local, default false)
+     */
+    public static boolean isEnabled() {
+        return Boolean.getBoolean(ENABLED_PROPERTY);
+    }
+
+    /**
+     * Evaluates a mathematical expression string
+     * @param expression The mathematical expression (e.g., "2+3*4")
+     * @return The result as a string, or the same "Error: ..." message the server would return
+     */
+    public String evaluate(String expression) {
+        if (expression == null || expression.trim().isEmpty()) {
+            return "Error: Empty expression";
+        }
+
+        String cleanExpression = clean(expression);
+        if (!isValidExpression(cleanExpression)) {
+            return "Error: Invalid expression";
+        }
+
+        try {
+            return format(parseAddSubtract(cleanExpression, 0).value);
+        } catch (RuntimeException e) {
+            return "Error: Calculation failed";
+        }
+    }
+
+    /**
+     * Whether a result returned by {@link #evaluate(String)} is an error message
+     */
+    public static boolean isError(String result) {
+        return result.startsWith("Error:");
+    }
+
+    /**
+     * Removes all whitespace, as the server does before validating
+     */
+    static String clean(String expression) {
+        return WHITESPACE.matcher(expression).replaceAll("");
+    }
+
+    /**
+     * Whether a whitespace-free expression uses only the characters the server accepts
+     */
+    static boolean isValidExpression(String expression) {
+        return VALID_EXPRESSION.matcher(expression).matches();
+    }
+
+    /**
+     * Formats a value the way the server does: whole numbers are displayed as integers
+     */
+    static String format(double result) {
+        if (result == Math.floor(result)) {
+            return String.valueOf((int) result);
+        }
+        return String.valueOf(result);
+    }
+
+    /**
+     * Parse addition and subtraction (lowest precedence)
+     */
+    private ParseResult parseAddSubtract(String expression, int index) {
+        ParseResult left = parseMultiplyDivide(expression, index);
+
+        while (left.nextIndex < expression.length()) {
+            char op = expression.charAt(left.nextIndex);
+            if (op == '+' || op == '-') {
+                ParseResult right = parseMultiplyDivide(expression, left.nextIndex + 1);
+                left = new ParseResult(op == '+' ? left.value + right.value : left.value - right.value,
+                                       right.nextIndex);
+            } else {
+                break;
+            }
+        }
+
+        return left;
+    }
+
+    /**
+     * Parse multiplication and division (higher precedence)
+     */
+    private ParseResult parseMultiplyDivide(String expression, int index) {
+        ParseResult left = parseFactor(expression, index);
+
+        while (left.nextIndex < expression.length()) {
+            char op = expression.charAt(left.nextIndex);
+            if (op == '*' || op == '/') {
+                ParseResult right = parseFactor(expression, left.nextIndex + 1);
+                if (op == '*') {
+                    left = new ParseResult(left.value * right.value, right.nextIndex);
+                } else {
+                    if (right.value == 0) {
+                        throw new ArithmeticException("Division by zero");
+                    }
+                    left = new ParseResult(left.value / right.value, right.nextIndex);
+                }
+            } else {
+                break;
+            }
+        }
+
+        return left;
+    }
+
+    /**
+     * Parse factors: numbers, parenthesized expressions, and unary signs
+     */
+    private ParseResult parseFactor(String expression, int index) {
+        if (index >= expression.length()) {
+            throw new IllegalArgumentException("Unexpected end of expression");
+        }
+
+        char ch = expression.charAt(index);
+
+        if (ch == '-') {
+            ParseResult result = parseFactor(expression, index + 1);
+            return new ParseResult(-result.value, result.nextIndex);
+        }
+
+        if (ch == '+') {
+            return parseFactor(expression, index + 1);
+        }
+
+        if (ch == '(') {
+            ParseResult result = parseAddSubtract(expression, index + 1);
+            if (result.nextIndex >= expression.length() || expression.charAt(result.nextIndex) != ')') {
+                throw new IllegalArgumentException("Missing closing parenthesis");
+            }
+            return new ParseResult(result.value, result.nextIndex + 1);
+        }
+
+        if (Character.isDigit(ch) || ch == '.') {
+            return parseNumber(expression, index);
+        }
+
+        throw new IllegalArgumentException("Unexpected character: " + ch);
+    }
+
+    /**
+     * Parse a number from the expression starting at the given index
+     */
+    private ParseResult parseNumber(String expression, int index) {
+        int start = index;
+
+        while (index < expression.length() && Character.isDigit(expression.charAt(index))) {
+            index++;
+        }
+
+        if (index < expression.length() && expression.charAt(index) == '.') {
+            index++;
+            while (index < expression.length() && Character.isDigit(expression.charAt(index))) {
+                index++;
+            }
+        }
+
+        // Also rejects a lone "." the way Double.parseDouble does on the server
+        return new ParseResult(Double.parseDouble(expression.substring(start, index)), index);
+    }
+
+    private static final class ParseResult {
+        final double value;
+        final int nextIndex;
+
+        ParseResult(double value, int nextIndex) {
+            this.value = value;
+            this.nextIndex = nextIndex;
+        }
+    }
+}
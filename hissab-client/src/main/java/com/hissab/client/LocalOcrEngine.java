@@ -0,0 +1,609 @@
+package com.hissab.client;
+
+import javax.imageio.ImageIO;
+import java.awt.BasicStroke;
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.FontMetrics;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Logger;
+import java.util.logging.Level;
+
+/**
+ * In-process OCR for digits and the operators + - × ÷ * / ( ).
+ * The image is binarized (Otsu), segmented into connected components, and each symbol
+ * is matched against templates by nearest neighbour on a normalized ink-density grid.
+ * Templates are rendered from the installed fonts at startup; extra samples (e.g.
+ * handwriting) can be added from the directory named by -Dhissab.ocr.templates, using
+ * files named {@code <label>_<anything>.png} where label is a digit or one of
+ * plus, minus, times, divide, lparen, rparen.
+ */
+public class LocalOcrEngine implements OcrEngine {
+
+    private static final Logger logger = Logger.getLogger(LocalOcrEngine.class.getName());
+
+    public static final String TEMPLATES_PROPERTY = "hissab.ocr.templates";
+
+    // Side of the normalized feature grid
+    private static final int GRID = 16;
+
+    // Weight of the log aspect-ratio difference relative to the grid distance
+    private static final double ASPECT_WEIGHT = 0.25;
+
+    // Added per differing number of pieces, e.g. to tell '÷' (three) from '+' (one)
+    private static final double PARTS_WEIGHT = 0.2;
+
+    // Symbols shorter than this fraction of the line height are treated as '-' or '.'
+    private static final double SHORT_SYMBOL_RATIO = 0.3;
+
+    private static final String[] FONT_NAMES = {Font.SANS_SERIF, Font.SERIF, Font.MONOSPACED, Font.DIALOG};
+    private static final int[] FONT_STYLES = {Font.PLAIN, Font.BOLD};
+
+    // Rendered glyph -> character emitted in the expression
+    private static final String RENDERED_SYMBOLS = "0123456789+-\u00D7\u00F7*/()";
+    private static final String EMITTED_SYMBOLS  = "0123456789+-*/*/()";
+
+    private static final Map<String, Character> SAMPLE_LABELS = new HashMap<>();
+    static {
+        for (char digit = '0'; digit <= '9'; digit++) {
+            SAMPLE_LABELS.put(String.valueOf(digit), digit);
+        }
+        SAMPLE_LABELS.put("plus", '+');
+        SAMPLE_LABELS.put("minus", '-');
+        SAMPLE_LABELS.put("times", '*');
+        SAMPLE_LABELS.put("divide", '/');
+        SAMPLE_LABELS.put("lparen", '(');
+        SAMPLE_LABELS.put("rparen", ')');
+    }
+
+    private final List<Template> templates = new ArrayList<>();
+
+    public LocalOcrEngine() {
+        long start = System.nanoTime();
+        renderFontTemplates();
+        renderStrokeTemplates();
+        String sampleDir = System.getProperty(TEMPLATES_PROPERTY);
+        if (sampleDir != null) {
+            loadSampleTemplates(new File(sampleDir));
+        }
+        logger.log(Level.INFO, "Local OCR engine ready with " + templates.size() + " templates in "
+                   + (System.nanoTime() - start) / 1_000_000 + " ms");
+    }
+
+    @Override
+    public String getName() {
+        return "local";
+    }
+
+    @Override
+    public String extractTextFromImage(File imageFile) throws Exception {
+        BufferedImage image = ImageIO.read(imageFile);
+        if (image == null) {
+            throw new IOException("Unsupported image format: " + imageFile.getName());
+        }
+        return recognize(image);
+    }
+
+    @Override
+    public String extractTextFromImage(byte[] imageData, String filename) throws Exception {
+        BufferedImage image = ImageIO.read(new ByteArrayInputStream(imageData));
+        if (image == null) {
+            throw new IOException("Unsupported image format: " + filename);
+        }
+        return recognize(image);
+    }
+
+    /**
+     * Recognizes the expression in an image
+     * @return The expression, symbols ordered top-to-bottom by line and left-to-right
+     */
+    public String recognize(BufferedImage image) throws Exception {
+        Bitmap bitmap = Bitmap.binarize(image);
+        List<Box> symbols = segment(bitmap);
+        if (symbols.isEmpty()) {
+            throw new Exception("No text could be extracted from the image");
+        }
+
+        int lineHeight = 0;
+        for (Box box : symbols) {
+            lineHeight = Math.max(lineHeight, box.height());
+        }
+
+        StringBuilder text = new StringBuilder();
+        for (Box box : symbols) {
+            text.append(classify(bitmap, box, lineHeight));
+        }
+        logger.log(Level.INFO, "Local OCR recognized '" + text + "' from " + symbols.size() + " symbols");
+        return text.toString();
+    }
+
+    private char classify(Bitmap bitmap, Box box, int lineHeight) {
+        double aspect = (double) box.width() / box.height();
+
+        // Too short to carry a shape: a bar is a minus, a blob is a decimal point
+        if (box.height() < lineHeight * SHORT_SYMBOL_RATIO) {
+            return aspect > 1.4 ? '-' : '.';
+        }
+
+        float[] features = features(bitmap, box);
+        Template best = null;
+        double bestDistance = Double.MAX_VALUE;
+        for (Template template : templates) {
+            double distance = 0;
+            for (int i = 0; i < features.length; i++) {
+                double diff = features[i] - template.features[i];
+                distance += diff * diff;
+            }
+            distance += ASPECT_WEIGHT * Math.abs(Math.log(aspect / template.aspect));
+            distance += PARTS_WEIGHT * Math.abs(box.parts - template.parts);
+            if (distance < bestDistance) {
+                bestDistance = distance;
+                best = template;
+            }
+        }
+        return best.symbol;
+    }
+
+    /**
+     * Connected components (8-connectivity) merged into symbols. Components that overlap
+     * horizontally are merged so multi-part glyphs such as '÷' become one symbol.
+     */
+    private static List<Box> segment(Bitmap bitmap) {
+        List<Box> components = bitmap.components();
+        if (components.isEmpty()) {
+            return components;
+        }
+
+        // Drop specks relative to the largest component
+        int largest = 0;
+        for (Box box : components) {
+            largest = Math.max(largest, box.pixels);
+        }
+        int minPixels = Math.max(3, largest / 100);
+        List<Box> kept = new ArrayList<>();
+        for (Box box : components) {
+            if (box.pixels >= minPixels) {
+                kept.add(box);
+            }
+        }
+
+        kept.sort(Comparator.comparingInt(box -> box.minX));
+        List<Box> merged = new ArrayList<>();
+        for (Box box : kept) {
+            Box target = null;
+            for (Box candidate : merged) {
+                if (candidate.horizontalOverlap(box) > 0.5 * Math.min(candidate.width(), box.width())
+                        && candidate.verticalGap(box) < Math.max(candidate.width(), box.width())) {
+                    target = candidate;
+                    break;
+                }
+            }
+            if (target != null) {
+                target.absorb(box);
+            } else {
+                merged.add(box);
+            }
+        }
+
+        return orderByLines(merged);
+    }
+
+    /**
+     * Groups symbols into text lines by vertical overlap with each line's extent,
+     * then orders each line left to right
+     */
+    private static List<Box> orderByLines(List<Box> boxes) {
+        List<Box> extents = new ArrayList<>();
+        List<List<Box>> lines = new ArrayList<>();
+        List<Box> byTop = new ArrayList<>(boxes);
+        byTop.sort(Comparator.comparingInt(box -> box.minY));
+        for (Box box : byTop) {
+            int line = -1;
+            for (int i = 0; i < extents.size(); i++) {
+                Box extent = extents.get(i);
+                int overlap = Math.min(extent.maxY, box.maxY) - Math.max(extent.minY, box.minY) + 1;
+                if (overlap > 0.5 * Math.min(extent.height(), box.height())) {
+                    line = i;
+                    break;
+                }
+            }
+            if (line < 0) {
+                line = lines.size();
+                lines.add(new ArrayList<>());
+                extents.add(new Box(box.minX, box.minY));
+            }
+            lines.get(line).add(box);
+            extents.get(line).absorb(box);
+        }
+
+        List<Box> ordered = new ArrayList<>();
+        for (List<Box> line : lines) {
+            line.sort(Comparator.comparingInt(box -> box.minX));
+            ordered.addAll(line);
+        }
+        return ordered;
+    }
+
+    /**
+     * Ink density on a GRID x GRID raster of the box, scaled uniformly and centered
+     */
+    private static float[] features(Bitmap bitmap, Box box) {
+        float[] grid = new float[GRID * GRID];
+        float[] weight = new float[GRID * GRID];
+        int side = Math.max(box.width(), box.height());
+        int offsetX = (side - box.width()) / 2;
+        int offsetY = (side - box.height()) / 2;
+
+        for (int y = box.minY; y <= box.maxY; y++) {
+            int gy = Math.min(GRID - 1, (y - box.minY + offsetY) * GRID / side);
+            for (int x = box.minX; x <= box.maxX; x++) {
+                int gx = Math.min(GRID - 1, (x - box.minX + offsetX) * GRID / side);
+                int cell = gy * GRID + gx;
+                weight[cell]++;
+                if (bitmap.isInk(x, y)) {
+                    grid[cell]++;
+                }
+            }
+        }
+        for (int i = 0; i < grid.length; i++) {
+            if (weight[i] > 0) {
+                grid[i] /= weight[i];
+            }
+        }
+        return normalize(blur(grid));
+    }
+
+    /**
+     * 3x3 box blur so a stroke shifted by one cell still scores as a near match
+     */
+    private static float[] blur(float[] grid) {
+        float[] blurred = new float[grid.length];
+        for (int y = 0; y < GRID; y++) {
+            for (int x = 0; x < GRID; x++) {
+                float sum = 0;
+                int count = 0;
+                for (int dy = -1; dy <= 1; dy++) {
+                    for (int dx = -1; dx <= 1; dx++) {
+                        int nx = x + dx;
+                        int ny = y + dy;
+                        if (nx >= 0 && nx < GRID && ny >= 0 && ny < GRID) {
+                            sum += grid[ny * GRID + nx];
+                            count++;
+                        }
+                    }
+                }
+                blurred[y * GRID + x] = sum / count;
+            }
+        }
+        return blurred;
+    }
+
+    /**
+     * Scales to unit length so plain and bold strokes of the same shape compare equal
+     */
+    private static float[] normalize(float[] grid) {
+        double norm = 0;
+        for (float value : grid) {
+            norm += value * value;
+        }
+        if (norm > 0) {
+            float scale = (float) (1.0 / Math.sqrt(norm));
+            for (int i = 0; i < grid.length; i++) {
+                grid[i] *= scale;
+            }
+        }
+        return grid;
+    }
+
+    private void renderFontTemplates() {
+        for (String fontName : FONT_NAMES) {
+            for (int style : FONT_STYLES) {
+                Font font = new Font(fontName, style, 48);
+                for (int i = 0; i < RENDERED_SYMBOLS.length(); i++) {
+                    char glyph = RENDERED_SYMBOLS.charAt(i);
+                    if (font.canDisplay(glyph)) {
+                        addTemplate(renderGlyph(font, glyph), EMITTED_SYMBOLS.charAt(i));
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Single-stroke shapes for glyphs whose font forms vary most: a '1' without a foot
+     * (as in Roboto, Helvetica or handwriting), and pen-drawn operators
+     */
+    private void renderStrokeTemplates() {
+        int[][][] shapes = {
+            {{32, 8, 32, 56}, {32, 8, 22, 18}},   // 1 with flag
+            {{32, 8, 32, 56}},                    // 1 as a bar
+            {{32, 12, 32, 52}, {12, 32, 52, 32}}, // +
+            {{14, 14, 50, 50}, {50, 14, 14, 50}}, // x
+            {{44, 8, 20, 56}}                     // /
+        };
+        char[] symbols = {'1', '1', '+', '*', '/'};
+        for (float stroke : new float[] {3f, 6f}) {
+            for (int i = 0; i < shapes.length; i++) {
+                BufferedImage image = new BufferedImage(64, 64, BufferedImage.TYPE_BYTE_GRAY);
+                Graphics2D g = image.createGraphics();
+                try {
+                    g.setColor(Color.WHITE);
+                    g.fillRect(0, 0, image.getWidth(), image.getHeight());
+                    g.setColor(Color.BLACK);
+                    g.setStroke(new BasicStroke(stroke, BasicStroke.CAP_ROUND, BasicStroke.JOIN_ROUND));
+                    for (int[] line : shapes[i]) {
+                        g.drawLine(line[0], line[1], line[2], line[3]);
+                    }
+                } finally {
+                    g.dispose();
+                }
+                addTemplate(image, symbols[i]);
+            }
+        }
+    }
+
+    private static BufferedImage renderGlyph(Font font, char glyph) {
+        BufferedImage image = new BufferedImage(96, 96, BufferedImage.TYPE_BYTE_GRAY);
+        Graphics2D g = image.createGraphics();
+        try {
+            g.setColor(Color.WHITE);
+            g.fillRect(0, 0, image.getWidth(), image.getHeight());
+            g.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING, RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
+            g.setColor(Color.BLACK);
+            g.setFont(font);
+            FontMetrics metrics = g.getFontMetrics();
+            g.drawString(String.valueOf(glyph), (96 - metrics.charWidth(glyph)) / 2, 24 + metrics.getAscent());
+        } finally {
+            g.dispose();
+        }
+        return image;
+    }
+
+    private void loadSampleTemplates(File directory) {
+        File[] files = directory.listFiles();
+        if (files == null) {
+            logger.log(Level.WARNING, "OCR template directory not found: " + directory);
+            return;
+        }
+        int loaded = 0;
+        for (File file : files) {
+            String name = file.getName();
+            int separator = name.indexOf('_');
+            Character symbol = separator > 0 ? SAMPLE_LABELS.get(name.substring(0, separator)) : null;
+            if (symbol == null) {
+                continue;
+            }
+            try {
+                BufferedImage image = ImageIO.read(file);
+                if (image != null && addTemplate(image, symbol)) {
+                    loaded++;
+                }
+            } catch (IOException e) {
+                logger.log(Level.WARNING, "Could not read OCR template " + file, e);
+            }
+        }
+        logger.log(Level.INFO, "Loaded " + loaded + " OCR sample templates from " + directory);
+    }
+
+    /**
+     * Adds the ink of a single-symbol image as a template
+     */
+    private boolean addTemplate(BufferedImage image, char symbol) {
+        Bitmap bitmap = Bitmap.binarize(image);
+        List<Box> symbols = segment(bitmap);
+        if (symbols.isEmpty()) {
+            return false;
+        }
+        Box bounds = symbols.get(0);
+        for (Box box : symbols.subList(1, symbols.size())) {
+            bounds.absorb(box);
+        }
+        templates.add(new Template(symbol, features(bitmap, bounds), (double) bounds.width() / bounds.height(),
+                                   bounds.parts));
+        return true;
+    }
+
+    private static final class Template {
+        final char symbol;
+        final float[] features;
+        final double aspect;
+        final int parts;
+
+        Template(char symbol, float[] features, double aspect, int parts) {
+            this.symbol = symbol;
+            this.features = features;
+            this.aspect = aspect;
+            this.parts = parts;
+        }
+    }
+
+    /**
+     * Inclusive bounding box of one or more connected components
+     */
+    private static final class Box {
+        int minX;
+        int minY;
+        int maxX;
+        int maxY;
+        int pixels;
+        int parts = 1;
+
+        Box(int x, int y) {
+            minX = maxX = x;
+            minY = maxY = y;
+        }
+
+        void add(int x, int y) {
+            minX = Math.min(minX, x);
+            maxX = Math.max(maxX, x);
+            minY = Math.min(minY, y);
+            maxY = Math.max(maxY, y);
+            pixels++;
+        }
+
+        void absorb(Box other) {
+            minX = Math.min(minX, other.minX);
+            maxX = Math.max(maxX, other.maxX);
+            minY = Math.min(minY, other.minY);
+            maxY = Math.max(maxY, other.maxY);
+            pixels += other.pixels;
+            parts += other.parts;
+        }
+
+        int width() {
+            return maxX - minX + 1;
+        }
+
+        int height() {
+            return maxY - minY + 1;
+        }
+
+        int horizontalOverlap(Box other) {
+            return Math.min(maxX, other.maxX) - Math.max(minX, other.minX) + 1;
+        }
+
+        int verticalGap(Box other) {
+            return Math.max(other.minY - maxY, minY - other.maxY);
+        }
+    }
+
+    /**
+     * Binary ink mask of an image
+     */
+    static final class Bitmap {
+        final int width;
+        final int height;
+        private final boolean[] ink;
+
+        private Bitmap(int width, int height, boolean[] ink) {
+            this.width = width;
+            this.height = height;
+            this.ink = ink;
+        }
+
+        boolean isInk(int x, int y) {
+            return ink[y * width + x];
+        }
+
+        /**
+         * Grayscale + Otsu threshold; the minority class is taken as ink so both
+         * dark-on-light and light-on-dark images work
+         */
+        static Bitmap binarize(BufferedImage image) {
+            int width = image.getWidth();
+            int height = image.getHeight();
+            int[] gray = new int[width * height];
+            int[] histogram = new int[256];
+            int[] row = new int[width];
+            for (int y = 0; y < height; y++) {
+                image.getRGB(0, y, width, 1, row, 0, width);
+                for (int x = 0; x < width; x++) {
+                    int rgb = row[x];
+                    int luminance = (((rgb >> 16) & 0xFF) * 299 + ((rgb >> 8) & 0xFF) * 587 + (rgb & 0xFF) * 114) / 1000;
+                    gray[y * width + x] = luminance;
+                    histogram[luminance]++;
+                }
+            }
+
+            int threshold = otsuThreshold(histogram, gray.length);
+            int dark = 0;
+            for (int value : gray) {
+                if (value <= threshold) {
+                    dark++;
+                }
+            }
+            boolean darkInk = dark <= gray.length - dark;
+
+            boolean[] ink = new boolean[gray.length];
+            for (int i = 0; i < gray.length; i++) {
+                ink[i] = darkInk ? gray[i] <= threshold : gray[i] > threshold;
+            }
+            return new Bitmap(width, height, ink);
+        }
+
+        private static int otsuThreshold(int[] histogram, int total) {
+            long sum = 0;
+            for (int i = 0; i < 256; i++) {
+                sum += (long) i * histogram[i];
+            }
+            long sumBackground = 0;
+            int weightBackground = 0;
+            double bestVariance = -1;
+            int threshold = 127;
+            for (int t = 0; t < 256; t++) {
+                weightBackground += histogram[t];
+                if (weightBackground == 0) {
+                    continue;
+                }
+                int weightForeground = total - weightBackground;
+                if (weightForeground == 0) {
+                    break;
+                }
+                sumBackground += (long) t * histogram[t];
+                double meanBackground = (double) sumBackground / weightBackground;
+                double meanForeground = (double) (sum - sumBackground) / weightForeground;
+                double variance = (double) weightBackground * weightForeground
+                                  * (meanBackground - meanForeground) * (meanBackground - meanForeground);
+                if (variance > bestVariance) {
+                    bestVariance = variance;
+                    threshold = t;
+                }
+            }
+            return threshold;
+        }
+
+        /**
+         * Labels 8-connected ink regions with an explicit stack (no recursion depth limits)
+         */
+        List<Box> components() {
+            boolean[] visited = new boolean[ink.length];
+            int[] stack = new int[ink.length];
+            List<Box> boxes = new ArrayList<>();
+
+            for (int start = 0; start < ink.length; start++) {
+                if (!ink[start] || visited[start]) {
+                    continue;
+                }
+                Box box = new Box(start % width, start / width);
+                int top = 0;
+                stack[top++] = start;
+                visited[start] = true;
+                while (top > 0) {
+                    int index = stack[--top];
+                    int x = index % width;
+                    int y = index / width;
+                    box.add(x, y);
+                    for (int dy = -1; dy <= 1; dy++) {
+                        int ny = y + dy;
+                        if (ny < 0 || ny >= height) {
+                            continue;
+                        }
+                        for (int dx = -1; dx <= 1; dx++) {
+                            int nx = x + dx;
+                            if (nx < 0 || nx >= width) {
+                                continue;
+                            }
+                            int neighbour = ny * width + nx;
+                            if (ink[neighbour] && !visited[neighbour]) {
+                                visited[neighbour] = true;
+                                stack[top++] = neighbour;
+                            }
+                        }
+                    }
+                }
+                boxes.add(box);
+            }
+            return boxes;
+        }
+    }
+}
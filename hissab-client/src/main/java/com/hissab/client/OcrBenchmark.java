@@ -0,0 +1,251 @@
+package com.hissab.client;
+
+import javax.imageio.ImageIO;
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.FontMetrics;
+import java.awt.GradientPaint;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Measures accuracy and latency of an OCR engine.
+ * Usage: OcrBenchmark [local|web] [corpus-directory]
+ * The corpus directory holds images plus a labels.txt with lines "file.png expression".
+ * Without a directory a synthetic corpus of rendered expressions is generated, covering
+ * several fonts, sizes, colors and the ×/÷ operator forms, plus large unevenly lit JPEGs
+ * standing in for phone photos. Each corpus is run on the raw images and again after
+ * ImagePreprocessor, reporting payload size and end-to-end latency for both.
+ * Point -Dhissab.ocr.url at an OcrStubServer to exercise the web engine's hedging,
+ * retries and failover offline.
+ */
+public class OcrBenchmark {
+
+    private static final int SYNTHETIC_SAMPLES = 200;
+    private static final int WARMUP_SAMPLES = 20;
+    private static final String[] FONTS = {Font.SANS_SERIF, Font.SERIF, Font.MONOSPACED, Font.DIALOG};
+
+    public static void main(String[] args) throws Exception {
+        // Keep per-image engine logging out of the timings
+        Logger.getLogger("com.hissab.client").setLevel(Level.WARNING);
+
+        OcrEngine engine = OcrEngines.create(args.length > 0 ? args[0] : "local");
+        List<Sample> corpus = args.length > 1 ? loadCorpus(new File(args[1])) : syntheticCorpus(SYNTHETIC_SAMPLES);
+        System.out.println("=== OCR Benchmark: " + engine.getName() + " engine, " + corpus.size() + " images ===");
+
+        ImagePreprocessor preprocessor = new ImagePreprocessor();
+        try {
+            run("Raw images", engine, corpus, null);
+            run("Preprocessed", engine, corpus, preprocessor);
+            if (engine instanceof ResilientOcrEngine) {
+                System.out.println(((ResilientOcrEngine) engine).getMetrics());
+            }
+        } finally {
+            preprocessor.shutdown();
+        }
+    }
+
+    private static void run(String label, OcrEngine engine, List<Sample> corpus, ImagePreprocessor preprocessor) {
+        for (int i = 0; i < Math.min(WARMUP_SAMPLES, corpus.size()); i++) {
+            recognize(engine, corpus.get(i), preprocessor);
+        }
+
+        long[] latencies = new long[corpus.size()];
+        long payloadBytes = 0;
+        int correct = 0;
+        System.out.println("--- " + label + " ---");
+        for (int i = 0; i < corpus.size(); i++) {
+            Sample sample = corpus.get(i);
+            long start = System.nanoTime();
+            Recognition recognition = recognize(engine, sample, preprocessor);
+            latencies[i] = System.nanoTime() - start;
+            payloadBytes += recognition.payloadBytes;
+
+            if (normalize(recognition.text).equals(normalize(sample.expected))) {
+                correct++;
+            } else {
+                System.out.println("  miss " + sample.name + ": expected '" + sample.expected
+                                   + "', got '" + recognition.text + "'");
+            }
+        }
+
+        Arrays.sort(latencies);
+        System.out.printf("Accuracy: %d/%d (%.1f%%)%n", correct, corpus.size(), 100.0 * correct / corpus.size());
+        System.out.printf("Payload:  %.1f KB mean per image%n", payloadBytes / 1024.0 / corpus.size());
+        System.out.printf("Latency:  p50 %.2f ms, p95 %.2f ms, max %.2f ms%n",
+                          percentile(latencies, 0.50), percentile(latencies, 0.95),
+                          latencies[latencies.length - 1] / 1e6);
+    }
+
+    /**
+     * End-to-end recognition of one sample, including preprocessing when given
+     */
+    private static Recognition recognize(OcrEngine engine, Sample sample, ImagePreprocessor preprocessor) {
+        byte[] image = sample.image;
+        try {
+            if (preprocessor != null) {
+                image = preprocessor.submit(sample.image, sample.name).get().getImageData();
+            }
+            return new Recognition(engine.extractTextFromImage(image, sample.name), image.length);
+        } catch (Exception e) {
+            return new Recognition("", image.length);
+        }
+    }
+
+    private static double percentile(long[] sortedNanos, double percentile) {
+        int index = (int) Math.ceil(percentile * sortedNanos.length) - 1;
+        return sortedNanos[Math.max(0, index)] / 1e6;
+    }
+
+    /**
+     * Compares expressions the way the server will read them
+     */
+    private static String normalize(String expression) {
+        return expression.replaceAll("\\s", "")
+                         .replace('×', '*').replace('x', '*').replace('X', '*')
+                         .replace('÷', '/');
+    }
+
+    private static List<Sample> loadCorpus(File directory) throws IOException {
+        List<Sample> corpus = new ArrayList<>();
+        for (String line : Files.readAllLines(new File(directory, "labels.txt").toPath(), StandardCharsets.UTF_8)) {
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            String[] fields = line.split("\\s+", 2);
+            if (fields.length < 2) {
+                continue;
+            }
+            byte[] image = Files.readAllBytes(new File(directory, fields[0]).toPath());
+            corpus.add(new Sample(fields[0], fields[1], image));
+        }
+        return corpus;
+    }
+
+    private static List<Sample> syntheticCorpus(int size) throws IOException {
+        Random random = new Random(42);
+        List<Sample> corpus = new ArrayList<>();
+        for (int i = 0; i < size; i++) {
+            String expression = randomExpression(random);
+            // Display form uses the typeset operators half of the time
+            String display = random.nextBoolean() ? expression : expression.replace('*', '×').replace('/', '÷');
+
+            Font font = new Font(FONTS[random.nextInt(FONTS.length)],
+                                 random.nextBoolean() ? Font.PLAIN : Font.BOLD,
+                                 18 + random.nextInt(40));
+            Color background = new Color(200 + random.nextInt(56), 200 + random.nextInt(56), 200 + random.nextInt(56));
+            Color ink = new Color(random.nextInt(100), random.nextInt(100), random.nextInt(120));
+            if (i % 3 == 2) {
+                corpus.add(new Sample("photo-" + i + ".jpg", expression,
+                                      renderPhoto(display, font.deriveFont(font.getSize2D() * 3), background, ink, random)));
+            } else {
+                corpus.add(new Sample("synthetic-" + i + ".png", expression, render(display, font, background, ink)));
+            }
+        }
+        return corpus;
+    }
+
+    private static String randomExpression(Random random) {
+        StringBuilder expression = new StringBuilder();
+        int terms = 2 + random.nextInt(3);
+        boolean grouped = random.nextInt(4) == 0;
+        for (int i = 0; i < terms; i++) {
+            if (i > 0) {
+                expression.append("+-*/".charAt(random.nextInt(4)));
+            }
+            if (grouped && i == 0) {
+                expression.append('(');
+            }
+            expression.append(random.nextInt(random.nextBoolean() ? 10 : 1000));
+            if (grouped && i == 1) {
+                expression.append(')');
+            }
+        }
+        return expression.toString();
+    }
+
+    private static byte[] render(String text, Font font, Color background, Color ink) throws IOException {
+        BufferedImage measure = new BufferedImage(1, 1, BufferedImage.TYPE_INT_RGB);
+        Graphics2D probe = measure.createGraphics();
+        FontMetrics metrics = probe.getFontMetrics(font);
+        probe.dispose();
+
+        int padding = font.getSize();
+        BufferedImage image = new BufferedImage(metrics.stringWidth(text) + 2 * padding,
+                                                metrics.getHeight() + 2 * padding, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = image.createGraphics();
+        try {
+            g.setColor(background);
+            g.fillRect(0, 0, image.getWidth(), image.getHeight());
+            g.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING, RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
+            g.setColor(ink);
+            g.setFont(font);
+            g.drawString(text, padding, padding + metrics.getAscent());
+        } finally {
+            g.dispose();
+        }
+
+        ByteArrayOutputStream png = new ByteArrayOutputStream();
+        ImageIO.write(image, "png", png);
+        return png.toByteArray();
+    }
+
+    /**
+     * A phone-photo stand-in: 12 megapixels, lighting falling off across the page,
+     * text placed off-center, JPEG encoded
+     */
+    private static byte[] renderPhoto(String text, Font font, Color background, Color ink, Random random)
+            throws IOException {
+        BufferedImage image = new BufferedImage(4000, 3000, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = image.createGraphics();
+        try {
+            g.setPaint(new GradientPaint(0, 0, background, image.getWidth(), image.getHeight(), background.darker()));
+            g.fillRect(0, 0, image.getWidth(), image.getHeight());
+            g.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING, RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
+            g.setColor(ink);
+            g.setFont(font);
+            g.drawString(text, 200 + random.nextInt(1200), 600 + random.nextInt(1800));
+        } finally {
+            g.dispose();
+        }
+
+        ByteArrayOutputStream jpeg = new ByteArrayOutputStream();
+        ImageIO.write(image, "jpg", jpeg);
+        return jpeg.toByteArray();
+    }
+
+    private static final class Recognition {
+        final String text;
+        final int payloadBytes;
+
+        Recognition(String text, int payloadBytes) {
+            this.text = text;
+            this.payloadBytes = payloadBytes;
+        }
+    }
+
+    private static final class Sample {
+        final String name;
+        final String expected;
+        final byte[] image;
+
+        Sample(String name, String expected, byte[] image) {
+            this.name = name;
+            this.expected = expected;
+            this.image = image;
+        }
+    }
+}
@@ -0,0 +1,32 @@
+package com.hissab.client;
+
+import java.io.File;
+
+/**
+ * Extracts a mathematical expression from an image.
+ * Implementations return text already cleaned for calculation (e.g. "2+3*4").
+ */
+public interface OcrEngine {
+    
+    /**
+     * Short name used in configuration and logs (e.g. "web", "local")
+     */
+    String getName();
+    
+    /**
+     * Extract text from image file
+     * @param imageFile The image file to process
+     * @return Extracted text from the image
+     * @throws Exception if OCR processing fails
+     */
+    String extractTextFromImage(File imageFile) throws Exception;
+    
+    /**
+     * Extract text from image byte array
+     * @param imageData The image data as byte array
+     * @param filename The original file name (used for content type detection and logging)
+     * @return Extracted text from the image
+     * @throws Exception if OCR processing fails
+     */
+    String extractTextFromImage(byte[] imageData, String filename) throws Exception;
+}
@@ -0,0 +1,59 @@
+package com.hissab.client;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Logger;
+import java.util.logging.Level;
+
+/**
+ * Selects the OCR backend for this deployment.
+ * Set -Dhissab.ocr.engine=local to recognize images in-process, or "web" (default)
+ * to use the OCR.space API. The web engine is wrapped with hedging, retries and a
+ * circuit breaker, failing over to -Dhissab.ocr.fallback (default "local", or "none").
+ */
+public final class OcrEngines {
+    
+    private static final Logger logger = Logger.getLogger(OcrEngines.class.getName());
+    
+    public static final String ENGINE_PROPERTY = "hissab.ocr.engine";
+    public static final String FALLBACK_PROPERTY = "hissab.ocr.fallback";
+    
+    private OcrEngines() {
+    }
+    
+    /**
+     * Creates the engine configured by the hissab.ocr.engine system property
+     */
+    public static OcrEngine create() {
+        return create(System.getProperty(ENGINE_PROPERTY, "web"));
+    }
+    
+    /**
+     * Creates an engine by name
+     * @param name "web" or "local"
+     */
+    public static OcrEngine create(String name) {
+        switch (name.trim().toLowerCase()) {
+            case "local":
+                logger.log(Level.INFO, "Using local in-process OCR engine");
+                return new LocalOcrEngine();
+            case "web":
+                logger.log(Level.INFO, "Using web OCR engine (OCR.space)");
+                return resilientWeb(System.getProperty(FALLBACK_PROPERTY, "local"));
+            default:
+                throw new IllegalArgumentException("Unknown OCR engine '" + name + "' (expected 'web' or 'local')");
+        }
+    }
+    
+    private static OcrEngine resilientWeb(String fallback) {
+        List<ResilientOcrEngine.Backend> backends = new ArrayList<>();
+        backends.add(ResilientOcrEngine.backend("web", WebOCRService::new, true));
+        if (!"none".equalsIgnoreCase(fallback.trim())) {
+            if ("web".equalsIgnoreCase(fallback.trim())) {
+                throw new IllegalArgumentException("The OCR fallback must differ from the primary engine");
+            }
+            backends.add(ResilientOcrEngine.backend(fallback.trim().toLowerCase(), () -> create(fallback), false));
+        }
+        return new ResilientOcrEngine(backends);
+    }
+}
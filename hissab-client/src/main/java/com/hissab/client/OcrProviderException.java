@@ -0,0 +1,23 @@
+package com.hissab.client;
+
+import java.io.IOException;
+
+/**
+ * The OCR provider answered but failed on its side, e.g. OCR.space reporting
+ * IsErroredOnProcessing with HTTP 200, or a body that is not its JSON at all.
+ * Unlike an unreadable image this says nothing about the request, so it is an
+ * IOException: ResilientOcrEngine retries it, counts it against the breaker and
+ * fails over to the next backend.
+ */
+public class OcrProviderException extends IOException {
+
+    private static final long serialVersionUID = 1L;
+
+    public OcrProviderException(String message) {
+        super(message);
+    }
+
+    public OcrProviderException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
@@ -0,0 +1,455 @@
+package com.hissab.client;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+import java.util.logging.Level;
+
+/**
+ * OCR results keyed by the SHA-256 of the image bytes, so a re-submitted image skips
+ * preprocessing and OCR entirely.
+ * Two tiers: an in-memory LRU, and a fixed-size memory-mapped slot file under
+ * ~/.hissab that survives client restarts. Both are bounded by entry count and TTL.
+ * The slot file is locked for as long as the process runs, as the offline journal is;
+ * a second client process finding it locked caches in memory only.
+ * Optionally a perceptual hash (dHash of the ink region) also matches re-encoded or
+ * rescaled copies of an image; this is off by default because two different
+ * expressions written in the same place can hash close together.
+ */
+public class OcrResultCache {
+
+    private static final Logger logger = Logger.getLogger(OcrResultCache.class.getName());
+
+    public static final String ENABLED_PROPERTY = "hissab.ocr.cache";
+    public static final String DIRECTORY_PROPERTY = "hissab.ocr.cache.dir";
+    public static final String MEMORY_ENTRIES_PROPERTY = "hissab.ocr.cache.memoryEntries";
+    public static final String DISK_ENTRIES_PROPERTY = "hissab.ocr.cache.diskEntries";
+    public static final String TTL_HOURS_PROPERTY = "hissab.ocr.cache.ttlHours";
+    public static final String PERCEPTUAL_PROPERTY = "hissab.ocr.cache.perceptual";
+
+    private static final String INDEX_FILE = "ocr-cache.idx";
+
+    // File header: magic "HSOC", format version, slot count
+    private static final int MAGIC = 0x48534F43;
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 16;
+
+    // Slot: used flag, SHA-256, dHash, stored-at millis, text length, UTF-8 text
+    private static final int SLOT_SIZE = 256;
+    private static final int SLOT_HASH = 1;
+    private static final int SLOT_DHASH = SLOT_HASH + 32;
+    private static final int SLOT_STORED_AT = SLOT_DHASH + 8;
+    private static final int SLOT_TEXT_LENGTH = SLOT_STORED_AT + 8;
+    private static final int SLOT_TEXT = SLOT_TEXT_LENGTH + 2;
+    private static final int MAX_DISK_TEXT_BYTES = SLOT_SIZE - SLOT_TEXT;
+
+    // Open addressing window; the oldest slot in the window is evicted when all are taken
+    private static final int MAX_PROBES = 16;
+
+    // Bits of 64 two dHashes may differ by and still count as the same image
+    private static final int PERCEPTUAL_MAX_DISTANCE = 3;
+
+    // Side the image is subsampled to (at least) before hashing
+    private static final int PERCEPTUAL_SAMPLE_SIDE = 256;
+
+    private final long ttlMillis;
+    private final boolean perceptual;
+    private final Map<String, Entry> memory;
+    private final int diskSlots;
+    private MappedByteBuffer disk;
+
+    private long hits;
+    private long misses;
+
+    public OcrResultCache() {
+        this(new File(System.getProperty(DIRECTORY_PROPERTY, System.getProperty("user.home") + File.separator + ".hissab")),
+             Integer.getInteger(MEMORY_ENTRIES_PROPERTY, 256),
+             Integer.getInteger(DISK_ENTRIES_PROPERTY, 4096),
+             TimeUnit.HOURS.toMillis(Long.getLong(TTL_HOURS_PROPERTY, 24L * 7)),
+             Boolean.getBoolean(PERCEPTUAL_PROPERTY));
+    }
+
+    public OcrResultCache(File directory, int memoryEntries, int diskEntries, long ttlMillis, boolean perceptual) {
+        this.ttlMillis = ttlMillis;
+        this.perceptual = perceptual;
+        this.diskSlots = diskEntries;
+        this.memory = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                return size() > memoryEntries;
+            }
+        };
+
+        if (diskEntries > 0) {
+            try {
+                this.disk = openIndex(new File(directory, INDEX_FILE), diskEntries);
+            } catch (IndexInUseException e) {
+                logger.log(Level.INFO, e.getMessage() + ", caching in memory only");
+            } catch (IOException e) {
+                // The memory tier still works; the next client start tries again
+                logger.log(Level.WARNING, "OCR cache index unavailable, caching in memory only", e);
+            }
+        }
+    }
+
+    /**
+     * Whether caching is enabled (-Dhissab.ocr.cache, default true)
+     */
+    public static boolean isEnabled() {
+        return Boolean.parseBoolean(System.getProperty(ENABLED_PROPERTY, "true"));
+    }
+
+    /**
+     * Computes the lookup key of an encoded image
+     */
+    public Key keyFor(byte[] imageData) {
+        byte[] sha256;
+        try {
+            sha256 = MessageDigest.getInstance("SHA-256").digest(imageData);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+        return new Key(sha256, perceptual ? perceptualHash(imageData) : 0L);
+    }
+
+    /**
+     * @return The cached OCR text, or null on a miss
+     */
+    public synchronized String get(Key key) {
+        long now = System.currentTimeMillis();
+
+        Entry entry = memory.get(key.hex);
+        if (entry != null && !isExpired(entry.storedAt, now)) {
+            return hit(key, "memory", entry.text);
+        }
+
+        entry = readDisk(key, now);
+        if (entry != null) {
+            memory.put(key.hex, entry);
+            return hit(key, "disk", entry.text);
+        }
+
+        if (key.dHash != 0) {
+            entry = findSimilar(key.dHash, now);
+            if (entry != null) {
+                return hit(key, "perceptual", entry.text);
+            }
+        }
+
+        misses++;
+        return null;
+    }
+
+    public synchronized void put(Key key, String text) {
+        Entry entry = new Entry(text, key.dHash, System.currentTimeMillis());
+        memory.put(key.hex, entry);
+        writeDisk(key, entry);
+    }
+
+    private String hit(Key key, String tier, String text) {
+        hits++;
+        logger.log(Level.INFO, "OCR cache hit (" + tier + ") for " + key.hex.substring(0, 12)
+                   + ", hit rate " + hits + "/" + (hits + misses));
+        return text;
+    }
+
+    private boolean isExpired(long storedAt, long now) {
+        return now - storedAt > ttlMillis;
+    }
+
+    private static MappedByteBuffer openIndex(File file, int slots) throws IOException {
+        File directory = file.getParentFile();
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Cannot create " + directory);
+        }
+        long size = HEADER_SIZE + (long) slots * SLOT_SIZE;
+        FileChannel channel = new RandomAccessFile(file, "rw").getChannel();
+        try {
+            // Two processes writing the same slot could pair one image's hash with another's text.
+            // The channel stays open, holding the lock, until the process exits.
+            FileLock lock;
+            try {
+                lock = channel.tryLock();
+            } catch (OverlappingFileLockException e) {
+                lock = null;
+            }
+            if (lock == null) {
+                throw new IndexInUseException("OCR cache index " + file + " is in use by another client");
+            }
+            boolean fresh = channel.size() != size;
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+            if (fresh || buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION || buffer.getInt(8) != slots) {
+                // New file, other format or resized: start empty
+                for (long i = 0; i < size; i++) {
+                    buffer.put((int) i, (byte) 0);
+                }
+                buffer.putInt(0, MAGIC);
+                buffer.putInt(4, VERSION);
+                buffer.putInt(8, slots);
+                buffer.force();
+                logger.log(Level.INFO, "Created OCR cache index " + file + " (" + slots + " entries)");
+            }
+            return buffer;
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    private static final class IndexInUseException extends IOException {
+        IndexInUseException(String message) {
+            super(message);
+        }
+    }
+
+    private int slotOffset(Key key, int probe) {
+        int home = ((key.sha256[0] & 0xFF) << 24 | (key.sha256[1] & 0xFF) << 16
+                    | (key.sha256[2] & 0xFF) << 8 | (key.sha256[3] & 0xFF)) & Integer.MAX_VALUE;
+        return HEADER_SIZE + ((home + probe) % diskSlots) * SLOT_SIZE;
+    }
+
+    private boolean slotMatches(int offset, Key key) {
+        for (int i = 0; i < key.sha256.length; i++) {
+            if (disk.get(offset + SLOT_HASH + i) != key.sha256[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private Entry readDisk(Key key, long now) {
+        if (disk == null) {
+            return null;
+        }
+        for (int probe = 0; probe < Math.min(MAX_PROBES, diskSlots); probe++) {
+            int offset = slotOffset(key, probe);
+            if (disk.get(offset) == 0) {
+                return null; // slots are never cleared, so the key is not further along
+            }
+            if (slotMatches(offset, key)) {
+                long storedAt = disk.getLong(offset + SLOT_STORED_AT);
+                return isExpired(storedAt, now) ? null : readEntry(offset);
+            }
+        }
+        return null;
+    }
+
+    private Entry readEntry(int offset) {
+        byte[] text = new byte[disk.getShort(offset + SLOT_TEXT_LENGTH)];
+        for (int i = 0; i < text.length; i++) {
+            text[i] = disk.get(offset + SLOT_TEXT + i);
+        }
+        return new Entry(new String(text, StandardCharsets.UTF_8),
+                         disk.getLong(offset + SLOT_DHASH), disk.getLong(offset + SLOT_STORED_AT));
+    }
+
+    private void writeDisk(Key key, Entry entry) {
+        byte[] text = entry.text.getBytes(StandardCharsets.UTF_8);
+        if (disk == null || text.length > MAX_DISK_TEXT_BYTES) {
+            return;
+        }
+
+        // Same key, free or expired slot first; otherwise evict the oldest in the window
+        int target = -1;
+        long oldest = Long.MAX_VALUE;
+        for (int probe = 0; probe < Math.min(MAX_PROBES, diskSlots); probe++) {
+            int offset = slotOffset(key, probe);
+            if (disk.get(offset) == 0 || slotMatches(offset, key)
+                    || isExpired(disk.getLong(offset + SLOT_STORED_AT), entry.storedAt)) {
+                target = offset;
+                break;
+            }
+            long storedAt = disk.getLong(offset + SLOT_STORED_AT);
+            if (storedAt < oldest) {
+                oldest = storedAt;
+                target = offset;
+            }
+        }
+
+        disk.put(target, (byte) 0);
+        for (int i = 0; i < key.sha256.length; i++) {
+            disk.put(target + SLOT_HASH + i, key.sha256[i]);
+        }
+        disk.putLong(target + SLOT_DHASH, entry.dHash);
+        disk.putLong(target + SLOT_STORED_AT, entry.storedAt);
+        disk.putShort(target + SLOT_TEXT_LENGTH, (short) text.length);
+        for (int i = 0; i < text.length; i++) {
+            disk.put(target + SLOT_TEXT + i, text[i]);
+        }
+        // Mark used last so a torn write is never read back as a valid entry
+        disk.put(target, (byte) 1);
+        disk.force();
+    }
+
+    private Entry findSimilar(long dHash, long now) {
+        for (Entry entry : memory.values()) {
+            if (entry.dHash != 0 && !isExpired(entry.storedAt, now)
+                    && Long.bitCount(entry.dHash ^ dHash) <= PERCEPTUAL_MAX_DISTANCE) {
+                return entry;
+            }
+        }
+        if (disk == null) {
+            return null;
+        }
+        for (int slot = 0; slot < diskSlots; slot++) {
+            int offset = HEADER_SIZE + slot * SLOT_SIZE;
+            long candidate = disk.getLong(offset + SLOT_DHASH);
+            if (disk.get(offset) != 0 && candidate != 0
+                    && Long.bitCount(candidate ^ dHash) <= PERCEPTUAL_MAX_DISTANCE
+                    && !isExpired(disk.getLong(offset + SLOT_STORED_AT), now)) {
+                return readEntry(offset);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 64-bit difference hash of the ink region: decode subsampled, crop to pixels clearly
+     * darker than the page, shrink to 9x8 and compare horizontal neighbours.
+     * Returns 0 when the image cannot be decoded.
+     */
+    static long perceptualHash(byte[] imageData) {
+        BufferedImage image;
+        try {
+            image = decodeSubsampled(imageData);
+        } catch (IOException e) {
+            return 0L;
+        }
+        if (image == null) {
+            return 0L;
+        }
+
+        int width = image.getWidth();
+        int height = image.getHeight();
+        int[] gray = new int[width * height];
+        long sum = 0;
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int rgb = image.getRGB(x, y);
+                int luminance = (((rgb >> 16) & 0xFF) * 299 + ((rgb >> 8) & 0xFF) * 587 + (rgb & 0xFF) * 114) / 1000;
+                gray[y * width + x] = luminance;
+                sum += luminance;
+            }
+        }
+
+        int inkLevel = (int) (sum / gray.length * 6 / 10);
+        int left = width;
+        int top = height;
+        int right = -1;
+        int bottom = -1;
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                if (gray[y * width + x] < inkLevel) {
+                    left = Math.min(left, x);
+                    right = Math.max(right, x);
+                    top = Math.min(top, y);
+                    bottom = Math.max(bottom, y);
+                }
+            }
+        }
+        if (right < 0) {
+            left = 0;
+            top = 0;
+            right = width - 1;
+            bottom = height - 1;
+        }
+
+        // Mean luminance of a 9x8 grid over the crop
+        double[] cells = new double[9 * 8];
+        int[] counts = new int[cells.length];
+        for (int y = top; y <= bottom; y++) {
+            int cy = Math.min(7, (y - top) * 8 / (bottom - top + 1));
+            for (int x = left; x <= right; x++) {
+                int cx = Math.min(8, (x - left) * 9 / (right - left + 1));
+                cells[cy * 9 + cx] += gray[y * width + x];
+                counts[cy * 9 + cx]++;
+            }
+        }
+
+        long hash = 0;
+        for (int y = 0; y < 8; y++) {
+            for (int x = 0; x < 8; x++) {
+                double current = counts[y * 9 + x] == 0 ? 0 : cells[y * 9 + x] / counts[y * 9 + x];
+                double next = counts[y * 9 + x + 1] == 0 ? 0 : cells[y * 9 + x + 1] / counts[y * 9 + x + 1];
+                hash = (hash << 1) | (current < next ? 1 : 0);
+            }
+        }
+        // 0 is reserved for "no perceptual hash"
+        return hash == 0 ? 1 : hash;
+    }
+
+    private static BufferedImage decodeSubsampled(byte[] imageData) throws IOException {
+        try (ImageInputStream input = ImageIO.createImageInputStream(new ByteArrayInputStream(imageData))) {
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(input);
+            if (!readers.hasNext()) {
+                return null;
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(input, true, true);
+                int longSide = Math.max(reader.getWidth(0), reader.getHeight(0));
+                int step = Math.max(1, longSide / PERCEPTUAL_SAMPLE_SIDE);
+                ImageReadParam param = reader.getDefaultReadParam();
+                param.setSourceSubsampling(step, step, 0, 0);
+                return reader.read(0, param);
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    /**
+     * Content hash of an image plus its optional perceptual hash
+     */
+    public static final class Key {
+        private final byte[] sha256;
+        private final String hex;
+        private final long dHash;
+
+        Key(byte[] sha256, long dHash) {
+            this.sha256 = Arrays.copyOf(sha256, sha256.length);
+            StringBuilder hex = new StringBuilder(sha256.length * 2);
+            for (byte b : sha256) {
+                hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+            }
+            this.hex = hex.toString();
+            this.dHash = dHash;
+        }
+
+        @Override
+        public String toString() {
+            return hex;
+        }
+    }
+
+    private static final class Entry {
+        final String text;
+        final long dHash;
+        final long storedAt;
+
+        Entry(String text, long dHash, long storedAt) {
+            this.text = text;
+            this.dHash = dHash;
+            this.storedAt = storedAt;
+        }
+    }
+}
@@ -0,0 +1,137 @@
+package com.hissab.client;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.logging.Logger;
+import java.util.logging.Level;
+
+/**
+ * Local stand-in for the OCR.space parse endpoint, for testing the web engine's
+ * hedging, retries and circuit breaker without network access.
+ * Accepts the same multipart upload, recognizes it with LocalOcrEngine and answers
+ * in the OCR.space JSON shape, with injectable latency and failures.
+ * Usage: OcrStubServer [port] [delayMillis] [slowFraction] [slowMillis] [errorFraction]
+ * then run the client with -Dhissab.ocr.url=http://localhost:port/parse/image
+ */
+public class OcrStubServer {
+
+    private static final Logger logger = Logger.getLogger(OcrStubServer.class.getName());
+
+    private final LocalOcrEngine engine = new LocalOcrEngine();
+    private final long delayMillis;
+    private final double slowFraction;
+    private final long slowMillis;
+    private final double errorFraction;
+
+    public OcrStubServer(long delayMillis, double slowFraction, long slowMillis, double errorFraction) {
+        this.delayMillis = delayMillis;
+        this.slowFraction = slowFraction;
+        this.slowMillis = slowMillis;
+        this.errorFraction = errorFraction;
+    }
+
+    public static void main(String[] args) throws IOException {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : 8099;
+        OcrStubServer stub = new OcrStubServer(
+                args.length > 1 ? Long.parseLong(args[1]) : 20,
+                args.length > 2 ? Double.parseDouble(args[2]) : 0.05,
+                args.length > 3 ? Long.parseLong(args[3]) : 2000,
+                args.length > 4 ? Double.parseDouble(args[4]) : 0.02);
+
+        HttpServer server = HttpServer.create(new InetSocketAddress(port), 0);
+        server.createContext("/parse/image", stub::handle);
+        server.setExecutor(Executors.newFixedThreadPool(32));
+        server.start();
+        logger.log(Level.INFO, "OCR stub listening on http://localhost:" + port + "/parse/image");
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try {
+            byte[] body = exchange.getRequestBody().readAllBytes();
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            Thread.sleep(random.nextDouble() < slowFraction ? slowMillis : delayMillis);
+            if (random.nextDouble() < errorFraction) {
+                respond(exchange, 503, "{\"ErrorMessage\":[\"Injected failure\"]}");
+                return;
+            }
+
+            byte[] image = filePart(body, exchange.getRequestHeaders().getFirst("Content-Type"));
+            JSONObject response = new JSONObject();
+            if (image == null) {
+                response.put("IsErroredOnProcessing", true);
+                response.put("ErrorMessage", new JSONArray().put("No file part in request"));
+            } else {
+                response.put("IsErroredOnProcessing", false);
+                response.put("ParsedResults", new JSONArray().put(
+                        new JSONObject().put("ParsedText", engine.extractTextFromImage(image, "upload"))));
+            }
+            respond(exchange, 200, response.toString());
+        } catch (Exception e) {
+            logger.log(Level.WARNING, "Stub OCR failed", e);
+            respond(exchange, 500, "{\"ErrorMessage\":[\"" + e.getMessage() + "\"]}");
+        } finally {
+            exchange.close();
+        }
+    }
+
+    /**
+     * Returns the content of the multipart part named "file", or null
+     */
+    private static byte[] filePart(byte[] body, String contentType) {
+        int index = contentType == null ? -1 : contentType.indexOf("boundary=");
+        if (index < 0) {
+            return null;
+        }
+        byte[] delimiter = ("--" + contentType.substring(index + "boundary=".length()).replace("\"", "").split(";")[0])
+                .getBytes(StandardCharsets.ISO_8859_1);
+        int partStart = indexOf(body, delimiter, 0);
+        while (partStart >= 0) {
+            int headersEnd = indexOf(body, "\r\n\r\n".getBytes(StandardCharsets.ISO_8859_1), partStart);
+            int next = indexOf(body, delimiter, partStart + delimiter.length);
+            if (headersEnd < 0 || next < 0) {
+                return null;
+            }
+            String headers = new String(body, partStart, headersEnd - partStart, StandardCharsets.ISO_8859_1);
+            if (headers.contains("name=\"file\"")) {
+                int contentStart = headersEnd + 4;
+                int contentEnd = next - 2; // the CRLF before the next delimiter
+                byte[] content = new byte[contentEnd - contentStart];
+                System.arraycopy(body, contentStart, content, 0, content.length);
+                return content;
+            }
+            partStart = next;
+        }
+        return null;
+    }
+
+    private static int indexOf(byte[] data, byte[] pattern, int from) {
+        outer:
+        for (int i = from; i <= data.length - pattern.length; i++) {
+            for (int j = 0; j < pattern.length; j++) {
+                if (data[i + j] != pattern[j]) {
+                    continue outer;
+                }
+            }
+            return i;
+        }
+        return -1;
+    }
+
+    private static void respond(HttpExchange exchange, int status, String json) throws IOException {
+        byte[] bytes = json.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+}
@@ -0,0 +1,425 @@
+package com.hissab.client;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.logging.Logger;
+import java.util.logging.Level;
+import java.util.zip.CRC32;
+
+/**
+ * Durable outbox of calculations made on the client (offline, or in local evaluation
+ * mode) that the server has not yet recorded.
+ * A fixed-size memory-mapped ring at ~/.hissab/offline-journal.dat, so disk use is
+ * bounded. Records are appended and forced to disk before {@link #append} returns; the
+ * header only holds the position and sequence number of the oldest unconfirmed record.
+ * After a crash the records are recovered by scanning from there while sequence numbers
+ * are consecutive and checksums match, which also discards a torn final write.
+ * Every record carries a random idempotency key, so replaying a batch the server already
+ * stored (e.g. after a crash before the acknowledgement) does not duplicate it.
+ * Calculations the server refuses outright are moved to rejected-traces.txt next to the
+ * journal by {@link #reject}, so they do not block the ones behind them.
+ */
+public class OfflineJournal {
+
+    private static final Logger logger = Logger.getLogger(OfflineJournal.class.getName());
+
+    public static final String DIRECTORY_PROPERTY = "hissab.journal.dir";
+    public static final String MAX_BYTES_PROPERTY = "hissab.journal.maxBytes";
+
+    private static final String JOURNAL_FILE = "offline-journal.dat";
+    private static final String REJECTED_FILE = "rejected-traces.txt";
+
+    // Header: magic "HSOJ", format version, offset and sequence number of the oldest unconfirmed record
+    private static final int MAGIC = 0x48534F4A;
+    private static final int VERSION = 1;
+    private static final int HEADER_HEAD = 8;
+    private static final int HEADER_HEAD_SEQUENCE = 16;
+    private static final int HEADER_SIZE = 64;
+
+    // Record: payload length, CRC32 of sequence and payload, sequence number, then the payload
+    // (idempotency key, timestamp, expression, result). A length of -1 marks a wrap to the start.
+    private static final int RECORD_HEADER = 16;
+    private static final int WRAP = -1;
+
+    // Width of the server's trace_text.text column, in characters; longer traces would never be accepted
+    public static final int MAX_TEXT_LENGTH = 255;
+
+    private final File rejectedFile;
+    private final FileChannel channel;
+    private final FileLock lock;
+    private final MappedByteBuffer buffer;
+    private final int capacity;
+
+    private int head;
+    private long headSequence;
+    private int tail;
+    private long nextSequence;
+    private int pending;
+    // Position of the wrap marker the pending records continue past, or -1
+    private int wrapAt = -1;
+
+    public OfflineJournal() throws IOException {
+        this(new File(System.getProperty(DIRECTORY_PROPERTY, System.getProperty("user.home") + File.separator + ".hissab")),
+             Integer.getInteger(MAX_BYTES_PROPERTY, 4 * 1024 * 1024));
+    }
+
+    public OfflineJournal(File directory, int maxBytes) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Cannot create journal directory " + directory);
+        }
+        File file = new File(directory, JOURNAL_FILE);
+        this.rejectedFile = new File(directory, REJECTED_FILE);
+        this.channel = new RandomAccessFile(file, "rw").getChannel();
+        FileLock acquired;
+        try {
+            acquired = channel.tryLock();
+        } catch (OverlappingFileLockException e) {
+            acquired = null;
+        }
+        if (acquired == null) {
+            channel.close();
+            throw new IOException("Journal " + file + " is in use by another client");
+        }
+        this.lock = acquired;
+
+        boolean fresh = channel.size() < HEADER_SIZE;
+        // An existing journal keeps its size, so records are never cut off by a smaller setting
+        this.capacity = fresh ? Math.max(maxBytes, HEADER_SIZE + 4096) : (int) channel.size();
+        this.buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+
+        if (fresh || buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+            if (!fresh) {
+                logger.log(Level.WARNING, "Unrecognized journal " + file + ", starting a new one");
+            }
+            head = HEADER_SIZE;
+            headSequence = 1;
+            buffer.putInt(0, MAGIC);
+            buffer.putInt(4, VERSION);
+            writeHead();
+        } else {
+            head = (int) buffer.getLong(HEADER_HEAD);
+            headSequence = buffer.getLong(HEADER_HEAD_SEQUENCE);
+        }
+        recover();
+        if (pending > 0) {
+            logger.log(Level.INFO, "Offline journal holds " + pending + " calculations not yet sent to the server");
+        }
+    }
+
+    /**
+     * Finds the end of the valid records after the head
+     */
+    private void recover() {
+        int position = head;
+        long sequence = headSequence;
+        int count = 0;
+        Record record;
+        while ((record = readAt(position, sequence)) != null) {
+            if (record.next < position && position + 4 <= capacity) {
+                wrapAt = position;
+            }
+            position = record.next;
+            sequence++;
+            count++;
+        }
+        nextSequence = sequence;
+        pending = count;
+        if (count == 0) {
+            head = HEADER_SIZE;
+            tail = HEADER_SIZE;
+            writeHead();
+        } else if (position >= head && head > HEADER_SIZE && readWrap(position)) {
+            // A wrap marker where an unwrapped scan stopped was written just before a record that never
+            // made it. With the head at the start there is no room there, so such a marker is a leftover
+            // from an earlier cycle and writing goes on at the end of the records.
+            tail = HEADER_SIZE;
+            if (position + 4 <= capacity) {
+                wrapAt = position;
+            }
+        } else {
+            tail = position;
+        }
+    }
+
+    /**
+     * Appends a calculation and forces it to disk
+     * @return false if the journal is full, or the expression or result is longer than
+     *         {@link #MAX_TEXT_LENGTH}, and the calculation was not recorded
+     */
+    public synchronized boolean append(String expression, String result, long timestampMillis) {
+        if (isTooLong(expression) || isTooLong(result)) {
+            logger.log(Level.WARNING, "Calculation too long for the server's trace table, not recording: " + expression);
+            return false;
+        }
+        byte[] expressionBytes = expression.getBytes(StandardCharsets.UTF_8);
+        byte[] resultBytes = result.getBytes(StandardCharsets.UTF_8);
+        int payload = 16 + 8 + 2 + expressionBytes.length + 2 + resultBytes.length;
+        int size = RECORD_HEADER + payload;
+
+        int position = tail;
+        boolean wrap = false;
+        if (position + size > capacity) {
+            // Records never straddle the end; continue at the start if the oldest record has moved on
+            wrap = true;
+            position = HEADER_SIZE;
+        }
+        if (!hasRoom(position, size, wrap)) {
+            logger.log(Level.WARNING, "Offline journal full (" + capacity + " bytes), not recording: " + expression);
+            return false;
+        }
+
+        if (wrap && tail + 4 <= capacity) {
+            // Marker first: if the record below is torn, recovery still resumes writing at the start
+            buffer.putInt(tail, WRAP);
+            buffer.force(tail, 4);
+            wrapAt = tail;
+        }
+
+        UUID key = UUID.randomUUID();
+        buffer.putLong(position + RECORD_HEADER, key.getMostSignificantBits());
+        buffer.putLong(position + RECORD_HEADER + 8, key.getLeastSignificantBits());
+        buffer.putLong(position + RECORD_HEADER + 16, timestampMillis);
+        int offset = position + RECORD_HEADER + 24;
+        offset = putText(offset, expressionBytes);
+        putText(offset, resultBytes);
+        buffer.putLong(position + 8, nextSequence);
+        buffer.putInt(position + 4, checksum(position + 8, 8 + payload));
+        // The length goes last: until it is written the scan sees no record here
+        buffer.putInt(position, payload);
+        buffer.force(position, size);
+
+        tail = position + size;
+        nextSequence++;
+        pending++;
+        return true;
+    }
+
+    private boolean hasRoom(int position, int size, boolean wrap) {
+        if (pending == 0) {
+            return position + size <= capacity;
+        }
+        boolean wrapped = tail < head;
+        if (wrap) {
+            // Moving to the start is only possible while the ring has not wrapped yet
+            return !wrapped && position + size < head;
+        }
+        // Keep a gap so a full ring is never mistaken for an empty one
+        return wrapped ? position + size < head : position + size <= capacity;
+    }
+
+    /**
+     * Returns up to {@code max} of the oldest unconfirmed calculations, without removing them
+     */
+    public synchronized Batch peek(int max) {
+        List<Entry> entries = new ArrayList<>();
+        int position = head;
+        long sequence = headSequence;
+        Record record;
+        while (entries.size() < max && sequence < nextSequence && (record = readAt(position, sequence)) != null) {
+            entries.add(record.entry);
+            position = record.next;
+            sequence++;
+        }
+        return new Batch(entries, position, sequence);
+    }
+
+    /**
+     * Marks everything returned by a {@link #peek} as recorded by the server
+     */
+    public synchronized void acknowledge(Batch batch) {
+        if (batch.entries.isEmpty()) {
+            return;
+        }
+        int previousHead = head;
+        pending -= (int) (batch.endSequence - headSequence);
+        head = batch.endPosition;
+        headSequence = batch.endSequence;
+        if (pending == 0) {
+            // Start over at the front; stale records there fail the sequence check
+            head = HEADER_SIZE;
+            tail = HEADER_SIZE;
+        }
+        writeHead();
+        if (wrapAt >= 0 && (pending == 0 || head < previousHead)) {
+            // No pending record continues past the marker any more; left in place, recovery could
+            // later take it for the marker of a torn write
+            buffer.putInt(wrapAt, 0);
+            buffer.force(wrapAt, 4);
+            wrapAt = -1;
+        }
+    }
+
+    /**
+     * Moves everything returned by a {@link #peek} that the server refused to store to
+     * rejected-traces.txt, one tab-separated line per calculation, and acknowledges it
+     */
+    public synchronized void reject(Batch batch, String reason) throws IOException {
+        StringBuilder lines = new StringBuilder();
+        for (Entry entry : batch.entries) {
+            lines.append(entry.key).append('\t').append(entry.timestampMillis).append('\t')
+                 .append(entry.expression).append('\t').append(entry.result).append('\t')
+                 .append(reason.replaceAll("\\s+", " ").trim()).append('\n');
+        }
+        Files.write(rejectedFile.toPath(), lines.toString().getBytes(StandardCharsets.UTF_8),
+                    StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        acknowledge(batch);
+    }
+
+    /**
+     * Number of calculations not yet confirmed by the server
+     */
+    public synchronized int getPendingCount() {
+        return pending;
+    }
+
+    public synchronized void close() throws IOException {
+        buffer.force();
+        lock.release();
+        channel.close();
+    }
+
+    private void writeHead() {
+        buffer.putLong(HEADER_HEAD, head);
+        buffer.putLong(HEADER_HEAD_SEQUENCE, headSequence);
+        buffer.force(0, HEADER_SIZE);
+    }
+
+    /**
+     * Reads the record with the given sequence number at a position, following a wrap
+     * marker; null if there is no such valid record
+     */
+    private Record readAt(int position, long sequence) {
+        if (readWrap(position)) {
+            position = HEADER_SIZE;
+        }
+        if (position + RECORD_HEADER > capacity) {
+            return null;
+        }
+        int payload = buffer.getInt(position);
+        if (payload < 16 + 8 + 4 || position + RECORD_HEADER + payload > capacity
+            || buffer.getLong(position + 8) != sequence
+            || buffer.getInt(position + 4) != checksum(position + 8, 8 + payload)) {
+            return null;
+        }
+        UUID key = new UUID(buffer.getLong(position + RECORD_HEADER), buffer.getLong(position + RECORD_HEADER + 8));
+        long timestamp = buffer.getLong(position + RECORD_HEADER + 16);
+        int offset = position + RECORD_HEADER + 24;
+        String expression = getText(offset);
+        offset += 2 + (buffer.getShort(offset) & 0xFFFF);
+        String result = getText(offset);
+        return new Record(new Entry(key.toString(), expression, result, timestamp), position + RECORD_HEADER + payload);
+    }
+
+    private boolean readWrap(int position) {
+        return position + 4 > capacity || buffer.getInt(position) == WRAP;
+    }
+
+    private int checksum(int position, int length) {
+        CRC32 crc = new CRC32();
+        crc.update(slice(position, length));
+        return (int) crc.getValue();
+    }
+
+    private ByteBuffer slice(int position, int length) {
+        ByteBuffer view = buffer.duplicate();
+        view.position(position).limit(position + length);
+        return view;
+    }
+
+    private static boolean isTooLong(String text) {
+        return text.codePointCount(0, text.length()) > MAX_TEXT_LENGTH;
+    }
+
+    private int putText(int offset, byte[] text) {
+        buffer.putShort(offset, (short) text.length);
+        slice(offset + 2, text.length).put(text);
+        return offset + 2 + text.length;
+    }
+
+    private String getText(int offset) {
+        byte[] text = new byte[buffer.getShort(offset) & 0xFFFF];
+        slice(offset + 2, text.length).get(text);
+        return new String(text, StandardCharsets.UTF_8);
+    }
+
+    private static final class Record {
+        final Entry entry;
+        final int next;
+
+        Record(Entry entry, int next) {
+            this.entry = entry;
+            this.next = next;
+        }
+    }
+
+    /**
+     * One journaled calculation
+     */
+    public static final class Entry {
+        private final String key;
+        private final String expression;
+        private final String result;
+        private final long timestampMillis;
+
+        Entry(String key, String expression, String result, long timestampMillis) {
+            this.key = key;
+            this.expression = expression;
+            this.result = result;
+            this.timestampMillis = timestampMillis;
+        }
+
+        /**
+         * Idempotency key the server uses to recognize a replayed calculation
+         */
+        public String getKey() {
+            return key;
+        }
+
+        public String getExpression() {
+            return expression;
+        }
+
+        public String getResult() {
+            return result;
+        }
+
+        public long getTimestampMillis() {
+            return timestampMillis;
+        }
+    }
+
+    /**
+     * Calculations returned by {@link #peek}, to be passed back to {@link #acknowledge} once stored
+     */
+    public static final class Batch {
+        private final List<Entry> entries;
+        private final int endPosition;
+        private final long endSequence;
+
+        Batch(List<Entry> entries, int endPosition, long endSequence) {
+            this.entries = entries;
+            this.endPosition = endPosition;
+            this.endSequence = endSequence;
+        }
+
+        public List<Entry> getEntries() {
+            return entries;
+        }
+
+        public boolean isEmpty() {
+            return entries.isEmpty();
+        }
+    }
+}
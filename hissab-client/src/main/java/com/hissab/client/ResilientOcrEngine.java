@@ -0,0 +1,357 @@
+package com.hissab.client;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+import java.util.logging.Logger;
+import java.util.logging.Level;
+
+/**
+ * OCR engine that calls a chain of backends with tail-latency and failure protection:
+ * <ul>
+ *   <li>hedging: if a call has not answered after the backend's observed p95 latency,
+ *       an identical second call is sent and the first successful answer wins;</li>
+ *   <li>retries: transport failures (IOException) are retried with full-jitter
+ *       exponential backoff;</li>
+ *   <li>a circuit breaker per backend; when it is open, or all retries fail, the next
+ *       backend in the chain is used.</li>
+ * </ul>
+ * {@link #getMetrics()} compares per-call latency with and without the hedge.
+ */
+public class ResilientOcrEngine implements OcrEngine {
+
+    private static final Logger logger = Logger.getLogger(ResilientOcrEngine.class.getName());
+
+    public static final String RETRIES_PROPERTY = "hissab.ocr.retries";
+    public static final String HEDGING_PROPERTY = "hissab.ocr.hedging";
+    public static final String BREAKER_FAILURES_PROPERTY = "hissab.ocr.breaker.failures";
+    public static final String BREAKER_OPEN_SECONDS_PROPERTY = "hissab.ocr.breaker.openSeconds";
+
+    private static final long BACKOFF_BASE_MILLIS = 200;
+    private static final long BACKOFF_MAX_MILLIS = 2000;
+
+    // Hedge delay before enough latency samples exist, and its lower bound afterwards
+    private static final long DEFAULT_HEDGE_DELAY_MILLIS = 1000;
+    private static final long MIN_HEDGE_DELAY_MILLIS = 50;
+    private static final int MIN_HEDGE_SAMPLES = 20;
+
+    private final List<Backend> backends;
+    private final int maxRetries;
+    private final boolean hedging;
+    private final ExecutorService calls;
+
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong hedgesSent = new AtomicLong();
+    private final AtomicLong hedgeWins = new AtomicLong();
+    private final AtomicLong retries = new AtomicLong();
+    private final AtomicLong failovers = new AtomicLong();
+    private final LatencyWindow firstRequestLatency = new LatencyWindow();
+    private final LatencyWindow answerLatency = new LatencyWindow();
+
+    public ResilientOcrEngine(List<Backend> backends) {
+        this(backends, Integer.getInteger(RETRIES_PROPERTY, 2),
+             Boolean.parseBoolean(System.getProperty(HEDGING_PROPERTY, "true")));
+    }
+
+    public ResilientOcrEngine(List<Backend> backends, int maxRetries, boolean hedging) {
+        if (backends.isEmpty()) {
+            throw new IllegalArgumentException("At least one OCR backend is required");
+        }
+        this.backends = new ArrayList<>(backends);
+        this.maxRetries = maxRetries;
+        this.hedging = hedging;
+        AtomicInteger counter = new AtomicInteger();
+        this.calls = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "ocr-call-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Creates a backend with a circuit breaker configured from system properties
+     * @param hedged Whether slow calls may be duplicated (worth it for remote engines only)
+     */
+    public static Backend backend(String name, Supplier<OcrEngine> engine, boolean hedged) {
+        CircuitBreaker breaker = new CircuitBreaker(name, Integer.getInteger(BREAKER_FAILURES_PROPERTY, 5),
+                                                    TimeUnit.SECONDS.toMillis(Integer.getInteger(BREAKER_OPEN_SECONDS_PROPERTY, 30)));
+        return new Backend(name, engine, hedged, breaker);
+    }
+
+    @Override
+    public String getName() {
+        StringBuilder name = new StringBuilder();
+        for (Backend backend : backends) {
+            name.append(name.length() == 0 ? "" : "+").append(backend.name);
+        }
+        return name.toString();
+    }
+
+    @Override
+    public String extractTextFromImage(File imageFile) throws Exception {
+        return extractTextFromImage(Files.readAllBytes(imageFile.toPath()), imageFile.getName());
+    }
+
+    @Override
+    public String extractTextFromImage(byte[] imageData, String filename) throws Exception {
+        requests.incrementAndGet();
+        Exception lastError = null;
+        for (int i = 0; i < backends.size(); i++) {
+            Backend backend = backends.get(i);
+            if (!backend.breaker.allowRequest()) {
+                logger.log(Level.FINE, "Skipping OCR backend " + backend.name + " (circuit open)");
+                continue;
+            }
+            if (i > 0) {
+                failovers.incrementAndGet();
+                logger.log(Level.WARNING, "Failing over to OCR backend " + backend.name + " for " + filename);
+            }
+            try {
+                return callWithRetries(backend, imageData, filename);
+            } catch (Exception e) {
+                lastError = e;
+                logger.log(Level.WARNING, "OCR backend " + backend.name + " failed for " + filename + ": " + e.getMessage());
+            }
+        }
+        if (lastError == null) {
+            throw new Exception("No OCR backend available: all circuits are open");
+        }
+        throw lastError;
+    }
+
+    /**
+     * The caller has already been admitted by the backend's breaker
+     */
+    private String callWithRetries(Backend backend, byte[] imageData, String filename) throws Exception {
+        for (int attempt = 0; ; attempt++) {
+            try {
+                String text = hedgedCall(backend, () -> backend.engine().extractTextFromImage(imageData, filename));
+                backend.breaker.recordSuccess();
+                return text;
+            } catch (IOException e) {
+                backend.breaker.recordFailure();
+                if (attempt >= maxRetries || backend.breaker.getState() != CircuitBreaker.State.CLOSED) {
+                    throw e;
+                }
+                retries.incrementAndGet();
+                long backoff = ThreadLocalRandom.current().nextLong(
+                        Math.min(BACKOFF_MAX_MILLIS, BACKOFF_BASE_MILLIS << attempt) + 1);
+                logger.log(Level.INFO, "Retrying OCR on " + backend.name + " in " + backoff + " ms after: " + e.getMessage());
+                Thread.sleep(backoff);
+            } catch (Exception e) {
+                // The backend answered and the image itself is the problem (provider-side failures are
+                // OcrProviderException, an IOException), so neither retry nor trip the breaker
+                backend.breaker.recordSuccess();
+                throw e;
+            }
+        }
+    }
+
+    private String hedgedCall(Backend backend, Callable<String> call) throws Exception {
+        long start = System.nanoTime();
+        CompletableFuture<String> primary = submit(backend, call);
+        primary.whenComplete((text, error) -> {
+            if (error == null) {
+                firstRequestLatency.record(elapsedMillis(start));
+            }
+        });
+
+        if (!hedging || !backend.hedged) {
+            String text = await(primary);
+            answerLatency.record(elapsedMillis(start));
+            return text;
+        }
+
+        long delay = backend.hedgeDelayMillis();
+        try {
+            String text = primary.get(delay, TimeUnit.MILLISECONDS);
+            answerLatency.record(elapsedMillis(start));
+            return text;
+        } catch (TimeoutException e) {
+            // Slower than p95: send the same request again and take whichever answers first
+        } catch (ExecutionException e) {
+            throw unwrap(e);
+        }
+
+        hedgesSent.incrementAndGet();
+        CompletableFuture<String> hedge = submit(backend, call);
+        CompletableFuture<String> winner = new CompletableFuture<>();
+        AtomicInteger failures = new AtomicInteger();
+        primary.whenComplete((text, error) -> settle(winner, text, error, failures, false));
+        hedge.whenComplete((text, error) -> settle(winner, text, error, failures, true));
+        // Stop the loser; cancelling the call that won is a no-op
+        winner.whenComplete((text, error) -> {
+            primary.cancel(true);
+            hedge.cancel(true);
+        });
+
+        String text = await(winner);
+        answerLatency.record(elapsedMillis(start));
+        return text;
+    }
+
+    private void settle(CompletableFuture<String> winner, String text, Throwable error,
+                        AtomicInteger failures, boolean fromHedge) {
+        if (error == null) {
+            if (winner.complete(text) && fromHedge) {
+                hedgeWins.incrementAndGet();
+            }
+        } else if (failures.incrementAndGet() == 2) {
+            winner.completeExceptionally(error);
+        }
+    }
+
+    /**
+     * Runs a call on the pool; cancelling the returned future interrupts the call
+     */
+    private CompletableFuture<String> submit(Backend backend, Callable<String> call) {
+        CompletableFuture<String> future = new CompletableFuture<>();
+        Future<?> task = calls.submit(() -> {
+            long start = System.nanoTime();
+            try {
+                String text = call.call();
+                backend.latency.record(elapsedMillis(start));
+                future.complete(text);
+            } catch (Throwable t) {
+                future.completeExceptionally(t);
+            }
+        });
+        future.whenComplete((text, error) -> {
+            if (future.isCancelled()) {
+                task.cancel(true);
+            }
+        });
+        return future;
+    }
+
+    private static String await(CompletableFuture<String> future) throws Exception {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            throw unwrap(e);
+        }
+    }
+
+    private static Exception unwrap(ExecutionException e) {
+        Throwable cause = e.getCause();
+        if (cause instanceof Exception) {
+            return (Exception) cause;
+        }
+        return new Exception(cause);
+    }
+
+    private static long elapsedMillis(long startNanos) {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+    }
+
+    /**
+     * Counters plus per-call latency percentiles: when the first request answered
+     * (what an unhedged client would see) versus when the caller got its answer
+     */
+    public String getMetrics() {
+        StringBuilder circuits = new StringBuilder();
+        for (Backend backend : backends) {
+            circuits.append(circuits.length() == 0 ? "" : ", ")
+                    .append(backend.name).append('=').append(backend.breaker.getState())
+                    .append(" (opened ").append(backend.breaker.getTimesOpened()).append("x)");
+        }
+        return "OCR resilience: " + requests.get() + " requests, " + hedgesSent.get() + " hedges sent ("
+               + hedgeWins.get() + " won), " + retries.get() + " retries, " + failovers.get() + " failovers; circuits: "
+               + circuits + "\n"
+               + "  first request latency: " + firstRequestLatency.summary() + "\n"
+               + "  answer latency:        " + answerLatency.summary();
+    }
+
+    /**
+     * One OCR backend in the failover chain
+     */
+    public static final class Backend {
+        private final String name;
+        private final Supplier<OcrEngine> factory;
+        private final boolean hedged;
+        private final CircuitBreaker breaker;
+        private final LatencyWindow latency = new LatencyWindow();
+        private volatile OcrEngine engine;
+
+        Backend(String name, Supplier<OcrEngine> factory, boolean hedged, CircuitBreaker breaker) {
+            this.name = name;
+            this.factory = factory;
+            this.hedged = hedged;
+            this.breaker = breaker;
+        }
+
+        /**
+         * Engines are created on first use, so an unused fallback costs nothing
+         */
+        OcrEngine engine() {
+            OcrEngine current = engine;
+            if (current == null) {
+                synchronized (this) {
+                    current = engine;
+                    if (current == null) {
+                        current = factory.get();
+                        engine = current;
+                    }
+                }
+            }
+            return current;
+        }
+
+        long hedgeDelayMillis() {
+            if (latency.size() < MIN_HEDGE_SAMPLES) {
+                return DEFAULT_HEDGE_DELAY_MILLIS;
+            }
+            return Math.max(MIN_HEDGE_DELAY_MILLIS, latency.percentile(0.95));
+        }
+    }
+
+    /**
+     * The most recent latencies in a ring buffer
+     */
+    static final class LatencyWindow {
+        private static final int CAPACITY = 256;
+
+        private final long[] samples = new long[CAPACITY];
+        private int count;
+        private int next;
+
+        synchronized void record(long millis) {
+            samples[next] = millis;
+            next = (next + 1) % CAPACITY;
+            count = Math.min(CAPACITY, count + 1);
+        }
+
+        synchronized int size() {
+            return count;
+        }
+
+        synchronized long percentile(double percentile) {
+            if (count == 0) {
+                return 0;
+            }
+            long[] sorted = Arrays.copyOf(samples, count);
+            Arrays.sort(sorted);
+            return sorted[Math.max(0, (int) Math.ceil(percentile * count) - 1)];
+        }
+
+        String summary() {
+            return "p50 " + percentile(0.50) + " ms, p95 " + percentile(0.95) + " ms, p99 " + percentile(0.99)
+                   + " ms (last " + size() + " calls)";
+        }
+    }
+}
@@ -0,0 +1,202 @@
+package com.hissab.client;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.WebSocket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Random;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Measures how many concurrent exercise sessions (the server's /session WebSocket endpoint)
+ * one node sustains.
+ * Usage: SessionLoadTest [ws-url] [max-sessions] [step-seconds]
+ * Sessions are opened in steps, doubling from 50 up to max-sessions (default 3200), and
+ * kept open. Each session behaves like a student: it sends a calculation or validation,
+ * waits for the reply and pauses -Dhissab.load.thinkMillis (default 1000, randomized
+ * ±50%). Each step runs step-seconds (default 20) and reports replies per second and
+ * latency. The test stops at the first step whose p95 exceeds -Dhissab.load.maxP95Millis
+ * (default 200), that loses more than 1% of its requests, or whose sessions are refused;
+ * the step before it is the number of sessions the node sustains.
+ */
+public class SessionLoadTest {
+
+    private static final long THINK_MILLIS = Long.getLong("hissab.load.thinkMillis", 1000);
+    private static final long MAX_P95_MILLIS = Long.getLong("hissab.load.maxP95Millis", 200);
+    private static final int FIRST_STEP = 50;
+    private static final String[] EXPRESSIONS = {"2+3*4", "(7-2)*(3+1)", "144/12", "2^10-24", "3*(4+5)/9", "17-4*3"};
+
+    private final HttpClient http = HttpClient.newHttpClient();
+    private final ScheduledExecutorService timer = Executors.newScheduledThreadPool(2);
+    private final List<LoadSession> sessions = new ArrayList<>();
+
+    private final Queue<Long> latencies = new ConcurrentLinkedQueue<>();
+    private final AtomicLong errors = new AtomicLong();
+    private final AtomicInteger failedSessions = new AtomicInteger();
+
+    public static void main(String[] args) throws Exception {
+        URI uri = URI.create(args.length > 0 ? args[0] : "ws://localhost:8080/hissab/session");
+        int maxSessions = args.length > 1 ? Integer.parseInt(args[1]) : 3200;
+        int stepSeconds = args.length > 2 ? Integer.parseInt(args[2]) : 20;
+
+        SessionLoadTest test = new SessionLoadTest();
+        try {
+            test.run(uri, maxSessions, stepSeconds);
+        } finally {
+            test.shutdown();
+        }
+    }
+
+    private void run(URI uri, int maxSessions, int stepSeconds) throws InterruptedException {
+        System.out.println("=== Session load test: " + uri + ", think time " + THINK_MILLIS + " ms ===");
+        int sustained = 0;
+        for (int target = Math.min(FIRST_STEP, maxSessions); ; target = Math.min(target * 2, maxSessions)) {
+            openSessions(uri, target);
+            latencies.clear();
+            errors.set(0);
+            failedSessions.set(0);
+
+            Thread.sleep(stepSeconds * 1000L);
+
+            long[] sorted = latencies.stream().mapToLong(Long::longValue).toArray();
+            Arrays.sort(sorted);
+            long replies = sorted.length;
+            double p95 = percentile(sorted, 0.95);
+            System.out.printf("%5d sessions: %7.1f replies/s, p50 %.2f ms, p95 %.2f ms, p99 %.2f ms, %d errors, %d sessions lost%n",
+                              target, replies / (double) stepSeconds, percentile(sorted, 0.50), p95,
+                              percentile(sorted, 0.99), errors.get(), failedSessions.get());
+
+            if (replies == 0 || p95 > MAX_P95_MILLIS || errors.get() > replies / 100 || failedSessions.get() > 0) {
+                break;
+            }
+            sustained = target;
+            if (target == maxSessions) {
+                break;
+            }
+        }
+        System.out.println("Sustained: " + sustained + " sessions"
+                           + (sustained == maxSessions ? " (the most tried; raise max-sessions to go further)" : ""));
+    }
+
+    private void openSessions(URI uri, int target) {
+        while (sessions.size() < target) {
+            LoadSession session = new LoadSession();
+            try {
+                http.newWebSocketBuilder().buildAsync(uri, session).join();
+                sessions.add(session);
+            } catch (Exception e) {
+                failedSessions.incrementAndGet();
+                System.out.println("  could not open session " + (sessions.size() + 1) + ": " + e.getMessage());
+                return;
+            }
+        }
+    }
+
+    private void shutdown() {
+        for (LoadSession session : sessions) {
+            session.close();
+        }
+        timer.shutdownNow();
+    }
+
+    private static double percentile(long[] sortedNanos, double percentile) {
+        if (sortedNanos.length == 0) {
+            return 0;
+        }
+        int index = (int) Math.ceil(percentile * sortedNanos.length) - 1;
+        return sortedNanos[Math.max(0, index)] / 1e6;
+    }
+
+    /**
+     * One simulated student: a single request in flight, answered before the next is sent
+     */
+    private final class LoadSession implements WebSocket.Listener {
+        private final Random random = new Random();
+        private final Map<String, Long> pending = new ConcurrentHashMap<>();
+        private final StringBuilder partial = new StringBuilder();
+        private WebSocket socket;
+        private int nextId;
+        private volatile boolean closed;
+
+        @Override
+        public void onOpen(WebSocket webSocket) {
+            socket = webSocket;
+            webSocket.request(1);
+            // Spread the sessions' first requests over one think time
+            timer.schedule(this::send, ThreadLocalRandom.current().nextLong(THINK_MILLIS + 1), TimeUnit.MILLISECONDS);
+        }
+
+        private void send() {
+            if (closed) {
+                return;
+            }
+            String id = Integer.toString(nextId++, 36);
+            String kind = random.nextInt(4) == 0 ? "V" : "C";
+            pending.put(id, System.nanoTime());
+            socket.sendText(kind + id + " " + EXPRESSIONS[random.nextInt(EXPRESSIONS.length)], true)
+                  .exceptionally(e -> {
+                      lost();
+                      return null;
+                  });
+        }
+
+        @Override
+        public CompletionStage<?> onText(WebSocket webSocket, CharSequence data, boolean last) {
+            partial.append(data);
+            webSocket.request(1);
+            if (!last) {
+                return null;
+            }
+            String frame = partial.toString();
+            partial.setLength(0);
+
+            int space = frame.indexOf(' ');
+            Long sent = space > 1 ? pending.remove(frame.substring(1, space)) : null;
+            if (sent == null || frame.charAt(0) != 'R') {
+                errors.incrementAndGet();
+            } else {
+                latencies.add(System.nanoTime() - sent);
+            }
+            long think = THINK_MILLIS + random.nextLong() % (THINK_MILLIS / 2 + 1);
+            timer.schedule(this::send, think, TimeUnit.MILLISECONDS);
+            return null;
+        }
+
+        @Override
+        public CompletionStage<?> onClose(WebSocket webSocket, int statusCode, String reason) {
+            lost();
+            return null;
+        }
+
+        @Override
+        public void onError(WebSocket webSocket, Throwable error) {
+            lost();
+        }
+
+        private void lost() {
+            if (!closed) {
+                closed = true;
+                failedSessions.incrementAndGet();
+            }
+        }
+
+        void close() {
+            closed = true;
+            if (socket != null) {
+                socket.sendClose(WebSocket.NORMAL_CLOSURE, "done").exceptionally(e -> null);
+            }
+        }
+    }
+}
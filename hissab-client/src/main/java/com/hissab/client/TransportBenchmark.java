@@ -0,0 +1,207 @@
+package com.hissab.client;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Measures what response compression and HTTP/2 save on the server's typical payloads.
+ * Usage: TransportBenchmark [base-url] [iterations]
+ * The base URL is the application root (default http://localhost:8085/hissab). Each payload
+ * mix - the WSDL, a SOAP calculation, a SOAP logTraces batch, a REST calculation, the
+ * metrics JSON and a binary batch - is requested iterations times (default 200) over
+ * HTTP/1.1 without compression, HTTP/1.1 with gzip and HTTP/2 with gzip, reporting the
+ * response bytes on the wire and latency for each. A gzipped body is decompressed and
+ * checked against the uncompressed one, so a broken encoding shows up as a mismatch.
+ */
+public class TransportBenchmark {
+
+    private static final int WARMUP_REQUESTS = 20;
+    private static final Duration TIMEOUT = Duration.ofSeconds(30);
+    private static final String TARGET_NAMESPACE = "http://service.hissab.com/";
+    private static final String[] EXPRESSIONS = {"2+3*4", "(7-2)*(3+1)", "144/12", "2^10-24", "3*(4+5)/9", "17-4*3"};
+
+    public static void main(String[] args) throws Exception {
+        String base = args.length > 0 ? args[0] : "http://localhost:8085/hissab";
+        int iterations = args.length > 1 ? Integer.parseInt(args[1]) : 200;
+        System.out.println("=== Transport Benchmark: " + base + ", " + iterations + " requests per mix ===");
+
+        HttpClient http11 = HttpClient.newBuilder()
+            .version(HttpClient.Version.HTTP_1_1).connectTimeout(TIMEOUT).build();
+        HttpClient http2 = HttpClient.newBuilder()
+            .version(HttpClient.Version.HTTP_2).connectTimeout(TIMEOUT).build();
+
+        for (Mix mix : mixes(base)) {
+            System.out.println("--- " + mix.name + " ---");
+            byte[] expected = run("HTTP/1.1 identity", http11, mix, false, iterations, null);
+            run("HTTP/1.1 gzip    ", http11, mix, true, iterations, expected);
+            run("HTTP/2   gzip    ", http2, mix, true, iterations, expected);
+        }
+    }
+
+    /**
+     * Requests one mix repeatedly and prints its sizes and latency
+     * @return The decoded body of the last response, to compare the other transports against
+     */
+    private static byte[] run(String label, HttpClient http, Mix mix, boolean gzip, int iterations, byte[] expected)
+            throws IOException, InterruptedException {
+        for (int i = 0; i < WARMUP_REQUESTS; i++) {
+            http.send(mix.request(gzip), HttpResponse.BodyHandlers.ofByteArray());
+        }
+
+        long[] latencies = new long[iterations];
+        long wireBytes = 0;
+        long bodyBytes = 0;
+        int compressed = 0;
+        int mismatches = 0;
+        String version = "";
+        byte[] body = new byte[0];
+        for (int i = 0; i < iterations; i++) {
+            long start = System.nanoTime();
+            HttpResponse<byte[]> response = http.send(mix.request(gzip), HttpResponse.BodyHandlers.ofByteArray());
+            latencies[i] = System.nanoTime() - start;
+            if (response.statusCode() != 200) {
+                throw new IOException(mix.name + " answered HTTP " + response.statusCode());
+            }
+
+            wireBytes += response.body().length;
+            body = response.body();
+            if (response.headers().firstValue("Content-Encoding").map("gzip"::equalsIgnoreCase).orElse(false)) {
+                body = gunzip(body);
+                compressed++;
+            }
+            bodyBytes += body.length;
+            version = response.version() == HttpClient.Version.HTTP_2 ? "h2" : "http/1.1";
+            // Metrics change between requests; only compare bodies of payloads that do not
+            if (expected != null && mix.stable && !Arrays.equals(body, expected)) {
+                mismatches++;
+            }
+        }
+
+        Arrays.sort(latencies);
+        System.out.printf("%s  %-8s wire %7.1f KB for %7.1f KB (%3.0f%%), %d/%d gzipped, p50 %.2f ms, p95 %.2f ms%s%n",
+                          label, version, wireBytes / 1024.0, bodyBytes / 1024.0,
+                          bodyBytes > 0 ? 100.0 * wireBytes / bodyBytes : 100.0, compressed, iterations,
+                          percentile(latencies, 0.50), percentile(latencies, 0.95),
+                          mismatches > 0 ? ", " + mismatches + " MISMATCHED" : "");
+        return body;
+    }
+
+    private static List<Mix> mixes(String base) {
+        List<Mix> mixes = new ArrayList<>();
+        mixes.add(new Mix("WSDL", URI.create(base + "/HissabService?wsdl"), null, null, true));
+        mixes.add(new Mix("SOAP calculateFromString", URI.create(base + "/HissabService"),
+                          "text/xml; charset=UTF-8", soapCalculate("(7-2)*(3+1)"), true));
+        mixes.add(new Mix("SOAP logTraces, 50 traces", URI.create(base + "/HissabService"),
+                          "text/xml; charset=UTF-8", soapLogTraces(50), false));
+        mixes.add(new Mix("REST calculate", URI.create(base + "/api/math/calculate"),
+                          "text/plain", "2+3*4".getBytes(StandardCharsets.UTF_8), true));
+        mixes.add(new Mix("REST metrics", URI.create(base + "/api/math/metrics"), null, null, false));
+        mixes.add(new Mix("Binary batch, 100 frames", URI.create(base + "/binary"),
+                          BinaryFrames.CONTENT_TYPE, binaryBatch(100), true));
+        return mixes;
+    }
+
+    private static byte[] soapCalculate(String expression) {
+        return ("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+                + "<soap:Envelope xmlns:soap=\"http://schemas.xmlsoap.org/soap/envelope/\" "
+                + "xmlns:tns=\"" + TARGET_NAMESPACE + "\">\n"
+                + "  <soap:Body>\n"
+                + "    <tns:calculateFromString>\n"
+                + "      <tns:expression>" + expression + "</tns:expression>\n"
+                + "    </tns:calculateFromString>\n"
+                + "  </soap:Body>\n"
+                + "</soap:Envelope>").getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static byte[] soapLogTraces(int count) {
+        StringBuilder request = new StringBuilder();
+        request.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n")
+               .append("<soap:Envelope xmlns:soap=\"http://schemas.xmlsoap.org/soap/envelope/\" ")
+               .append("xmlns:tns=\"").append(TARGET_NAMESPACE).append("\">\n")
+               .append("  <soap:Body>\n")
+               .append("    <tns:logTraces>\n");
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < count; i++) {
+            // Fixed ids, so repeated runs are skipped as duplicates instead of filling the trace table
+            request.append("      <tns:trace>")
+                   .append("<tns:id>transport-benchmark-").append(i).append("</tns:id>")
+                   .append("<tns:expression>").append(EXPRESSIONS[i % EXPRESSIONS.length]).append("</tns:expression>")
+                   .append("<tns:result>0</tns:result>")
+                   .append("<tns:timestamp>").append(now).append("</tns:timestamp>")
+                   .append("</tns:trace>\n");
+        }
+        request.append("    </tns:logTraces>\n")
+               .append("  </soap:Body>\n")
+               .append("</soap:Envelope>");
+        return request.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static byte[] binaryBatch(int count) {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        try {
+            for (int id = 0; id < count; id++) {
+                BinaryFrames.write(body, BinaryFrames.CALCULATE, id, EXPRESSIONS[id % EXPRESSIONS.length]);
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return body.toByteArray();
+    }
+
+    private static byte[] gunzip(byte[] data) throws IOException {
+        try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(data))) {
+            return in.readAllBytes();
+        }
+    }
+
+    private static double percentile(long[] sortedNanos, double percentile) {
+        int index = (int) Math.ceil(percentile * sortedNanos.length) - 1;
+        return sortedNanos[Math.max(0, index)] / 1e6;
+    }
+
+    /**
+     * One kind of request: a GET when it has no body, otherwise a POST
+     */
+    private static final class Mix {
+        final String name;
+        final URI uri;
+        final String contentType;
+        final byte[] body;
+        final boolean stable;
+
+        Mix(String name, URI uri, String contentType, byte[] body, boolean stable) {
+            this.name = name;
+            this.uri = uri;
+            this.contentType = contentType;
+            this.body = body;
+            this.stable = stable;
+        }
+
+        HttpRequest request(boolean gzip) {
+            HttpRequest.Builder builder = HttpRequest.newBuilder(uri)
+                .timeout(TIMEOUT)
+                .header("Accept-Encoding", gzip ? "gzip" : "identity");
+            if (body == null) {
+                return builder.GET().build();
+            }
+            if (contentType.startsWith("text/xml")) {
+                builder.header("SOAPAction", "");
+            }
+            return builder.header("Content-Type", contentType)
+                          .POST(HttpRequest.BodyPublishers.ofByteArray(body))
+                          .build();
+        }
+    }
+}
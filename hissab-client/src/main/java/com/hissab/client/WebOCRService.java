@@ -2,19 +2,27 @@ package com.hissab.client;
 
 import org.apache.http.HttpEntity;
 import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.config.RequestConfig;
 import org.apache.http.client.methods.HttpPost;
 import org.apache.http.entity.mime.MultipartEntityBuilder;
+import org.apache.http.entity.mime.content.ByteArrayBody;
+import org.apache.http.entity.mime.content.ContentBody;
 import org.apache.http.entity.mime.content.FileBody;
+import org.apache.http.entity.mime.content.InputStreamBody;
 import org.apache.http.entity.mime.content.StringBody;
 import org.apache.http.entity.ContentType;
 import org.apache.http.impl.client.CloseableHttpClient;
 import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
 import org.apache.http.util.EntityUtils;
 import org.json.JSONArray;
+import org.json.JSONException;
 import org.json.JSONObject;
 
 import java.io.File;
-import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Logger;
 import java.util.logging.Level;
 
@@ -22,16 +30,64 @@ import java.util.logging.Level;
  * Web-based OCR service using OCR.space API
  * This service extracts text from images using a free online OCR service
  */
-public class WebOCRService {
+public class WebOCRService implements OcrEngine {
     
     private static final Logger logger = Logger.getLogger(WebOCRService.class.getName());
     
-    // OCR.space API endpoint (free tier)
+    // OCR.space API endpoint (free tier); override with -Dhissab.ocr.url, e.g. for OcrStubServer
     private static final String OCR_API_URL = "https://api.ocr.space/parse/image";
+    public static final String URL_PROPERTY = "hissab.ocr.url";
     
     // Free API key for OCR.space (you can get your own at https://ocr.space/ocrapi)
     private static final String API_KEY = "helloworld"; // Free tier key
     
+    // Timeouts for the OCR provider; the free tier can take several seconds on large images
+    private static final int CONNECT_TIMEOUT_MILLIS = 10000;
+    private static final int READ_TIMEOUT_MILLIS = 60000;
+    
+    // Time to wait for a pooled connection when all are busy
+    private static final int POOL_TIMEOUT_MILLIS = 5000;
+    private static final int MAX_CONNECTIONS = 20;
+    
+    // OCRExitCode of OCR.space when every page of the image failed to parse
+    private static final int OCR_EXIT_IMAGE_UNREADABLE = 3;
+    
+    // Shared by all instances: one connection pool keeps TLS sessions to the provider alive
+    private static final CloseableHttpClient HTTP_CLIENT = createHttpClient();
+    
+    private static CloseableHttpClient createHttpClient() {
+        PoolingHttpClientConnectionManager connectionManager = new PoolingHttpClientConnectionManager();
+        connectionManager.setMaxTotal(MAX_CONNECTIONS);
+        connectionManager.setDefaultMaxPerRoute(MAX_CONNECTIONS);
+        
+        RequestConfig requestConfig = RequestConfig.custom()
+                .setConnectTimeout(CONNECT_TIMEOUT_MILLIS)
+                .setSocketTimeout(READ_TIMEOUT_MILLIS)
+                .setConnectionRequestTimeout(POOL_TIMEOUT_MILLIS)
+                .build();
+        
+        return HttpClients.custom()
+                .setConnectionManager(connectionManager)
+                .setDefaultRequestConfig(requestConfig)
+                .evictIdleConnections(30, TimeUnit.SECONDS)
+                .build();
+    }
+    
+    private final String apiUrl;
+    
+    public WebOCRService() {
+        this(System.getProperty(URL_PROPERTY, OCR_API_URL));
+    }
+    
+    public WebOCRService(String apiUrl) {
+        this.apiUrl = apiUrl;
+    }
+    
+    @Override
+    public String getName() {
+        return "web";
+    }
+    
     /**
      * Extract text from image file using web-based OCR
      * @param imageFile The image file to process
@@ -40,58 +96,84 @@ public class WebOCRService {
      */
     public String extractTextFromImage(File imageFile) throws Exception {
         logger.log(Level.INFO, "Starting OCR processing for image: " + imageFile.getName());
-        
-        try (CloseableHttpClient httpClient = HttpClients.createDefault()) {
-            // Create HTTP POST request
-            HttpPost httpPost = new HttpPost(OCR_API_URL);
-            
-            // Build multipart form data
-            MultipartEntityBuilder builder = MultipartEntityBuilder.create();
-            builder.addPart("file", new FileBody(imageFile));
-            builder.addPart("apikey", new StringBody(API_KEY, ContentType.TEXT_PLAIN));
-            builder.addPart("language", new StringBody("eng", ContentType.TEXT_PLAIN));
-            builder.addPart("isOverlayRequired", new StringBody("false", ContentType.TEXT_PLAIN));
-            builder.addPart("detectOrientation", new StringBody("false", ContentType.TEXT_PLAIN));
-            builder.addPart("scale", new StringBody("true", ContentType.TEXT_PLAIN));
-            builder.addPart("OCREngine", new StringBody("2", ContentType.TEXT_PLAIN));
-            
-            HttpEntity multipart = builder.build();
-            httpPost.setEntity(multipart);
-            
-            // Execute request
-            try (CloseableHttpResponse response = httpClient.execute(httpPost)) {
-                String responseBody = EntityUtils.toString(response.getEntity());
-                logger.log(Level.INFO, "OCR API response received");
-                
-                // Parse JSON response
-                return parseOCRResponse(responseBody);
-            }
-        }
+        return recognize(new FileBody(imageFile, contentTypeOf(imageFile.getName()), imageFile.getName()));
     }
     
     /**
-     * Extract text from image byte array using web-based OCR
+     * Extract text from image byte array using web-based OCR.
+     * The buffer is uploaded directly, without a temporary file.
      * @param imageData The image data as byte array
-     * @param filename The filename for the temporary file
+     * @param filename The image name, used for the upload and its content type
      * @return Extracted text from the image
      * @throws Exception if OCR processing fails
      */
     public String extractTextFromImage(byte[] imageData, String filename) throws Exception {
-        // Create temporary file
-        File tempFile = File.createTempFile("ocr_temp_", "_" + filename);
-        tempFile.deleteOnExit();
-        
-        try (FileOutputStream fos = new FileOutputStream(tempFile)) {
-            fos.write(imageData);
-        }
+        logger.log(Level.INFO, "Starting OCR processing for image: " + filename + " (" + imageData.length + " bytes)");
+        return recognize(new ByteArrayBody(imageData, contentTypeOf(filename), filename));
+    }
+    
+    /**
+     * Extract text from an image stream using web-based OCR.
+     * The stream is sent as it is read (chunked) and is not closed.
+     * @param imageStream The encoded image
+     * @param filename The image name, used for the upload and its content type
+     * @return Extracted text from the image
+     * @throws Exception if OCR processing fails
+     */
+    public String extractTextFromImage(InputStream imageStream, String filename) throws Exception {
+        logger.log(Level.INFO, "Starting OCR processing for image stream: " + filename);
+        return recognize(new InputStreamBody(imageStream, contentTypeOf(filename), filename));
+    }
+    
+    private String recognize(ContentBody image) throws Exception {
+        HttpPost httpPost = new HttpPost(apiUrl);
         
-        // Process the temporary file
-        String result = extractTextFromImage(tempFile);
+        // Build multipart form data
+        MultipartEntityBuilder builder = MultipartEntityBuilder.create();
+        builder.addPart("file", image);
+        builder.addPart("apikey", new StringBody(API_KEY, ContentType.TEXT_PLAIN));
+        builder.addPart("language", new StringBody("eng", ContentType.TEXT_PLAIN));
+        builder.addPart("isOverlayRequired", new StringBody("false", ContentType.TEXT_PLAIN));
+        builder.addPart("detectOrientation", new StringBody("false", ContentType.TEXT_PLAIN));
+        builder.addPart("scale", new StringBody("true", ContentType.TEXT_PLAIN));
+        builder.addPart("OCREngine", new StringBody("2", ContentType.TEXT_PLAIN));
         
-        // Clean up
-        tempFile.delete();
+        HttpEntity multipart = builder.build();
+        httpPost.setEntity(multipart);
         
-        return result;
+        // Execute request; closing the response returns the connection to the pool
+        try (CloseableHttpResponse response = HTTP_CLIENT.execute(httpPost)) {
+            int status = response.getStatusLine().getStatusCode();
+            if (status == 429 || status >= 500) {
+                // Throttled or provider-side failure: worth retrying
+                EntityUtils.consume(response.getEntity());
+                throw new OcrProviderException("OCR provider returned HTTP " + status);
+            }
+            String responseBody = EntityUtils.toString(response.getEntity());
+            logger.log(Level.INFO, "OCR API response received");
+            
+            // Parse JSON response
+            return parseOCRResponse(responseBody);
+        }
+    }
+    
+    /**
+     * Image content type from the file extension; OCR.space picks its decoder from it
+     */
+    private static ContentType contentTypeOf(String filename) {
+        String name = filename.toLowerCase();
+        if (name.endsWith(".png")) {
+            return ContentType.IMAGE_PNG;
+        } else if (name.endsWith(".jpg") || name.endsWith(".jpeg")) {
+            return ContentType.IMAGE_JPEG;
+        } else if (name.endsWith(".gif")) {
+            return ContentType.IMAGE_GIF;
+        } else if (name.endsWith(".bmp")) {
+            return ContentType.IMAGE_BMP;
+        } else if (name.endsWith(".tif") || name.endsWith(".tiff")) {
+            return ContentType.create("image/tiff");
+        }
+        return ContentType.APPLICATION_OCTET_STREAM;
     }
     
     /**
@@ -101,39 +183,38 @@ public class WebOCRService {
      * @throws Exception if parsing fails
      */
     private String parseOCRResponse(String responseBody) throws Exception {
+        JSONObject jsonResponse;
         try {
-            JSONObject jsonResponse = new JSONObject(responseBody);
-            
-            // Check if OCR was successful
-            if (!jsonResponse.optBoolean("IsErroredOnProcessing", true)) {
-                JSONArray parsedResults = jsonResponse.getJSONArray("ParsedResults");
-                
-                if (parsedResults.length() > 0) {
-                    JSONObject firstResult = parsedResults.getJSONObject(0);
-                    String extractedText = firstResult.getString("ParsedText");
-                    
-                    // Clean up the extracted text
-                    extractedText = cleanExtractedText(extractedText);
-                    
-                    logger.log(Level.INFO, "OCR extraction successful. Text length: " + extractedText.length());
-                    return extractedText;
-                }
-            } else {
-                // Check for error message
-                String errorMessage = jsonResponse.optString("ErrorMessage", "Unknown OCR error");
-                JSONArray errorDetails = jsonResponse.optJSONArray("ErrorDetails");
-                if (errorDetails != null && errorDetails.length() > 0) {
-                    errorMessage += ": " + errorDetails.getString(0);
-                }
+            jsonResponse = new JSONObject(responseBody);
+        } catch (JSONException e) {
+            logger.log(Level.SEVERE, "Error parsing OCR response", e);
+            throw new OcrProviderException("Failed to parse OCR response: " + e.getMessage(), e);
+        }
+        
+        // Check if OCR was successful
+        if (jsonResponse.optBoolean("IsErroredOnProcessing", true)) {
+            String errorMessage = jsonResponse.optString("ErrorMessage", "Unknown OCR error");
+            JSONArray errorDetails = jsonResponse.optJSONArray("ErrorDetails");
+            if (errorDetails != null && errorDetails.length() > 0) {
+                errorMessage += ": " + errorDetails.optString(0);
+            }
+            // Exit code 3 means the provider worked but could not read any page of this image
+            if (jsonResponse.optInt("OCRExitCode") == OCR_EXIT_IMAGE_UNREADABLE) {
                 throw new Exception("OCR processing failed: " + errorMessage);
             }
+            throw new OcrProviderException("OCR processing failed: " + errorMessage);
+        }
+        
+        JSONArray parsedResults = jsonResponse.optJSONArray("ParsedResults");
+        if (parsedResults != null && parsedResults.length() > 0) {
+            // Clean up the extracted text
+            String extractedText = cleanExtractedText(parsedResults.getJSONObject(0).optString("ParsedText", ""));
             
-            throw new Exception("No text could be extracted from the image");
-            
-        } catch (Exception e) {
-            logger.log(Level.SEVERE, "Error parsing OCR response", e);
-            throw new Exception("Failed to parse OCR response: " + e.getMessage(), e);
+            logger.log(Level.INFO, "OCR extraction successful. Text length: " + extractedText.length());
+            return extractedText;
         }
+        
+        throw new Exception("No text could be extracted from the image");
     }
     
     /**
@@ -174,19 +255,18 @@ public class WebOCRService {
         try {
             // Create a simple test to check if the service is reachable
             // We'll just check if we can make a request (even if it fails due to no image)
-            try (CloseableHttpClient httpClient = HttpClients.createDefault()) {
-                HttpPost httpPost = new HttpPost(OCR_API_URL);
-                
-                MultipartEntityBuilder builder = MultipartEntityBuilder.create();
-                builder.addPart("apikey", new StringBody(API_KEY, ContentType.TEXT_PLAIN));
-                
-                HttpEntity multipart = builder.build();
-                httpPost.setEntity(multipart);
-                
-                try (CloseableHttpResponse response = httpClient.execute(httpPost)) {
-                    // If we get any response, the service is reachable
-                    return response.getStatusLine().getStatusCode() != 0;
-                }
+            HttpPost httpPost = new HttpPost(apiUrl);
+            
+            MultipartEntityBuilder builder = MultipartEntityBuilder.create();
+            builder.addPart("apikey", new StringBody(API_KEY, ContentType.TEXT_PLAIN));
+            
+            HttpEntity multipart = builder.build();
+            httpPost.setEntity(multipart);
+            
+            try (CloseableHttpResponse response = HTTP_CLIENT.execute(httpPost)) {
+                EntityUtils.consume(response.getEntity());
+                // If we get any response, the service is reachable
+                return response.getStatusLine().getStatusCode() != 0;
             }
         } catch (Exception e) {
             logger.log(Level.WARNING, "OCR service test failed", e);
@@ -12,6 +12,7 @@ public interface CalculEJBLocal {
      * Evaluates a mathematical expression string
      * @param expression The mathematical expression (e.g., "2+3*4")
      * @return The result as a string, or error message if evaluation fails
+     * @throws DeadlineExceededException if the request deadline has already passed
      */
     String evaluateExpression(String expression);
     
@@ -0,0 +1,16 @@
+package com.hissab.ejb;
+
+import jakarta.ejb.ApplicationException;
+
+/**
+ * Thrown when work is abandoned because the request deadline has passed
+ */
+@ApplicationException(rollback = true)
+public class DeadlineExceededException extends RuntimeException {
+    
+    private static final long serialVersionUID = 1L;
+    
+    public DeadlineExceededException(String message) {
+        super(message);
+    }
+}
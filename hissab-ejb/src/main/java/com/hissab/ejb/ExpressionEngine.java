@@ -0,0 +1,232 @@
+package com.hissab.ejb;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.ejb.ConcurrencyManagement;
+import jakarta.ejb.ConcurrencyManagementType;
+import jakarta.ejb.Lock;
+import jakarta.ejb.LockType;
+import jakarta.ejb.Singleton;
+import jakarta.ejb.Startup;
+import javax.script.ScriptEngine;
+import javax.script.ScriptEngineManager;
+import javax.script.ScriptException;
+import java.util.logging.Logger;
+import java.util.logging.Level;
+
+/**
+ * Application-wide expression evaluation engine.
+ * The script engine lookup (a service-loader scan plus a JS runtime) is done once
+ * at deploy time and shared by every CalculEJB pool instance.
+ */
+@Singleton
+@Startup
+@ConcurrencyManagement(ConcurrencyManagementType.CONTAINER)
+@Lock(LockType.READ)
+public class ExpressionEngine {
+
+    private static final Logger logger = Logger.getLogger(ExpressionEngine.class.getName());
+
+    private ScriptEngine engine;
+
+    // True when the engine factory declares it safe for concurrent eval() calls
+    private boolean engineThreadSafe;
+
+    @PostConstruct
+    public void init() {
+        long start = System.nanoTime();
+        ScriptEngineManager manager = new ScriptEngineManager();
+        this.engine = manager.getEngineByName("JavaScript");
+
+        if (this.engine == null) {
+            logger.log(Level.WARNING, "JavaScript engine not available - will use fallback evaluator");
+        } else {
+            this.engineThreadSafe = engine.getFactory().getParameter("THREADING") != null;
+            logger.log(Level.INFO, "JavaScript engine initialized successfully (thread-safe: " + engineThreadSafe + ")");
+        }
+
+        long elapsedMillis = (System.nanoTime() - start) / 1_000_000;
+        logger.log(Level.INFO, "ExpressionEngine initialized in " + elapsedMillis + " ms");
+    }
+
+    /**
+     * Evaluates an already cleaned and validated expression
+     * @param expression The expression without whitespace (e.g., "2+3*4")
+     * @return The raw evaluation result
+     */
+    public Object evaluate(String expression) throws Exception {
+        if (engine != null) {
+            logger.log(Level.FINE, "Using JavaScript engine to evaluate: " + expression);
+            return evaluateWithScriptEngine(expression);
+        }
+
+        logger.log(Level.FINE, "Using fallback evaluator for: " + expression);
+        return evaluateSimpleExpression(expression);
+    }
+
+    /**
+     * Whether a script engine was found at startup
+     */
+    public boolean isScriptEngineAvailable() {
+        return engine != null;
+    }
+
+    private Object evaluateWithScriptEngine(String expression) throws ScriptException {
+        if (engineThreadSafe) {
+            return engine.eval(expression);
+        }
+        // Engines without a THREADING parameter must not be entered concurrently
+        synchronized (engine) {
+            return engine.eval(expression);
+        }
+    }
+
+    /**
+     * Advanced expression evaluator that handles complex mathematical expressions
+     * with proper operator precedence and parentheses
+     */
+    private double evaluateSimpleExpression(String expression) throws Exception {
+        return parseAddSubtract(expression, 0).value;
+    }
+
+    /**
+     * Parse addition and subtraction (lowest precedence)
+     */
+    private ParseResult parseAddSubtract(String expression, int index) throws Exception {
+        ParseResult left = parseMultiplyDivide(expression, index);
+
+        while (left.nextIndex < expression.length()) {
+            char op = expression.charAt(left.nextIndex);
+            if (op == '+' || op == '-') {
+                ParseResult right = parseMultiplyDivide(expression, left.nextIndex + 1);
+                if (op == '+') {
+                    left = new ParseResult(left.value + right.value, right.nextIndex);
+                } else {
+                    left = new ParseResult(left.value - right.value, right.nextIndex);
+                }
+            } else {
+                break;
+            }
+        }
+
+        return left;
+    }
+
+    /**
+     * Parse multiplication and division (higher precedence)
+     */
+    private ParseResult parseMultiplyDivide(String expression, int index) throws Exception {
+        ParseResult left = parseFactor(expression, index);
+
+        while (left.nextIndex < expression.length()) {
+            char op = expression.charAt(left.nextIndex);
+            if (op == '*' || op == '/') {
+                ParseResult right = parseFactor(expression, left.nextIndex + 1);
+                if (op == '*') {
+                    left = new ParseResult(left.value * right.value, right.nextIndex);
+                } else {
+                    if (right.value == 0) {
+                        throw new ArithmeticException("Division by zero");
+                    }
+                    left = new ParseResult(left.value / right.value, right.nextIndex);
+                }
+            } else {
+                break;
+            }
+        }
+
+        return left;
+    }
+
+    /**
+     * Parse factors: numbers, parenthesized expressions, and unary minus
+     */
+    private ParseResult parseFactor(String expression, int index) throws Exception {
+        // Skip whitespace
+        while (index < expression.length() && Character.isWhitespace(expression.charAt(index))) {
+            index++;
+        }
+
+        if (index >= expression.length()) {
+            throw new IllegalArgumentException("Unexpected end of expression");
+        }
+
+        char ch = expression.charAt(index);
+
+        // Handle unary minus
+        if (ch == '-') {
+            ParseResult result = parseFactor(expression, index + 1);
+            return new ParseResult(-result.value, result.nextIndex);
+        }
+
+        // Handle unary plus
+        if (ch == '+') {
+            return parseFactor(expression, index + 1);
+        }
+
+        // Handle parenthesized expressions
+        if (ch == '(') {
+            ParseResult result = parseAddSubtract(expression, index + 1);
+            int next = result.nextIndex;
+
+            // Skip whitespace
+            while (next < expression.length() && Character.isWhitespace(expression.charAt(next))) {
+                next++;
+            }
+
+            if (next >= expression.length() || expression.charAt(next) != ')') {
+                throw new IllegalArgumentException("Missing closing parenthesis");
+            }
+
+            return new ParseResult(result.value, next + 1);
+        }
+
+        // Handle numbers
+        if (Character.isDigit(ch) || ch == '.') {
+            return parseNumber(expression, index);
+        }
+
+        throw new IllegalArgumentException("Unexpected character: " + ch);
+    }
+
+    /**
+     * Parse a number from the expression starting at the given index
+     */
+    private ParseResult parseNumber(String expression, int index) throws Exception {
+        int start = index;
+
+        // Parse integer part
+        while (index < expression.length() && Character.isDigit(expression.charAt(index))) {
+            index++;
+        }
+
+        // Parse decimal part if present
+        if (index < expression.length() && expression.charAt(index) == '.') {
+            index++;
+            while (index < expression.length() && Character.isDigit(expression.charAt(index))) {
+                index++;
+            }
+        }
+
+        if (start == index) {
+            throw new IllegalArgumentException("Expected number");
+        }
+
+        String numberStr = expression.substring(start, index);
+        double value = Double.parseDouble(numberStr);
+
+        return new ParseResult(value, index);
+    }
+
+    /**
+     * Immutable parsing result, safe to share between concurrent callers
+     */
+    private static final class ParseResult {
+        final double value;
+        final int nextIndex;
+
+        ParseResult(double value, int nextIndex) {
+            this.value = value;
+            this.nextIndex = nextIndex;
+        }
+    }
+}
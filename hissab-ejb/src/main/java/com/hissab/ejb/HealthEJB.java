@@ -0,0 +1,126 @@
+package com.hissab.ejb;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.ejb.ConcurrencyManagement;
+import jakarta.ejb.ConcurrencyManagementType;
+import jakarta.ejb.DependsOn;
+import jakarta.ejb.EJB;
+import jakarta.ejb.Schedule;
+import jakarta.ejb.Singleton;
+import jakarta.ejb.Startup;
+import jakarta.ejb.TransactionAttribute;
+import jakarta.ejb.TransactionAttributeType;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceContext;
+import jakarta.persistence.Query;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.logging.Logger;
+import java.util.logging.Level;
+
+/**
+ * Periodically refreshes a health snapshot so liveness and readiness probes never
+ * evaluate expressions, take a pool instance or touch the database themselves.
+ */
+@Singleton
+@Startup
+@DependsOn({"ExpressionEngine", "WarmupEJB"})
+@ConcurrencyManagement(ConcurrencyManagementType.BEAN)
+public class HealthEJB implements HealthEJBLocal {
+    
+    private static final Logger logger = Logger.getLogger(HealthEJB.class.getName());
+    
+    static final String EVALUATION = "evaluation";
+    static final String DATABASE = "database";
+    static final String DATABASE_LOAD = "databaseLoad";
+    static final String TRACE_WRITES = "traceWrites";
+    
+    // In-flight TraceEJB calls that count as a busy database; each holds a pooled connection, so keep
+    // -Dhissab.db.operations.max at HissabPool's max-pool-size (GlassFish's default is 32)
+    private static final int DATABASE_OPERATIONS_LIMIT = Integer.getInteger("hissab.db.operations.max", 32);
+    private static final double DATABASE_LOAD_LIMIT = 0.9;
+    private static final int TRACE_WRITES_LIMIT = Integer.getInteger("hissab.trace.writes.max", 50);
+    private static final int DATABASE_PING_TIMEOUT_MILLIS = 1000;
+    
+    @EJB
+    private ExpressionEngine expressionEngine;
+    
+    @EJB
+    private WarmupEJBLocal warmupEJB;
+    
+    @EJB
+    private MetricsEJBLocal metricsEJB;
+    
+    @PersistenceContext(unitName = "hissabPU")
+    private EntityManager entityManager;
+    
+    private volatile HealthSnapshot snapshot;
+    
+    @PostConstruct
+    public void init() {
+        Map<String, HealthSnapshot.Component> components = new LinkedHashMap<>();
+        components.put(EVALUATION, new HealthSnapshot.Component(HealthSnapshot.Status.DOWN, "starting"));
+        snapshot = new HealthSnapshot(components, System.currentTimeMillis(), 0, DATABASE_OPERATIONS_LIMIT, 0);
+    }
+    
+    public HealthSnapshot getSnapshot() {
+        return snapshot;
+    }
+    
+    /**
+     * Rebuilds the snapshot; probes only ever read the last completed one
+     */
+    @Schedule(second = "*/5", minute = "*", hour = "*", persistent = false)
+    @TransactionAttribute(TransactionAttributeType.NOT_SUPPORTED)
+    public void refresh() {
+        Map<String, HealthSnapshot.Component> components = new LinkedHashMap<>();
+        components.put(EVALUATION, checkEvaluation());
+        components.put(DATABASE, checkDatabase());
+        
+        // Counted around TraceEJB calls, not read from the pool; other users of HissabPool are not included
+        int operationsInFlight = metricsEJB.getDatabaseOperationsInFlight();
+        double load = (double) operationsInFlight / DATABASE_OPERATIONS_LIMIT;
+        components.put(DATABASE_LOAD, new HealthSnapshot.Component(
+            load >= DATABASE_LOAD_LIMIT ? HealthSnapshot.Status.DEGRADED : HealthSnapshot.Status.UP,
+            operationsInFlight + "/" + DATABASE_OPERATIONS_LIMIT + " database operations in flight"));
+        
+        int traceWritesInFlight = metricsEJB.getTraceWritesInFlight();
+        components.put(TRACE_WRITES, new HealthSnapshot.Component(
+            traceWritesInFlight >= TRACE_WRITES_LIMIT ? HealthSnapshot.Status.DEGRADED : HealthSnapshot.Status.UP,
+            traceWritesInFlight + " trace writes in flight"));
+        
+        HealthSnapshot previous = snapshot;
+        snapshot = new HealthSnapshot(components, System.currentTimeMillis(),
+                                      operationsInFlight, DATABASE_OPERATIONS_LIMIT, traceWritesInFlight);
+        if (previous.getStatus() != snapshot.getStatus()) {
+            logger.log(Level.INFO, "Health status changed from " + previous.getStatus() + " to " + snapshot);
+        }
+    }
+    
+    private HealthSnapshot.Component checkEvaluation() {
+        if (!warmupEJB.isReady()) {
+            return new HealthSnapshot.Component(HealthSnapshot.Status.DOWN, warmupEJB.getWarmupReport());
+        }
+        try {
+            Object result = expressionEngine.evaluate("1+1");
+            if (result instanceof Number && ((Number) result).doubleValue() == 2) {
+                return new HealthSnapshot.Component(HealthSnapshot.Status.UP, null);
+            }
+            return new HealthSnapshot.Component(HealthSnapshot.Status.DOWN, "unexpected result for 1+1: " + result);
+        } catch (Exception e) {
+            return new HealthSnapshot.Component(HealthSnapshot.Status.DOWN, e.getMessage());
+        }
+    }
+    
+    private HealthSnapshot.Component checkDatabase() {
+        try {
+            Query ping = entityManager.createNativeQuery("SELECT 1");
+            ping.setHint("jakarta.persistence.query.timeout", DATABASE_PING_TIMEOUT_MILLIS);
+            ping.getSingleResult();
+            return new HealthSnapshot.Component(HealthSnapshot.Status.UP, null);
+        } catch (Exception e) {
+            logger.log(Level.FINE, "Database health check failed", e);
+            return new HealthSnapshot.Component(HealthSnapshot.Status.DEGRADED, "unreachable: " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,16 @@
+package com.hissab.ejb;
+
+import jakarta.ejb.Local;
+
+/**
+ * Local business interface for HealthEJB
+ */
+@Local
+public interface HealthEJBLocal {
+    
+    /**
+     * Returns the latest background health snapshot without running any checks
+     * @return The cached health snapshot
+     */
+    HealthSnapshot getSnapshot();
+}
@@ -0,0 +1,135 @@
+package com.hissab.ejb;
+
+import java.io.Serializable;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Immutable point-in-time view of the service health, refreshed in the background by HealthEJB
+ */
+public final class HealthSnapshot implements Serializable {
+    
+    private static final long serialVersionUID = 1L;
+    
+    /**
+     * Health of a single component or of the service as a whole
+     */
+    public enum Status {
+        /** Fully operational */
+        UP,
+        /** Calculations work but a secondary component (database, tracing) is impaired */
+        DEGRADED,
+        /** Calculations cannot be served */
+        DOWN
+    }
+    
+    /**
+     * Status and detail message of one checked component
+     */
+    public static final class Component implements Serializable {
+        
+        private static final long serialVersionUID = 1L;
+        
+        private final Status status;
+        private final String detail;
+        
+        public Component(Status status, String detail) {
+            this.status = status;
+            this.detail = detail;
+        }
+        
+        public Status getStatus() {
+            return status;
+        }
+        
+        public String getDetail() {
+            return detail;
+        }
+    }
+    
+    private final Status status;
+    private final long checkedAtMillis;
+    private final Map<String, Component> components;
+    private final int databaseOperationsInFlight;
+    private final int databaseOperationsLimit;
+    private final int traceWritesInFlight;
+    
+    public HealthSnapshot(Map<String, Component> components, long checkedAtMillis,
+                          int databaseOperationsInFlight, int databaseOperationsLimit, int traceWritesInFlight) {
+        this.components = Collections.unmodifiableMap(new LinkedHashMap<>(components));
+        this.checkedAtMillis = checkedAtMillis;
+        this.databaseOperationsInFlight = databaseOperationsInFlight;
+        this.databaseOperationsLimit = databaseOperationsLimit;
+        this.traceWritesInFlight = traceWritesInFlight;
+        this.status = overallStatus(components);
+    }
+    
+    /**
+     * Evaluation failures take the service down; anything else only degrades it
+     */
+    private static Status overallStatus(Map<String, Component> components) {
+        Status overall = Status.UP;
+        for (Map.Entry<String, Component> entry : components.entrySet()) {
+            Status componentStatus = entry.getValue().getStatus();
+            if (componentStatus == Status.UP) {
+                continue;
+            }
+            if (HealthEJB.EVALUATION.equals(entry.getKey()) && componentStatus == Status.DOWN) {
+                return Status.DOWN;
+            }
+            overall = Status.DEGRADED;
+        }
+        return overall;
+    }
+    
+    public Status getStatus() {
+        return status;
+    }
+    
+    /**
+     * Whether the node should receive traffic (UP or DEGRADED)
+     */
+    public boolean isReady() {
+        return status != Status.DOWN;
+    }
+    
+    public long getCheckedAtMillis() {
+        return checkedAtMillis;
+    }
+    
+    public Map<String, Component> getComponents() {
+        return components;
+    }
+    
+    /**
+     * TraceEJB calls in progress, each holding a database connection
+     */
+    public int getDatabaseOperationsInFlight() {
+        return databaseOperationsInFlight;
+    }
+    
+    public int getDatabaseOperationsLimit() {
+        return databaseOperationsLimit;
+    }
+    
+    public double getDatabaseLoad() {
+        return databaseOperationsLimit > 0 ? (double) databaseOperationsInFlight / databaseOperationsLimit : 0;
+    }
+    
+    public int getTraceWritesInFlight() {
+        return traceWritesInFlight;
+    }
+    
+    @Override
+    public String toString() {
+        StringBuilder text = new StringBuilder("Service is ").append(status);
+        for (Map.Entry<String, Component> entry : components.entrySet()) {
+            text.append("; ").append(entry.getKey()).append(": ").append(entry.getValue().getStatus());
+            if (entry.getValue().getDetail() != null) {
+                text.append(" (").append(entry.getValue().getDetail()).append(")");
+            }
+        }
+        return text.toString();
+    }
+}
@@ -0,0 +1,58 @@
+package com.hissab.ejb;
+
+import jakarta.ejb.ConcurrencyManagement;
+import jakarta.ejb.ConcurrencyManagementType;
+import jakarta.ejb.Singleton;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Lock-free in-memory counters shared by the EJB and web modules.
+ */
+@Singleton
+@ConcurrencyManagement(ConcurrencyManagementType.BEAN)
+public class MetricsEJB implements MetricsEJBLocal {
+    
+    private final AtomicInteger databaseOperationsInFlight = new AtomicInteger();
+    private final AtomicInteger traceWritesInFlight = new AtomicInteger();
+    private final AtomicLong expiredEvaluations = new AtomicLong();
+    private final AtomicLong expiredTraceWrites = new AtomicLong();
+    
+    public void databaseOperationStarted(boolean traceWrite) {
+        databaseOperationsInFlight.incrementAndGet();
+        if (traceWrite) {
+            traceWritesInFlight.incrementAndGet();
+        }
+    }
+    
+    public void databaseOperationFinished(boolean traceWrite) {
+        databaseOperationsInFlight.decrementAndGet();
+        if (traceWrite) {
+            traceWritesInFlight.decrementAndGet();
+        }
+    }
+    
+    public int getDatabaseOperationsInFlight() {
+        return databaseOperationsInFlight.get();
+    }
+    
+    public int getTraceWritesInFlight() {
+        return traceWritesInFlight.get();
+    }
+    
+    public void evaluationExpired() {
+        expiredEvaluations.incrementAndGet();
+    }
+    
+    public void traceWriteExpired() {
+        expiredTraceWrites.incrementAndGet();
+    }
+    
+    public long getExpiredEvaluations() {
+        return expiredEvaluations.get();
+    }
+    
+    public long getExpiredTraceWrites() {
+        return expiredTraceWrites.get();
+    }
+}
@@ -0,0 +1,56 @@
+package com.hissab.ejb;
+
+import jakarta.ejb.Local;
+
+/**
+ * Local business interface for MetricsEJB
+ */
+@Local
+public interface MetricsEJBLocal {
+    
+    /**
+     * Records the start of an operation that holds a database connection
+     * @param traceWrite true if the operation inserts a trace
+     */
+    void databaseOperationStarted(boolean traceWrite);
+    
+    /**
+     * Records the end of an operation started with databaseOperationStarted
+     * @param traceWrite true if the operation inserted a trace
+     */
+    void databaseOperationFinished(boolean traceWrite);
+    
+    /**
+     * Number of operations currently holding a database connection
+     * @return In-flight database operations
+     */
+    int getDatabaseOperationsInFlight();
+    
+    /**
+     * Number of trace inserts waiting on or holding a database connection
+     * @return In-flight trace writes
+     */
+    int getTraceWritesInFlight();
+    
+    /**
+     * Records an evaluation skipped because its request deadline had passed
+     */
+    void evaluationExpired();
+    
+    /**
+     * Records a trace insert skipped because its request deadline had passed
+     */
+    void traceWriteExpired();
+    
+    /**
+     * Number of evaluations skipped since startup because their deadline had passed
+     * @return Expired evaluation count
+     */
+    long getExpiredEvaluations();
+    
+    /**
+     * Number of trace inserts skipped since startup because their deadline had passed
+     * @return Expired trace write count
+     */
+    long getExpiredTraceWrites();
+}
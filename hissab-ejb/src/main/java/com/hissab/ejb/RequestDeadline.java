@@ -0,0 +1,46 @@
+package com.hissab.ejb;
+
+/**
+ * Deadline of the request being served on the current thread.
+ * Set by the web layer from the client's timeout header and checked by CalculEJB and
+ * TraceEJB, which run on the caller's thread for local invocations, so work nobody is
+ * waiting for any more can be skipped.
+ */
+public final class RequestDeadline {
+    
+    private static final ThreadLocal<Long> DEADLINE = new ThreadLocal<>();
+    
+    private RequestDeadline() {
+    }
+    
+    /**
+     * Sets the deadline for the current thread
+     * @param deadlineMillis Absolute deadline as epoch milliseconds
+     */
+    public static void set(long deadlineMillis) {
+        DEADLINE.set(deadlineMillis);
+    }
+    
+    /**
+     * Removes the deadline; must be called when the request completes
+     */
+    public static void clear() {
+        DEADLINE.remove();
+    }
+    
+    /**
+     * Whether a deadline is set and has already passed
+     */
+    public static boolean isExpired() {
+        Long deadline = DEADLINE.get();
+        return deadline != null && System.currentTimeMillis() >= deadline;
+    }
+    
+    /**
+     * Milliseconds left before the deadline, or Long.MAX_VALUE when no deadline is set
+     */
+    public static long remainingMillis() {
+        Long deadline = DEADLINE.get();
+        return deadline == null ? Long.MAX_VALUE : deadline - System.currentTimeMillis();
+    }
+}
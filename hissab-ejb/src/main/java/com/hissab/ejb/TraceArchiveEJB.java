@@ -0,0 +1,383 @@
+package com.hissab.ejb;
+
+import com.hissab.entity.Trace;
+import com.hissab.entity.TraceSource;
+import jakarta.annotation.Resource;
+import jakarta.ejb.ConcurrencyManagement;
+import jakarta.ejb.ConcurrencyManagementType;
+import jakarta.ejb.EJB;
+import jakarta.ejb.Schedule;
+import jakarta.ejb.Singleton;
+import jakarta.ejb.TransactionAttribute;
+import jakarta.ejb.TransactionAttributeType;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import java.util.logging.Logger;
+import java.util.logging.Level;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import javax.sql.DataSource;
+
+/**
+ * Moves cold traces out of MySQL into compressed columnar segment files (see TraceArchiveFile),
+ * so they stop taking up room in the InnoDB buffer pool.
+ * Traces older than the threshold are streamed out in (timestamp, id) keyset order, a
+ * segment at a time. Each segment is on disk before its rows are deleted, in small
+ * chunks that commit on their own; if the server stops in between, the next run deletes
+ * the rest using the ids stored in the newest segment.
+ */
+@Singleton
+@ConcurrencyManagement(ConcurrencyManagementType.BEAN)
+public class TraceArchiveEJB implements TraceArchiveEJBLocal {
+
+    private static final Logger logger = Logger.getLogger(TraceArchiveEJB.class.getName());
+
+    // Traces older than this many days are archived; 0 (the default) disables archival
+    private static final int ARCHIVE_DAYS = Integer.getInteger("hissab.trace.archive.days", 0);
+    private static final int SEGMENT_ROWS = Integer.getInteger("hissab.trace.archive.segmentRows", 100_000);
+    private static final Path ARCHIVE_DIRECTORY = Paths.get(System.getProperty("hissab.trace.archive.dir",
+        System.getProperty("com.sun.aas.instanceRoot", System.getProperty("user.home")) + "/hissab-archive"));
+
+    private static final int FETCH_ROWS = 5000;
+    private static final int DELETE_CHUNK_SIZE = 1000;
+    private static final String SEGMENT_PREFIX = "traces-";
+
+    @Resource(lookup = "jdbc/hissabDS")
+    private DataSource dataSource;
+
+    @EJB
+    private TraceCacheEJBLocal traceCacheEJB;
+
+    private final AtomicBoolean running = new AtomicBoolean();
+    private volatile String report = "Trace archival not run yet";
+
+    @Schedule(hour = "2", minute = "30", persistent = false)
+    @TransactionAttribute(TransactionAttributeType.NOT_SUPPORTED)
+    public void runScheduled() {
+        archiveTraces();
+    }
+
+    @TransactionAttribute(TransactionAttributeType.NOT_SUPPORTED)
+    public int archiveTraces() {
+        if (ARCHIVE_DAYS <= 0 || !running.compareAndSet(false, true)) {
+            return 0;
+        }
+        long start = System.nanoTime();
+        Timestamp cutoff = new Timestamp(System.currentTimeMillis() - ARCHIVE_DAYS * 86_400_000L);
+        int archived = 0;
+        int segments = 0;
+        try (Connection connection = dataSource.getConnection()) {
+            connection.setAutoCommit(true);
+            Files.createDirectories(ARCHIVE_DIRECTORY);
+            List<Path> existing = listSegments();
+            long sequence = 0;
+            if (!existing.isEmpty()) {
+                Path newest = existing.get(existing.size() - 1);
+                sequence = sequenceOf(newest);
+                deleteArchivedRows(connection, TraceArchiveFile.read(newest,
+                    EnumSet.of(TraceRow.Column.ID, TraceRow.Column.TIMESTAMP)));
+            }
+
+            Timestamp afterTimestamp = new Timestamp(0);
+            long afterId = 0;
+            while (true) {
+                TraceArchiveFile.Columns segment = new TraceArchiveFile.Columns(SEGMENT_ROWS);
+                while (segment.size < SEGMENT_ROWS) {
+                    int wanted = Math.min(FETCH_ROWS, SEGMENT_ROWS - segment.size);
+                    int fetched = fetch(connection, segment, cutoff, afterTimestamp, afterId, wanted);
+                    if (fetched > 0) {
+                        afterTimestamp = new Timestamp(segment.timestamps[segment.size - 1]);
+                        afterId = segment.ids[segment.size - 1];
+                    }
+                    if (fetched < wanted) {
+                        break;
+                    }
+                }
+                if (segment.size == 0) {
+                    break;
+                }
+                TraceArchiveFile.write(ARCHIVE_DIRECTORY.resolve(
+                    String.format("%s%010d%s", SEGMENT_PREFIX, ++sequence, TraceArchiveFile.EXTENSION)), segment);
+                deleteArchivedRows(connection, segment);
+                archived += segment.size;
+                segments++;
+                if (segment.size < SEGMENT_ROWS) {
+                    break;
+                }
+            }
+            report = String.format("Trace archival: %d traces older than %d days moved to %d segments in %s in %d ms",
+                                   archived, ARCHIVE_DAYS, segments, ARCHIVE_DIRECTORY, (System.nanoTime() - start) / 1_000_000);
+            logger.log(archived > 0 ? Level.INFO : Level.FINE, report);
+            if (archived > 0) {
+                traceCacheEJB.invalidate();
+            }
+
+        } catch (SQLException | IOException e) {
+            report = "Trace archival failed after " + archived + " traces: " + e.getMessage();
+            logger.log(Level.WARNING, "Trace archival failed", e);
+        } finally {
+            running.set(false);
+        }
+        return archived;
+    }
+
+    public int scanArchive(Date from, Date to, Set<TraceRow.Column> columns, Consumer<TraceRow> consumer) {
+        // Timestamps are always read to apply the range
+        Set<TraceRow.Column> read = EnumSet.noneOf(TraceRow.Column.class);
+        read.addAll(columns);
+        read.add(TraceRow.Column.TIMESTAMP);
+        int count = 0;
+        try {
+            for (Path file : listSegments()) {
+                TraceArchiveFile.Columns segment;
+                try {
+                    TraceArchiveFile.Header header = TraceArchiveFile.readHeader(file);
+                    if (header.maxTimestamp < from.getTime() || header.minTimestamp >= to.getTime()) {
+                        continue;
+                    }
+                    segment = TraceArchiveFile.read(file, read);
+                } catch (NoSuchFileException e) {
+                    // Removed by retention since the listing
+                    continue;
+                }
+                for (int i = 0; i < segment.size; i++) {
+                    long timestamp = segment.timestamps[i];
+                    if (timestamp >= from.getTime() && timestamp < to.getTime()) {
+                        consumer.accept(toRow(segment, i, columns));
+                        count++;
+                    }
+                }
+            }
+            return count;
+
+        } catch (IOException e) {
+            logger.log(Level.SEVERE, "Error scanning trace archive", e);
+            throw new RuntimeException("Failed to scan trace archive", e);
+        }
+    }
+
+    public List<TraceRow> findNewestArchived(Set<TraceRow.Column> filterColumns, Predicate<TraceRow> filter, int limit) {
+        if (limit <= 0) {
+            return new ArrayList<>();
+        }
+        Comparator<TraceRow> oldestFirst = Comparator.comparing(TraceRow::getTimestamp);
+        PriorityQueue<TraceRow> newest = new PriorityQueue<>(oldestFirst);
+        Set<TraceRow.Column> tested = EnumSet.noneOf(TraceRow.Column.class);
+        tested.addAll(filterColumns);
+        tested.add(TraceRow.Column.TIMESTAMP);
+        Set<TraceRow.Column> rest = EnumSet.complementOf(EnumSet.copyOf(tested));
+        try {
+            Map<Path, TraceArchiveFile.Header> headers = new HashMap<>();
+            for (Path file : listSegments()) {
+                try {
+                    headers.put(file, TraceArchiveFile.readHeader(file));
+                } catch (NoSuchFileException e) {
+                    // Removed by retention since the listing
+                }
+            }
+            List<Path> newestSegmentsFirst = new ArrayList<>(headers.keySet());
+            newestSegmentsFirst.sort(Comparator.comparingLong((Path file) -> headers.get(file).maxTimestamp).reversed());
+
+            for (Path file : newestSegmentsFirst) {
+                if (newest.size() >= limit && headers.get(file).maxTimestamp <= newest.peek().getTimestamp().getTime()) {
+                    // This and every remaining segment is older than all the traces kept
+                    break;
+                }
+                TraceArchiveFile.Columns segment;
+                try {
+                    segment = TraceArchiveFile.read(file, tested);
+                } catch (NoSuchFileException e) {
+                    continue;
+                }
+                // Rows are in timestamp order, so walk back from the newest
+                List<Integer> matches = new ArrayList<>();
+                for (int i = segment.size - 1; i >= 0 && matches.size() < limit; i--) {
+                    if (newest.size() >= limit && segment.timestamps[i] <= newest.peek().getTimestamp().getTime()) {
+                        break;
+                    }
+                    if (filter.test(toRow(segment, i, tested))) {
+                        matches.add(i);
+                    }
+                }
+                if (matches.isEmpty()) {
+                    continue;
+                }
+                // Only segments with matches have their other columns read
+                try {
+                    TraceArchiveFile.Columns others = TraceArchiveFile.read(file, rest);
+                    segment.ids = segment.ids != null ? segment.ids : others.ids;
+                    segment.results = segment.results != null ? segment.results : others.results;
+                    segment.expressions = segment.expressions != null ? segment.expressions : others.expressions;
+                    segment.sources = segment.sources != null ? segment.sources : others.sources;
+                } catch (NoSuchFileException e) {
+                    continue;
+                }
+                for (int i : matches) {
+                    newest.add(toRow(segment, i, EnumSet.allOf(TraceRow.Column.class)));
+                    if (newest.size() > limit) {
+                        newest.poll();
+                    }
+                }
+            }
+            List<TraceRow> rows = new ArrayList<>(newest);
+            rows.sort(oldestFirst.reversed());
+            return rows;
+
+        } catch (IOException e) {
+            logger.log(Level.SEVERE, "Error reading newest archived traces", e);
+            throw new RuntimeException("Failed to read trace archive", e);
+        }
+    }
+
+    public long getArchivedTraceCount() {
+        long count = 0;
+        try {
+            for (Path file : listSegments()) {
+                try {
+                    count += TraceArchiveFile.readHeader(file).rowCount;
+                } catch (NoSuchFileException e) {
+                    // Removed by retention since the listing
+                }
+            }
+            return count;
+
+        } catch (IOException e) {
+            logger.log(Level.SEVERE, "Error counting archived traces", e);
+            throw new RuntimeException("Failed to count archived traces", e);
+        }
+    }
+
+    public int deleteArchivedBefore(Date cutoff) {
+        int deleted = 0;
+        try {
+            for (Path file : listSegments()) {
+                if (TraceArchiveFile.readHeader(file).maxTimestamp < cutoff.getTime() && Files.deleteIfExists(file)) {
+                    deleted++;
+                }
+            }
+            if (deleted > 0) {
+                // Cached counts include the archive
+                traceCacheEJB.invalidate();
+                logger.log(Level.INFO, "Deleted " + deleted + " trace archive segments older than " + cutoff);
+            }
+            return deleted;
+
+        } catch (IOException e) {
+            logger.log(Level.SEVERE, "Error deleting archive segments before " + cutoff, e);
+            throw new RuntimeException("Failed to delete archive segments", e);
+        }
+    }
+
+    public String getArchiveReport() {
+        return report;
+    }
+
+    /**
+     * Appends the next traces after (afterTimestamp, afterId) and older than the cutoff
+     * @return Number of rows fetched
+     */
+    private int fetch(Connection connection, TraceArchiveFile.Columns segment, Timestamp cutoff,
+                      Timestamp afterTimestamp, long afterId, int limit) throws SQLException {
+        // With timestamp >= afterTimestamp, "timestamp > afterTimestamp OR id > afterId" is the
+        // row-value comparison (timestamp, id) > (afterTimestamp, afterId) in a form MySQL ranges on.
+        // Segments hold the texts themselves, so they stay readable without trace_text
+        try (PreparedStatement select = connection.prepareStatement(
+                "SELECT t.id, t.timestamp, t.source, e.text, t.result_value, r.text FROM trace t "
+                + "JOIN trace_text e ON e.id = t.expression_id LEFT JOIN trace_text r ON r.id = t.result_text_id "
+                + "WHERE t.timestamp >= ? AND t.timestamp < ? AND (t.timestamp > ? OR t.id > ?) "
+                + "ORDER BY t.timestamp, t.id LIMIT ?")) {
+            select.setTimestamp(1, afterTimestamp);
+            select.setTimestamp(2, cutoff);
+            select.setTimestamp(3, afterTimestamp);
+            select.setLong(4, afterId);
+            select.setInt(5, limit);
+            int fetched = 0;
+            try (ResultSet rows = select.executeQuery()) {
+                while (rows.next()) {
+                    double value = rows.getDouble(5);
+                    String result = rows.wasNull() ? rows.getString(6) : Trace.formatResult(value);
+                    segment.add(rows.getLong(1), rows.getTimestamp(2).getTime(), TraceSource.fromCode(rows.getInt(3)),
+                                rows.getString(4), result);
+                    fetched++;
+                }
+            }
+            return fetched;
+        }
+    }
+
+    /**
+     * Deletes a segment's rows from the trace table by id, DELETE_CHUNK_SIZE at a time,
+     * each chunk bounded by its timestamps so a partitioned table only touches their partitions
+     */
+    private void deleteArchivedRows(Connection connection, TraceArchiveFile.Columns segment) throws SQLException {
+        for (int first = 0; first < segment.size; first += DELETE_CHUNK_SIZE) {
+            int last = Math.min(first + DELETE_CHUNK_SIZE, segment.size) - 1;
+            StringBuilder sql = new StringBuilder("DELETE FROM trace WHERE timestamp BETWEEN ? AND ? AND id IN (");
+            for (int i = first; i <= last; i++) {
+                sql.append(i == first ? "?" : ", ?");
+            }
+            try (PreparedStatement delete = connection.prepareStatement(sql.append(")").toString())) {
+                delete.setTimestamp(1, new Timestamp(segment.timestamps[first]));
+                delete.setTimestamp(2, new Timestamp(segment.timestamps[last]));
+                for (int i = first; i <= last; i++) {
+                    delete.setLong(i - first + 3, segment.ids[i]);
+                }
+                delete.executeUpdate();
+            }
+        }
+    }
+
+    /**
+     * One row of a segment with only the given columns filled in
+     */
+    private static TraceRow toRow(TraceArchiveFile.Columns segment, int i, Set<TraceRow.Column> columns) {
+        return new TraceRow(
+            columns.contains(TraceRow.Column.ID) ? segment.ids[i] : null,
+            columns.contains(TraceRow.Column.TIMESTAMP) ? new Date(segment.timestamps[i]) : null,
+            columns.contains(TraceRow.Column.SOURCE) ? TraceSource.fromCode(segment.sources[i]) : null,
+            columns.contains(TraceRow.Column.EXPRESSION) ? segment.expressions[i] : null,
+            columns.contains(TraceRow.Column.RESULT) ? segment.results[i] : null,
+            true);
+    }
+
+    private List<Path> listSegments() throws IOException {
+        if (!Files.isDirectory(ARCHIVE_DIRECTORY)) {
+            return Collections.emptyList();
+        }
+        try (Stream<Path> files = Files.list(ARCHIVE_DIRECTORY)) {
+            // Zero-padded sequence numbers sort in the order the segments were written
+            return files.filter(file -> {
+                    String name = file.getFileName().toString();
+                    return name.startsWith(SEGMENT_PREFIX) && name.endsWith(TraceArchiveFile.EXTENSION);
+                })
+                .sorted()
+                .collect(Collectors.toList());
+        }
+    }
+
+    private static long sequenceOf(Path segment) {
+        String name = segment.getFileName().toString();
+        return Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - TraceArchiveFile.EXTENSION.length()));
+    }
+}
@@ -0,0 +1,57 @@
+package com.hissab.ejb;
+
+import jakarta.ejb.Local;
+import java.util.Date;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+/**
+ * Local business interface for TraceArchiveEJB
+ */
+@Local
+public interface TraceArchiveEJBLocal {
+
+    /**
+     * Moves traces older than the archive threshold from the trace table to archive segments
+     * @return Number of traces archived
+     */
+    int archiveTraces();
+
+    /**
+     * Reads archived traces with a timestamp in [from, to), one segment at a time
+     * @param columns The columns to read; segments are only decompressed for these
+     * @param consumer Receives each matching trace
+     * @return Number of traces passed to the consumer
+     */
+    int scanArchive(Date from, Date to, Set<TraceRow.Column> columns, Consumer<TraceRow> consumer);
+
+    /**
+     * Reads the newest archived traces accepted by a filter, visiting segments newest first by their
+     * header timestamps and stopping once the rest are older than every trace kept
+     * @param filterColumns The columns the filter reads; the others are only read for segments with matches
+     * @param filter Tested against rows holding the timestamp and filterColumns
+     * @param limit Maximum number of traces to return
+     * @return Matching traces with every column, newest first
+     */
+    List<TraceRow> findNewestArchived(Set<TraceRow.Column> filterColumns, Predicate<TraceRow> filter, int limit);
+
+    /**
+     * Counts archived traces from the segment headers
+     * @return Number of archived traces
+     */
+    long getArchivedTraceCount();
+
+    /**
+     * Deletes the archive segments whose newest trace is older than a cutoff
+     * @return Number of segments deleted
+     */
+    int deleteArchivedBefore(Date cutoff);
+
+    /**
+     * Describes the outcome of the last archival run
+     * @return Human-readable report
+     */
+    String getArchiveReport();
+}
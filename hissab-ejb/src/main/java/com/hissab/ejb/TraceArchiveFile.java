@@ -0,0 +1,401 @@
+package com.hissab.ejb;
+
+import com.hissab.entity.TraceSource;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Reads and writes archive segments: immutable files holding a run of traces column by column.
+ * Layout: magic "HTCA", version, row count, lowest and highest timestamp, the raw and compressed
+ * length of each column, then the Deflate-compressed columns in TraceRow.Column order. Each
+ * column is compressed on its own, so a reader only inflates the columns it needs.
+ * Ids and timestamps are stored as varint deltas from the previous row (rows are in timestamp
+ * order, so the deltas are small); expressions and results as a dictionary of their distinct
+ * values followed by one varint dictionary index per row; sources as one code byte per row.
+ * Version 1 segments have no source column and mark OCR traces with an "[OCR] " prefix on
+ * the expression, as the trace table did then; they are read as if they had one.
+ */
+final class TraceArchiveFile {
+
+    static final String EXTENSION = ".htc";
+
+    private static final int MAGIC = 0x48544341;
+    private static final int VERSION = 2;
+    private static final TraceRow.Column[] COLUMNS = TraceRow.Column.values();
+
+    // Version 1 has the columns before SOURCE
+    private static final int VERSION_1_COLUMNS = TraceRow.Column.SOURCE.ordinal();
+    private static final String VERSION_1_OCR_PREFIX = "[OCR]";
+
+    private TraceArchiveFile() {
+    }
+
+    /**
+     * Row count and timestamp range of a segment, read without touching its columns
+     */
+    static final class Header {
+        final int version;
+        final int columnCount;
+        final int rowCount;
+        final long minTimestamp;
+        final long maxTimestamp;
+        final int[] rawLengths;
+        final int[] compressedLengths;
+
+        Header(int version, int rowCount, long minTimestamp, long maxTimestamp) {
+            this.version = version;
+            this.columnCount = columnCount(version);
+            this.rawLengths = new int[columnCount];
+            this.compressedLengths = new int[columnCount];
+            this.rowCount = rowCount;
+            this.minTimestamp = minTimestamp;
+            this.maxTimestamp = maxTimestamp;
+        }
+    }
+
+    /**
+     * Traces held column by column; arrays of columns that were not read are null
+     */
+    static final class Columns {
+        int size;
+        long[] ids;
+        long[] timestamps;
+        String[] expressions;
+        String[] results;
+        byte[] sources;
+
+        Columns() {
+        }
+
+        Columns(int capacity) {
+            ids = new long[capacity];
+            timestamps = new long[capacity];
+            expressions = new String[capacity];
+            results = new String[capacity];
+            sources = new byte[capacity];
+        }
+
+        void add(long id, long timestamp, TraceSource source, String expression, String result) {
+            ids[size] = id;
+            timestamps[size] = timestamp;
+            sources[size] = (byte) source.getCode();
+            expressions[size] = expression;
+            results[size] = result;
+            size++;
+        }
+    }
+
+    /**
+     * Writes a segment to a temporary file, forces it to disk and renames it into place,
+     * so a segment is either complete or absent
+     */
+    static void write(Path file, Columns rows) throws IOException {
+        long minTimestamp = Long.MAX_VALUE;
+        long maxTimestamp = Long.MIN_VALUE;
+        for (int i = 0; i < rows.size; i++) {
+            minTimestamp = Math.min(minTimestamp, rows.timestamps[i]);
+            maxTimestamp = Math.max(maxTimestamp, rows.timestamps[i]);
+        }
+        Header header = new Header(VERSION, rows.size, minTimestamp, maxTimestamp);
+        byte[][] blocks = new byte[COLUMNS.length][];
+        for (TraceRow.Column column : COLUMNS) {
+            byte[] raw;
+            switch (column) {
+                case ID:
+                    raw = encodeDeltas(rows.ids, rows.size);
+                    break;
+                case TIMESTAMP:
+                    raw = encodeDeltas(rows.timestamps, rows.size);
+                    break;
+                case EXPRESSION:
+                    raw = encodeDictionary(rows.expressions, rows.size);
+                    break;
+                case RESULT:
+                    raw = encodeDictionary(rows.results, rows.size);
+                    break;
+                default:
+                    raw = Arrays.copyOf(rows.sources, rows.size);
+                    break;
+            }
+            header.rawLengths[column.ordinal()] = raw.length;
+            blocks[column.ordinal()] = deflate(raw);
+            header.compressedLengths[column.ordinal()] = blocks[column.ordinal()].length;
+        }
+
+        ByteBuffer headerBuffer = ByteBuffer.allocate(headerSize(COLUMNS.length));
+        headerBuffer.putInt(MAGIC).putInt(VERSION).putInt(header.rowCount)
+                    .putLong(header.minTimestamp).putLong(header.maxTimestamp);
+        for (int c = 0; c < COLUMNS.length; c++) {
+            headerBuffer.putInt(header.rawLengths[c]).putInt(header.compressedLengths[c]);
+        }
+        headerBuffer.flip();
+
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                                                    StandardOpenOption.TRUNCATE_EXISTING)) {
+            writeFully(channel, headerBuffer);
+            for (byte[] block : blocks) {
+                writeFully(channel, ByteBuffer.wrap(block));
+            }
+            channel.force(true);
+        }
+        Files.move(temp, file, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    static Header readHeader(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            return readHeader(channel, file);
+        }
+    }
+
+    /**
+     * Reads the requested columns of a segment, skipping over the others
+     */
+    static Columns read(Path file, Set<TraceRow.Column> wanted) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            Header header = readHeader(channel, file);
+            boolean legacySources = header.version == 1 && wanted.contains(TraceRow.Column.SOURCE);
+            if (legacySources) {
+                // Derived from the expressions
+                wanted = EnumSet.copyOf(wanted);
+                wanted.add(TraceRow.Column.EXPRESSION);
+            }
+            Columns columns = new Columns();
+            columns.size = header.rowCount;
+            long offset = headerSize(header.columnCount);
+            for (int c = 0; c < header.columnCount; c++) {
+                TraceRow.Column column = COLUMNS[c];
+                if (wanted.contains(column)) {
+                    ByteBuffer block = ByteBuffer.allocate(header.compressedLengths[c]);
+                    readFully(channel, block, offset);
+                    ByteBuffer raw = ByteBuffer.wrap(inflate(block.array(), header.rawLengths[c]));
+                    switch (column) {
+                        case ID:
+                            columns.ids = decodeDeltas(raw, header.rowCount);
+                            break;
+                        case TIMESTAMP:
+                            columns.timestamps = decodeDeltas(raw, header.rowCount);
+                            break;
+                        case EXPRESSION:
+                            columns.expressions = decodeDictionary(raw, header.rowCount);
+                            break;
+                        case RESULT:
+                            columns.results = decodeDictionary(raw, header.rowCount);
+                            break;
+                        default:
+                            columns.sources = raw.array();
+                            break;
+                    }
+                }
+                offset += header.compressedLengths[c];
+            }
+            if (header.version == 1 && columns.expressions != null) {
+                splitVersion1Expressions(columns, legacySources);
+            }
+            return columns;
+        }
+    }
+
+    /**
+     * Strips the "[OCR] " prefix off version 1 expressions, optionally recording it as the source
+     */
+    private static void splitVersion1Expressions(Columns columns, boolean sources) {
+        if (sources) {
+            columns.sources = new byte[columns.size];
+        }
+        Map<String, String> stripped = new HashMap<>();
+        for (int i = 0; i < columns.size; i++) {
+            String expression = columns.expressions[i];
+            boolean ocr = expression.startsWith(VERSION_1_OCR_PREFIX);
+            if (ocr) {
+                // Keep sharing one String instance per distinct expression
+                columns.expressions[i] = stripped.computeIfAbsent(expression,
+                    prefixed -> prefixed.substring(VERSION_1_OCR_PREFIX.length()).trim());
+            }
+            if (sources) {
+                columns.sources[i] = (byte) (ocr ? TraceSource.OCR : TraceSource.MANUAL).getCode();
+            }
+        }
+    }
+
+    private static Header readHeader(FileChannel channel, Path file) throws IOException {
+        ByteBuffer prefix = ByteBuffer.allocate(8);
+        readFully(channel, prefix, 0);
+        prefix.flip();
+        int magic = prefix.getInt();
+        int version = prefix.getInt();
+        if (magic != MAGIC || version < 1 || version > VERSION) {
+            throw new IOException("Not a trace archive segment: " + file);
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(headerSize(columnCount(version)) - 8);
+        readFully(channel, buffer, 8);
+        buffer.flip();
+        Header header = new Header(version, buffer.getInt(), buffer.getLong(), buffer.getLong());
+        for (int c = 0; c < header.columnCount; c++) {
+            header.rawLengths[c] = buffer.getInt();
+            header.compressedLengths[c] = buffer.getInt();
+        }
+        return header;
+    }
+
+    private static int columnCount(int version) {
+        return version == 1 ? VERSION_1_COLUMNS : COLUMNS.length;
+    }
+
+    private static int headerSize(int columnCount) {
+        return 4 + 4 + 4 + 8 + 8 + columnCount * 8;
+    }
+
+    private static byte[] encodeDeltas(long[] values, int size) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(size * 2);
+        long previous = 0;
+        for (int i = 0; i < size; i++) {
+            writeVarLong(out, zigzag(values[i] - previous));
+            previous = values[i];
+        }
+        return out.toByteArray();
+    }
+
+    private static long[] decodeDeltas(ByteBuffer in, int size) {
+        long[] values = new long[size];
+        long previous = 0;
+        for (int i = 0; i < size; i++) {
+            previous += unzigzag(readVarLong(in));
+            values[i] = previous;
+        }
+        return values;
+    }
+
+    private static byte[] encodeDictionary(String[] values, int size) {
+        Map<String, Integer> dictionary = new HashMap<>();
+        ByteArrayOutputStream entries = new ByteArrayOutputStream();
+        ByteArrayOutputStream indexes = new ByteArrayOutputStream(size);
+        for (int i = 0; i < size; i++) {
+            Integer index = dictionary.get(values[i]);
+            if (index == null) {
+                index = dictionary.size();
+                dictionary.put(values[i], index);
+                byte[] bytes = values[i].getBytes(StandardCharsets.UTF_8);
+                writeVarLong(entries, bytes.length);
+                entries.write(bytes, 0, bytes.length);
+            }
+            writeVarLong(indexes, index);
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream(entries.size() + indexes.size() + 5);
+        writeVarLong(out, dictionary.size());
+        out.writeBytes(entries.toByteArray());
+        out.writeBytes(indexes.toByteArray());
+        return out.toByteArray();
+    }
+
+    private static String[] decodeDictionary(ByteBuffer in, int size) {
+        String[] dictionary = new String[(int) readVarLong(in)];
+        for (int d = 0; d < dictionary.length; d++) {
+            byte[] bytes = new byte[(int) readVarLong(in)];
+            in.get(bytes);
+            dictionary[d] = new String(bytes, StandardCharsets.UTF_8);
+        }
+        // Rows share the dictionary's String instances
+        String[] values = new String[size];
+        for (int i = 0; i < size; i++) {
+            values[i] = dictionary[(int) readVarLong(in)];
+        }
+        return values;
+    }
+
+    private static long zigzag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static long unzigzag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    private static void writeVarLong(ByteArrayOutputStream out, long value) {
+        while ((value & ~0x7FL) != 0) {
+            out.write((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+
+    private static long readVarLong(ByteBuffer in) {
+        long value = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = in.get();
+            value |= (long) (b & 0x7F) << shift;
+            shift += 7;
+        } while (b < 0);
+        return value;
+    }
+
+    private static byte[] deflate(byte[] raw) {
+        Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION);
+        try {
+            deflater.setInput(raw);
+            deflater.finish();
+            ByteArrayOutputStream out = new ByteArrayOutputStream(raw.length / 4 + 64);
+            byte[] chunk = new byte[64 * 1024];
+            while (!deflater.finished()) {
+                out.write(chunk, 0, deflater.deflate(chunk));
+            }
+            return out.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private static byte[] inflate(byte[] compressed, int rawLength) throws IOException {
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(compressed);
+            byte[] raw = new byte[rawLength];
+            int length = 0;
+            while (length < rawLength && !inflater.finished()) {
+                int n = inflater.inflate(raw, length, rawLength - length);
+                if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new IOException("Truncated archive column");
+                }
+                length += n;
+            }
+            return raw;
+        } catch (DataFormatException e) {
+            throw new IOException("Corrupt archive column", e);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int n = channel.read(buffer, position + buffer.position());
+            if (n < 0) {
+                throw new EOFException("Truncated archive segment");
+            }
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package com.hissab.ejb;
+
+import jakarta.ejb.ConcurrencyManagement;
+import jakarta.ejb.ConcurrencyManagementType;
+import jakarta.ejb.Singleton;
+import jakarta.ejb.TransactionAttribute;
+import jakarta.ejb.TransactionAttributeType;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Short-lived cache for the hot trace reads (recent traces, count), shared by all TraceEJB instances.
+ * Invalidation is a counter increment: every entry records the generation it was loaded
+ * in and is only served while that is still the current one, so a write never has to
+ * find the entries it affects. Writers invalidate after their transaction commits; a
+ * reader takes the generation before it queries, so a result loaded while a write was
+ * committing is discarded instead of being served as current. TraceEJB only loads from the
+ * replica once it has caught up with the last invalidation, so a lagging replica cannot
+ * be cached under the new generation either. Entries also expire after
+ * hissab.trace.cache.ttlMillis, which bounds how stale a result can be when traces are
+ * changed outside the application.
+ */
+@Singleton
+@ConcurrencyManagement(ConcurrencyManagementType.BEAN)
+public class TraceCacheEJB implements TraceCacheEJBLocal {
+
+    private static final long TTL_MILLIS = Long.getLong("hissab.trace.cache.ttlMillis", 2000);
+    private static final int MAX_ENTRIES = Integer.getInteger("hissab.trace.cache.maxEntries", 64);
+
+    private static final class Entry {
+        final long generation;
+        final long expiresAt;
+        final Object value;
+
+        Entry(long generation, long expiresAt, Object value) {
+            this.generation = generation;
+            this.expiresAt = expiresAt;
+            this.value = value;
+        }
+    }
+
+    private final AtomicLong generation = new AtomicLong();
+    private volatile long invalidatedAt;
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong invalidations = new AtomicLong();
+
+    // Loaders run in the caller's transaction, if any
+    @TransactionAttribute(TransactionAttributeType.SUPPORTS)
+    @SuppressWarnings("unchecked")
+    public <T> T get(String key, Supplier<T> loader) {
+        long current = generation.get();
+        long now = System.currentTimeMillis();
+        Entry entry = entries.get(key);
+        if (entry != null && entry.generation == current && entry.expiresAt > now) {
+            hits.incrementAndGet();
+            return (T) entry.value;
+        }
+        misses.incrementAndGet();
+
+        T value = loader.get();
+        if (TTL_MILLIS > 0) {
+            if (entries.size() >= MAX_ENTRIES && !entries.containsKey(key)) {
+                // Only a few distinct queries are hot; an unexpected mix just starts over
+                entries.clear();
+            }
+            entries.put(key, new Entry(current, now + TTL_MILLIS, value));
+        }
+        return value;
+    }
+
+    @TransactionAttribute(TransactionAttributeType.SUPPORTS)
+    public void invalidate() {
+        invalidatedAt = System.currentTimeMillis();
+        generation.incrementAndGet();
+        invalidations.incrementAndGet();
+    }
+
+    public long getInvalidatedAt() {
+        return invalidatedAt;
+    }
+
+    public String getCacheReport() {
+        return String.format("Trace cache: %d hits, %d misses, %d invalidations, %d ms TTL",
+                             hits.get(), misses.get(), invalidations.get(), TTL_MILLIS);
+    }
+}
@@ -0,0 +1,37 @@
+package com.hissab.ejb;
+
+import jakarta.ejb.Local;
+import java.util.function.Supplier;
+
+/**
+ * Local business interface for TraceCacheEJB
+ */
+@Local
+public interface TraceCacheEJBLocal {
+
+    /**
+     * Returns the cached result of a trace query, or runs the loader and caches what it returns
+     * @param key Identifies the query and its arguments
+     * @param loader Runs the query; its result must not be modified afterwards
+     * @return The cached or freshly loaded result
+     */
+    <T> T get(String key, Supplier<T> loader);
+
+    /**
+     * Drops every cached result; called once traces were added or removed
+     */
+    void invalidate();
+
+    /**
+     * Time of the last invalidation; a result read from a copy of the table that may not
+     * hold the writes before it must not be cached
+     * @return Epoch milliseconds, or 0 if the cache was never invalidated
+     */
+    long getInvalidatedAt();
+
+    /**
+     * Describes the cache hit rate
+     * @return Human-readable report
+     */
+    String getCacheReport();
+}
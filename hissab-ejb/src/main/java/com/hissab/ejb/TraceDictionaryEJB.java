@@ -0,0 +1,107 @@
+package com.hissab.ejb;
+
+import jakarta.annotation.Resource;
+import jakarta.ejb.ConcurrencyManagement;
+import jakarta.ejb.ConcurrencyManagementType;
+import jakarta.ejb.Singleton;
+import jakarta.ejb.TransactionAttribute;
+import jakarta.ejb.TransactionAttributeType;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+import java.util.logging.Level;
+import javax.sql.DataSource;
+
+/**
+ * Interns trace expressions and results in the trace_text table.
+ * Most traces repeat a text seen recently, so ids are kept in an LRU cache and the
+ * database is only asked on a miss. A new text is inserted in its own auto-committed
+ * statement, outside the caller's transaction: the id stays valid even if the trace
+ * referencing it is rolled back, which is what makes caching it safe.
+ */
+@Singleton
+@ConcurrencyManagement(ConcurrencyManagementType.BEAN)
+public class TraceDictionaryEJB implements TraceDictionaryEJBLocal {
+
+    private static final Logger logger = Logger.getLogger(TraceDictionaryEJB.class.getName());
+
+    private static final int CACHE_SIZE = Integer.getInteger("hissab.trace.dictionary.cacheSize", 10_000);
+
+    @Resource(lookup = "jdbc/hissabDS")
+    private DataSource dataSource;
+
+    // Access-ordered, so the least recently used text is evicted first; guarded by itself
+    private final Map<String, Integer> cache = new LinkedHashMap<String, Integer>(1024, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Integer> eldest) {
+            return size() > CACHE_SIZE;
+        }
+    };
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    @TransactionAttribute(TransactionAttributeType.NOT_SUPPORTED)
+    public int idOf(String text) {
+        synchronized (cache) {
+            Integer id = cache.get(text);
+            if (id != null) {
+                hits.incrementAndGet();
+                return id;
+            }
+        }
+        misses.incrementAndGet();
+
+        // Two callers missing on the same text both end up with the one row's id
+        int id = lookup(text);
+        synchronized (cache) {
+            cache.put(text, id);
+        }
+        return id;
+    }
+
+    public String getDictionaryReport() {
+        int size;
+        synchronized (cache) {
+            size = cache.size();
+        }
+        return String.format("Trace dictionary: %d of %d texts cached, %d hits, %d misses",
+                             size, CACHE_SIZE, hits.get(), misses.get());
+    }
+
+    private int lookup(String text) {
+        try (Connection connection = dataSource.getConnection()) {
+            connection.setAutoCommit(true);
+            try (PreparedStatement select = connection.prepareStatement("SELECT id FROM trace_text WHERE text = ?")) {
+                select.setString(1, text);
+                try (ResultSet rows = select.executeQuery()) {
+                    if (rows.next()) {
+                        return rows.getInt(1);
+                    }
+                }
+            }
+            // LAST_INSERT_ID(id) hands back the existing row's id when another server inserted it first
+            try (PreparedStatement insert = connection.prepareStatement(
+                    "INSERT INTO trace_text (text) VALUES (?) ON DUPLICATE KEY UPDATE id = LAST_INSERT_ID(id)",
+                    Statement.RETURN_GENERATED_KEYS)) {
+                insert.setString(1, text);
+                insert.executeUpdate();
+                try (ResultSet keys = insert.getGeneratedKeys()) {
+                    if (!keys.next()) {
+                        throw new SQLException("No id returned for trace text");
+                    }
+                    return keys.getInt(1);
+                }
+            }
+        } catch (SQLException e) {
+            logger.log(Level.SEVERE, "Error interning trace text: " + text, e);
+            throw new RuntimeException("Failed to intern trace text", e);
+        }
+    }
+}
@@ -0,0 +1,23 @@
+package com.hissab.ejb;
+
+import jakarta.ejb.Local;
+
+/**
+ * Local business interface for TraceDictionaryEJB
+ */
+@Local
+public interface TraceDictionaryEJBLocal {
+
+    /**
+     * Returns the trace_text id of a text, adding it if it is not there yet
+     * @param text An expression or result, at most 255 characters
+     * @return The id to store in the trace
+     */
+    int idOf(String text);
+
+    /**
+     * Describes the dictionary cache
+     * @return Human-readable report
+     */
+    String getDictionaryReport();
+}
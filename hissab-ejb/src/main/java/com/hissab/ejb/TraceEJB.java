@@ -1,12 +1,35 @@
 package com.hissab.ejb;
 
 import com.hissab.entity.Trace;
+import com.hissab.entity.TraceSource;
 
+import jakarta.annotation.Resource;
+import jakarta.ejb.EJB;
 import jakarta.ejb.Stateless;
+import jakarta.ejb.TransactionAttribute;
+import jakarta.ejb.TransactionAttributeType;
+import jakarta.interceptor.AroundInvoke;
+import jakarta.interceptor.InvocationContext;
 import jakarta.persistence.EntityManager;
+import jakarta.persistence.EntityManagerFactory;
 import jakarta.persistence.PersistenceContext;
+import jakarta.persistence.PersistenceException;
+import jakarta.persistence.PersistenceUnit;
 import jakarta.persistence.TypedQuery;
+import jakarta.transaction.Status;
+import jakarta.transaction.Synchronization;
+import jakarta.transaction.TransactionSynchronizationRegistry;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.EnumSet;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Predicate;
 import java.util.logging.Logger;
 import java.util.logging.Level;
 
@@ -15,20 +38,100 @@ public class TraceEJB implements TraceEJBLocal {
     
     private static final Logger logger = Logger.getLogger(TraceEJB.class.getName());
     
+    // getRecentTraces first looks this far back, then widens fourfold up to the maximum
+    private static final int RECENT_WINDOW_DAYS = 31;
+    private static final int MAX_RECENT_WINDOW_DAYS = 496;
+    
+    // Rows per keyset page in scanTraces
+    private static final int SCAN_PAGE_SIZE = 1000;
+    
+    // Most traces getAllTraces and getTracesByExpression return, from the table and the archive together
+    private static final int MAX_LISTED_TRACES = Integer.getInteger("hissab.trace.maxListed", 10_000);
+    
+    // Listings project straight into TraceRow instead of loading managed Trace entities.
+    // Every trace column they read is in idx_timestamp_covering and idx_source_timestamp_covering,
+    // so they never go back to the clustered index; TraceQueryPlanEJB checks the plans.
+    private static final String SELECT_ROWS =
+        "SELECT NEW com.hissab.ejb.TraceRow(t.id, t.timestamp, t.source, e.text, t.resultValue, r.text)"
+        + " FROM Trace t JOIN t.expressionText e LEFT JOIN t.resultText r";
+    
     @PersistenceContext(unitName = "hissabPU")
     private EntityManager entityManager;
     
+    // Trace reads go here while TraceReplicaEJB finds the replica current enough
+    @PersistenceUnit(unitName = "hissabReplicaPU")
+    private EntityManagerFactory replicaEntityManagerFactory;
+    
+    @EJB
+    private MetricsEJBLocal metricsEJB;
+    
+    @EJB
+    private TraceRetentionEJBLocal traceRetentionEJB;
+    
+    @EJB
+    private TraceArchiveEJBLocal traceArchiveEJB;
+    
+    @EJB
+    private TraceDictionaryEJBLocal traceDictionaryEJB;
+    
+    @EJB
+    private TraceCacheEJBLocal traceCacheEJB;
+    
+    @EJB
+    private TraceReplicaEJBLocal traceReplicaEJB;
+    
+    @EJB
+    private TraceFeedEJBLocal traceFeedEJB;
+    
+    @Resource
+    private TransactionSynchronizationRegistry transactionRegistry;
+    
     /**
-     * Logs a calculation trace to the database
+     * Tracks in-flight database work for the health snapshot (database load, trace writes in flight)
+     */
+    @AroundInvoke
+    public Object trackDatabaseUsage(InvocationContext context) throws Exception {
+        boolean traceWrite = context.getMethod().getName().startsWith("logTrace");
+        metricsEJB.databaseOperationStarted(traceWrite);
+        try {
+            return context.proceed();
+        } finally {
+            metricsEJB.databaseOperationFinished(traceWrite);
+        }
+    }
+    
+    /**
+     * Logs a manually entered calculation trace to the database
      * @param expression The mathematical expression
      * @param result The calculation result
-     * @return The persisted Trace entity
+     * @return The persisted Trace entity, or null if the request deadline had passed
      */
     public Trace logTrace(String expression, String result) {
+        return logTrace(expression, result, TraceSource.MANUAL);
+    }
+    
+    /**
+     * Logs a calculation trace to the database
+     * @param expression The mathematical expression
+     * @param result The calculation result
+     * @param source Where the expression came from
+     * @return The persisted Trace entity, or null if the request deadline had passed
+     */
+    public Trace logTrace(String expression, String result, TraceSource source) {
+        if (RequestDeadline.isExpired()) {
+            // Nobody is waiting for this request any more; don't spend a connection on it
+            metricsEJB.traceWriteExpired();
+            logger.log(Level.FINE, "Skipping trace, request deadline passed: " + expression);
+            return null;
+        }
+        
         try {
             Trace trace = new Trace(expression, result);
+            trace.setSource(source);
+            intern(trace);
             entityManager.persist(trace);
             entityManager.flush(); // Ensure it's immediately written to DB
+            announceOnCommit(Collections.singletonList(trace));
             
             logger.log(Level.INFO, "Successfully logged trace: " + trace);
             return trace;
@@ -40,15 +143,176 @@ public class TraceEJB implements TraceEJBLocal {
     }
     
     /**
-     * Retrieves all traces from the database
-     * @return List of all traces
+     * Logs a batch of traces that were evaluated on a client, in one transaction.
+     * Traces whose client key is already stored (a batch replayed after a lost answer) are skipped.
+     * @param traces The traces, carrying the time they were evaluated and optionally a client key
+     * @return Number of traces accepted, including those already stored
+     * @throws DeadlineExceededException if the request deadline has already passed, so the client keeps the batch
      */
-    public List<Trace> getAllTraces() {
+    public int logTraces(List<Trace> traces) {
+        if (RequestDeadline.isExpired()) {
+            metricsEJB.traceWriteExpired();
+            throw new DeadlineExceededException("Request deadline exceeded before logging " + traces.size() + " traces");
+        }
+        
         try {
-            TypedQuery<Trace> query = entityManager.createQuery(
-                "SELECT t FROM Trace t ORDER BY t.timestamp DESC", Trace.class);
+            Set<String> keys = new HashSet<>();
+            for (Trace trace : traces) {
+                // trace.timestamp is a DATETIME without fractional seconds, which MySQL rounds to
+                // the nearest second; round here too, so the lookup below finds what was stored
+                trace.setTimestamp(new Date(Math.floorDiv(trace.getTimestamp().getTime() + 500, 1000) * 1000));
+                if (trace.getClientKey() != null) {
+                    keys.add(trace.getClientKey());
+                }
+            }
+            Set<String> stored = new HashSet<>();
+            if (!keys.isEmpty()) {
+                // A replayed trace keeps its timestamp, so the range prunes partitions without missing any
+                Date from = traces.get(0).getTimestamp();
+                Date to = from;
+                for (Trace trace : traces) {
+                    from = trace.getTimestamp().before(from) ? trace.getTimestamp() : from;
+                    to = trace.getTimestamp().after(to) ? trace.getTimestamp() : to;
+                }
+                stored.addAll(entityManager.createQuery(
+                    "SELECT t.clientKey FROM Trace t WHERE t.clientKey IN :keys AND t.timestamp BETWEEN :from AND :to",
+                    String.class)
+                    .setParameter("keys", keys)
+                    .setParameter("from", from)
+                    .setParameter("to", to)
+                    .getResultList());
+            }
+            
+            List<Trace> persisted = new ArrayList<>();
+            for (Trace trace : traces) {
+                String key = trace.getClientKey();
+                // remove() lets only the first of a key repeated within the batch through
+                if (key == null || (!stored.contains(key) && keys.remove(key))) {
+                    intern(trace);
+                    entityManager.persist(trace);
+                    persisted.add(trace);
+                }
+            }
+            entityManager.flush();
+            if (!persisted.isEmpty()) {
+                announceOnCommit(persisted);
+            }
+            
+            logger.log(Level.INFO, "Successfully logged batch of " + traces.size() + " traces ("
+                       + (traces.size() - persisted.size()) + " already stored)");
+            return traces.size();
+            
+        } catch (Exception e) {
+            logger.log(Level.SEVERE, "Error logging batch of " + traces.size() + " traces", e);
+            throw new RuntimeException("Failed to log calculation traces", e);
+        }
+    }
+    
+    /**
+     * Once the current transaction has committed, invalidates the cached reads, so no reader
+     * can cache the table as it was before the commit under the new generation, and sends
+     * the new traces to the live feed, which must not show traces that were rolled back
+     */
+    private void announceOnCommit(List<Trace> written) {
+        List<TraceRow> rows = new ArrayList<>(written.size());
+        for (Trace trace : written) {
+            rows.add(new TraceRow(trace.getId(), trace.getTimestamp(), trace.getSource(),
+                                  trace.getExpression(), trace.getResult(), false));
+        }
+        if (transactionRegistry.getTransactionStatus() != Status.STATUS_ACTIVE) {
+            traceCacheEJB.invalidate();
+            traceFeedEJB.publish(rows);
+            return;
+        }
+        transactionRegistry.registerInterposedSynchronization(new Synchronization() {
+            @Override
+            public void beforeCompletion() {
+            }
             
-            List<Trace> traces = query.getResultList();
+            @Override
+            public void afterCompletion(int status) {
+                if (status == Status.STATUS_COMMITTED) {
+                    traceCacheEJB.invalidate();
+                    traceFeedEJB.publish(rows);
+                }
+            }
+        });
+    }
+    
+    /**
+     * Replaces the texts of a new trace with trace_text ids, or a numeric result with its value
+     */
+    private void intern(Trace trace) {
+        trace.setExpressionId(traceDictionaryEJB.idOf(trace.getExpression()));
+        Double value = Trace.parseResult(trace.getResult());
+        if (value != null) {
+            trace.setResultValue(value);
+        } else {
+            trace.setResultTextId(traceDictionaryEJB.idOf(trace.getResult()));
+        }
+    }
+    
+    /**
+     * Runs a trace read on the replica while TraceReplicaEJB finds it current enough, else on
+     * the primary. A read that fails on the replica takes it out of rotation and is retried
+     * on the primary, so callers never see replica errors.
+     */
+    private <T> T read(Function<EntityManager, T> query) {
+        return read(query, traceReplicaEJB.isReplicaUsable());
+    }
+    
+    /**
+     * Runs a read whose result TraceCacheEJB keeps. The replica is only used once it holds
+     * every write up to the last invalidation; before that it could return the table as it
+     * was before the write, which would then be cached as current.
+     */
+    private <T> T readForCache(Function<EntityManager, T> query) {
+        return read(query, traceReplicaEJB.isReplicaCurrentSince(traceCacheEJB.getInvalidatedAt()));
+    }
+    
+    private <T> T read(Function<EntityManager, T> query, boolean onReplica) {
+        if (onReplica) {
+            EntityManager replica = replicaEntityManagerFactory.createEntityManager();
+            try {
+                return query.apply(replica);
+            } catch (PersistenceException e) {
+                traceReplicaEJB.replicaFailed(e);
+                logger.log(Level.WARNING, "Trace read failed on the replica, retrying on the primary", e);
+            } finally {
+                replica.close();
+            }
+        }
+        return query.apply(entityManager);
+    }
+    
+    /**
+     * Merges the newest archived traces accepted by a filter into rows read from the table,
+     * newest first and at most limit of them, so listings agree with getTraceCount.
+     * The filter only sees the timestamp and filterColumns of each archived trace.
+     */
+    private List<TraceRow> withArchived(List<TraceRow> rows, Set<TraceRow.Column> filterColumns,
+                                        Predicate<TraceRow> filter, int limit) {
+        List<TraceRow> archived = traceArchiveEJB.findNewestArchived(filterColumns, filter, limit);
+        if (archived.isEmpty()) {
+            return rows;
+        }
+        List<TraceRow> merged = new ArrayList<>(rows);
+        merged.addAll(archived);
+        merged.sort(Comparator.comparing(TraceRow::getTimestamp).reversed());
+        return merged.size() > limit ? new ArrayList<>(merged.subList(0, limit)) : merged;
+    }
+    
+    /**
+     * Retrieves all traces, including archived ones, up to hissab.trace.maxListed
+     * @return List of all traces, newest first
+     */
+    public List<TraceRow> getAllTraces() {
+        try {
+            List<TraceRow> traces = withArchived(read(em -> em.createQuery(
+                SELECT_ROWS + " ORDER BY t.timestamp DESC", TraceRow.class)
+                .setMaxResults(MAX_LISTED_TRACES)
+                .getResultList()),
+                EnumSet.noneOf(TraceRow.Column.class), row -> true, MAX_LISTED_TRACES);
             logger.log(Level.INFO, "Retrieved " + traces.size() + " traces from database");
             return traces;
             
@@ -59,18 +323,22 @@ public class TraceEJB implements TraceEJBLocal {
     }
     
     /**
-     * Retrieves traces by expression pattern
+     * Retrieves traces by expression pattern, including archived ones, up to hissab.trace.maxListed
      * @param expressionPattern The expression pattern to search for
-     * @return List of matching traces
+     * @return List of matching traces, newest first
      */
-    public List<Trace> getTracesByExpression(String expressionPattern) {
+    public List<TraceRow> getTracesByExpression(String expressionPattern) {
         try {
-            TypedQuery<Trace> query = entityManager.createQuery(
-                "SELECT t FROM Trace t WHERE t.expression LIKE :pattern ORDER BY t.timestamp DESC", 
-                Trace.class);
-            query.setParameter("pattern", "%" + expressionPattern + "%");
-            
-            List<Trace> traces = query.getResultList();
+            // The leading % keeps any index from serving the LIKE, so this query reads the whole
+            // expression dictionary and sorts the matching traces; TraceQueryPlanEJB leaves it out
+            List<TraceRow> traces = withArchived(read(em -> em.createQuery(
+                SELECT_ROWS + " WHERE e.text LIKE :pattern ORDER BY t.timestamp DESC", 
+                TraceRow.class)
+                .setParameter("pattern", "%" + expressionPattern + "%")
+                .setMaxResults(MAX_LISTED_TRACES)
+                .getResultList()),
+                EnumSet.of(TraceRow.Column.EXPRESSION), row -> row.getExpression().contains(expressionPattern),
+                MAX_LISTED_TRACES);
             logger.log(Level.INFO, "Retrieved " + traces.size() + " traces matching pattern: " + expressionPattern);
             return traces;
             
@@ -81,19 +349,32 @@ public class TraceEJB implements TraceEJBLocal {
     }
     
     /**
-     * Retrieves the most recent N traces
+     * Retrieves the most recent N traces, served from TraceCacheEJB until a trace is written.
+     * The archive is only read when the table holds fewer than N traces.
      * @param limit Maximum number of traces to retrieve
-     * @return List of recent traces
+     * @return Unmodifiable list of recent traces
      */
-    public List<Trace> getRecentTraces(int limit) {
+    public List<TraceRow> getRecentTraces(int limit) {
         try {
-            TypedQuery<Trace> query = entityManager.createQuery(
-                "SELECT t FROM Trace t ORDER BY t.timestamp DESC", Trace.class);
-            query.setMaxResults(limit);
-            
-            List<Trace> traces = query.getResultList();
-            logger.log(Level.INFO, "Retrieved " + traces.size() + " recent traces");
-            return traces;
+            return traceCacheEJB.get("recent:" + limit, () -> {
+                List<TraceRow> traces = readForCache(em -> {
+                    // Look in the latest month first so a partitioned table only reads its newest
+                    // partitions; widen the window only while it holds fewer traces than the limit
+                    List<TraceRow> found = findRecentTraces(em, RECENT_WINDOW_DAYS, limit);
+                    for (int days = RECENT_WINDOW_DAYS * 4; found.size() < limit && days <= MAX_RECENT_WINDOW_DAYS; days *= 4) {
+                        found = findRecentTraces(em, days, limit);
+                    }
+                    if (found.size() < limit) {
+                        found = findRecentTraces(em, 0, limit);
+                    }
+                    return found;
+                });
+                if (traces.size() < limit) {
+                    traces = withArchived(traces, EnumSet.noneOf(TraceRow.Column.class), row -> true, limit);
+                }
+                logger.log(Level.INFO, "Retrieved " + traces.size() + " recent traces");
+                return Collections.unmodifiableList(traces);
+            });
             
         } catch (Exception e) {
             logger.log(Level.SEVERE, "Error retrieving recent traces", e);
@@ -102,18 +383,139 @@ public class TraceEJB implements TraceEJBLocal {
     }
     
     /**
-     * Counts the total number of traces in the database
-     * @return Total count of traces
+     * Retrieves the most recent N traces from one source, served from TraceCacheEJB until a trace is written
+     * @param source The source to filter on, which idx_source_timestamp_covering serves in timestamp order
+     * @param limit Maximum number of traces to retrieve
+     * @return Unmodifiable list of recent traces from that source
      */
-    public long getTraceCount() {
+    public List<TraceRow> getRecentTracesBySource(TraceSource source, int limit) {
         try {
-            TypedQuery<Long> query = entityManager.createQuery(
-                "SELECT COUNT(t) FROM Trace t", Long.class);
+            return traceCacheEJB.get("recent:" + source + ":" + limit, () -> {
+                List<TraceRow> traces = readForCache(em -> em.createQuery(
+                    SELECT_ROWS + " WHERE t.source = :source ORDER BY t.timestamp DESC", TraceRow.class)
+                    .setParameter("source", source)
+                    .setMaxResults(limit)
+                    .getResultList());
+                if (traces.size() < limit) {
+                    traces = withArchived(traces, EnumSet.of(TraceRow.Column.SOURCE), row -> row.getSource() == source, limit);
+                }
+                logger.log(Level.INFO, "Retrieved " + traces.size() + " recent " + source + " traces");
+                return Collections.unmodifiableList(traces);
+            });
             
-            Long count = query.getSingleResult();
-            logger.log(Level.INFO, "Total trace count: " + count);
+        } catch (Exception e) {
+            logger.log(Level.SEVERE, "Error retrieving recent traces from source " + source, e);
+            throw new RuntimeException("Failed to retrieve recent traces by source", e);
+        }
+    }
+    
+    /**
+     * Newest traces from the last {@code days} days, or from all time if days is 0
+     */
+    private static List<TraceRow> findRecentTraces(EntityManager em, int days, int limit) {
+        TypedQuery<TraceRow> query;
+        if (days > 0) {
+            query = em.createQuery(
+                SELECT_ROWS + " WHERE t.timestamp >= :since ORDER BY t.timestamp DESC", TraceRow.class);
+            query.setParameter("since", new Date(System.currentTimeMillis() - days * 86_400_000L));
+        } else {
+            query = em.createQuery(SELECT_ROWS + " ORDER BY t.timestamp DESC", TraceRow.class);
+        }
+        query.setMaxResults(limit);
+        return query.getResultList();
+    }
+    
+    /**
+     * Scans archived and then current traces with a timestamp in [from, to), reading only the
+     * requested columns from both. Each part is in timestamp order; a trace being archived
+     * while the scan runs may be seen twice. Current traces are read from the replica when it is
+     * in use; a scan that fails there is not restarted, since its consumer has already seen rows.
+     * @param columns The columns to fill in on each row
+     * @param consumer Receives each trace
+     * @return Number of traces scanned
+     */
+    public int scanTraces(Date from, Date to, Set<TraceRow.Column> columns, Consumer<TraceRow> consumer) {
+        try {
+            int count = traceArchiveEJB.scanArchive(from, to, columns, consumer);
+            
+            // Keyset pages over (timestamp, id), selecting only the needed columns and
+            // joining trace_text only for the texts asked for
+            boolean source = columns.contains(TraceRow.Column.SOURCE);
+            boolean expression = columns.contains(TraceRow.Column.EXPRESSION);
+            boolean result = columns.contains(TraceRow.Column.RESULT);
+            String select = "SELECT t.id, t.timestamp" + (source ? ", t.source" : "")
+                + (expression ? ", e.text" : "") + (result ? ", t.resultValue, r.text" : "")
+                + " FROM Trace t" + (expression ? " JOIN t.expressionText e" : "") + (result ? " LEFT JOIN t.resultText r" : "")
+                + " WHERE t.timestamp >= :from AND t.timestamp < :to"
+                + " AND (t.timestamp > :afterTimestamp OR (t.timestamp = :afterTimestamp AND t.id > :afterId))"
+                + " ORDER BY t.timestamp, t.id";
+            boolean onReplica = traceReplicaEJB.isReplicaUsable();
+            EntityManager em = onReplica ? replicaEntityManagerFactory.createEntityManager() : entityManager;
+            Date afterTimestamp = from;
+            long afterId = Long.MIN_VALUE;
+            List<Object[]> page;
+            try {
+                do {
+                    page = em.createQuery(select, Object[].class)
+                        .setParameter("from", from)
+                        .setParameter("to", to)
+                        .setParameter("afterTimestamp", afterTimestamp)
+                        .setParameter("afterId", afterId)
+                        .setMaxResults(SCAN_PAGE_SIZE)
+                        .getResultList();
+                    for (Object[] row : page) {
+                        afterId = (Long) row[0];
+                        afterTimestamp = (Date) row[1];
+                        int column = 2;
+                        TraceSource rowSource = source ? (TraceSource) row[column++] : null;
+                        String rowExpression = expression ? (String) row[column++] : null;
+                        String rowResult = null;
+                        if (result) {
+                            Double value = (Double) row[column++];
+                            rowResult = value != null ? Trace.formatResult(value) : (String) row[column];
+                        }
+                        consumer.accept(new TraceRow(
+                            columns.contains(TraceRow.Column.ID) ? afterId : null,
+                            columns.contains(TraceRow.Column.TIMESTAMP) ? afterTimestamp : null,
+                            rowSource, rowExpression, rowResult, false));
+                    }
+                    count += page.size();
+                    // Scanned rows are not needed again
+                    em.clear();
+                } while (page.size() == SCAN_PAGE_SIZE);
+            } catch (PersistenceException e) {
+                if (onReplica) {
+                    traceReplicaEJB.replicaFailed(e);
+                }
+                throw e;
+            } finally {
+                if (onReplica) {
+                    em.close();
+                }
+            }
+            
+            logger.log(Level.INFO, "Scanned " + count + " traces between " + from + " and " + to);
             return count;
             
+        } catch (Exception e) {
+            logger.log(Level.SEVERE, "Error scanning traces between " + from + " and " + to, e);
+            throw new RuntimeException("Failed to scan traces", e);
+        }
+    }
+    
+    /**
+     * Counts the total number of traces, including archived ones; served from TraceCacheEJB until a trace is written
+     * @return Total count of traces
+     */
+    public long getTraceCount() {
+        try {
+            return traceCacheEJB.get("count", () -> {
+                Long count = readForCache(em -> em.createQuery("SELECT COUNT(t) FROM Trace t", Long.class).getSingleResult())
+                             + traceArchiveEJB.getArchivedTraceCount();
+                logger.log(Level.INFO, "Total trace count: " + count);
+                return count;
+            });
+            
         } catch (Exception e) {
             logger.log(Level.SEVERE, "Error counting traces", e);
             throw new RuntimeException("Failed to count traces", e);
@@ -121,14 +523,22 @@ public class TraceEJB implements TraceEJBLocal {
     }
     
     /**
-     * Deletes all traces from the database (for testing/cleanup purposes)
-     * @return Number of deleted traces
+     * Deletes all traces from the database and the archive (for testing/cleanup purposes).
+     * Runs as small chunked deletes outside any transaction, so a large table is never
+     * locked as a whole; traces logged while it runs are kept.
+     * @return Number of deleted traces, including archived ones
      */
+    @TransactionAttribute(TransactionAttributeType.NOT_SUPPORTED)
     public int deleteAllTraces() {
         try {
-            int deletedCount = entityManager.createQuery("DELETE FROM Trace t").executeUpdate();
-            logger.log(Level.INFO, "Deleted " + deletedCount + " traces from database");
-            return deletedCount;
+            Date now = new Date();
+            int deletedCount = traceRetentionEJB.purgeTracesBefore(now);
+            // Archived traces count towards getTraceCount, so they go too
+            long archivedCount = traceArchiveEJB.getArchivedTraceCount();
+            int segments = traceArchiveEJB.deleteArchivedBefore(now);
+            logger.log(Level.INFO, "Deleted " + deletedCount + " traces from database and " + archivedCount
+                       + " archived traces in " + segments + " segments");
+            return (int) Math.min(Integer.MAX_VALUE, deletedCount + archivedCount);
             
         } catch (Exception e) {
             logger.log(Level.SEVERE, "Error deleting all traces", e);
@@ -1,8 +1,12 @@
 package com.hissab.ejb;
 
 import com.hissab.entity.Trace;
+import com.hissab.entity.TraceSource;
 import jakarta.ejb.Local;
+import java.util.Date;
 import java.util.List;
+import java.util.Set;
+import java.util.function.Consumer;
 
 /**
  * Local business interface for TraceEJB
@@ -11,42 +15,76 @@ import java.util.List;
 public interface TraceEJBLocal {
     
     /**
-     * Logs a calculation trace to the database
+     * Logs a manually entered calculation trace to the database
      * @param expression The mathematical expression
      * @param result The calculation result
-     * @return The persisted Trace entity
+     * @return The persisted Trace entity, or null if the request deadline had passed
      */
     Trace logTrace(String expression, String result);
     
     /**
-     * Retrieves all traces from the database
-     * @return List of all traces
+     * Logs a calculation trace to the database
+     * @param expression The mathematical expression
+     * @param result The calculation result
+     * @param source Where the expression came from
+     * @return The persisted Trace entity, or null if the request deadline had passed
      */
-    List<Trace> getAllTraces();
+    Trace logTrace(String expression, String result, TraceSource source);
     
     /**
-     * Retrieves traces by expression pattern
+     * Logs a batch of traces that were evaluated on a client, in one transaction,
+     * skipping those whose client key is already stored
+     * @param traces The traces, carrying the time they were evaluated and optionally a client key
+     * @return Number of traces accepted, including those already stored
+     * @throws DeadlineExceededException if the request deadline has already passed
+     */
+    int logTraces(List<Trace> traces);
+    
+    /**
+     * Retrieves all traces, including archived ones, up to hissab.trace.maxListed (default 10000)
+     * @return List of all traces, newest first
+     */
+    List<TraceRow> getAllTraces();
+    
+    /**
+     * Retrieves traces by expression pattern, including archived ones, up to hissab.trace.maxListed
      * @param expressionPattern The expression pattern to search for
-     * @return List of matching traces
+     * @return List of matching traces, newest first
+     */
+    List<TraceRow> getTracesByExpression(String expressionPattern);
+    
+    /**
+     * Retrieves the most recent N traces; cached briefly, until a trace is written
+     * @param limit Maximum number of traces to retrieve
+     * @return Unmodifiable list of recent traces
      */
-    List<Trace> getTracesByExpression(String expressionPattern);
+    List<TraceRow> getRecentTraces(int limit);
     
     /**
-     * Retrieves the most recent N traces
+     * Retrieves the most recent N traces from one source; cached briefly, until a trace is written
+     * @param source The source to filter on
      * @param limit Maximum number of traces to retrieve
-     * @return List of recent traces
+     * @return Unmodifiable list of recent traces from that source
+     */
+    List<TraceRow> getRecentTracesBySource(TraceSource source, int limit);
+    
+    /**
+     * Scans archived and current traces with a timestamp in [from, to), reading only the requested columns
+     * @param columns The columns to fill in on each row
+     * @param consumer Receives each trace
+     * @return Number of traces scanned
      */
-    List<Trace> getRecentTraces(int limit);
+    int scanTraces(Date from, Date to, Set<TraceRow.Column> columns, Consumer<TraceRow> consumer);
     
     /**
-     * Counts the total number of traces in the database
+     * Counts the total number of traces, including archived ones; cached briefly, until a trace is written
      * @return Total count of traces
      */
     long getTraceCount();
     
     /**
-     * Deletes all traces from the database (for testing/cleanup purposes)
-     * @return Number of deleted traces
+     * Deletes all traces from the database and the archive (for testing/cleanup purposes)
+     * @return Number of deleted traces, including archived ones
      */
     int deleteAllTraces();
 }
\ No newline at end of file
@@ -0,0 +1,164 @@
+package com.hissab.ejb;
+
+import jakarta.annotation.Resource;
+import jakarta.ejb.ConcurrencyManagement;
+import jakarta.ejb.ConcurrencyManagementType;
+import jakarta.ejb.Schedule;
+import jakarta.ejb.Singleton;
+import jakarta.ejb.TransactionAttribute;
+import jakarta.ejb.TransactionAttributeType;
+import jakarta.enterprise.concurrent.ManagedExecutorService;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+import java.util.logging.Level;
+
+/**
+ * Fans new traces out to live listeners (the dashboard's event stream), so viewers no longer
+ * poll the database. TraceEJB publishes each write once it commits; publishing only copies
+ * the traces into every listener's bounded buffer and never waits for a listener. Each
+ * buffer is drained by a pool task, one at a time per listener, which is where a slow
+ * connection blocks. A listener whose buffer overflows is dropped rather than slowing the
+ * others or holding traces without bound; a dashboard then reconnects and reloads.
+ */
+@Singleton
+@ConcurrencyManagement(ConcurrencyManagementType.BEAN)
+public class TraceFeedEJB implements TraceFeedEJBLocal {
+
+    private static final Logger logger = Logger.getLogger(TraceFeedEJB.class.getName());
+
+    private static final int BUFFER_SIZE = Integer.getInteger("hissab.trace.feed.bufferSize", 256);
+    private static final int MAX_LISTENERS = Integer.getInteger("hissab.trace.feed.maxListeners", 1000);
+
+    @Resource
+    private ManagedExecutorService executor;
+
+    private final Map<TraceFeedListener, Subscriber> subscribers = new ConcurrentHashMap<>();
+
+    private final AtomicLong published = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+
+    private final class Subscriber implements Runnable {
+        final TraceFeedListener listener;
+        final BlockingQueue<TraceRow> buffer = new ArrayBlockingQueue<>(BUFFER_SIZE);
+        // Set while a drain task is queued or running, so at most one runs per listener
+        final AtomicBoolean scheduled = new AtomicBoolean();
+        volatile boolean heartbeatDue;
+        volatile boolean closed;
+
+        Subscriber(TraceFeedListener listener) {
+            this.listener = listener;
+        }
+
+        @Override
+        public void run() {
+            try {
+                List<TraceRow> batch = new ArrayList<>();
+                while (!closed && buffer.drainTo(batch) > 0) {
+                    heartbeatDue = false;
+                    listener.onTraces(batch);
+                    batch = new ArrayList<>();
+                }
+                if (!closed && heartbeatDue) {
+                    heartbeatDue = false;
+                    listener.onTraces(Collections.emptyList());
+                }
+            } catch (RuntimeException e) {
+                logger.log(Level.FINE, "Trace feed listener failed, unsubscribing", e);
+                unsubscribe(listener);
+            } finally {
+                scheduled.set(false);
+            }
+            // Traces published after the last drainTo but before scheduled was cleared
+            if (!closed && !buffer.isEmpty()) {
+                schedule(this);
+            }
+        }
+    }
+
+    public boolean subscribe(TraceFeedListener listener) {
+        if (subscribers.size() >= MAX_LISTENERS) {
+            logger.log(Level.WARNING, "Trace feed refused a listener, " + MAX_LISTENERS + " already subscribed");
+            return false;
+        }
+        subscribers.put(listener, new Subscriber(listener));
+        return true;
+    }
+
+    public void unsubscribe(TraceFeedListener listener) {
+        Subscriber subscriber = subscribers.remove(listener);
+        if (subscriber != null) {
+            subscriber.closed = true;
+            subscriber.buffer.clear();
+        }
+    }
+
+    // Called from TraceEJB's after-commit callback, where there is no transaction to join
+    @TransactionAttribute(TransactionAttributeType.SUPPORTS)
+    public void publish(List<TraceRow> traces) {
+        if (traces.isEmpty()) {
+            return;
+        }
+        published.addAndGet(traces.size());
+        for (Subscriber subscriber : subscribers.values()) {
+            boolean overflowed = false;
+            for (TraceRow trace : traces) {
+                if (!subscriber.buffer.offer(trace)) {
+                    overflowed = true;
+                    break;
+                }
+            }
+            if (overflowed) {
+                drop(subscriber, "its buffer of " + BUFFER_SIZE + " traces is full");
+            } else {
+                schedule(subscriber);
+            }
+        }
+    }
+
+    /**
+     * Lets quiet listeners find out whether their connection is still open
+     */
+    @Schedule(second = "*/20", minute = "*", hour = "*", persistent = false)
+    @TransactionAttribute(TransactionAttributeType.NOT_SUPPORTED)
+    public void heartbeat() {
+        for (Subscriber subscriber : subscribers.values()) {
+            subscriber.heartbeatDue = true;
+            schedule(subscriber);
+        }
+    }
+
+    public String getFeedReport() {
+        return String.format("Trace feed: %d listeners, %d traces published, %d listeners dropped as too slow",
+                             subscribers.size(), published.get(), dropped.get());
+    }
+
+    private void schedule(Subscriber subscriber) {
+        if (subscriber.scheduled.compareAndSet(false, true)) {
+            try {
+                executor.execute(subscriber);
+            } catch (RejectedExecutionException e) {
+                subscriber.scheduled.set(false);
+                drop(subscriber, "the pool rejected its task");
+            }
+        }
+    }
+
+    private void drop(Subscriber subscriber, String reason) {
+        if (subscribers.remove(subscriber.listener, subscriber)) {
+            subscriber.closed = true;
+            subscriber.buffer.clear();
+            dropped.incrementAndGet();
+            logger.log(Level.INFO, "Dropped a trace feed listener: " + reason);
+            subscriber.listener.onDropped();
+        }
+    }
+}
@@ -0,0 +1,36 @@
+package com.hissab.ejb;
+
+import jakarta.ejb.Local;
+import java.util.List;
+
+/**
+ * Local business interface for TraceFeedEJB
+ */
+@Local
+public interface TraceFeedEJBLocal {
+
+    /**
+     * Starts sending new traces to a listener
+     * @param listener Receives the traces logged from now on
+     * @return false if the feed already has as many listeners as it accepts
+     */
+    boolean subscribe(TraceFeedListener listener);
+
+    /**
+     * Stops sending traces to a listener; does nothing if it was not subscribed
+     * @param listener A listener passed to subscribe
+     */
+    void unsubscribe(TraceFeedListener listener);
+
+    /**
+     * Hands newly committed traces to every listener; never blocks
+     * @param traces The traces, oldest first
+     */
+    void publish(List<TraceRow> traces);
+
+    /**
+     * Describes the listeners and the traces sent and dropped
+     * @return Human-readable report
+     */
+    String getFeedReport();
+}
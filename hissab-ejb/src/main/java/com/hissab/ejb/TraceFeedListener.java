@@ -0,0 +1,24 @@
+package com.hissab.ejb;
+
+import java.util.List;
+
+/**
+ * Receives new traces from TraceFeedEJB
+ */
+public interface TraceFeedListener {
+
+    /**
+     * Called on a pool thread with the traces buffered since the last call, oldest first,
+     * never concurrently for one listener. May block while the traces are sent on; traces
+     * arriving meanwhile are buffered. An empty list is a heartbeat, sent when the feed
+     * has been quiet, so a listener can notice that its connection is gone.
+     * @param traces New traces, or an empty list
+     */
+    void onTraces(List<TraceRow> traces);
+
+    /**
+     * Called once the listener fell so far behind that its buffer overflowed; it receives
+     * nothing more. Must not block: it runs on the thread that published the traces.
+     */
+    void onDropped();
+}
@@ -0,0 +1,187 @@
+package com.hissab.ejb;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.Resource;
+import jakarta.ejb.ConcurrencyManagement;
+import jakarta.ejb.ConcurrencyManagementType;
+import jakarta.ejb.Singleton;
+import jakarta.ejb.Startup;
+import jakarta.ejb.Timeout;
+import jakarta.ejb.TimerConfig;
+import jakarta.ejb.TimerService;
+import jakarta.ejb.TransactionAttribute;
+import jakarta.ejb.TransactionAttributeType;
+import jakarta.json.Json;
+import jakarta.json.JsonObject;
+import jakarta.json.JsonReader;
+import jakarta.json.JsonValue;
+import java.io.StringReader;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Logger;
+import java.util.logging.Level;
+import javax.sql.DataSource;
+
+/**
+ * Guards the trace queries against plan regressions.
+ * Runs EXPLAIN FORMAT=JSON on the SQL shape of each query TraceEJB, TraceArchiveEJB and
+ * TraceRetentionEJB issue against the trace table, and flags any plan that sorts rows
+ * (filesort) or reads the whole table where an index should serve it. Checked once after
+ * deploy; GET /hissab/api/math/query-plans checks again and fails while a plan is flagged,
+ * so it can gate a deployment pipeline.
+ * The optimizer prefers full scans on small tables, so the check is skipped until the
+ * table holds hissab.trace.plans.minRows rows.
+ */
+@Singleton
+@Startup
+@ConcurrencyManagement(ConcurrencyManagementType.BEAN)
+public class TraceQueryPlanEJB implements TraceQueryPlanEJBLocal {
+
+    private static final Logger logger = Logger.getLogger(TraceQueryPlanEJB.class.getName());
+
+    private static final long MIN_ROWS = Long.getLong("hissab.trace.plans.minRows", 10_000);
+
+    private static final String SELECT_ROWS =
+        "SELECT t.id, t.timestamp, t.source, e.text, t.result_value, r.text FROM trace t "
+        + "JOIN trace_text e ON e.id = t.expression_id LEFT JOIN trace_text r ON r.id = t.result_text_id ";
+
+    /**
+     * A query as it reaches MySQL, with sample values in place of its parameters
+     */
+    private static final class Shape {
+        final String name;
+        final String sql;
+
+        Shape(String name, String sql) {
+            this.name = name;
+            this.sql = sql;
+        }
+    }
+
+    // Kept in step with the queries they stand for. getTracesByExpression is left out: its
+    // substring match scans by design, and no index could serve it
+    private static final Shape[] SHAPES = {
+        new Shape("getRecentTraces",
+                  SELECT_ROWS + "WHERE t.timestamp >= NOW() - INTERVAL 31 DAY ORDER BY t.timestamp DESC LIMIT 100"),
+        new Shape("getRecentTracesBySource",
+                  SELECT_ROWS + "WHERE t.source = 1 ORDER BY t.timestamp DESC LIMIT 100"),
+        new Shape("getAllTraces",
+                  SELECT_ROWS + "ORDER BY t.timestamp DESC LIMIT 10000"),
+        new Shape("scanTraces",
+                  SELECT_ROWS + "WHERE t.timestamp >= NOW() - INTERVAL 7 DAY AND t.timestamp < NOW() "
+                  + "AND (t.timestamp > NOW() - INTERVAL 1 DAY OR (t.timestamp = NOW() - INTERVAL 1 DAY AND t.id > 0)) "
+                  + "ORDER BY t.timestamp, t.id LIMIT 1000"),
+        new Shape("archiveTraces",
+                  SELECT_ROWS + "WHERE t.timestamp >= NOW() - INTERVAL 60 DAY AND t.timestamp < NOW() - INTERVAL 30 DAY "
+                  + "AND (t.timestamp > NOW() - INTERVAL 60 DAY OR t.id > 0) ORDER BY t.timestamp, t.id LIMIT 5000"),
+        new Shape("purgeTracesBefore",
+                  "SELECT id, timestamp FROM trace t WHERE timestamp >= '1970-01-02' AND timestamp < NOW() - INTERVAL 365 DAY "
+                  + "ORDER BY timestamp, id LIMIT 1000"),
+        new Shape("logTraces",
+                  "SELECT client_key FROM trace t WHERE client_key IN ('00000000-0000-0000-0000-000000000000') "
+                  + "AND timestamp BETWEEN NOW() - INTERVAL 1 DAY AND NOW()"),
+        new Shape("getTraceCount",
+                  "SELECT COUNT(*) FROM trace t"),
+    };
+
+    @Resource(lookup = "jdbc/hissabDS")
+    private DataSource dataSource;
+
+    @Resource
+    private TimerService timerService;
+
+    private volatile String report = "Trace query plans not checked yet";
+
+    @PostConstruct
+    public void init() {
+        timerService.createSingleActionTimer(0, new TimerConfig("hissab-trace-query-plans", false));
+    }
+
+    @Timeout
+    @TransactionAttribute(TransactionAttributeType.NOT_SUPPORTED)
+    public void runAtStartup() {
+        try {
+            checkQueryPlans();
+        } catch (RuntimeException e) {
+            // Already reported; the check is advisory at startup
+        }
+    }
+
+    @TransactionAttribute(TransactionAttributeType.NOT_SUPPORTED)
+    public List<String> checkQueryPlans() {
+        try (Connection connection = dataSource.getConnection()) {
+            long rows = estimateRows(connection);
+            if (rows < MIN_ROWS) {
+                report = "Trace query plans not checked: about " + rows + " traces, plans are only representative from "
+                         + MIN_ROWS;
+                logger.log(Level.FINE, report);
+                return new ArrayList<>();
+            }
+
+            List<String> problems = new ArrayList<>();
+            for (Shape shape : SHAPES) {
+                JsonObject plan;
+                try (PreparedStatement explain = connection.prepareStatement("EXPLAIN FORMAT=JSON " + shape.sql);
+                     ResultSet result = explain.executeQuery();
+                     JsonReader reader = Json.createReader(new StringReader(result.next() ? result.getString(1) : "{}"))) {
+                    plan = reader.readObject();
+                }
+                List<String> found = new ArrayList<>();
+                inspect(plan, found);
+                for (String problem : found) {
+                    problems.add(shape.name + ": " + problem);
+                }
+            }
+
+            report = problems.isEmpty()
+                ? "Trace query plans: all " + SHAPES.length + " queries use an index (about " + rows + " traces)"
+                : "Trace query plans: " + problems.size() + " problems: " + String.join("; ", problems);
+            logger.log(problems.isEmpty() ? Level.INFO : Level.WARNING, report);
+            return problems;
+
+        } catch (SQLException e) {
+            report = "Trace query plan check failed: " + e.getMessage();
+            logger.log(Level.WARNING, "Trace query plan check failed", e);
+            throw new RuntimeException("Failed to check trace query plans", e);
+        }
+    }
+
+    public String getQueryPlanReport() {
+        return report;
+    }
+
+    private long estimateRows(Connection connection) throws SQLException {
+        try (PreparedStatement query = connection.prepareStatement(
+                "SELECT TABLE_ROWS FROM information_schema.TABLES WHERE TABLE_SCHEMA = DATABASE() AND TABLE_NAME = 'trace'");
+             ResultSet rows = query.executeQuery()) {
+            return rows.next() ? rows.getLong(1) : 0;
+        }
+    }
+
+    /**
+     * Walks an EXPLAIN FORMAT=JSON plan for sorts and for full scans of the trace table (alias t)
+     */
+    private static void inspect(JsonValue node, List<String> problems) {
+        if (node.getValueType() == JsonValue.ValueType.ARRAY) {
+            for (JsonValue element : node.asJsonArray()) {
+                inspect(element, problems);
+            }
+        } else if (node.getValueType() == JsonValue.ValueType.OBJECT) {
+            JsonObject object = node.asJsonObject();
+            if (object.getBoolean("using_filesort", false)) {
+                problems.add("sorts rows instead of reading them in index order");
+            }
+            if ("t".equals(object.getString("table_name", null)) && "ALL".equals(object.getString("access_type", null))) {
+                problems.add("scans the whole trace table (" + object.get("rows_examined_per_scan") + " rows)");
+            }
+            for (Map.Entry<String, JsonValue> entry : object.entrySet()) {
+                inspect(entry.getValue(), problems);
+            }
+        }
+    }
+}
@@ -0,0 +1,24 @@
+package com.hissab.ejb;
+
+import jakarta.ejb.Local;
+import java.util.List;
+
+/**
+ * Local business interface for TraceQueryPlanEJB
+ */
+@Local
+public interface TraceQueryPlanEJBLocal {
+
+    /**
+     * Runs EXPLAIN on every trace query shape and checks the plans
+     * @return One line per query that sorts without an index or scans the whole trace table;
+     *         empty if all plans are good or the table is too small for the plans to mean anything
+     */
+    List<String> checkQueryPlans();
+
+    /**
+     * Describes the outcome of the last check
+     * @return Human-readable report
+     */
+    String getQueryPlanReport();
+}
@@ -0,0 +1,139 @@
+package com.hissab.ejb;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.Resource;
+import jakarta.ejb.ConcurrencyManagement;
+import jakarta.ejb.ConcurrencyManagementType;
+import jakarta.ejb.Schedule;
+import jakarta.ejb.Singleton;
+import jakarta.ejb.Startup;
+import jakarta.ejb.Timeout;
+import jakarta.ejb.TimerConfig;
+import jakarta.ejb.TimerService;
+import jakarta.ejb.TransactionAttribute;
+import jakarta.ejb.TransactionAttributeType;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.logging.Logger;
+import java.util.logging.Level;
+import javax.sql.DataSource;
+
+/**
+ * Decides whether trace reads go to the replica (jdbc/hissabReplicaDS) or stay on the primary.
+ * Every few seconds it asks the replica for its replication status. Reads are routed to it
+ * while both replication threads run and it is at most hissab.replica.maxLagSeconds behind;
+ * otherwise, and after any failed read, they fall back to the primary until the next
+ * check passes. When jdbc/hissabReplicaDS is the primary itself (no replication
+ * configured), reads simply use a second connection pool.
+ */
+@Singleton
+@Startup
+@ConcurrencyManagement(ConcurrencyManagementType.BEAN)
+public class TraceReplicaEJB implements TraceReplicaEJBLocal {
+
+    private static final Logger logger = Logger.getLogger(TraceReplicaEJB.class.getName());
+
+    // Staleness the trace reads tolerate; a negative value keeps every read on the primary
+    private static final int MAX_LAG_SECONDS = Integer.getInteger("hissab.replica.maxLagSeconds", 5);
+    private static final int CHECK_TIMEOUT_SECONDS = 2;
+
+    @Resource(lookup = "jdbc/hissabDS")
+    private DataSource primaryDataSource;
+
+    @Resource(lookup = "jdbc/hissabReplicaDS")
+    private DataSource replicaDataSource;
+
+    @Resource
+    private TimerService timerService;
+
+    private volatile boolean usable;
+    private volatile String state = "not checked yet";
+    // Epoch milliseconds up to which the replica is known to hold every write of the primary
+    private volatile long caughtUpTo;
+
+    @PostConstruct
+    public void init() {
+        timerService.createSingleActionTimer(0, new TimerConfig("hissab-replica-check", false));
+    }
+
+    @Timeout
+    @TransactionAttribute(TransactionAttributeType.NOT_SUPPORTED)
+    public void checkAtStartup() {
+        checkReplica();
+    }
+
+    @Schedule(second = "*/5", minute = "*", hour = "*", persistent = false)
+    @TransactionAttribute(TransactionAttributeType.NOT_SUPPORTED)
+    public void checkReplica() {
+        if (MAX_LAG_SECONDS < 0) {
+            update(false, "disabled by hissab.replica.maxLagSeconds");
+            return;
+        }
+        long checkedAt = System.currentTimeMillis();
+        try (Connection connection = replicaDataSource.getConnection();
+             Statement statement = connection.createStatement()) {
+            statement.setQueryTimeout(CHECK_TIMEOUT_SECONDS);
+            try (ResultSet status = statement.executeQuery("SHOW REPLICA STATUS")) {
+                if (!status.next()) {
+                    // Only usable if it is the primary, not some server that stopped replicating
+                    boolean sameServer = serverUuid(replicaDataSource).equals(serverUuid(primaryDataSource));
+                    if (sameServer) {
+                        caughtUpTo = Long.MAX_VALUE;
+                    }
+                    update(sameServer, sameServer ? "same server as the primary" : "not replicating from the primary");
+                    return;
+                }
+                boolean running = "Yes".equals(status.getString("Replica_IO_Running"))
+                                  && "Yes".equals(status.getString("Replica_SQL_Running"));
+                long lag = status.getLong("Seconds_Behind_Source");
+                if (!running || status.wasNull()) {
+                    update(false, "replication stopped: " + status.getString("Last_Error"));
+                } else if (lag > MAX_LAG_SECONDS) {
+                    update(false, lag + " s behind the primary, more than " + MAX_LAG_SECONDS + " s tolerated");
+                } else {
+                    // The lag is rounded down to whole seconds
+                    caughtUpTo = checkedAt - (lag + 1) * 1000;
+                    update(true, lag + " s behind the primary");
+                }
+            }
+        } catch (SQLException e) {
+            update(false, "unreachable: " + e.getMessage());
+        }
+    }
+
+    private static String serverUuid(DataSource dataSource) throws SQLException {
+        try (Connection connection = dataSource.getConnection();
+             Statement statement = connection.createStatement();
+             ResultSet row = statement.executeQuery("SELECT @@server_uuid")) {
+            return row.next() ? row.getString(1) : "";
+        }
+    }
+
+    public boolean isReplicaUsable() {
+        return usable;
+    }
+
+    public boolean isReplicaCurrentSince(long millis) {
+        return usable && caughtUpTo >= millis;
+    }
+
+    public void replicaFailed(Exception cause) {
+        update(false, "read failed: " + cause.getMessage());
+    }
+
+    public String getReplicaReport() {
+        return "Trace replica " + (usable ? "in use" : "bypassed") + ": " + state;
+    }
+
+    private void update(boolean nowUsable, String nowState) {
+        boolean wasUsable = usable;
+        usable = nowUsable;
+        state = nowState;
+        if (wasUsable != nowUsable) {
+            logger.log(nowUsable ? Level.INFO : Level.WARNING,
+                       "Trace reads " + (nowUsable ? "moved to the replica" : "moved back to the primary") + ": " + nowState);
+        }
+    }
+}
@@ -0,0 +1,35 @@
+package com.hissab.ejb;
+
+import jakarta.ejb.Local;
+
+/**
+ * Local business interface for TraceReplicaEJB
+ */
+@Local
+public interface TraceReplicaEJBLocal {
+
+    /**
+     * Whether trace reads may go to the replica: it answered the last check and was no
+     * further behind the primary than the configured staleness tolerance
+     */
+    boolean isReplicaUsable();
+
+    /**
+     * Whether the replica is usable and known to hold every write committed on the
+     * primary up to a point in time, as of its last check
+     * @param millis The point in time, in epoch milliseconds
+     */
+    boolean isReplicaCurrentSince(long millis);
+
+    /**
+     * Takes the replica out of rotation until the next successful check
+     * @param cause The error a read on the replica failed with
+     */
+    void replicaFailed(Exception cause);
+
+    /**
+     * Describes the replica state
+     * @return Human-readable report
+     */
+    String getReplicaReport();
+}
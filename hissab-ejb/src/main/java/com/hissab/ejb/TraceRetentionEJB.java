@@ -0,0 +1,285 @@
+package com.hissab.ejb;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.Resource;
+import jakarta.ejb.ConcurrencyManagement;
+import jakarta.ejb.ConcurrencyManagementType;
+import jakarta.ejb.EJB;
+import jakarta.ejb.Schedule;
+import jakarta.ejb.Singleton;
+import jakarta.ejb.Startup;
+import jakarta.ejb.Timeout;
+import jakarta.ejb.TimerConfig;
+import jakarta.ejb.TimerService;
+import jakarta.ejb.TransactionAttribute;
+import jakarta.ejb.TransactionAttributeType;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Logger;
+import java.util.logging.Level;
+import javax.sql.DataSource;
+
+/**
+ * Keeps the trace table bounded without long locks.
+ * When the table is range-partitioned by month (database/migrations/001_partition_trace_by_month.sql),
+ * upcoming partitions are created ahead of time and partitions wholly older than the
+ * retention period are dropped, which is a metadata change rather than a row delete.
+ * Remaining expired rows (the partially expired month, or an unpartitioned table) are
+ * deleted oldest first in small keyset-ordered chunks, each committed on its own, so
+ * concurrent inserts never wait behind a long transaction. Archive segments past the
+ * retention period are deleted too.
+ */
+@Singleton
+@Startup
+@ConcurrencyManagement(ConcurrencyManagementType.BEAN)
+public class TraceRetentionEJB implements TraceRetentionEJBLocal {
+
+    private static final Logger logger = Logger.getLogger(TraceRetentionEJB.class.getName());
+
+    // Traces older than this many days are purged; 0 keeps them forever
+    private static final int RETENTION_DAYS = Integer.getInteger("hissab.trace.retention.days", 365);
+    private static final int PARTITIONS_AHEAD = Integer.getInteger("hissab.trace.partitions.ahead", 3);
+    private static final int DELETE_CHUNK_SIZE = Integer.getInteger("hissab.trace.retention.chunk", 1000);
+    private static final long DELETE_CHUNK_PAUSE_MILLIS = Long.getLong("hissab.trace.retention.pauseMillis", 50);
+
+    private static final String MAX_PARTITION = "pmax";
+    private static final DateTimeFormatter PARTITION_NAME = DateTimeFormatter.ofPattern("'p'yyyyMM");
+
+    // MySQL's TO_DAYS('1970-01-01'), to convert partition bounds to and from epoch days
+    private static final long TO_DAYS_EPOCH = 719528;
+
+    @Resource(lookup = "jdbc/hissabDS")
+    private DataSource dataSource;
+
+    @Resource
+    private TimerService timerService;
+
+    @EJB
+    private TraceArchiveEJBLocal traceArchiveEJB;
+
+    @EJB
+    private TraceCacheEJBLocal traceCacheEJB;
+
+    // The startup run and the hourly schedule must not overlap
+    private final AtomicBoolean running = new AtomicBoolean();
+    private volatile String report = "Trace retention not run yet";
+
+    @PostConstruct
+    public void init() {
+        // Make sure this month's partitions exist right after deploy, without holding it up
+        timerService.createSingleActionTimer(0, new TimerConfig("hissab-trace-retention", false));
+    }
+
+    @Timeout
+    @TransactionAttribute(TransactionAttributeType.NOT_SUPPORTED)
+    public void runAtStartup() {
+        runMaintenance();
+    }
+
+    @Schedule(minute = "15", hour = "*", persistent = false)
+    @TransactionAttribute(TransactionAttributeType.NOT_SUPPORTED)
+    public void runScheduled() {
+        runMaintenance();
+    }
+
+    @TransactionAttribute(TransactionAttributeType.NOT_SUPPORTED)
+    public int runMaintenance() {
+        if (!running.compareAndSet(false, true)) {
+            logger.log(Level.FINE, "Trace retention already running");
+            return 0;
+        }
+        long start = System.nanoTime();
+        try (Connection connection = dataSource.getConnection()) {
+            connection.setAutoCommit(true);
+            boolean partitioned = isPartitioned(connection);
+            int created = partitioned ? createUpcomingPartitions(connection) : 0;
+            int dropped = 0;
+            int deleted = 0;
+            int segments = 0;
+            if (RETENTION_DAYS > 0) {
+                Date cutoff = Date.from(LocalDate.now().minusDays(RETENTION_DAYS)
+                                        .atStartOfDay(ZoneId.systemDefault()).toInstant());
+                if (partitioned) {
+                    dropped = dropExpiredPartitions(connection, cutoff);
+                }
+                deleted = purge(connection, cutoff);
+                segments = traceArchiveEJB.deleteArchivedBefore(cutoff);
+            }
+            report = String.format(
+                "Trace retention %s: %s, %d partitions created, %d dropped, %d traces and %d archive segments deleted in %d ms",
+                partitioned ? "(partitioned)" : "(unpartitioned)",
+                RETENTION_DAYS > 0 ? "keeping " + RETENTION_DAYS + " days" : "keeping everything",
+                created, dropped, deleted, segments, (System.nanoTime() - start) / 1_000_000);
+            logger.log(created + dropped + deleted + segments > 0 ? Level.INFO : Level.FINE, report);
+            if (dropped + deleted + segments > 0) {
+                traceCacheEJB.invalidate();
+            }
+            return deleted;
+
+        } catch (SQLException e) {
+            report = "Trace retention failed: " + e.getMessage();
+            logger.log(Level.WARNING, "Trace retention failed", e);
+            return 0;
+        } finally {
+            running.set(false);
+        }
+    }
+
+    @TransactionAttribute(TransactionAttributeType.NOT_SUPPORTED)
+    public int purgeTracesBefore(Date cutoff) {
+        try (Connection connection = dataSource.getConnection()) {
+            connection.setAutoCommit(true);
+            int deleted = purge(connection, cutoff);
+            if (deleted > 0) {
+                traceCacheEJB.invalidate();
+            }
+            return deleted;
+        } catch (SQLException e) {
+            logger.log(Level.SEVERE, "Error purging traces before " + cutoff, e);
+            throw new RuntimeException("Failed to purge traces", e);
+        }
+    }
+
+    public String getRetentionReport() {
+        return report;
+    }
+
+    private boolean isPartitioned(Connection connection) throws SQLException {
+        try (PreparedStatement query = connection.prepareStatement(
+                "SELECT COUNT(*) FROM information_schema.PARTITIONS "
+                + "WHERE TABLE_SCHEMA = DATABASE() AND TABLE_NAME = 'trace' AND PARTITION_NAME IS NOT NULL");
+             ResultSet rows = query.executeQuery()) {
+            return rows.next() && rows.getInt(1) > 0;
+        }
+    }
+
+    /**
+     * Splits empty months off the catch-all partition until PARTITIONS_AHEAD months past
+     * the current one are covered; pmax is empty by then, so nothing is copied
+     */
+    private int createUpcomingPartitions(Connection connection) throws SQLException {
+        Long upperBound = null;
+        try (PreparedStatement query = connection.prepareStatement(
+                "SELECT MAX(CAST(PARTITION_DESCRIPTION AS UNSIGNED)) FROM information_schema.PARTITIONS "
+                + "WHERE TABLE_SCHEMA = DATABASE() AND TABLE_NAME = 'trace' AND PARTITION_DESCRIPTION <> 'MAXVALUE'");
+             ResultSet rows = query.executeQuery()) {
+            if (rows.next()) {
+                long value = rows.getLong(1);
+                upperBound = rows.wasNull() ? null : value;
+            }
+        }
+
+        LocalDate thisMonth = LocalDate.now().withDayOfMonth(1);
+        LocalDate month = upperBound == null ? thisMonth : LocalDate.ofEpochDay(upperBound - TO_DAYS_EPOCH);
+        LocalDate horizon = thisMonth.plusMonths(PARTITIONS_AHEAD + 1L);
+        StringBuilder partitions = new StringBuilder();
+        int created = 0;
+        for (; month.isBefore(horizon); month = month.plusMonths(1)) {
+            partitions.append("PARTITION ").append(month.format(PARTITION_NAME))
+                      .append(" VALUES LESS THAN (TO_DAYS('").append(month.plusMonths(1)).append("')), ");
+            created++;
+        }
+        if (created > 0) {
+            try (Statement statement = connection.createStatement()) {
+                statement.executeUpdate("ALTER TABLE trace REORGANIZE PARTITION " + MAX_PARTITION + " INTO ("
+                                        + partitions + "PARTITION " + MAX_PARTITION + " VALUES LESS THAN MAXVALUE)");
+            }
+        }
+        return created;
+    }
+
+    /**
+     * Drops the partitions whose every row is older than the cutoff
+     */
+    private int dropExpiredPartitions(Connection connection, Date cutoff) throws SQLException {
+        List<String> expired = new ArrayList<>();
+        try (PreparedStatement query = connection.prepareStatement(
+                "SELECT PARTITION_NAME FROM information_schema.PARTITIONS "
+                + "WHERE TABLE_SCHEMA = DATABASE() AND TABLE_NAME = 'trace' AND PARTITION_DESCRIPTION <> 'MAXVALUE' "
+                + "AND CAST(PARTITION_DESCRIPTION AS UNSIGNED) <= TO_DAYS(?) ORDER BY PARTITION_ORDINAL_POSITION")) {
+            query.setTimestamp(1, new Timestamp(cutoff.getTime()));
+            try (ResultSet rows = query.executeQuery()) {
+                while (rows.next()) {
+                    expired.add(rows.getString(1));
+                }
+            }
+        }
+        if (!expired.isEmpty()) {
+            try (Statement statement = connection.createStatement()) {
+                statement.executeUpdate("ALTER TABLE trace DROP PARTITION " + String.join(", ", expired));
+            }
+            logger.log(Level.INFO, "Dropped expired trace partitions " + expired);
+        }
+        return expired.size();
+    }
+
+    /**
+     * Deletes rows older than the cutoff, oldest first, DELETE_CHUNK_SIZE at a time.
+     * Each chunk resumes from the last timestamp seen instead of rescanning deleted rows,
+     * and names its rows by primary key within a timestamp range the optimizer can prune on.
+     */
+    private int purge(Connection connection, Date cutoff) throws SQLException {
+        Timestamp upper = new Timestamp(cutoff.getTime());
+        Timestamp lower = new Timestamp(0);
+        int deleted = 0;
+        while (true) {
+            List<Long> ids = new ArrayList<>(DELETE_CHUNK_SIZE);
+            Timestamp first = null;
+            Timestamp last = null;
+            try (PreparedStatement select = connection.prepareStatement(
+                    "SELECT id, timestamp FROM trace WHERE timestamp >= ? AND timestamp < ? ORDER BY timestamp, id LIMIT ?")) {
+                select.setTimestamp(1, lower);
+                select.setTimestamp(2, upper);
+                select.setInt(3, DELETE_CHUNK_SIZE);
+                try (ResultSet rows = select.executeQuery()) {
+                    while (rows.next()) {
+                        ids.add(rows.getLong(1));
+                        last = rows.getTimestamp(2);
+                        if (first == null) {
+                            first = last;
+                        }
+                    }
+                }
+            }
+            if (ids.isEmpty()) {
+                return deleted;
+            }
+
+            StringBuilder sql = new StringBuilder("DELETE FROM trace WHERE timestamp BETWEEN ? AND ? AND id IN (");
+            for (int i = 0; i < ids.size(); i++) {
+                sql.append(i == 0 ? "?" : ", ?");
+            }
+            try (PreparedStatement delete = connection.prepareStatement(sql.append(")").toString())) {
+                delete.setTimestamp(1, first);
+                delete.setTimestamp(2, last);
+                for (int i = 0; i < ids.size(); i++) {
+                    delete.setLong(i + 3, ids.get(i));
+                }
+                deleted += delete.executeUpdate();
+            }
+            if (ids.size() < DELETE_CHUNK_SIZE) {
+                return deleted;
+            }
+            lower = last;
+
+            try {
+                // Let inserts and replication catch up between chunks
+                Thread.sleep(DELETE_CHUNK_PAUSE_MILLIS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return deleted;
+            }
+        }
+    }
+}
@@ -0,0 +1,30 @@
+package com.hissab.ejb;
+
+import jakarta.ejb.Local;
+import java.util.Date;
+
+/**
+ * Local business interface for TraceRetentionEJB
+ */
+@Local
+public interface TraceRetentionEJBLocal {
+
+    /**
+     * Creates upcoming monthly partitions and purges traces older than the retention period
+     * @return Number of traces deleted row by row (traces in dropped partitions are not counted)
+     */
+    int runMaintenance();
+
+    /**
+     * Deletes traces older than a cutoff in small chunks, each in its own transaction
+     * @param cutoff Traces with an earlier timestamp are deleted
+     * @return Number of deleted traces
+     */
+    int purgeTracesBefore(Date cutoff);
+
+    /**
+     * Describes the outcome of the last maintenance run
+     * @return Human-readable report
+     */
+    String getRetentionReport();
+}
@@ -0,0 +1,78 @@
+package com.hissab.ejb;
+
+import com.hissab.entity.Trace;
+import com.hissab.entity.TraceSource;
+import java.io.Serializable;
+import java.util.Date;
+
+/**
+ * A read-only copy of one trace, returned instead of Trace entities by the listing queries
+ * and by column scans over the hot table and the archive. A scan only fills in the
+ * requested columns; the others are null.
+ */
+public final class TraceRow implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Columns a scan can read
+     */
+    public enum Column {
+        ID,
+        TIMESTAMP,
+        EXPRESSION,
+        RESULT,
+        SOURCE
+    }
+
+    private final Long id;
+    private final Date timestamp;
+    private final TraceSource source;
+    private final String expression;
+    private final String result;
+    private final boolean archived;
+
+    public TraceRow(Long id, Date timestamp, TraceSource source, String expression, String result, boolean archived) {
+        this.id = id;
+        this.timestamp = timestamp;
+        this.source = source;
+        this.expression = expression;
+        this.result = result;
+        this.archived = archived;
+    }
+
+    /**
+     * Target of the JPQL constructor expressions in TraceEJB, which select the result as stored
+     */
+    public TraceRow(Long id, Date timestamp, TraceSource source, String expression, Double resultValue, String resultText) {
+        this(id, timestamp, source, expression,
+             resultValue != null ? Trace.formatResult(resultValue) : resultText, false);
+    }
+
+    public Long getId() {
+        return id;
+    }
+
+    public Date getTimestamp() {
+        return timestamp;
+    }
+
+    public TraceSource getSource() {
+        return source;
+    }
+
+    public String getExpression() {
+        return expression;
+    }
+
+    public String getResult() {
+        return result;
+    }
+
+    /**
+     * Whether the trace was read from an archive segment rather than the trace table
+     */
+    public boolean isArchived() {
+        return archived;
+    }
+}
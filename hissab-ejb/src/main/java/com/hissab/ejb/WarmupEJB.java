@@ -0,0 +1,149 @@
+package com.hissab.ejb;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.Resource;
+import jakarta.ejb.ConcurrencyManagement;
+import jakarta.ejb.ConcurrencyManagementType;
+import jakarta.ejb.DependsOn;
+import jakarta.ejb.EJB;
+import jakarta.ejb.Singleton;
+import jakarta.ejb.Startup;
+import jakarta.ejb.Timeout;
+import jakarta.ejb.TimerConfig;
+import jakarta.ejb.TimerService;
+import jakarta.ejb.TransactionAttribute;
+import jakarta.ejb.TransactionAttributeType;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceContext;
+import java.util.logging.Logger;
+import java.util.logging.Level;
+
+/**
+ * Runs a startup warm-up phase right after deployment.
+ * Pre-initializes the expression engine, the JPA metamodel and a pool of CalculEJB
+ * instances, then drives a synthetic workload until latency settles so the JIT has
+ * compiled the hot paths before health checks report the service as ready.
+ */
+@Singleton
+@Startup
+@DependsOn("ExpressionEngine")
+@ConcurrencyManagement(ConcurrencyManagementType.BEAN)
+public class WarmupEJB implements WarmupEJBLocal {
+    
+    private static final Logger logger = Logger.getLogger(WarmupEJB.class.getName());
+    
+    // Representative mix of what students submit
+    private static final String[] WARMUP_EXPRESSIONS = {
+        "2+2", "5*3", "10-3", "15/3", "2+3*4", "(5+3)*2-1", "-(4.5+0.5)/2", "((1+2)*(3+4))/7"
+    };
+    
+    private static final int BATCH_SIZE = 200;
+    private static final int MAX_BATCHES = 20;
+    
+    // A batch within this ratio of the previous one counts as steady state
+    private static final double STEADY_STATE_TOLERANCE = 0.10;
+    
+    @EJB
+    private CalculEJBLocal calculEJB;
+    
+    @EJB
+    private TraceEJBLocal traceEJB;
+    
+    @PersistenceContext(unitName = "hissabPU")
+    private EntityManager entityManager;
+    
+    @Resource
+    private TimerService timerService;
+    
+    private volatile boolean ready;
+    private volatile String report = "Warm-up not started";
+    private long deployedAtNanos;
+    
+    @PostConstruct
+    public void init() {
+        deployedAtNanos = System.nanoTime();
+        // Run asynchronously so deployment is not held up by the synthetic workload
+        timerService.createSingleActionTimer(0, new TimerConfig("hissab-warmup", false));
+        report = "Warm-up scheduled";
+        logger.log(Level.INFO, "Startup warm-up scheduled");
+    }
+    
+    // No transaction spans the synthetic workload; the beans it calls start their own
+    @Timeout
+    @TransactionAttribute(TransactionAttributeType.NOT_SUPPORTED)
+    public void runWarmup() {
+        logger.log(Level.INFO, "Startup warm-up started");
+        try {
+            warmUpPersistence();
+            
+            long firstRequestMicros = timeEvaluation(WARMUP_EXPRESSIONS[0]);
+            long timeToFirstRequestMillis = (System.nanoTime() - deployedAtNanos) / 1_000_000;
+            
+            int batches = 0;
+            double previousBatchMicros = -1;
+            double batchMicros = 0;
+            boolean steady = false;
+            while (batches < MAX_BATCHES && !steady) {
+                batchMicros = runBatch();
+                batches++;
+                steady = previousBatchMicros > 0
+                        && Math.abs(batchMicros - previousBatchMicros) <= previousBatchMicros * STEADY_STATE_TOLERANCE;
+                previousBatchMicros = batchMicros;
+            }
+            long timeToSteadyStateMillis = (System.nanoTime() - deployedAtNanos) / 1_000_000;
+            
+            report = String.format(
+                "Warm-up %s: first evaluation %d us at %d ms after deploy, steady state %.1f us/eval after %d evaluations at %d ms after deploy",
+                steady ? "completed" : "stopped before steady state",
+                firstRequestMicros, timeToFirstRequestMillis,
+                batchMicros, batches * BATCH_SIZE, timeToSteadyStateMillis);
+            logger.log(Level.INFO, report);
+            
+        } catch (Exception e) {
+            report = "Warm-up failed: " + e.getMessage();
+            logger.log(Level.WARNING, "Startup warm-up failed - serving requests cold", e);
+        } finally {
+            // A failed warm-up only costs latency, so never keep the node out of rotation for it
+            ready = true;
+        }
+    }
+    
+    /**
+     * Loads the JPA metamodel and primes the connection pool with a read-only query
+     */
+    private void warmUpPersistence() {
+        try {
+            int entityCount = entityManager.getMetamodel().getEntities().size();
+            long traceCount = traceEJB.getTraceCount();
+            logger.log(Level.INFO, "JPA warm-up complete: " + entityCount + " entities, " + traceCount + " traces");
+        } catch (Exception e) {
+            logger.log(Level.WARNING, "JPA warm-up skipped - database not available: " + e.getMessage());
+        }
+    }
+    
+    /**
+     * Evaluates one batch of the synthetic workload
+     * @return Mean latency per evaluation in microseconds
+     */
+    private double runBatch() {
+        long start = System.nanoTime();
+        for (int i = 0; i < BATCH_SIZE; i++) {
+            calculEJB.evaluateExpression(WARMUP_EXPRESSIONS[i % WARMUP_EXPRESSIONS.length]);
+        }
+        return (System.nanoTime() - start) / 1000.0 / BATCH_SIZE;
+    }
+    
+    private long timeEvaluation(String expression) {
+        long start = System.nanoTime();
+        calculEJB.evaluateExpression(expression);
+        return (System.nanoTime() - start) / 1000;
+    }
+    
+    public boolean isReady() {
+        return ready;
+    }
+    
+    public String getWarmupReport() {
+        return report;
+    }
+}
@@ -0,0 +1,22 @@
+package com.hissab.ejb;
+
+import jakarta.ejb.Local;
+
+/**
+ * Local business interface for WarmupEJB
+ */
+@Local
+public interface WarmupEJBLocal {
+    
+    /**
+     * Whether the startup warm-up phase has completed
+     * @return true once the engine, JPA metamodel and JIT have been warmed up
+     */
+    boolean isReady();
+    
+    /**
+     * Describes the last warm-up run (time to ready, time to steady state)
+     * @return Human readable warm-up report
+     */
+    String getWarmupReport();
+}
@@ -5,23 +5,57 @@ import java.sql.Timestamp;
 import java.util.Date;
 
 @Entity
-@Table(name = "trace")
+// MySQL requires the partitioning column (timestamp) in every unique key, so the id and
+// client key are only unique together with it; see database/migrations.
+// The expression and any non-numeric result are interned in trace_text and referenced by id;
+// a numeric result is stored as a DOUBLE. Partitioned tables cannot have foreign keys, so the
+// references are not enforced by the database (trace_text entries are never deleted).
+@Table(name = "trace",
+       uniqueConstraints = @UniqueConstraint(name = "uk_client_key", columnNames = {"client_key", "timestamp"}))
 public class Trace {
     
     @Id
     @GeneratedValue(strategy = GenerationType.IDENTITY)
     private Long id;
     
-    @Column(name = "expression", nullable = false, length = 255)
+    @Column(name = "source", nullable = false, columnDefinition = "TINYINT UNSIGNED")
+    @Convert(converter = TraceSourceConverter.class)
+    private TraceSource source = TraceSource.MANUAL;
+    
+    @Column(name = "expression_id", nullable = false, columnDefinition = "INT UNSIGNED")
+    private Integer expressionId;
+    
+    @ManyToOne(fetch = FetchType.LAZY)
+    @JoinColumn(name = "expression_id", insertable = false, updatable = false)
+    private TraceText expressionText;
+    
+    // Set when the result is a number in the form CalculEJB prints it, which formatResult restores exactly
+    @Column(name = "result_value")
+    private Double resultValue;
+    
+    // Set otherwise (error messages, anything else a client uploaded)
+    @Column(name = "result_text_id", columnDefinition = "INT UNSIGNED")
+    private Integer resultTextId;
+    
+    @ManyToOne(fetch = FetchType.LAZY)
+    @JoinColumn(name = "result_text_id", insertable = false, updatable = false)
+    private TraceText resultText;
+    
+    // Texts of a trace that is not stored yet, until TraceEJB interns them
+    @Transient
     private String expression;
     
-    @Column(name = "result", nullable = false, length = 255)
+    @Transient
     private String result;
     
     @Column(name = "timestamp", nullable = false)
     @Temporal(TemporalType.TIMESTAMP)
     private Date timestamp;
     
+    // Idempotency key of a trace replayed by a client, so a resent batch is stored once
+    @Column(name = "client_key", length = 36)
+    private String clientKey;
+    
     // Default constructor
     public Trace() {
         this.timestamp = new Timestamp(System.currentTimeMillis());
@@ -34,6 +68,13 @@ public class Trace {
         this.result = result;
     }
     
+    // Constructor for traces evaluated elsewhere (e.g. on a client) and logged later
+    public Trace(String expression, String result, Date timestamp) {
+        this.expression = expression;
+        this.result = result;
+        this.timestamp = new Timestamp(timestamp.getTime());
+    }
+    
     // Getters and Setters
     public Long getId() {
         return id;
@@ -43,8 +84,16 @@ public class Trace {
         this.id = id;
     }
     
+    public TraceSource getSource() {
+        return source;
+    }
+    
+    public void setSource(TraceSource source) {
+        this.source = source;
+    }
+    
     public String getExpression() {
-        return expression;
+        return expressionText != null ? expressionText.getText() : expression;
     }
     
     public void setExpression(String expression) {
@@ -52,13 +101,40 @@ public class Trace {
     }
     
     public String getResult() {
-        return result;
+        if (resultText != null) {
+            return resultText.getText();
+        }
+        return resultValue != null ? formatResult(resultValue) : result;
     }
     
     public void setResult(String result) {
         this.result = result;
     }
     
+    public Integer getExpressionId() {
+        return expressionId;
+    }
+    
+    public void setExpressionId(Integer expressionId) {
+        this.expressionId = expressionId;
+    }
+    
+    public Double getResultValue() {
+        return resultValue;
+    }
+    
+    public void setResultValue(Double resultValue) {
+        this.resultValue = resultValue;
+    }
+    
+    public Integer getResultTextId() {
+        return resultTextId;
+    }
+    
+    public void setResultTextId(Integer resultTextId) {
+        this.resultTextId = resultTextId;
+    }
+    
     public Date getTimestamp() {
         return timestamp;
     }
@@ -67,12 +143,52 @@ public class Trace {
         this.timestamp = timestamp;
     }
     
+    public String getClientKey() {
+        return clientKey;
+    }
+    
+    public void setClientKey(String clientKey) {
+        this.clientKey = clientKey;
+    }
+    
+    /**
+     * Formats a numeric result the way CalculEJB does: whole numbers without a fraction
+     */
+    public static String formatResult(double value) {
+        if (value == Math.floor(value) && !Double.isInfinite(value)) {
+            return String.valueOf((int) value);
+        }
+        return String.valueOf(value);
+    }
+    
+    /**
+     * The value of a result that formatResult gives back unchanged, or null if it
+     * has to be stored as text
+     */
+    public static Double parseResult(String result) {
+        if (result == null || result.isEmpty() || result.length() > 32) {
+            return null;
+        }
+        char first = result.charAt(0);
+        if (first != '-' && (first < '0' || first > '9')) {
+            return null;
+        }
+        try {
+            double value = Double.parseDouble(result);
+            // MySQL has no NaN or infinities
+            return Double.isFinite(value) && formatResult(value).equals(result) ? value : null;
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+    
     @Override
     public String toString() {
         return "Trace{" +
                 "id=" + id +
-                ", expression='" + expression + '\'' +
-                ", result='" + result + '\'' +
+                ", source=" + source +
+                ", expression='" + getExpression() + '\'' +
+                ", result='" + getResult() + '\'' +
                 ", timestamp=" + timestamp +
                 '}';
     }
@@ -0,0 +1,39 @@
+package com.hissab.entity;
+
+/**
+ * Where the expression of a trace came from, stored as a one-byte code
+ */
+public enum TraceSource {
+
+    // Typed in and evaluated on the server
+    MANUAL(0, "Manual"),
+    // Recognized from an image on the server
+    OCR(1, "OCR"),
+    // Evaluated on a client and uploaded later with logTraces
+    CLIENT(2, "Client");
+
+    private final int code;
+    private final String label;
+
+    TraceSource(int code, String label) {
+        this.code = code;
+        this.label = label;
+    }
+
+    public int getCode() {
+        return code;
+    }
+
+    public String getLabel() {
+        return label;
+    }
+
+    public static TraceSource fromCode(int code) {
+        for (TraceSource source : values()) {
+            if (source.code == code) {
+                return source;
+            }
+        }
+        throw new IllegalArgumentException("Unknown trace source code: " + code);
+    }
+}
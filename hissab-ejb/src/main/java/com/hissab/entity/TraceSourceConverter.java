@@ -0,0 +1,22 @@
+package com.hissab.entity;
+
+import jakarta.persistence.AttributeConverter;
+import jakarta.persistence.Converter;
+
+/**
+ * Stores a TraceSource as its code rather than its name or ordinal, so the
+ * enum constants can be reordered without rewriting the table
+ */
+@Converter
+public class TraceSourceConverter implements AttributeConverter<TraceSource, Integer> {
+
+    @Override
+    public Integer convertToDatabaseColumn(TraceSource source) {
+        return source != null ? source.getCode() : null;
+    }
+
+    @Override
+    public TraceSource convertToEntityAttribute(Integer code) {
+        return code != null ? TraceSource.fromCode(code) : null;
+    }
+}
@@ -0,0 +1,39 @@
+package com.hissab.entity;
+
+import jakarta.persistence.*;
+
+/**
+ * An interned expression or non-numeric result, stored once and referenced by id from traces.
+ * Entries are never updated or deleted, so an id always names the same text.
+ */
+@Entity
+@Table(name = "trace_text",
+       uniqueConstraints = @UniqueConstraint(name = "uk_text", columnNames = "text"))
+public class TraceText {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @Column(name = "id", columnDefinition = "INT UNSIGNED")
+    private Integer id;
+
+    // Binary NO PAD collation: texts differing only in case or trailing spaces stay distinct
+    @Column(name = "text", nullable = false, length = 255,
+            columnDefinition = "VARCHAR(255) CHARACTER SET utf8mb4 COLLATE utf8mb4_0900_bin")
+    private String text;
+
+    public TraceText() {
+    }
+
+    public Integer getId() {
+        return id;
+    }
+
+    public String getText() {
+        return text;
+    }
+
+    @Override
+    public String toString() {
+        return "TraceText{id=" + id + ", text='" + text + "'}";
+    }
+}
@@ -0,0 +1,125 @@
+package com.hissab.filter;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Latency-gradient concurrency limiter with multiplicative back-off on failures.
+ * Each sample scales the limit by the gradient between the tolerated latency
+ * (no-load baseline times the tolerance) and the observed latency, plus a small
+ * sqrt(limit) headroom for probing. The limit therefore settles where admitted
+ * requests take about {@code latencyTolerance} times the baseline. Failed requests
+ * cut the limit multiplicatively, at most once per round trip.
+ */
+public class AdaptiveConcurrencyLimiter {
+    
+    // The no-load baseline is re-learned periodically so it can follow slow drifts
+    private static final long BASELINE_WINDOW_NANOS = 30_000_000_000L;
+    
+    // Weight of each new sample in the smoothed limit
+    private static final double SMOOTHING = 0.05;
+    
+    // A single sample may not shrink the limit below half its current value
+    private static final double MIN_GRADIENT = 0.5;
+    
+    private final int minLimit;
+    private final int maxLimit;
+    private final double latencyTolerance;
+    private final double backoffRatio;
+    
+    private final AtomicInteger inFlight = new AtomicInteger();
+    
+    // Guarded by this
+    private double limit;
+    private long baselineRttNanos = Long.MAX_VALUE;
+    private long nextBaselineRttNanos = Long.MAX_VALUE;
+    private long baselineWindowStart = System.nanoTime();
+    private long lastDecreaseNanos;
+    
+    /**
+     * @param initialLimit Starting concurrency limit
+     * @param minLimit Lowest limit the algorithm may reach
+     * @param maxLimit Highest limit the algorithm may reach
+     * @param latencyTolerance Allowed latency growth over the baseline before backing off (e.g. 2.0)
+     * @param backoffRatio Multiplier applied when a request fails (e.g. 0.9)
+     */
+    public AdaptiveConcurrencyLimiter(int initialLimit, int minLimit, int maxLimit,
+                                      double latencyTolerance, double backoffRatio) {
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.latencyTolerance = latencyTolerance;
+        this.backoffRatio = backoffRatio;
+        this.limit = Math.max(minLimit, Math.min(maxLimit, initialLimit));
+        this.lastDecreaseNanos = System.nanoTime();
+    }
+    
+    /**
+     * Tries to admit one request
+     * @return The start time to pass to {@link #release}, or -1 if the request must be rejected
+     */
+    public long tryAcquire() {
+        int currentLimit = getLimit();
+        while (true) {
+            int current = inFlight.get();
+            if (current >= currentLimit) {
+                return -1;
+            }
+            if (inFlight.compareAndSet(current, current + 1)) {
+                return System.nanoTime();
+            }
+        }
+    }
+    
+    /**
+     * Releases an admitted request and feeds its latency into the limit
+     * @param startNanos Value returned by {@link #tryAcquire}
+     * @param failed true if the request failed (counts as a congestion signal)
+     */
+    public void release(long startNanos, boolean failed) {
+        int inFlightAtEnd = inFlight.getAndDecrement();
+        long now = System.nanoTime();
+        onSample(startNanos, now - startNanos, inFlightAtEnd, failed);
+    }
+    
+    private synchronized void onSample(long startNanos, long rttNanos, int inFlightAtEnd, boolean failed) {
+        updateBaseline(rttNanos);
+        
+        if (failed) {
+            // Only requests that started after the last cut may cut again, so one
+            // failure burst shrinks the limit once per round trip, not once per request
+            if (startNanos > lastDecreaseNanos) {
+                limit = Math.max(minLimit, limit * backoffRatio);
+                lastDecreaseNanos = System.nanoTime();
+            }
+            return;
+        }
+        
+        double gradient = Math.max(MIN_GRADIENT, Math.min(1.0, baselineRttNanos * latencyTolerance / rttNanos));
+        if (gradient == 1.0 && inFlightAtEnd * 2 < limit) {
+            // Latency is fine but the limit is not being used; don't inflate it
+            return;
+        }
+        double newLimit = limit * gradient + Math.sqrt(limit);
+        limit = limit * (1 - SMOOTHING) + newLimit * SMOOTHING;
+        limit = Math.max(minLimit, Math.min(maxLimit, limit));
+    }
+    
+    private void updateBaseline(long rttNanos) {
+        long now = System.nanoTime();
+        nextBaselineRttNanos = Math.min(nextBaselineRttNanos, rttNanos);
+        if (now - baselineWindowStart > BASELINE_WINDOW_NANOS) {
+            baselineRttNanos = nextBaselineRttNanos;
+            nextBaselineRttNanos = Long.MAX_VALUE;
+            baselineWindowStart = now;
+        } else {
+            baselineRttNanos = Math.min(baselineRttNanos, rttNanos);
+        }
+    }
+    
+    public synchronized int getLimit() {
+        return (int) limit;
+    }
+    
+    public int getInFlight() {
+        return inFlight.get();
+    }
+}
@@ -0,0 +1,220 @@
+package com.hissab.filter;
+
+import jakarta.servlet.Filter;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.FilterConfig;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.ServletRequest;
+import jakarta.servlet.ServletResponse;
+import jakarta.servlet.annotation.WebFilter;
+import jakarta.servlet.annotation.WebInitParam;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+import java.util.logging.Level;
+
+/**
+ * Admission control in front of the calculation endpoints (SOAP, REST and binary).
+ * Requests beyond the adaptive concurrency limit are rejected immediately with 503 and
+ * Retry-After instead of queueing until timeouts cascade. An optional per-client
+ * token bucket (disabled when rateLimitPerSecond is 0) rejects with 429.
+ * Messages on an open WebSocket never pass through the filter chain; the endpoint applies
+ * the same limits to each of them through {@link #getInstance}.
+ */
+@WebFilter(
+    filterName = "AdmissionControlFilter",
+    urlPatterns = {"/HissabService", "/api/math/calculate", "/api/math/calculate/*", "/binary"},
+    initParams = {
+        @WebInitParam(name = "initialLimit", value = "20"),
+        @WebInitParam(name = "minLimit", value = "4"),
+        @WebInitParam(name = "maxLimit", value = "200"),
+        @WebInitParam(name = "latencyTolerance", value = "2.0"),
+        @WebInitParam(name = "backoffRatio", value = "0.9"),
+        @WebInitParam(name = "retryAfterSeconds", value = "1"),
+        @WebInitParam(name = "rateLimitPerSecond", value = "0"),
+        @WebInitParam(name = "rateLimitBurst", value = "20")
+    }
+)
+public class AdmissionControlFilter implements Filter {
+    
+    private static final Logger logger = Logger.getLogger(AdmissionControlFilter.class.getName());
+    
+    /**
+     * Request attribute set by a servlet whose error response was the client's fault, such as
+     * a SOAP Client fault, which SOAP 1.1 still sends as 500
+     */
+    public static final String CLIENT_ERROR_ATTRIBUTE = "com.hissab.clientError";
+    
+    private static volatile AdmissionControlFilter instance;
+    
+    private AdaptiveConcurrencyLimiter concurrencyLimiter;
+    private TokenBucketRateLimiter rateLimiter;
+    private long retryAfterSeconds;
+    
+    private final AtomicLong admitted = new AtomicLong();
+    private final AtomicLong rejectedOverload = new AtomicLong();
+    private final AtomicLong rejectedRateLimit = new AtomicLong();
+    
+    @Override
+    public void init(FilterConfig config) {
+        concurrencyLimiter = new AdaptiveConcurrencyLimiter(
+            intParam(config, "initialLimit", 20),
+            intParam(config, "minLimit", 4),
+            intParam(config, "maxLimit", 200),
+            doubleParam(config, "latencyTolerance", 2.0),
+            doubleParam(config, "backoffRatio", 0.9));
+        retryAfterSeconds = intParam(config, "retryAfterSeconds", 1);
+        
+        double ratePerSecond = doubleParam(config, "rateLimitPerSecond", 0);
+        if (ratePerSecond > 0) {
+            rateLimiter = new TokenBucketRateLimiter(ratePerSecond, doubleParam(config, "rateLimitBurst", 20));
+        }
+        instance = this;
+        logger.log(Level.INFO, "Admission control enabled (initial limit " + concurrencyLimiter.getLimit()
+                   + ", per-client rate limit " + (rateLimiter != null ? ratePerSecond + "/s" : "off") + ")");
+    }
+    
+    @Override
+    public void doFilter(ServletRequest req, ServletResponse res, FilterChain chain)
+            throws IOException, ServletException {
+        HttpServletRequest request = (HttpServletRequest) req;
+        HttpServletResponse response = (HttpServletResponse) res;
+        
+        // Only calculations are limited; WSDL and info pages are served as usual
+        if (!"POST".equals(request.getMethod())) {
+            chain.doFilter(req, res);
+            return;
+        }
+        
+        String clientKey = clientKey(request);
+        if (!tryConsumeRate(clientKey)) {
+            reject(request, response, 429, "Rate limit exceeded",
+                   Math.max(1, rateLimiter.secondsUntilNextToken(clientKey)));
+            return;
+        }
+        
+        long startNanos = tryAcquire();
+        if (startNanos < 0) {
+            reject(request, response, HttpServletResponse.SC_SERVICE_UNAVAILABLE,
+                   "Server overloaded, retry later", retryAfterSeconds);
+            return;
+        }
+        
+        boolean failed = true;
+        try {
+            chain.doFilter(req, res);
+            failed = isServerFailure(request, response.getStatus());
+        } finally {
+            release(startNanos, failed);
+        }
+    }
+    
+    /**
+     * Admission control of this application, for work that arrives outside an HTTP request
+     * @return The initialized filter, or null if it has not been initialized
+     */
+    public static AdmissionControlFilter getInstance() {
+        return instance;
+    }
+    
+    /**
+     * Takes a token from the client's bucket
+     * @return false if the client is over its rate limit
+     */
+    public boolean tryConsumeRate(String clientKey) {
+        if (rateLimiter == null || rateLimiter.tryConsume(clientKey)) {
+            return true;
+        }
+        rejectedRateLimit.incrementAndGet();
+        return false;
+    }
+    
+    /**
+     * Admits one unit of work under the concurrency limit
+     * @return Start time to pass to {@link #release}, or -1 if the server is overloaded
+     */
+    public long tryAcquire() {
+        long startNanos = concurrencyLimiter.tryAcquire();
+        if (startNanos < 0) {
+            long rejected = rejectedOverload.incrementAndGet();
+            if (rejected % 1000 == 1) {
+                logger.log(Level.WARNING, "Shedding load: concurrency limit " + concurrencyLimiter.getLimit()
+                           + " reached (" + rejected + " requests rejected so far)");
+            }
+            return -1;
+        }
+        admitted.incrementAndGet();
+        return startNanos;
+    }
+    
+    /**
+     * Ends work admitted by {@link #tryAcquire}
+     * @param failed Whether it failed on the server's side or timed out, which lowers the limit
+     */
+    public void release(long startNanos, boolean failed) {
+        concurrencyLimiter.release(startNanos, failed);
+    }
+    
+    /**
+     * Only timeouts and genuine server errors signal congestion; a bad request says nothing about load
+     */
+    private static boolean isServerFailure(HttpServletRequest request, int status) {
+        return status >= 500 && request.getAttribute(CLIENT_ERROR_ATTRIBUTE) == null;
+    }
+    
+    /**
+     * Authenticated callers are limited by user, everyone else by address; a header the
+     * client chooses freely could be rotated to escape the limit
+     */
+    public static String clientKey(HttpServletRequest request) {
+        String user = request.getRemoteUser();
+        return user != null ? "user:" + user : request.getRemoteAddr();
+    }
+    
+    private void reject(HttpServletRequest request, HttpServletResponse response,
+                        int status, String message, long retryAfter) throws IOException {
+        response.setStatus(status);
+        response.setHeader("Retry-After", String.valueOf(retryAfter));
+        if (request.getServletPath().startsWith("/HissabService")) {
+            response.setContentType("text/xml; charset=UTF-8");
+            response.getWriter().write(soapFault(message));
+        } else {
+            response.setContentType("text/plain; charset=UTF-8");
+            response.getWriter().write("Error: " + message);
+        }
+    }
+    
+    private String soapFault(String faultString) {
+        return "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+             + "<soap:Envelope xmlns:soap=\"http://schemas.xmlsoap.org/soap/envelope/\">\n"
+             + "  <soap:Body>\n"
+             + "    <soap:Fault>\n"
+             + "      <faultcode>Server</faultcode>\n"
+             + "      <faultstring>" + faultString + "</faultstring>\n"
+             + "    </soap:Fault>\n"
+             + "  </soap:Body>\n"
+             + "</soap:Envelope>";
+    }
+    
+    private static int intParam(FilterConfig config, String name, int defaultValue) {
+        String value = config.getInitParameter(name);
+        return value != null ? Integer.parseInt(value.trim()) : defaultValue;
+    }
+    
+    private static double doubleParam(FilterConfig config, String name, double defaultValue) {
+        String value = config.getInitParameter(name);
+        return value != null ? Double.parseDouble(value.trim()) : defaultValue;
+    }
+    
+    @Override
+    public void destroy() {
+        if (instance == this) {
+            instance = null;
+        }
+        logger.log(Level.INFO, "Admission control stopped: " + admitted.get() + " admitted, "
+                   + rejectedOverload.get() + " shed for overload, " + rejectedRateLimit.get() + " rate limited");
+    }
+}
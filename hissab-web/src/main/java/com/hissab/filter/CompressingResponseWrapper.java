@@ -0,0 +1,307 @@
+package com.hissab.filter;
+
+import jakarta.servlet.ServletOutputStream;
+import jakarta.servlet.WriteListener;
+import jakarta.servlet.http.HttpServletResponse;
+import jakarta.servlet.http.HttpServletResponseWrapper;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.util.Locale;
+import java.util.Set;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Response wrapper used by CompressionFilter. The body is held back until it reaches the
+ * size threshold; only then, and only for a compressible content type, is it gzipped.
+ * A smaller body is sent as is, with its exact Content-Length. A body of any other type,
+ * or one flushed before the threshold, is passed through unbuffered, so streamed
+ * responses (server-sent events, binary frames) are not delayed.
+ */
+final class CompressingResponseWrapper extends HttpServletResponseWrapper {
+
+    private enum Mode { BUFFERING, COMPRESSING, PASSING }
+
+    private final int minSize;
+    private final Set<String> mimeTypes;
+
+    private BodyStream stream;
+    private PrintWriter writer;
+    private long contentLength = -1;
+
+    CompressingResponseWrapper(HttpServletResponse response, int minSize, Set<String> mimeTypes) {
+        super(response);
+        this.minSize = minSize;
+        this.mimeTypes = mimeTypes;
+    }
+
+    @Override
+    public ServletOutputStream getOutputStream() {
+        if (writer != null) {
+            throw new IllegalStateException("getWriter() has already been called");
+        }
+        if (stream == null) {
+            stream = new BodyStream();
+        }
+        return stream;
+    }
+
+    @Override
+    public PrintWriter getWriter() throws IOException {
+        if (writer == null) {
+            if (stream != null) {
+                throw new IllegalStateException("getOutputStream() has already been called");
+            }
+            stream = new BodyStream();
+            writer = new PrintWriter(new OutputStreamWriter(stream, getCharacterEncoding()));
+        }
+        return writer;
+    }
+
+    // The length is only known to be right if the body goes out uncompressed
+    @Override
+    public void setContentLength(int length) {
+        setContentLengthLong(length);
+    }
+
+    @Override
+    public void setContentLengthLong(long length) {
+        contentLength = length;
+        if (stream != null && stream.mode == Mode.PASSING) {
+            super.setContentLengthLong(length);
+        }
+    }
+
+    @Override
+    public void setHeader(String name, String value) {
+        if ("Content-Length".equalsIgnoreCase(name)) {
+            setContentLengthLong(Long.parseLong(value.trim()));
+        } else {
+            super.setHeader(name, value);
+        }
+    }
+
+    @Override
+    public void addHeader(String name, String value) {
+        if ("Content-Length".equalsIgnoreCase(name)) {
+            setContentLengthLong(Long.parseLong(value.trim()));
+        } else {
+            super.addHeader(name, value);
+        }
+    }
+
+    @Override
+    public void flushBuffer() throws IOException {
+        if (writer != null) {
+            writer.flush();
+        }
+        if (stream != null) {
+            stream.flush();
+        } else {
+            super.flushBuffer();
+        }
+    }
+
+    @Override
+    public void reset() {
+        super.reset();
+        stream = null;
+        writer = null;
+        contentLength = -1;
+    }
+
+    @Override
+    public void resetBuffer() {
+        super.resetBuffer();
+        if (stream != null && stream.mode == Mode.BUFFERING) {
+            stream.buffer.reset();
+            stream.written = 0;
+        }
+    }
+
+    /**
+     * Sends whatever is still held back and ends the gzip stream; called once the response is complete
+     */
+    void finish() throws IOException {
+        if (stream == null) {
+            return;
+        }
+        stream.finishing = true;
+        if (writer != null) {
+            writer.flush();
+        }
+        stream.finish();
+    }
+
+    /**
+     * Body bytes written by the application, and sent after compression (0 if not compressed)
+     */
+    long[] compressedSizes() {
+        return stream != null && stream.mode == Mode.COMPRESSING
+               ? new long[] {stream.written, stream.sent.count}
+               : new long[] {0, 0};
+    }
+
+    private boolean compressible() {
+        String contentType = getContentType();
+        if (contentType == null || containsHeader("Content-Encoding")) {
+            return false;
+        }
+        int semicolon = contentType.indexOf(';');
+        String mimeType = (semicolon < 0 ? contentType : contentType.substring(0, semicolon)).trim();
+        return mimeTypes.contains(mimeType.toLowerCase(Locale.ROOT));
+    }
+
+    /**
+     * Counts the compressed bytes on their way to the container
+     */
+    private static final class CountingStream extends OutputStream {
+        private final OutputStream target;
+        long count;
+
+        CountingStream(OutputStream target) {
+            this.target = target;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            target.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            target.write(b, off, len);
+            count += len;
+        }
+
+        @Override
+        public void flush() throws IOException {
+            target.flush();
+        }
+    }
+
+    private final class BodyStream extends ServletOutputStream {
+        Mode mode = Mode.BUFFERING;
+        final ByteArrayOutputStream buffer = new ByteArrayOutputStream(Math.min(minSize, 8192));
+        CountingStream sent;
+        long written;
+        private OutputStream target;
+        private boolean finished;
+        // Set once the response is complete, when flushing the writer must not give up buffering
+        boolean finishing;
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] {(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            written += len;
+            if (mode == Mode.BUFFERING) {
+                // Decided as soon as the body reaches the threshold, or at once for a type never compressed
+                if (buffer.size() == 0 && !compressible()) {
+                    startPassing();
+                } else if (buffer.size() + len < minSize) {
+                    buffer.write(b, off, len);
+                    return;
+                } else if (compressible()) {
+                    startCompressing();
+                } else {
+                    startPassing();
+                }
+            }
+            target.write(b, off, len);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            if (mode == Mode.BUFFERING) {
+                if (finishing || buffer.size() == 0 && compressible()) {
+                    // Nothing to send yet, or the body is complete; committing the headers now would rule out compression
+                    return;
+                }
+                // The application wants what it wrote so far on the wire; don't hold it back
+                startPassing();
+            }
+            target.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            finishing = true;
+            finish();
+            getResponse().getOutputStream().close();
+        }
+
+        @Override
+        public boolean isReady() {
+            try {
+                return mode == Mode.BUFFERING || getResponse().getOutputStream().isReady();
+            } catch (IOException e) {
+                return false;
+            }
+        }
+
+        @Override
+        public void setWriteListener(WriteListener listener) {
+            try {
+                if (mode == Mode.BUFFERING) {
+                    startPassing();
+                }
+                getResponse().getOutputStream().setWriteListener(listener);
+            } catch (IOException e) {
+                throw new IllegalStateException("Cannot switch the response to non-blocking output", e);
+            }
+        }
+
+        void finish() throws IOException {
+            if (finished) {
+                return;
+            }
+            finished = true;
+            if (mode == Mode.BUFFERING) {
+                if (buffer.size() == 0) {
+                    // No body, or a HEAD response that only announces its length
+                    if (contentLength >= 0) {
+                        CompressingResponseWrapper.super.setContentLengthLong(contentLength);
+                    }
+                } else {
+                    if (compressible()) {
+                        CompressingResponseWrapper.super.addHeader("Vary", "Accept-Encoding");
+                    }
+                    CompressingResponseWrapper.super.setContentLengthLong(buffer.size());
+                    buffer.writeTo(getResponse().getOutputStream());
+                }
+                mode = Mode.PASSING;
+            } else if (mode == Mode.COMPRESSING) {
+                ((GZIPOutputStream) target).finish();
+                target.flush();
+            }
+        }
+
+        private void startCompressing() throws IOException {
+            mode = Mode.COMPRESSING;
+            CompressingResponseWrapper.super.setHeader("Content-Encoding", "gzip");
+            CompressingResponseWrapper.super.addHeader("Vary", "Accept-Encoding");
+            sent = new CountingStream(getResponse().getOutputStream());
+            target = new GZIPOutputStream(sent, 8192);
+            buffer.writeTo(target);
+            buffer.reset();
+        }
+
+        private void startPassing() throws IOException {
+            mode = Mode.PASSING;
+            if (contentLength >= 0) {
+                CompressingResponseWrapper.super.setContentLengthLong(contentLength);
+            }
+            target = getResponse().getOutputStream();
+            buffer.writeTo(target);
+            buffer.reset();
+        }
+    }
+}
@@ -0,0 +1,152 @@
+package com.hissab.filter;
+
+import jakarta.servlet.AsyncEvent;
+import jakarta.servlet.AsyncListener;
+import jakarta.servlet.Filter;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.FilterConfig;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.ServletRequest;
+import jakarta.servlet.ServletResponse;
+import jakarta.servlet.annotation.WebFilter;
+import jakarta.servlet.annotation.WebInitParam;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+import java.util.logging.Level;
+
+/**
+ * Gzips responses for clients that accept it (Accept-Encoding: gzip), so the WSDL, SOAP
+ * envelopes and JSON listings cross the network at a fraction of their size. Bodies under
+ * minSize bytes, such as most calculation results, are sent as is: compressing them costs
+ * more CPU than the few bytes it saves. Only the listed text types are compressed; binary
+ * frames, images and server-sent events pass through untouched.
+ */
+@WebFilter(
+    filterName = "CompressionFilter",
+    urlPatterns = {"/*"},
+    asyncSupported = true,
+    initParams = {
+        @WebInitParam(name = "minSize", value = "1024"),
+        @WebInitParam(name = "mimeTypes", value = "text/xml,text/html,text/plain,text/css,application/xml,"
+                                                  + "application/soap+xml,application/json,application/javascript")
+    }
+)
+public class CompressionFilter implements Filter {
+
+    private static final Logger logger = Logger.getLogger(CompressionFilter.class.getName());
+
+    private static final AtomicLong COMPRESSED_RESPONSES = new AtomicLong();
+    private static final AtomicLong BYTES_BEFORE = new AtomicLong();
+    private static final AtomicLong BYTES_AFTER = new AtomicLong();
+
+    private int minSize;
+    private final Set<String> mimeTypes = new HashSet<>();
+
+    @Override
+    public void init(FilterConfig config) {
+        String size = config.getInitParameter("minSize");
+        minSize = size != null ? Integer.parseInt(size.trim()) : 1024;
+        String types = config.getInitParameter("mimeTypes");
+        if (types != null) {
+            for (String type : types.split(",")) {
+                mimeTypes.add(type.trim().toLowerCase(Locale.ROOT));
+            }
+        }
+        logger.log(Level.INFO, "Response compression enabled for bodies of " + minSize + " bytes or more");
+    }
+
+    @Override
+    public void doFilter(ServletRequest req, ServletResponse res, FilterChain chain)
+            throws IOException, ServletException {
+        HttpServletRequest request = (HttpServletRequest) req;
+
+        // WebSocket handshakes have no body to compress
+        if (!acceptsGzip(request.getHeader("Accept-Encoding")) || request.getHeader("Upgrade") != null) {
+            chain.doFilter(req, res);
+            return;
+        }
+
+        CompressingResponseWrapper response =
+            new CompressingResponseWrapper((HttpServletResponse) res, minSize, mimeTypes);
+        chain.doFilter(req, response);
+
+        if (request.isAsyncStarted()) {
+            // The body is still being written; finish it when the async request completes
+            request.getAsyncContext().addListener(new AsyncListener() {
+                @Override
+                public void onComplete(AsyncEvent event) throws IOException {
+                    finish(response);
+                }
+
+                @Override
+                public void onTimeout(AsyncEvent event) {
+                }
+
+                @Override
+                public void onError(AsyncEvent event) {
+                }
+
+                @Override
+                public void onStartAsync(AsyncEvent event) {
+                }
+            });
+        } else {
+            finish(response);
+        }
+    }
+
+    private static void finish(CompressingResponseWrapper response) throws IOException {
+        response.finish();
+        long[] sizes = response.compressedSizes();
+        if (sizes[0] > 0) {
+            COMPRESSED_RESPONSES.incrementAndGet();
+            BYTES_BEFORE.addAndGet(sizes[0]);
+            BYTES_AFTER.addAndGet(sizes[1]);
+        }
+    }
+
+    /**
+     * Whether gzip is among the accepted encodings with a non-zero quality
+     */
+    static boolean acceptsGzip(String acceptEncoding) {
+        if (acceptEncoding == null) {
+            return false;
+        }
+        for (String coding : acceptEncoding.split(",")) {
+            String[] parts = coding.trim().split(";");
+            String name = parts[0].trim().toLowerCase(Locale.ROOT);
+            if (!name.equals("gzip") && !name.equals("x-gzip")) {
+                continue;
+            }
+            for (int i = 1; i < parts.length; i++) {
+                String parameter = parts[i].trim();
+                if (parameter.startsWith("q=")) {
+                    try {
+                        return Double.parseDouble(parameter.substring(2)) > 0;
+                    } catch (NumberFormatException e) {
+                        return false;
+                    }
+                }
+            }
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Describes how much the compressed responses shrank, for the metrics endpoint
+     */
+    public static String getCompressionReport() {
+        long before = BYTES_BEFORE.get();
+        return String.format("Compression: %d responses gzipped, %d bytes sent for %d (%.0f%% saved)",
+                             COMPRESSED_RESPONSES.get(), BYTES_AFTER.get(), before,
+                             before > 0 ? 100.0 * (before - BYTES_AFTER.get()) / before : 0.0);
+    }
+}
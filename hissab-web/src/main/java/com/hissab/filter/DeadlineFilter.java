@@ -0,0 +1,68 @@
+package com.hissab.filter;
+
+import com.hissab.ejb.RequestDeadline;
+
+import jakarta.servlet.Filter;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.ServletRequest;
+import jakarta.servlet.ServletResponse;
+import jakarta.servlet.annotation.WebFilter;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+
+import java.io.IOException;
+import java.util.logging.Logger;
+import java.util.logging.Level;
+
+/**
+ * Turns the client's X-Request-Timeout header (milliseconds) into a request-scoped
+ * deadline that CalculEJB and TraceEJB check before doing work.
+ */
+@WebFilter(
+    filterName = "DeadlineFilter",
+    urlPatterns = {"/HissabService", "/api/*", "/binary"},
+    // The trace feed under /api streams its events asynchronously
+    asyncSupported = true
+)
+public class DeadlineFilter implements Filter {
+    
+    private static final Logger logger = Logger.getLogger(DeadlineFilter.class.getName());
+    
+    public static final String TIMEOUT_HEADER = "X-Request-Timeout";
+    
+    // Longer timeouts are clamped, so adding one to the clock cannot overflow
+    private static final long MAX_TIMEOUT_MILLIS = Long.getLong("hissab.deadline.maxTimeoutMillis", 600_000);
+    
+    @Override
+    public void doFilter(ServletRequest req, ServletResponse res, FilterChain chain)
+            throws IOException, ServletException {
+        String timeoutHeader = ((HttpServletRequest) req).getHeader(TIMEOUT_HEADER);
+        if (timeoutHeader == null) {
+            chain.doFilter(req, res);
+            return;
+        }
+        
+        long timeoutMillis;
+        try {
+            timeoutMillis = Long.parseLong(timeoutHeader.trim());
+        } catch (NumberFormatException e) {
+            logger.log(Level.FINE, "Ignoring malformed " + TIMEOUT_HEADER + " header: " + timeoutHeader);
+            chain.doFilter(req, res);
+            return;
+        }
+        
+        if (timeoutMillis <= 0) {
+            ((HttpServletResponse) res).sendError(HttpServletResponse.SC_GATEWAY_TIMEOUT,
+                                                  "Request deadline already exceeded");
+            return;
+        }
+        
+        RequestDeadline.set(System.currentTimeMillis() + Math.min(timeoutMillis, MAX_TIMEOUT_MILLIS));
+        try {
+            chain.doFilter(req, res);
+        } finally {
+            RequestDeadline.clear();
+        }
+    }
+}
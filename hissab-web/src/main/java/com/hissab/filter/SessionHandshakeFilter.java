@@ -0,0 +1,39 @@
+package com.hissab.filter;
+
+import jakarta.servlet.Filter;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.ServletRequest;
+import jakarta.servlet.ServletResponse;
+import jakarta.servlet.annotation.WebFilter;
+import jakarta.servlet.http.HttpServletRequest;
+
+import java.io.IOException;
+
+/**
+ * Records who opens an exercise session. The WebSocket API does not expose the client's
+ * address, but the handshake is still an HTTP request: this filter stores the same client
+ * key AdmissionControlFilter uses in the HTTP session, where the endpoint's configurator
+ * reads it (see ExerciseSessionEndpoint). Set by the server, so a client cannot choose it.
+ */
+@WebFilter(
+    filterName = "SessionHandshakeFilter",
+    urlPatterns = {"/session"}
+)
+public class SessionHandshakeFilter implements Filter {
+
+    /**
+     * HTTP session attribute holding the client key of the WebSocket handshake
+     */
+    public static final String CLIENT_KEY_ATTRIBUTE = "com.hissab.session.clientKey";
+
+    @Override
+    public void doFilter(ServletRequest req, ServletResponse res, FilterChain chain)
+            throws IOException, ServletException {
+        HttpServletRequest request = (HttpServletRequest) req;
+        if ("websocket".equalsIgnoreCase(request.getHeader("Upgrade"))) {
+            request.getSession(true).setAttribute(CLIENT_KEY_ATTRIBUTE, AdmissionControlFilter.clientKey(request));
+        }
+        chain.doFilter(req, res);
+    }
+}
@@ -0,0 +1,109 @@
+package com.hissab.filter;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Per-client token-bucket rate limiter.
+ * Each client key gets a bucket of {@code burst} tokens refilled at {@code ratePerSecond}.
+ */
+public class TokenBucketRateLimiter {
+    
+    // Idle buckets are dropped once the map grows past this size; if that is not enough, the
+    // least recently used ones go too, down to three quarters of it
+    private static final int MAX_TRACKED_CLIENTS = 10_000;
+    
+    private final double ratePerNano;
+    private final double burst;
+    private final Map<String, Bucket> buckets = new ConcurrentHashMap<>();
+    
+    public TokenBucketRateLimiter(double ratePerSecond, double burst) {
+        this.ratePerNano = ratePerSecond / 1_000_000_000d;
+        this.burst = burst;
+    }
+    
+    /**
+     * Takes one token from the client's bucket
+     * @param clientKey Client identity (authenticated user or remote address)
+     * @return true if the request is within the client's rate
+     */
+    public boolean tryConsume(String clientKey) {
+        if (buckets.size() > MAX_TRACKED_CLIENTS) {
+            evictIdleBuckets();
+        }
+        return buckets.computeIfAbsent(clientKey, key -> new Bucket(burst)).tryConsume();
+    }
+    
+    /**
+     * Seconds until the client's bucket holds a token again, for the Retry-After header
+     */
+    public long secondsUntilNextToken(String clientKey) {
+        Bucket bucket = buckets.get(clientKey);
+        if (bucket == null) {
+            return 0;
+        }
+        return (long) Math.ceil(bucket.nanosUntilToken() / 1_000_000_000d);
+    }
+    
+    private synchronized void evictIdleBuckets() {
+        if (buckets.size() <= MAX_TRACKED_CLIENTS) {
+            // Another thread just evicted
+            return;
+        }
+        for (Iterator<Bucket> it = buckets.values().iterator(); it.hasNext(); ) {
+            if (it.next().isFull()) {
+                it.remove();
+            }
+        }
+        if (buckets.size() > MAX_TRACKED_CLIENTS) {
+            // Many clients keep their buckets partly drained; forgetting one only lets it burst again
+            // Snapshot the access times, which keep changing while the list is sorted
+            List<Map.Entry<String, Long>> lastUsed = new ArrayList<>(buckets.size());
+            buckets.forEach((key, bucket) -> lastUsed.add(new AbstractMap.SimpleEntry<>(key, bucket.lastUsedNanos)));
+            lastUsed.sort((a, b) -> Long.compare(a.getValue(), b.getValue()));
+            for (int i = 0; i < lastUsed.size() - MAX_TRACKED_CLIENTS * 3 / 4; i++) {
+                buckets.remove(lastUsed.get(i).getKey());
+            }
+        }
+    }
+    
+    private final class Bucket {
+        private double tokens;
+        private long lastRefillNanos = System.nanoTime();
+        private volatile long lastUsedNanos = lastRefillNanos;
+        
+        Bucket(double tokens) {
+            this.tokens = tokens;
+        }
+        
+        synchronized boolean tryConsume() {
+            lastUsedNanos = System.nanoTime();
+            refill();
+            if (tokens >= 1) {
+                tokens -= 1;
+                return true;
+            }
+            return false;
+        }
+        
+        synchronized long nanosUntilToken() {
+            refill();
+            return tokens >= 1 ? 0 : (long) ((1 - tokens) / ratePerNano);
+        }
+        
+        synchronized boolean isFull() {
+            refill();
+            return tokens >= burst;
+        }
+        
+        private void refill() {
+            long now = System.nanoTime();
+            tokens = Math.min(burst, tokens + (now - lastRefillNanos) * ratePerNano);
+            lastRefillNanos = now;
+        }
+    }
+}
@@ -0,0 +1,126 @@
+package com.hissab.filter;
+
+import com.hissab.service.BoundedInputStream;
+import com.hissab.service.ImageUploadBuffer;
+
+import jakarta.servlet.Filter;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.ServletInputStream;
+import jakarta.servlet.ServletRequest;
+import jakarta.servlet.ServletResponse;
+import jakarta.servlet.ReadListener;
+import jakarta.servlet.annotation.WebFilter;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletRequestWrapper;
+import jakarta.servlet.http.HttpServletResponse;
+
+import java.io.IOException;
+import java.util.logging.Logger;
+import java.util.logging.Level;
+
+/**
+ * Bounds REST image uploads before JAX-RS reads them. The multipart body is parsed and
+ * buffered by Jersey before the resource method runs, so a limit checked there comes
+ * too late. Requests announcing a larger Content-Length are refused with 413 unread;
+ * chunked ones are cut off as soon as they pass the limit.
+ */
+@WebFilter(
+    filterName = "UploadLimitFilter",
+    urlPatterns = {"/api/math/calculate/image"}
+)
+public class UploadLimitFilter implements Filter {
+
+    private static final Logger logger = Logger.getLogger(UploadLimitFilter.class.getName());
+
+    // The image plus the multipart boundaries and part headers
+    private static final long MAX_UPLOAD_BYTES = ImageUploadBuffer.MAX_IMAGE_BYTES + 64 * 1024;
+
+    @Override
+    public void doFilter(ServletRequest req, ServletResponse res, FilterChain chain)
+            throws IOException, ServletException {
+        HttpServletRequest request = (HttpServletRequest) req;
+        HttpServletResponse response = (HttpServletResponse) res;
+
+        if (request.getContentLengthLong() > MAX_UPLOAD_BYTES) {
+            reject(response);
+            return;
+        }
+
+        BoundedRequest bounded = new BoundedRequest(request);
+        chain.doFilter(bounded, response);
+
+        // Jersey reports a failed read as a bad request of its own; answer with the real reason if we still can
+        if (bounded.isExceeded()) {
+            logger.log(Level.WARNING, "Rejected image upload over " + MAX_UPLOAD_BYTES + " bytes");
+            if (!response.isCommitted()) {
+                response.reset();
+                reject(response);
+            }
+        }
+    }
+
+    private static void reject(HttpServletResponse response) throws IOException {
+        response.setStatus(HttpServletResponse.SC_REQUEST_ENTITY_TOO_LARGE);
+        response.setContentType("text/plain; charset=UTF-8");
+        response.getWriter().write("Error: Image exceeds the maximum size of " + ImageUploadBuffer.MAX_IMAGE_BYTES + " bytes");
+    }
+
+    /**
+     * Hands out the request body through a BoundedInputStream
+     */
+    private static final class BoundedRequest extends HttpServletRequestWrapper {
+        private BoundedServletInputStream stream;
+
+        BoundedRequest(HttpServletRequest request) {
+            super(request);
+        }
+
+        @Override
+        public ServletInputStream getInputStream() throws IOException {
+            if (stream == null) {
+                stream = new BoundedServletInputStream(super.getInputStream());
+            }
+            return stream;
+        }
+
+        boolean isExceeded() {
+            return stream != null && stream.bounded.isExceeded();
+        }
+    }
+
+    private static final class BoundedServletInputStream extends ServletInputStream {
+        private final ServletInputStream original;
+        final BoundedInputStream bounded;
+
+        BoundedServletInputStream(ServletInputStream original) {
+            this.original = original;
+            this.bounded = new BoundedInputStream(original, MAX_UPLOAD_BYTES);
+        }
+
+        @Override
+        public int read() throws IOException {
+            return bounded.read();
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            return bounded.read(b, off, len);
+        }
+
+        @Override
+        public boolean isFinished() {
+            return original.isFinished();
+        }
+
+        @Override
+        public boolean isReady() {
+            return original.isReady();
+        }
+
+        @Override
+        public void setReadListener(ReadListener listener) {
+            original.setReadListener(listener);
+        }
+    }
+}
@@ -0,0 +1,142 @@
+package com.hissab.service;
+
+import com.hissab.ejb.CalculEJBLocal;
+import com.hissab.ejb.DeadlineExceededException;
+import com.hissab.ejb.TraceEJBLocal;
+import com.hissab.entity.Trace;
+
+import jakarta.ejb.EJB;
+import jakarta.servlet.annotation.WebServlet;
+import jakarta.servlet.http.HttpServlet;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+import java.util.logging.Level;
+
+/**
+ * Binary calculation endpoint for high-volume machine clients (POST /binary, content type
+ * application/x-hissab-frames). The body is a stream of BinaryFrames; each is answered
+ * by a reply frame with the same id, without the SOAP envelope or JAX-RS negotiation.
+ * A request may carry one frame or a whole batch. Frames are answered as they are read,
+ * and replies are flushed whenever no further request bytes have arrived, so a client
+ * streaming its body over HTTP/2 can pipeline requests on one stream; separate batches
+ * can run as concurrent streams of one connection.
+ * Calculations are evaluated by CalculEJB and traced in batches through TraceEJB.logTraces.
+ */
+@WebServlet(
+    name = "BinaryCalculationServlet",
+    urlPatterns = {"/binary"}
+)
+public class BinaryCalculationServlet extends HttpServlet {
+
+    private static final Logger logger = Logger.getLogger(BinaryCalculationServlet.class.getName());
+
+    // Traces are written once this many calculations of a request have been answered
+    private static final int TRACE_BATCH = 100;
+
+    @EJB
+    private CalculEJBLocal calculEJB;
+
+    @EJB
+    private TraceEJBLocal traceEJB;
+
+    private final AtomicLong frames = new AtomicLong();
+
+    @Override
+    protected void doPost(HttpServletRequest request, HttpServletResponse response) throws IOException {
+        String contentType = request.getContentType();
+        if (contentType == null || !contentType.startsWith(BinaryFrames.CONTENT_TYPE)) {
+            response.sendError(HttpServletResponse.SC_UNSUPPORTED_MEDIA_TYPE,
+                               "Expected " + BinaryFrames.CONTENT_TYPE);
+            return;
+        }
+        if (calculEJB == null) {
+            response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE, "CalculEJB is not available");
+            return;
+        }
+
+        response.setContentType(BinaryFrames.CONTENT_TYPE);
+        InputStream in = request.getInputStream();
+        OutputStream out = new BufferedOutputStream(response.getOutputStream(), 8192);
+        List<Trace> traces = new ArrayList<>();
+        int count = 0;
+        try {
+            BinaryFrames.Frame frame;
+            while ((frame = BinaryFrames.read(in)) != null) {
+                answer(frame, out, traces);
+                count++;
+                if (traces.size() >= TRACE_BATCH) {
+                    logTraces(traces);
+                }
+                if (in.available() == 0) {
+                    out.flush();
+                }
+            }
+            out.flush();
+        } catch (IOException e) {
+            // A malformed frame, or the client went away
+            logger.log(Level.WARNING, "Binary request stopped after " + count + " frames: " + e.getMessage());
+            if (!response.isCommitted()) {
+                response.reset();
+                response.sendError(HttpServletResponse.SC_BAD_REQUEST, e.getMessage());
+            }
+        } finally {
+            logTraces(traces);
+            frames.addAndGet(count);
+        }
+        logger.log(Level.FINE, "Answered " + count + " binary frames");
+    }
+
+    private void answer(BinaryFrames.Frame frame, OutputStream out, List<Trace> traces) throws IOException {
+        try {
+            switch (frame.getKind()) {
+                case BinaryFrames.CALCULATE:
+                    String expression = frame.getText();
+                    String result = calculEJB.evaluateExpression(expression);
+                    traces.add(new Trace(expression.trim(), result));
+                    BinaryFrames.write(out, BinaryFrames.RESULT, frame.getId(), result);
+                    break;
+                case BinaryFrames.VALIDATE:
+                    boolean valid = calculEJB.validateExpression(frame.getText());
+                    BinaryFrames.write(out, BinaryFrames.VALIDITY, frame.getId(), new byte[] {(byte) (valid ? 1 : 0)});
+                    break;
+                default:
+                    BinaryFrames.write(out, BinaryFrames.ERROR, frame.getId(), "Unknown frame kind: " + frame.getKind());
+            }
+        } catch (DeadlineExceededException e) {
+            BinaryFrames.write(out, BinaryFrames.ERROR, frame.getId(), e.getMessage());
+        } catch (RuntimeException e) {
+            logger.log(Level.SEVERE, "Error processing binary frame " + frame.getId(), e);
+            BinaryFrames.write(out, BinaryFrames.ERROR, frame.getId(), "Calculation failed - " + e.getMessage());
+        }
+    }
+
+    /**
+     * Stores and clears the collected traces; a failure is logged, the calculations still stand
+     */
+    private void logTraces(List<Trace> traces) {
+        if (traces.isEmpty() || traceEJB == null) {
+            traces.clear();
+            return;
+        }
+        try {
+            traceEJB.logTraces(new ArrayList<>(traces));
+        } catch (Exception e) {
+            logger.log(Level.WARNING, "Failed to log " + traces.size() + " binary traces (calculations still succeeded): "
+                       + e.getMessage());
+        }
+        traces.clear();
+    }
+
+    @Override
+    public void destroy() {
+        logger.log(Level.INFO, "BinaryCalculationServlet stopped after answering " + frames.get() + " frames");
+    }
+}
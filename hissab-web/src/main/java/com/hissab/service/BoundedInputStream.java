@@ -0,0 +1,68 @@
+package com.hissab.service;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Request body stream that fails with ImageTooLargeException as soon as more than the
+ * allowed number of bytes has been read. Unlike a Content-Length check it also bounds
+ * chunked requests, and the body is never read past the limit.
+ */
+public class BoundedInputStream extends FilterInputStream {
+
+    private final long maxBytes;
+    private long count;
+    private boolean exceeded;
+
+    public BoundedInputStream(InputStream in, long maxBytes) {
+        super(in);
+        this.maxBytes = maxBytes;
+    }
+
+    @Override
+    public int read() throws IOException {
+        int b = super.read();
+        if (b >= 0) {
+            counted(1);
+        }
+        return b;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        // Never ask for more than one byte past the limit
+        int n = super.read(b, off, (int) Math.min(len, Math.max(1, maxBytes - count + 1)));
+        if (n > 0) {
+            counted(n);
+        }
+        return n;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        long skipped = super.skip(Math.min(n, Math.max(1, maxBytes - count + 1)));
+        counted(skipped);
+        return skipped;
+    }
+
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+
+    /**
+     * Whether the body went past the limit, even if the exception was swallowed by a caller
+     */
+    public boolean isExceeded() {
+        return exceeded;
+    }
+
+    private void counted(long n) throws ImageUploadBuffer.ImageTooLargeException {
+        count += n;
+        if (count > maxBytes) {
+            exceeded = true;
+            throw new ImageUploadBuffer.ImageTooLargeException("Request exceeds the maximum size of " + maxBytes + " bytes");
+        }
+    }
+}
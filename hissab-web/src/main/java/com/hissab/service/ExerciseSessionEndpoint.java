@@ -0,0 +1,212 @@
+package com.hissab.service;
+
+import com.hissab.ejb.CalculEJBLocal;
+import com.hissab.ejb.DeadlineExceededException;
+import com.hissab.ejb.RequestDeadline;
+import com.hissab.ejb.TraceEJBLocal;
+import com.hissab.filter.AdmissionControlFilter;
+import com.hissab.filter.SessionHandshakeFilter;
+
+import jakarta.ejb.EJB;
+import jakarta.servlet.http.HttpSession;
+import jakarta.websocket.CloseReason;
+import jakarta.websocket.EndpointConfig;
+import jakarta.websocket.HandshakeResponse;
+import jakarta.websocket.OnClose;
+import jakarta.websocket.OnError;
+import jakarta.websocket.OnMessage;
+import jakarta.websocket.OnOpen;
+import jakarta.websocket.Session;
+import jakarta.websocket.server.HandshakeRequest;
+import jakarta.websocket.server.ServerEndpoint;
+import jakarta.websocket.server.ServerEndpointConfig;
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+import java.util.logging.Level;
+
+/**
+ * One WebSocket connection per exercise session (ws://host/hissab/session), carrying every
+ * calculation and validation of the session instead of one HTTP request each.
+ * Each text frame is one message: a letter for its kind, the id the client chose for it,
+ * a space and the payload.
+ * <pre>
+ *   client: C&lt;id&gt; &lt;expression&gt;   calculate        server: R&lt;id&gt; &lt;result&gt;
+ *   client: V&lt;id&gt; &lt;expression&gt;   validate         server: R&lt;id&gt; 1 (valid) or 0
+ *                                               server: E&lt;id&gt; &lt;message&gt;  request failed
+ * </pre>
+ * Replies carry the request's id, so a client may send several requests without waiting.
+ * Calculations are evaluated by CalculEJB and traced like REST calculations.
+ * Messages do not pass through the servlet filters, so each one is admitted by
+ * AdmissionControlFilter here and runs under a deadline of hissab.session.messageTimeoutMillis.
+ * Rate limits and the per-client session cap are keyed on the client key that
+ * SessionHandshakeFilter recorded for the handshake.
+ */
+@ServerEndpoint(value = "/session", configurator = ExerciseSessionEndpoint.HandshakeConfigurator.class)
+public class ExerciseSessionEndpoint {
+
+    private static final Logger logger = Logger.getLogger(ExerciseSessionEndpoint.class.getName());
+
+    private static final int MAX_SESSIONS = Integer.getInteger("hissab.session.maxSessions", 2000);
+    private static final int MAX_SESSIONS_PER_CLIENT = Integer.getInteger("hissab.session.maxSessionsPerClient", 20);
+    private static final long IDLE_TIMEOUT_MILLIS = Long.getLong("hissab.session.idleTimeoutMillis", 300_000);
+    private static final int MAX_MESSAGE_LENGTH = 8192;
+    private static final long MESSAGE_TIMEOUT_MILLIS = Long.getLong("hissab.session.messageTimeoutMillis", 30_000);
+
+    // Marks a session counted in OPEN_SESSIONS, so refused ones are not uncounted on close
+    private static final String COUNTED = "hissab.session.counted";
+    private static final String CLIENT_KEY = "hissab.session.clientKey";
+    // Handshakes that did not pass SessionHandshakeFilter share one key rather than escaping the limits
+    private static final String UNKNOWN_CLIENT = "unknown";
+
+    private static final AtomicInteger OPEN_SESSIONS = new AtomicInteger();
+    private static final Map<String, Integer> SESSIONS_PER_CLIENT = new ConcurrentHashMap<>();
+    private static final AtomicLong REFUSED_SESSIONS = new AtomicLong();
+    private static final AtomicLong MESSAGES = new AtomicLong();
+
+    @EJB
+    private CalculEJBLocal calculEJB;
+
+    @EJB
+    private TraceEJBLocal traceEJB;
+
+    @OnOpen
+    public void open(Session session, EndpointConfig config) throws IOException {
+        Object clientKey = config.getUserProperties().get(CLIENT_KEY);
+        String key = clientKey != null ? clientKey.toString() : UNKNOWN_CLIENT;
+        if (SESSIONS_PER_CLIENT.merge(key, 1, Integer::sum) > MAX_SESSIONS_PER_CLIENT) {
+            release(key);
+            REFUSED_SESSIONS.incrementAndGet();
+            session.close(new CloseReason(CloseReason.CloseCodes.TRY_AGAIN_LATER, "Too many sessions from this client"));
+            return;
+        }
+        if (OPEN_SESSIONS.incrementAndGet() > MAX_SESSIONS) {
+            OPEN_SESSIONS.decrementAndGet();
+            release(key);
+            REFUSED_SESSIONS.incrementAndGet();
+            session.close(new CloseReason(CloseReason.CloseCodes.TRY_AGAIN_LATER, "Too many sessions"));
+            return;
+        }
+        session.getUserProperties().put(CLIENT_KEY, key);
+        session.getUserProperties().put(COUNTED, Boolean.TRUE);
+        session.setMaxIdleTimeout(IDLE_TIMEOUT_MILLIS);
+        logger.log(Level.FINE, "Exercise session " + session.getId() + " opened");
+    }
+
+    @OnMessage(maxMessageSize = MAX_MESSAGE_LENGTH)
+    public String message(Session session, String frame) {
+        MESSAGES.incrementAndGet();
+        int space = frame.indexOf(' ');
+        if (space < 2) {
+            // No id to answer to
+            return "E Malformed message";
+        }
+        String id = frame.substring(1, space);
+        String payload = frame.substring(space + 1);
+
+        AdmissionControlFilter admission = AdmissionControlFilter.getInstance();
+        long startNanos = 0;
+        if (admission != null) {
+            if (!admission.tryConsumeRate(clientKey(session))) {
+                return "E" + id + " Rate limit exceeded";
+            }
+            startNanos = admission.tryAcquire();
+            if (startNanos < 0) {
+                return "E" + id + " Server overloaded, retry later";
+            }
+        }
+
+        RequestDeadline.set(System.currentTimeMillis() + MESSAGE_TIMEOUT_MILLIS);
+        boolean failed = false;
+        try {
+            switch (frame.charAt(0)) {
+                case 'C':
+                    return "R" + id + " " + calculate(payload);
+                case 'V':
+                    return "R" + id + " " + (calculEJB.validateExpression(payload) ? "1" : "0");
+                default:
+                    return "E" + id + " Unknown message kind: " + frame.charAt(0);
+            }
+        } catch (DeadlineExceededException e) {
+            failed = true;
+            logger.log(Level.FINE, "Session message abandoned: " + e.getMessage());
+            return "E" + id + " " + e.getMessage();
+        } catch (Exception e) {
+            failed = true;
+            logger.log(Level.SEVERE, "Error processing session message: " + frame, e);
+            return "E" + id + " " + e.getMessage();
+        } finally {
+            RequestDeadline.clear();
+            if (admission != null) {
+                admission.release(startNanos, failed);
+            }
+        }
+    }
+
+    /**
+     * The key of the client that opened the session: its user, else its address
+     */
+    private static String clientKey(Session session) {
+        Object key = session.getUserProperties().get(CLIENT_KEY);
+        return key != null ? key.toString() : UNKNOWN_CLIENT;
+    }
+
+    private static void release(String clientKey) {
+        SESSIONS_PER_CLIENT.computeIfPresent(clientKey, (key, count) -> count > 1 ? count - 1 : null);
+    }
+
+    private String calculate(String expression) {
+        String result = calculEJB.evaluateExpression(expression);
+
+        // Don't fail the calculation if the trace cannot be stored
+        try {
+            traceEJB.logTrace(expression.trim(), result);
+        } catch (Exception e) {
+            logger.log(Level.WARNING, "Failed to log trace to database (calculation still succeeded): " + e.getMessage());
+        }
+        return result;
+    }
+
+    @OnError
+    public void error(Session session, Throwable error) {
+        logger.log(Level.FINE, "Exercise session " + session.getId() + " failed", error);
+    }
+
+    @OnClose
+    public void close(Session session, CloseReason reason) {
+        if (session.getUserProperties().remove(COUNTED) != null) {
+            OPEN_SESSIONS.decrementAndGet();
+            release(clientKey(session));
+        }
+        logger.log(Level.FINE, "Exercise session " + session.getId() + " closed: " + reason);
+    }
+
+    /**
+     * Describes the open sessions, for the metrics endpoint
+     */
+    public static String getSessionReport() {
+        return String.format("Exercise sessions: %d open of %d, %d refused, %d messages",
+                             OPEN_SESSIONS.get(), MAX_SESSIONS, REFUSED_SESSIONS.get(), MESSAGES.get());
+    }
+
+    /**
+     * Copies the client key SessionHandshakeFilter stored in the HTTP session into the
+     * endpoint configuration's user properties, which Jakarta WebSocket 2.1 copies for
+     * each connection
+     */
+    public static class HandshakeConfigurator extends ServerEndpointConfig.Configurator {
+        @Override
+        public void modifyHandshake(ServerEndpointConfig config, HandshakeRequest request, HandshakeResponse response) {
+            HttpSession httpSession = (HttpSession) request.getHttpSession();
+            Object clientKey = httpSession != null ? httpSession.getAttribute(SessionHandshakeFilter.CLIENT_KEY_ATTRIBUTE) : null;
+            if (clientKey != null) {
+                config.getUserProperties().put(CLIENT_KEY, clientKey);
+            } else {
+                config.getUserProperties().remove(CLIENT_KEY);
+            }
+        }
+    }
+}
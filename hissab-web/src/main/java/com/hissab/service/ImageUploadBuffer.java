@@ -0,0 +1,134 @@
+package com.hissab.service;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.logging.Logger;
+import java.util.logging.Level;
+
+/**
+ * Bounded holder for an uploaded image.
+ * Small images stay in memory; larger ones spill to a temp file. Reading stops with
+ * ImageTooLargeException as soon as the configured maximum is exceeded, so oversized
+ * uploads are never read in full.
+ */
+public class ImageUploadBuffer implements Closeable {
+    
+    private static final Logger logger = Logger.getLogger(ImageUploadBuffer.class.getName());
+    
+    /** Largest accepted image; override with -Dhissab.image.maxBytes */
+    public static final long MAX_IMAGE_BYTES = Long.getLong("hissab.image.maxBytes", 5L * 1024 * 1024);
+    
+    // Images up to this size are kept in memory
+    private static final int MEMORY_THRESHOLD_BYTES = 256 * 1024;
+    
+    private static final int COPY_BUFFER_SIZE = 8192;
+    
+    private final byte[] memory;
+    private final Path file;
+    private final long size;
+    
+    private ImageUploadBuffer(byte[] memory, Path file, long size) {
+        this.memory = memory;
+        this.file = file;
+        this.size = size;
+    }
+    
+    /**
+     * Thrown when an upload exceeds the configured maximum
+     */
+    public static class ImageTooLargeException extends IOException {
+        
+        private static final long serialVersionUID = 1L;
+        
+        public ImageTooLargeException(long maxBytes) {
+            this("Image exceeds the maximum size of " + maxBytes + " bytes");
+        }
+        
+        public ImageTooLargeException(String message) {
+            super(message);
+        }
+    }
+    
+    /**
+     * Streams an image into a new buffer
+     * @param in The image bytes; read until end of stream
+     * @param maxBytes Largest accepted size
+     * @return The filled buffer
+     * @throws ImageTooLargeException if more than maxBytes are available
+     */
+    public static ImageUploadBuffer read(InputStream in, long maxBytes) throws IOException {
+        ByteArrayOutputStream head = new ByteArrayOutputStream();
+        byte[] chunk = new byte[COPY_BUFFER_SIZE];
+        long total = 0;
+        int n;
+        
+        while ((n = in.read(chunk)) != -1) {
+            total += n;
+            if (total > maxBytes) {
+                throw new ImageTooLargeException(maxBytes);
+            }
+            head.write(chunk, 0, n);
+            if (head.size() > MEMORY_THRESHOLD_BYTES) {
+                return spillToFile(head, in, total, maxBytes);
+            }
+        }
+        
+        return new ImageUploadBuffer(head.toByteArray(), null, total);
+    }
+    
+    /**
+     * Wraps bytes that are already in memory (e.g. decoded inline base64)
+     */
+    public static ImageUploadBuffer of(byte[] data, long maxBytes) throws IOException {
+        if (data.length > maxBytes) {
+            throw new ImageTooLargeException(maxBytes);
+        }
+        return new ImageUploadBuffer(data, null, data.length);
+    }
+    
+    private static ImageUploadBuffer spillToFile(ByteArrayOutputStream head, InputStream in,
+                                                 long total, long maxBytes) throws IOException {
+        Path file = Files.createTempFile("hissab-upload-", ".img");
+        try (OutputStream out = Files.newOutputStream(file)) {
+            head.writeTo(out);
+            byte[] chunk = new byte[COPY_BUFFER_SIZE];
+            int n;
+            while ((n = in.read(chunk)) != -1) {
+                total += n;
+                if (total > maxBytes) {
+                    throw new ImageTooLargeException(maxBytes);
+                }
+                out.write(chunk, 0, n);
+            }
+        } catch (IOException e) {
+            Files.deleteIfExists(file);
+            throw e;
+        }
+        logger.log(Level.FINE, "Image upload of " + total + " bytes spilled to " + file);
+        return new ImageUploadBuffer(null, file, total);
+    }
+    
+    public long size() {
+        return size;
+    }
+    
+    /**
+     * Opens a fresh stream over the buffered image
+     */
+    public InputStream openStream() throws IOException {
+        return memory != null ? new ByteArrayInputStream(memory) : Files.newInputStream(file);
+    }
+    
+    @Override
+    public void close() throws IOException {
+        if (file != null) {
+            Files.deleteIfExists(file);
+        }
+    }
+}
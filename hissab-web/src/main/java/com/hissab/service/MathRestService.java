@@ -1,13 +1,41 @@
 package com.hissab.service;
 
 import com.hissab.ejb.CalculEJBLocal;
+import com.hissab.ejb.DeadlineExceededException;
+import com.hissab.ejb.HealthEJBLocal;
+import com.hissab.ejb.HealthSnapshot;
+import com.hissab.ejb.MetricsEJBLocal;
+import com.hissab.ejb.TraceArchiveEJBLocal;
+import com.hissab.ejb.TraceCacheEJBLocal;
+import com.hissab.ejb.TraceDictionaryEJBLocal;
 import com.hissab.ejb.TraceEJBLocal;
+import com.hissab.ejb.TraceFeedEJBLocal;
+import com.hissab.ejb.TraceFeedListener;
+import com.hissab.ejb.TraceQueryPlanEJBLocal;
+import com.hissab.ejb.TraceReplicaEJBLocal;
+import com.hissab.ejb.TraceRetentionEJBLocal;
+import com.hissab.ejb.TraceRow;
+import com.hissab.entity.TraceSource;
+import com.hissab.filter.CompressionFilter;
 
 import jakarta.ejb.EJB;
+import jakarta.json.Json;
+import jakarta.json.JsonArrayBuilder;
+import jakarta.json.JsonObjectBuilder;
 import jakarta.ws.rs.*;
+import jakarta.ws.rs.core.Context;
+import jakarta.ws.rs.core.EntityPart;
 import jakarta.ws.rs.core.MediaType;
 import jakarta.ws.rs.core.Response;
+import jakarta.ws.rs.sse.OutboundSseEvent;
+import jakarta.ws.rs.sse.Sse;
+import jakarta.ws.rs.sse.SseEventSink;
 import jakarta.annotation.PostConstruct;
+import java.io.InputStream;
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Logger;
 import java.util.logging.Level;
 
@@ -21,12 +49,46 @@ public class MathRestService {
     
     private static final Logger logger = Logger.getLogger(MathRestService.class.getName());
     
+    // A feed connection that cannot take an event within this time is closed
+    private static final long FEED_SEND_TIMEOUT_MILLIS = Long.getLong("hissab.trace.feed.sendTimeoutMillis", 5000);
+    
+    // Readiness is DOWN once the health snapshot misses this many milliseconds of HealthEJB's
+    // 5-second refresh, three periods by default
+    private static final long HEALTH_SNAPSHOT_MAX_AGE_MILLIS = Long.getLong("hissab.health.maxSnapshotAgeMillis", 15_000);
+    
     @EJB
     private CalculEJBLocal calculEJB;
     
     @EJB
     private TraceEJBLocal traceEJB;
     
+    @EJB
+    private HealthEJBLocal healthEJB;
+    
+    @EJB
+    private MetricsEJBLocal metricsEJB;
+    
+    @EJB
+    private TraceRetentionEJBLocal traceRetentionEJB;
+    
+    @EJB
+    private TraceArchiveEJBLocal traceArchiveEJB;
+    
+    @EJB
+    private TraceDictionaryEJBLocal traceDictionaryEJB;
+    
+    @EJB
+    private TraceQueryPlanEJBLocal traceQueryPlanEJB;
+    
+    @EJB
+    private TraceCacheEJBLocal traceCacheEJB;
+    
+    @EJB
+    private TraceReplicaEJBLocal traceReplicaEJB;
+    
+    @EJB
+    private TraceFeedEJBLocal traceFeedEJB;
+    
     @PostConstruct
     public void init() {
         logger.log(Level.INFO, "MathRestService initialized for GlassFish 7");
@@ -74,6 +136,11 @@ public class MathRestService {
             logger.log(Level.INFO, "Successfully calculated: " + expression + " = " + result);
             return Response.ok(result).build();
             
+        } catch (DeadlineExceededException e) {
+            // The client has already given up; skip the error trace as well
+            logger.log(Level.FINE, "REST request abandoned: " + e.getMessage());
+            return Response.status(Response.Status.GATEWAY_TIMEOUT).entity("Error: " + e.getMessage()).build();
+            
         } catch (Exception e) {
             String errorMsg = "Error: Calculation failed - " + e.getMessage();
             logger.log(Level.SEVERE, "Error processing calculation request", e);
@@ -92,32 +159,248 @@ public class MathRestService {
     }
     
     /**
-     * Health check endpoint
+     * Calculate mathematical expression from an uploaded image (multipart/form-data, part "image")
+     */
+    @POST
+    @Path("/calculate/image")
+    @Consumes(MediaType.MULTIPART_FORM_DATA)
+    @Produces(MediaType.TEXT_PLAIN)
+    public Response calculateFromImage(@FormParam("image") EntityPart image) {
+        // UploadLimitFilter has bounded the whole body; the copy below bounds the image part itself
+        if (image == null) {
+            return Response.status(Response.Status.BAD_REQUEST).entity("Error: Image part is required").build();
+        }
+        
+        if (calculEJB == null) {
+            String errorMsg = "Error: CalculEJB is not available";
+            logger.log(Level.SEVERE, errorMsg);
+            return Response.status(Response.Status.INTERNAL_SERVER_ERROR).entity(errorMsg).build();
+        }
+        
+        try (InputStream content = image.getContent();
+             ImageUploadBuffer upload = ImageUploadBuffer.read(content, ImageUploadBuffer.MAX_IMAGE_BYTES)) {
+            
+            if (upload.size() == 0) {
+                return Response.status(Response.Status.BAD_REQUEST).entity("Error: Image is empty").build();
+            }
+            logger.log(Level.INFO, "REST: Received image of " + upload.size() + " bytes");
+            
+            // Simulate OCR processing
+            String expression = SimulatedOcr.recognize(upload.size());
+            String result = calculEJB.evaluateExpression(expression);
+            
+            try {
+                if (traceEJB != null) {
+                    traceEJB.logTrace(expression, result, TraceSource.OCR);
+                }
+            } catch (Exception e) {
+                logger.log(Level.WARNING, "Failed to log OCR trace (calculation still succeeded): " + e.getMessage());
+            }
+            
+            return Response.ok("OCR Result: " + expression + " = " + result).build();
+            
+        } catch (ImageUploadBuffer.ImageTooLargeException e) {
+            return Response.status(Response.Status.REQUEST_ENTITY_TOO_LARGE).entity("Error: " + e.getMessage()).build();
+            
+        } catch (DeadlineExceededException e) {
+            logger.log(Level.FINE, "REST image request abandoned: " + e.getMessage());
+            return Response.status(Response.Status.GATEWAY_TIMEOUT).entity("Error: " + e.getMessage()).build();
+            
+        } catch (Exception e) {
+            logger.log(Level.SEVERE, "Error processing image calculation request", e);
+            return Response.status(Response.Status.INTERNAL_SERVER_ERROR)
+                          .entity("Error: Image calculation failed - " + e.getMessage())
+                          .build();
+        }
+    }
+    
+    /**
+     * Health check endpoint (served from the cached health snapshot)
      */
     @GET
     @Path("/health")
     @Produces(MediaType.TEXT_PLAIN)
     public Response healthCheck() {
+        if (healthEJB == null) {
+            return Response.status(Response.Status.SERVICE_UNAVAILABLE)
+                          .entity("Service health check failed: HealthEJB is not available")
+                          .build();
+        }
+        
+        HealthSnapshot snapshot = healthEJB.getSnapshot();
+        Response.Status status = snapshot.isReady() ? Response.Status.OK : Response.Status.SERVICE_UNAVAILABLE;
+        return Response.status(status).entity(snapshot.toString()).build();
+    }
+    
+    /**
+     * Liveness probe: the JVM and JAX-RS runtime are answering; touches no EJB
+     */
+    @GET
+    @Path("/health/live")
+    public Response liveness() {
+        return Response.ok(Json.createObjectBuilder().add("status", "UP").build()).build();
+    }
+    
+    /**
+     * Readiness probe: structured view of the last background health snapshot
+     */
+    @GET
+    @Path("/health/ready")
+    public Response readiness() {
+        if (healthEJB == null) {
+            return Response.status(Response.Status.SERVICE_UNAVAILABLE)
+                          .entity(Json.createObjectBuilder()
+                                      .add("status", HealthSnapshot.Status.DOWN.name())
+                                      .add("detail", "HealthEJB is not available")
+                                      .build())
+                          .build();
+        }
+        
+        HealthSnapshot snapshot = healthEJB.getSnapshot();
+        JsonObjectBuilder components = Json.createObjectBuilder();
+        for (Map.Entry<String, HealthSnapshot.Component> entry : snapshot.getComponents().entrySet()) {
+            JsonObjectBuilder component = Json.createObjectBuilder()
+                .add("status", entry.getValue().getStatus().name());
+            if (entry.getValue().getDetail() != null) {
+                component.add("detail", entry.getValue().getDetail());
+            }
+            components.add(entry.getKey(), component);
+        }
+        
+        // A snapshot the schedule has stopped refreshing says nothing about the server now
+        long ageMillis = System.currentTimeMillis() - snapshot.getCheckedAtMillis();
+        boolean stale = ageMillis > HEALTH_SNAPSHOT_MAX_AGE_MILLIS;
+        JsonObjectBuilder body = Json.createObjectBuilder()
+            .add("status", stale ? HealthSnapshot.Status.DOWN.name() : snapshot.getStatus().name())
+            .add("checkedAt", Instant.ofEpochMilli(snapshot.getCheckedAtMillis()).toString())
+            .add("ageMillis", ageMillis)
+            .add("components", components)
+            .add("databaseLoad", Json.createObjectBuilder()
+                .add("operationsInFlight", snapshot.getDatabaseOperationsInFlight())
+                .add("limit", snapshot.getDatabaseOperationsLimit())
+                .add("load", snapshot.getDatabaseLoad()))
+            .add("traceWritesInFlight", snapshot.getTraceWritesInFlight());
+        if (stale) {
+            body.add("detail", "Health snapshot not refreshed for " + ageMillis + " ms");
+        }
+        
+        Response.Status status = snapshot.isReady() && !stale ? Response.Status.OK : Response.Status.SERVICE_UNAVAILABLE;
+        return Response.status(status).entity(body.build()).build();
+    }
+    
+    /**
+     * Operational counters, including work abandoned because its deadline had passed
+     */
+    @GET
+    @Path("/metrics")
+    public Response metrics() {
+        if (metricsEJB == null) {
+            return Response.status(Response.Status.SERVICE_UNAVAILABLE).build();
+        }
+        
+        return Response.ok(Json.createObjectBuilder()
+            .add("databaseOperationsInFlight", metricsEJB.getDatabaseOperationsInFlight())
+            .add("traceWritesInFlight", metricsEJB.getTraceWritesInFlight())
+            .add("expiredEvaluations", metricsEJB.getExpiredEvaluations())
+            .add("expiredTraceWrites", metricsEJB.getExpiredTraceWrites())
+            .add("traceRetention", traceRetentionEJB != null ? traceRetentionEJB.getRetentionReport() : "unavailable")
+            .add("traceArchive", traceArchiveEJB != null ? traceArchiveEJB.getArchiveReport() : "unavailable")
+            .add("traceDictionary", traceDictionaryEJB != null ? traceDictionaryEJB.getDictionaryReport() : "unavailable")
+            .add("traceQueryPlans", traceQueryPlanEJB != null ? traceQueryPlanEJB.getQueryPlanReport() : "unavailable")
+            .add("traceCache", traceCacheEJB != null ? traceCacheEJB.getCacheReport() : "unavailable")
+            .add("traceReplica", traceReplicaEJB != null ? traceReplicaEJB.getReplicaReport() : "unavailable")
+            .add("traceFeed", traceFeedEJB != null ? traceFeedEJB.getFeedReport() : "unavailable")
+            .add("sessions", ExerciseSessionEndpoint.getSessionReport())
+            .add("compression", CompressionFilter.getCompressionReport())
+            .build()).build();
+    }
+    
+    /**
+     * Checks the trace query plans now; 500 while any query sorts or scans the trace table,
+     * so a deployment pipeline can fail on a plan regression
+     */
+    @GET
+    @Path("/query-plans")
+    public Response queryPlans() {
+        if (traceQueryPlanEJB == null) {
+            return Response.status(Response.Status.SERVICE_UNAVAILABLE).build();
+        }
+        
         try {
-            // Check if EJB is injected
-            if (calculEJB == null) {
-                return Response.status(Response.Status.SERVICE_UNAVAILABLE)
-                              .entity("Service health check failed: CalculEJB is not available")
-                              .build();
+            List<String> problems = traceQueryPlanEJB.checkQueryPlans();
+            JsonArrayBuilder list = Json.createArrayBuilder();
+            problems.forEach(list::add);
+            return Response.status(problems.isEmpty() ? Response.Status.OK : Response.Status.INTERNAL_SERVER_ERROR)
+                .entity(Json.createObjectBuilder()
+                    .add("report", traceQueryPlanEJB.getQueryPlanReport())
+                    .add("problems", list)
+                    .build())
+                .build();
+            
+        } catch (Exception e) {
+            logger.log(Level.WARNING, "Query plan check failed", e);
+            return Response.status(Response.Status.SERVICE_UNAVAILABLE).entity(Json.createObjectBuilder()
+                .add("report", traceQueryPlanEJB.getQueryPlanReport()).build()).build();
+        }
+    }
+    
+    /**
+     * Live feed of new traces as server-sent events, one "trace" event per trace, pushed by
+     * TraceFeedEJB after each write commits. A connection that falls behind is closed; the
+     * browser's EventSource reconnects and the dashboard reloads the recent traces.
+     */
+    @GET
+    @Path("/traces/feed")
+    @Produces(MediaType.SERVER_SENT_EVENTS)
+    public void traceFeed(@Context SseEventSink sink, @Context Sse sse) {
+        if (traceFeedEJB == null) {
+            throw new ServiceUnavailableException("TraceFeedEJB is not available");
+        }
+        
+        TraceFeedListener listener = new TraceFeedListener() {
+            @Override
+            public void onTraces(List<TraceRow> traces) {
+                if (traces.isEmpty()) {
+                    send(sse.newEventBuilder().comment("heartbeat").build());
+                }
+                for (TraceRow trace : traces) {
+                    send(sse.newEventBuilder()
+                        .name("trace")
+                        .id(String.valueOf(trace.getId()))
+                        .data(Json.createObjectBuilder()
+                            .add("id", trace.getId())
+                            .add("timestamp", trace.getTimestamp().toInstant().toString())
+                            .add("source", trace.getSource().name())
+                            .add("expression", trace.getExpression())
+                            .add("result", trace.getResult())
+                            .build()
+                            .toString())
+                        .build());
+                }
             }
             
-            // Test basic functionality
-            String testResult = calculEJB.evaluateExpression("1+1");
-            logger.log(Level.INFO, "Health check successful");
-            String healthMsg = "Service is healthy. Test calculation: 1+1 = " + testResult;
-            return Response.ok(healthMsg).build();
+            @Override
+            public void onDropped() {
+                sink.close();
+            }
             
-        } catch (Exception e) {
-            logger.log(Level.SEVERE, "Health check failed", e);
-            return Response.status(Response.Status.SERVICE_UNAVAILABLE)
-                          .entity("Service health check failed: " + e.getMessage())
-                          .build();
+            private void send(OutboundSseEvent event) {
+                try {
+                    if (sink.isClosed()) {
+                        throw new IllegalStateException("Trace feed connection closed");
+                    }
+                    sink.send(event).toCompletableFuture().get(FEED_SEND_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+                } catch (Exception e) {
+                    // Gone or stalled; TraceFeedEJB unsubscribes a listener that throws
+                    sink.close();
+                    throw new IllegalStateException("Trace feed connection failed", e);
+                }
+            }
+        };
+        if (!traceFeedEJB.subscribe(listener)) {
+            throw new ServiceUnavailableException("Too many trace feed connections");
         }
+        logger.log(Level.FINE, "Trace feed connection opened");
     }
     
     /**
@@ -131,7 +414,13 @@ public class MathRestService {
         info.append("HISSAB Math Learning REST API\n");
         info.append("Available endpoints:\n");
         info.append("POST /api/math/calculate - Calculate mathematical expression (text/plain)\n");
+        info.append("POST /api/math/calculate/image - Calculate expression from an image (multipart/form-data, part 'image')\n");
         info.append("GET /api/math/health - Health check\n");
+        info.append("GET /api/math/health/live - Liveness probe (JSON)\n");
+        info.append("GET /api/math/health/ready - Readiness probe with component status (JSON)\n");
+        info.append("GET /api/math/metrics - Operational counters (JSON)\n");
+        info.append("GET /api/math/query-plans - Check the trace query plans, 500 while one is flagged (JSON)\n");
+        info.append("GET /api/math/traces/feed - New traces as they are logged (text/event-stream)\n");
         info.append("GET /api/math/info - This information\n");
         info.append("\nExample usage:\n");
         info.append("curl -X POST -H \"Content-Type: text/plain\" -d \"2+3*4\" http://localhost:8085/hissab-web-1.0-SNAPSHOT/api/math/calculate\n");
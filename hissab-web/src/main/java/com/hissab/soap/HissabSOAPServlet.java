@@ -1,7 +1,15 @@
 package com.hissab.soap;
 
 import com.hissab.ejb.CalculEJBLocal;
+import com.hissab.ejb.DeadlineExceededException;
+import com.hissab.ejb.HealthEJBLocal;
 import com.hissab.ejb.TraceEJBLocal;
+import com.hissab.entity.Trace;
+import com.hissab.entity.TraceSource;
+import com.hissab.filter.AdmissionControlFilter;
+import com.hissab.service.BoundedInputStream;
+import com.hissab.service.ImageUploadBuffer;
+import com.hissab.service.SimulatedOcr;
 
 import jakarta.servlet.ServletException;
 import jakarta.servlet.annotation.WebServlet;
@@ -14,13 +22,24 @@ import javax.naming.InitialContext;
 import javax.naming.NamingException;
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
 import org.w3c.dom.Node;
 import org.w3c.dom.NodeList;
+import org.xml.sax.SAXException;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.PrintWriter;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
 import java.util.logging.Logger;
 import java.util.logging.Level;
 
@@ -41,9 +60,37 @@ public class HissabSOAPServlet extends HttpServlet {
     // Use JNDI lookup instead of @EJB to avoid classloader conflicts
     private CalculEJBLocal calculEJB;
     private TraceEJBLocal traceEJB;
+    private HealthEJBLocal healthEJB;
     
     private static final String TARGET_NAMESPACE = "http://service.hissab.com/";
     private static final String SERVICE_NAME = "HissabService";
+    private static final String XOP_NAMESPACE = "http://www.w3.org/2004/08/xop/include";
+    
+    // Inline base64 grows the image by a third; leave room for the envelope itself
+    private static final long MAX_SOAP_REQUEST_BYTES = ImageUploadBuffer.MAX_IMAGE_BYTES * 4 / 3 + 64 * 1024;
+    
+    // Largest logTraces batch accepted in one request; clients send 100 at a time
+    private static final int MAX_TRACE_BATCH = 500;
+    
+    // Width of the trace.client_key column; clients send UUIDs
+    private static final int MAX_TRACE_ID_LENGTH = 36;
+    
+    // Width of the trace_text.text column, in characters
+    private static final int MAX_TRACE_TEXT_LENGTH = 255;
+    
+    // JNDI name prefixes tried in order; the first one that resolves is tried first for later beans
+    private static final String[] JNDI_PREFIXES = {"java:app/hissab-ejb/", "java:module/", "ejb/"};
+    
+    // Sample envelope parsed at startup so the XML parser classes are loaded before the first request
+    private static final String WARMUP_ENVELOPE =
+        "<soap:Envelope xmlns:soap=\"http://schemas.xmlsoap.org/soap/envelope/\" xmlns:tns=\"" + TARGET_NAMESPACE + "\">"
+        + "<soap:Body><tns:healthCheck/></soap:Body></soap:Envelope>";
+    
+    // The factory is built once; DocumentBuilders are not thread-safe, so each thread reuses its own
+    private static final DocumentBuilderFactory DOCUMENT_BUILDER_FACTORY = createDocumentBuilderFactory();
+    private static final ThreadLocal<DocumentBuilder> DOCUMENT_BUILDER = new ThreadLocal<>();
+    
+    private int preferredJndiPrefix = 0;
     
     @PostConstruct
     public void init() {
@@ -52,43 +99,9 @@ public class HissabSOAPServlet extends HttpServlet {
         // Use JNDI lookup for EJBs to avoid injection conflicts
         try {
             InitialContext ctx = new InitialContext();
-            
-            // Try different JNDI names for EJB lookup
-            try {
-                calculEJB = (CalculEJBLocal) ctx.lookup("java:app/hissab-ejb/CalculEJB");
-                logger.log(Level.INFO, "CalculEJB lookup successful using java:app");
-            } catch (NamingException e) {
-                try {
-                    calculEJB = (CalculEJBLocal) ctx.lookup("java:module/CalculEJB");
-                    logger.log(Level.INFO, "CalculEJB lookup successful using java:module");
-                } catch (NamingException e2) {
-                    try {
-                        calculEJB = (CalculEJBLocal) ctx.lookup("ejb/CalculEJB");
-                        logger.log(Level.INFO, "CalculEJB lookup successful using ejb/");
-                    } catch (NamingException e3) {
-                        logger.log(Level.SEVERE, "CalculEJB lookup failed with all JNDI names", e3);
-                    }
-                }
-            }
-            
-            // Try different JNDI names for TraceEJB lookup
-            try {
-                traceEJB = (TraceEJBLocal) ctx.lookup("java:app/hissab-ejb/TraceEJB");
-                logger.log(Level.INFO, "TraceEJB lookup successful using java:app");
-            } catch (NamingException e) {
-                try {
-                    traceEJB = (TraceEJBLocal) ctx.lookup("java:module/TraceEJB");
-                    logger.log(Level.INFO, "TraceEJB lookup successful using java:module");
-                } catch (NamingException e2) {
-                    try {
-                        traceEJB = (TraceEJBLocal) ctx.lookup("ejb/TraceEJB");
-                        logger.log(Level.INFO, "TraceEJB lookup successful using ejb/");
-                    } catch (NamingException e3) {
-                        logger.log(Level.SEVERE, "TraceEJB lookup failed with all JNDI names", e3);
-                    }
-                }
-            }
-            
+            calculEJB = lookupEjb(ctx, CalculEJBLocal.class, "CalculEJB");
+            traceEJB = lookupEjb(ctx, TraceEJBLocal.class, "TraceEJB");
+            healthEJB = lookupEjb(ctx, HealthEJBLocal.class, "HealthEJB");
         } catch (NamingException e) {
             logger.log(Level.SEVERE, "Failed to initialize JNDI context", e);
         }
@@ -99,6 +112,56 @@ public class HissabSOAPServlet extends HttpServlet {
         if (traceEJB == null) {
             logger.log(Level.WARNING, "TraceEJB lookup failed");
         }
+        
+        // Pre-load the XML parser on the startup thread instead of the first request
+        try {
+            parseDocument(WARMUP_ENVELOPE.getBytes(StandardCharsets.UTF_8));
+            logger.log(Level.INFO, "SOAP XML parser warmed up");
+        } catch (Exception e) {
+            logger.log(Level.WARNING, "SOAP XML parser warm-up failed", e);
+        }
+    }
+    
+    /**
+     * Looks up an EJB, starting with the JNDI prefix that worked for the previous bean
+     */
+    private <T> T lookupEjb(InitialContext ctx, Class<T> type, String beanName) {
+        NamingException lastError = null;
+        for (int attempt = 0; attempt < JNDI_PREFIXES.length; attempt++) {
+            int prefixIndex = (preferredJndiPrefix + attempt) % JNDI_PREFIXES.length;
+            String name = JNDI_PREFIXES[prefixIndex] + beanName;
+            try {
+                T bean = type.cast(ctx.lookup(name));
+                preferredJndiPrefix = prefixIndex;
+                logger.log(Level.INFO, beanName + " lookup successful using " + name);
+                return bean;
+            } catch (NamingException e) {
+                lastError = e;
+            }
+        }
+        logger.log(Level.SEVERE, beanName + " lookup failed with all JNDI names", lastError);
+        return null;
+    }
+    
+    private static DocumentBuilderFactory createDocumentBuilderFactory() {
+        DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+        factory.setNamespaceAware(true);
+        return factory;
+    }
+    
+    private static DocumentBuilder documentBuilder() throws ParserConfigurationException {
+        DocumentBuilder builder = DOCUMENT_BUILDER.get();
+        if (builder == null) {
+            builder = DOCUMENT_BUILDER_FACTORY.newDocumentBuilder();
+            DOCUMENT_BUILDER.set(builder);
+        } else {
+            builder.reset();
+        }
+        return builder;
+    }
+    
+    private static Document parseDocument(byte[] xml) throws Exception {
+        return documentBuilder().parse(new ByteArrayInputStream(xml));
     }
     
     @Override
@@ -125,6 +188,7 @@ public class HissabSOAPServlet extends HttpServlet {
             out.println("<ul>");
             out.println("<li>calculateFromString(expression)</li>");
             out.println("<li>calculateFromImage(image)</li>");
+            out.println("<li>logTraces(trace*)</li>");
             out.println("<li>healthCheck()</li>");
             out.println("</ul>");
             out.println("</body></html>");
@@ -137,15 +201,19 @@ public class HissabSOAPServlet extends HttpServlet {
         
         logger.log(Level.INFO, "Received SOAP request");
         
+        // Reject oversized uploads from the Content-Length alone, before reading the body
+        if (request.getContentLengthLong() > MAX_SOAP_REQUEST_BYTES) {
+            response.setStatus(HttpServletResponse.SC_REQUEST_ENTITY_TOO_LARGE);
+            response.setContentType("text/xml; charset=UTF-8");
+            response.getWriter().write(generateSOAPFault("Client",
+                "Request exceeds the maximum size of " + MAX_SOAP_REQUEST_BYTES + " bytes"));
+            return;
+        }
+        
+        SOAPRequestInfo requestInfo = null;
         try {
-            // Parse SOAP request
-            DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
-            factory.setNamespaceAware(true);
-            DocumentBuilder builder = factory.newDocumentBuilder();
-            Document soapRequest = builder.parse(request.getInputStream());
-            
-            // Extract operation and parameters
-            SOAPRequestInfo requestInfo = parseSoapRequest(soapRequest);
+            // Parse SOAP request (plain envelope or MTOM/XOP multipart)
+            requestInfo = readSoapRequest(request);
             
             // Process request and generate response
             String result = processSOAPRequest(requestInfo);
@@ -157,6 +225,26 @@ public class HissabSOAPServlet extends HttpServlet {
             response.setContentType("text/xml; charset=UTF-8");
             response.getWriter().write(soapResponse);
             
+        } catch (DeadlineExceededException e) {
+            logger.log(Level.FINE, "SOAP request abandoned: " + e.getMessage());
+            response.setStatus(HttpServletResponse.SC_GATEWAY_TIMEOUT);
+            response.setContentType("text/xml; charset=UTF-8");
+            response.getWriter().write(generateSOAPFault("Server", e.getMessage()));
+            
+        } catch (ImageUploadBuffer.ImageTooLargeException e) {
+            logger.log(Level.WARNING, "Rejected SOAP image upload: " + e.getMessage());
+            response.setStatus(HttpServletResponse.SC_REQUEST_ENTITY_TOO_LARGE);
+            response.setContentType("text/xml; charset=UTF-8");
+            response.getWriter().write(generateSOAPFault("Client", e.getMessage()));
+            
+        } catch (ClientFaultException | SAXException e) {
+            logger.log(Level.FINE, "Rejected SOAP request: " + e.getMessage());
+            // SOAP 1.1 sends every fault as 500; tell admission control this one is not congestion
+            request.setAttribute(AdmissionControlFilter.CLIENT_ERROR_ATTRIBUTE, Boolean.TRUE);
+            response.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+            response.setContentType("text/xml; charset=UTF-8");
+            response.getWriter().write(generateSOAPFault("Client", e.getMessage()));
+            
         } catch (Exception e) {
             logger.log(Level.SEVERE, "Error processing SOAP request", e);
             
@@ -165,6 +253,64 @@ public class HissabSOAPServlet extends HttpServlet {
             response.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
             response.setContentType("text/xml; charset=UTF-8");
             response.getWriter().write(faultResponse);
+            
+        } finally {
+            if (requestInfo != null && requestInfo.image != null) {
+                requestInfo.image.close();
+            }
+        }
+    }
+    
+    /**
+     * Reads the SOAP envelope and, for MTOM requests, streams the referenced attachment
+     * into a bounded buffer without base64 encoding or DOM materialization
+     */
+    private SOAPRequestInfo readSoapRequest(HttpServletRequest request) throws Exception {
+        // Chunked requests have no Content-Length; stop reading them at the same limit
+        InputStream body = new BoundedInputStream(request.getInputStream(), MAX_SOAP_REQUEST_BYTES);
+        String contentType = request.getContentType();
+        if (contentType == null || !contentType.toLowerCase(Locale.ROOT).startsWith("multipart/related")) {
+            return parseSoapRequest(parseEnvelope(body));
+        }
+        
+        String boundary = MimeMultipartReader.boundaryOf(contentType);
+        if (boundary == null) {
+            throw new ClientFaultException("multipart/related request without boundary");
+        }
+        
+        MimeMultipartReader reader = new MimeMultipartReader(body, boundary);
+        MimeMultipartReader.Part root = reader.nextPart();
+        if (root == null) {
+            throw new ClientFaultException("MTOM request without root part");
+        }
+        SOAPRequestInfo info = parseSoapRequest(parseEnvelope(root.getBody()));
+        
+        if (info.attachmentId != null) {
+            MimeMultipartReader.Part part;
+            while ((part = reader.nextPart()) != null) {
+                if (info.attachmentId.equals(part.getContentId())) {
+                    info.image = ImageUploadBuffer.read(part.getBody(), ImageUploadBuffer.MAX_IMAGE_BYTES);
+                    break;
+                }
+            }
+            if (info.image == null) {
+                throw new ClientFaultException("MTOM attachment not found: " + info.attachmentId);
+            }
+        }
+        return info;
+    }
+    
+    /**
+     * Parses an envelope, reporting a body over the size limit as such rather than as malformed XML
+     */
+    private Document parseEnvelope(InputStream in) throws Exception {
+        try {
+            return documentBuilder().parse(in);
+        } catch (SAXException e) {
+            if (e.getException() instanceof ImageUploadBuffer.ImageTooLargeException) {
+                throw e.getException();
+            }
+            throw e;
         }
     }
     
@@ -177,7 +323,7 @@ public class HissabSOAPServlet extends HttpServlet {
         // Find the operation in the SOAP body
         NodeList bodyList = soapDoc.getElementsByTagNameNS("http://schemas.xmlsoap.org/soap/envelope/", "Body");
         if (bodyList.getLength() == 0) {
-            throw new Exception("SOAP Body not found");
+            throw new ClientFaultException("SOAP Body not found");
         }
         
         Element body = (Element) bodyList.item(0);
@@ -193,8 +339,9 @@ public class HissabSOAPServlet extends HttpServlet {
                 if ("calculateFromString".equals(info.operation)) {
                     info.expression = getElementValue(operation, "expression");
                 } else if ("calculateFromImage".equals(info.operation)) {
-                    // For image, we'd normally handle binary data, but for simplicity, simulate
-                    info.imageSize = 1024; // Simulate image size
+                    readImageParameter(operation, info);
+                } else if ("logTraces".equals(info.operation)) {
+                    info.traces = readTraces(operation);
                 } else if ("healthCheck".equals(info.operation)) {
                     // No parameters needed
                 }
@@ -205,6 +352,106 @@ public class HissabSOAPServlet extends HttpServlet {
         return info;
     }
     
+    /**
+     * Reads the image parameter: either an xop:Include reference to an MTOM attachment
+     * or inline base64 text
+     */
+    private void readImageParameter(Element operation, SOAPRequestInfo info) throws IOException {
+        Element imageElement = findChildElement(operation, "imageData");
+        if (imageElement == null) {
+            imageElement = findChildElement(operation, "image");
+        }
+        if (imageElement == null) {
+            return;
+        }
+        
+        NodeList includes = imageElement.getElementsByTagNameNS(XOP_NAMESPACE, "Include");
+        if (includes.getLength() > 0) {
+            String href = ((Element) includes.item(0)).getAttribute("href");
+            String cid = href.startsWith("cid:") ? href.substring("cid:".length()) : href;
+            info.attachmentId = URLDecoder.decode(cid, StandardCharsets.UTF_8);
+            return;
+        }
+        
+        String base64 = imageElement.getTextContent();
+        if (base64 != null && !base64.trim().isEmpty()) {
+            // Four base64 characters carry three bytes; refuse before decoding a copy of an oversized image
+            if (base64CharacterCount(base64) / 4 * 3 > ImageUploadBuffer.MAX_IMAGE_BYTES + 2) {
+                throw new ImageUploadBuffer.ImageTooLargeException(ImageUploadBuffer.MAX_IMAGE_BYTES);
+            }
+            info.image = ImageUploadBuffer.of(Base64.getMimeDecoder().decode(base64.trim()),
+                                              ImageUploadBuffer.MAX_IMAGE_BYTES);
+        }
+    }
+    
+    /**
+     * Length of base64 text without the line breaks and indentation the MIME decoder skips
+     */
+    private static long base64CharacterCount(String base64) {
+        long count = 0;
+        for (int i = 0; i < base64.length(); i++) {
+            if (!Character.isWhitespace(base64.charAt(i))) {
+                count++;
+            }
+        }
+        return count;
+    }
+    
+    /**
+     * Reads the trace elements of a logTraces request: an optional idempotency key,
+     * expression, result and the epoch-millisecond timestamp at which the client evaluated it
+     */
+    private List<Trace> readTraces(Element operation) throws Exception {
+        NodeList traceElements = operation.getElementsByTagNameNS("*", "trace");
+        if (traceElements.getLength() > MAX_TRACE_BATCH) {
+            throw new ClientFaultException("At most " + MAX_TRACE_BATCH + " traces per request, got " + traceElements.getLength());
+        }
+        List<Trace> traces = new ArrayList<>(traceElements.getLength());
+        for (int i = 0; i < traceElements.getLength(); i++) {
+            Element traceElement = (Element) traceElements.item(i);
+            String expression = getElementValue(traceElement, "expression");
+            String result = getElementValue(traceElement, "result");
+            String timestamp = getElementValue(traceElement, "timestamp");
+            if (expression == null || result == null || timestamp == null) {
+                throw new ClientFaultException("Trace " + i + " needs expression, result and timestamp");
+            }
+            Date evaluatedAt;
+            try {
+                evaluatedAt = new Date(Long.parseLong(timestamp.trim()));
+            } catch (NumberFormatException e) {
+                throw new ClientFaultException("Trace " + i + " timestamp is not a number: " + timestamp);
+            }
+            if (isTooLong(expression.trim()) || isTooLong(result.trim())) {
+                throw new ClientFaultException("Trace " + i + " expression or result is longer than "
+                                               + MAX_TRACE_TEXT_LENGTH + " characters");
+            }
+            Trace trace = new Trace(expression.trim(), result.trim(), evaluatedAt);
+            trace.setSource(TraceSource.CLIENT);
+            String id = getElementValue(traceElement, "id");
+            if (id != null && !id.trim().isEmpty()) {
+                if (id.trim().length() > MAX_TRACE_ID_LENGTH) {
+                    throw new ClientFaultException("Trace " + i + " id is longer than " + MAX_TRACE_ID_LENGTH + " characters");
+                }
+                trace.setClientKey(id.trim());
+            }
+            traces.add(trace);
+        }
+        return traces;
+    }
+    
+    private static boolean isTooLong(String text) {
+        return text.codePointCount(0, text.length()) > MAX_TRACE_TEXT_LENGTH;
+    }
+    
+    private Element findChildElement(Element parent, String localName) {
+        NodeList nodeList = parent.getElementsByTagNameNS("*", localName);
+        if (nodeList.getLength() > 0) {
+            return (Element) nodeList.item(0);
+        }
+        nodeList = parent.getElementsByTagName(localName);
+        return nodeList.getLength() > 0 ? (Element) nodeList.item(0) : null;
+    }
+    
     private String getElementValue(Element parent, String elementName) {
         // First try with namespace
         NodeList nodeList = parent.getElementsByTagNameNS(TARGET_NAMESPACE, elementName);
@@ -235,19 +482,22 @@ public class HissabSOAPServlet extends HttpServlet {
                 return processCalculateFromString(requestInfo.expression);
                 
             case "calculateFromImage":
-                return processCalculateFromImage(requestInfo.imageSize);
+                return processCalculateFromImage(requestInfo.image);
+                
+            case "logTraces":
+                return processLogTraces(requestInfo.traces);
                 
             case "healthCheck":
                 return processHealthCheck();
                 
             default:
-                throw new Exception("Unknown operation: " + requestInfo.operation);
+                throw new ClientFaultException("Unknown operation: " + requestInfo.operation);
         }
     }
     
     private String processCalculateFromString(String expression) throws Exception {
         if (expression == null || expression.trim().isEmpty()) {
-            throw new Exception("Expression cannot be empty");
+            throw new ClientFaultException("Expression cannot be empty");
         }
         
         if (calculEJB == null) {
@@ -268,21 +518,23 @@ public class HissabSOAPServlet extends HttpServlet {
         return result;
     }
     
-    private String processCalculateFromImage(int imageSize) throws Exception {
+    private String processCalculateFromImage(ImageUploadBuffer image) throws Exception {
+        if (image == null || image.size() == 0) {
+            throw new ClientFaultException("Image data is required");
+        }
+        
         if (calculEJB == null) {
             throw new Exception("CalculEJB is not available");
         }
         
         // Simulate OCR processing
-        String[] expressions = {"2+3", "5*4", "10-3", "15/3", "2+3*4"};
-        String expression = expressions[imageSize % expressions.length];
+        String expression = SimulatedOcr.recognize(image.size());
         
         String result = calculEJB.evaluateExpression(expression);
         
-        // Log trace with OCR indication
         try {
             if (traceEJB != null) {
-                traceEJB.logTrace("[OCR] " + expression, result);
+                traceEJB.logTrace(expression, result, TraceSource.OCR);
             }
         } catch (Exception e) {
             logger.log(Level.WARNING, "Failed to log OCR trace", e);
@@ -291,13 +543,26 @@ public class HissabSOAPServlet extends HttpServlet {
         return "OCR Result: " + expression + " = " + result;
     }
     
+    private String processLogTraces(List<Trace> traces) throws Exception {
+        if (traces == null || traces.isEmpty()) {
+            return "0";
+        }
+        
+        if (traceEJB == null) {
+            throw new Exception("TraceEJB is not available");
+        }
+        
+        // Unlike the per-calculation trace, failures propagate: the client keeps the batch and retries
+        return String.valueOf(traceEJB.logTraces(traces));
+    }
+    
     private String processHealthCheck() throws Exception {
-        if (calculEJB == null) {
-            return "Service health check failed: CalculEJB is not available";
+        // Answer from the background snapshot; probes must not evaluate or hit the database
+        if (healthEJB == null) {
+            return "Service health check failed: HealthEJB is not available";
         }
         
-        String testResult = calculEJB.evaluateExpression("1+1");
-        return "Service is healthy. Test calculation: 1+1 = " + testResult;
+        return healthEJB.getSnapshot().toString();
     }
     
     private String generateSOAPResponse(String operation, String result) {
@@ -372,6 +637,29 @@ public class HissabSOAPServlet extends HttpServlet {
         wsdl.append("          </xsd:sequence>\n");
         wsdl.append("        </xsd:complexType>\n");
         wsdl.append("      </xsd:element>\n");
+        wsdl.append("      <xsd:element name=\"logTraces\">\n");
+        wsdl.append("        <xsd:complexType>\n");
+        wsdl.append("          <xsd:sequence>\n");
+        wsdl.append("            <xsd:element name=\"trace\" minOccurs=\"0\" maxOccurs=\"").append(MAX_TRACE_BATCH).append("\">\n");
+        wsdl.append("              <xsd:complexType>\n");
+        wsdl.append("                <xsd:sequence>\n");
+        wsdl.append("                  <xsd:element name=\"id\" type=\"xsd:string\" minOccurs=\"0\"/>\n");
+        wsdl.append("                  <xsd:element name=\"expression\" type=\"xsd:string\"/>\n");
+        wsdl.append("                  <xsd:element name=\"result\" type=\"xsd:string\"/>\n");
+        wsdl.append("                  <xsd:element name=\"timestamp\" type=\"xsd:long\"/>\n");
+        wsdl.append("                </xsd:sequence>\n");
+        wsdl.append("              </xsd:complexType>\n");
+        wsdl.append("            </xsd:element>\n");
+        wsdl.append("          </xsd:sequence>\n");
+        wsdl.append("        </xsd:complexType>\n");
+        wsdl.append("      </xsd:element>\n");
+        wsdl.append("      <xsd:element name=\"logTracesResponse\">\n");
+        wsdl.append("        <xsd:complexType>\n");
+        wsdl.append("          <xsd:sequence>\n");
+        wsdl.append("            <xsd:element name=\"return\" type=\"xsd:string\"/>\n");
+        wsdl.append("          </xsd:sequence>\n");
+        wsdl.append("        </xsd:complexType>\n");
+        wsdl.append("      </xsd:element>\n");
         wsdl.append("      <xsd:element name=\"healthCheck\">\n");
         wsdl.append("        <xsd:complexType/>\n");
         wsdl.append("      </xsd:element>\n");
@@ -398,6 +686,12 @@ public class HissabSOAPServlet extends HttpServlet {
         wsdl.append("  <message name=\"calculateFromImageResponse\">\n");
         wsdl.append("    <part name=\"parameters\" element=\"tns:calculateFromImageResponse\"/>\n");
         wsdl.append("  </message>\n");
+        wsdl.append("  <message name=\"logTracesRequest\">\n");
+        wsdl.append("    <part name=\"parameters\" element=\"tns:logTraces\"/>\n");
+        wsdl.append("  </message>\n");
+        wsdl.append("  <message name=\"logTracesResponse\">\n");
+        wsdl.append("    <part name=\"parameters\" element=\"tns:logTracesResponse\"/>\n");
+        wsdl.append("  </message>\n");
         wsdl.append("  <message name=\"healthCheckRequest\">\n");
         wsdl.append("    <part name=\"parameters\" element=\"tns:healthCheck\"/>\n");
         wsdl.append("  </message>\n");
@@ -415,6 +709,10 @@ public class HissabSOAPServlet extends HttpServlet {
         wsdl.append("      <input message=\"tns:calculateFromImageRequest\"/>\n");
         wsdl.append("      <output message=\"tns:calculateFromImageResponse\"/>\n");
         wsdl.append("    </operation>\n");
+        wsdl.append("    <operation name=\"logTraces\">\n");
+        wsdl.append("      <input message=\"tns:logTracesRequest\"/>\n");
+        wsdl.append("      <output message=\"tns:logTracesResponse\"/>\n");
+        wsdl.append("    </operation>\n");
         wsdl.append("    <operation name=\"healthCheck\">\n");
         wsdl.append("      <input message=\"tns:healthCheckRequest\"/>\n");
         wsdl.append("      <output message=\"tns:healthCheckResponse\"/>\n");
@@ -434,6 +732,11 @@ public class HissabSOAPServlet extends HttpServlet {
         wsdl.append("      <input><soap:body use=\"literal\"/></input>\n");
         wsdl.append("      <output><soap:body use=\"literal\"/></output>\n");
         wsdl.append("    </operation>\n");
+        wsdl.append("    <operation name=\"logTraces\">\n");
+        wsdl.append("      <soap:operation soapAction=\"\"/>\n");
+        wsdl.append("      <input><soap:body use=\"literal\"/></input>\n");
+        wsdl.append("      <output><soap:body use=\"literal\"/></output>\n");
+        wsdl.append("    </operation>\n");
         wsdl.append("    <operation name=\"healthCheck\">\n");
         wsdl.append("      <soap:operation soapAction=\"\"/>\n");
         wsdl.append("      <input><soap:body use=\"literal\"/></input>\n");
@@ -464,6 +767,18 @@ public class HissabSOAPServlet extends HttpServlet {
     private static class SOAPRequestInfo {
         String operation;
         String expression;
-        int imageSize;
+        // Content-ID of the MTOM attachment holding the image, if sent as XOP
+        String attachmentId;
+        ImageUploadBuffer image;
+        List<Trace> traces;
+    }
+    
+    /**
+     * A request the client got wrong; answered with a Client fault
+     */
+    private static class ClientFaultException extends Exception {
+        ClientFaultException(String message) {
+            super(message);
+        }
     }
 }
@@ -0,0 +1,222 @@
+package com.hissab.soap;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Streaming reader for multipart/related bodies (SOAP with MTOM/XOP attachments).
+ * Parts are exposed one at a time as streams that end at the next boundary, so
+ * attachments are never buffered or base64-encoded by the parser.
+ */
+class MimeMultipartReader {
+    
+    private static final int MAX_HEADER_BYTES = 16 * 1024;
+    
+    private final InputStream in;
+    private final byte[] delimiter;
+    private PartInputStream currentPart;
+    private boolean finished;
+    
+    /**
+     * @param body The request body
+     * @param boundary The boundary parameter of the Content-Type header
+     */
+    MimeMultipartReader(InputStream body, String boundary) {
+        // Every delimiter is CRLF--boundary; prefixing CRLF lets the first one match too
+        InputStream source = new SequenceInputStream(
+            new ByteArrayInputStream(new byte[] {'\r', '\n'}), body);
+        this.in = new BufferedInputStream(source, 16 * 1024);
+        this.delimiter = ("\r\n--" + boundary).getBytes(StandardCharsets.ISO_8859_1);
+    }
+    
+    /**
+     * Extracts the boundary parameter from a multipart Content-Type header
+     * @return The boundary, or null if absent
+     */
+    static String boundaryOf(String contentType) {
+        for (String param : contentType.split(";")) {
+            String trimmed = param.trim();
+            if (trimmed.toLowerCase(Locale.ROOT).startsWith("boundary=")) {
+                String value = trimmed.substring("boundary=".length()).trim();
+                if (value.length() > 1 && value.startsWith("\"") && value.endsWith("\"")) {
+                    value = value.substring(1, value.length() - 1);
+                }
+                return value;
+            }
+        }
+        return null;
+    }
+    
+    /**
+     * A single MIME part: lower-cased header names and a body stream
+     */
+    static class Part {
+        private final Map<String, String> headers;
+        private final InputStream body;
+        
+        Part(Map<String, String> headers, InputStream body) {
+            this.headers = headers;
+            this.body = body;
+        }
+        
+        String getHeader(String name) {
+            return headers.get(name.toLowerCase(Locale.ROOT));
+        }
+        
+        /**
+         * Content-ID without the surrounding angle brackets
+         */
+        String getContentId() {
+            String id = getHeader("Content-ID");
+            if (id == null) {
+                return null;
+            }
+            id = id.trim();
+            return id.startsWith("<") && id.endsWith(">") ? id.substring(1, id.length() - 1) : id;
+        }
+        
+        InputStream getBody() {
+            return body;
+        }
+    }
+    
+    /**
+     * Advances to the next part, skipping whatever is left of the current one
+     * @return The next part, or null after the closing boundary
+     */
+    Part nextPart() throws IOException {
+        if (finished) {
+            return null;
+        }
+        
+        if (currentPart == null) {
+            // Skip the preamble up to the first delimiter
+            currentPart = new PartInputStream();
+        }
+        currentPart.skipToEnd();
+        
+        // After a delimiter comes either "--" (close delimiter) or CRLF and the part headers
+        int first = in.read();
+        int second = in.read();
+        if (first == '-' && second == '-') {
+            finished = true;
+            return null;
+        }
+        if (first != '\r' || second != '\n') {
+            throw new IOException("Malformed multipart body: expected CRLF after boundary");
+        }
+        
+        Map<String, String> headers = readHeaders();
+        currentPart = new PartInputStream();
+        return new Part(headers, currentPart);
+    }
+    
+    private Map<String, String> readHeaders() throws IOException {
+        Map<String, String> headers = new LinkedHashMap<>();
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        int total = 0;
+        int b;
+        
+        while ((b = in.read()) != -1) {
+            if (++total > MAX_HEADER_BYTES) {
+                throw new IOException("Multipart part headers too large");
+            }
+            if (b == '\n') {
+                String text = line.toString(StandardCharsets.ISO_8859_1.name()).trim();
+                line.reset();
+                if (text.isEmpty()) {
+                    return headers;
+                }
+                int colon = text.indexOf(':');
+                if (colon > 0) {
+                    headers.put(text.substring(0, colon).trim().toLowerCase(Locale.ROOT),
+                                text.substring(colon + 1).trim());
+                }
+            } else {
+                line.write(b);
+            }
+        }
+        throw new IOException("Unexpected end of multipart body in part headers");
+    }
+    
+    /**
+     * Reads the current part until the next delimiter. A ring buffer of delimiter length
+     * holds the look-ahead; a full comparison only happens when the oldest byte is CR.
+     */
+    private class PartInputStream extends InputStream {
+        private final byte[] ring = new byte[delimiter.length];
+        private int start;
+        private int count;
+        private boolean ended;
+        
+        @Override
+        public int read() throws IOException {
+            if (ended) {
+                return -1;
+            }
+            
+            while (count < ring.length) {
+                int b = in.read();
+                if (b == -1) {
+                    throw new IOException("Unexpected end of multipart body");
+                }
+                ring[(start + count) % ring.length] = (byte) b;
+                count++;
+            }
+            
+            if (ring[start] == '\r' && matchesDelimiter()) {
+                ended = true;
+                return -1;
+            }
+            
+            int value = ring[start] & 0xFF;
+            start = (start + 1) % ring.length;
+            count--;
+            return value;
+        }
+        
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            if (length == 0) {
+                return 0;
+            }
+            int n = 0;
+            while (n < length) {
+                int b = read();
+                if (b == -1) {
+                    break;
+                }
+                buffer[offset + n++] = (byte) b;
+            }
+            return n == 0 ? -1 : n;
+        }
+        
+        private boolean matchesDelimiter() {
+            for (int i = 0; i < delimiter.length; i++) {
+                if (ring[(start + i) % ring.length] != delimiter[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        
+        void skipToEnd() throws IOException {
+            while (read() != -1) {
+                // discard
+            }
+        }
+        
+        @Override
+        public void close() throws IOException {
+            // Parsers close their input; the underlying request stream must stay open
+        }
+    }
+}